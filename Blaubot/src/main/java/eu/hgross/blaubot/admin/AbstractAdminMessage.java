@@ -40,6 +40,8 @@ public abstract class AbstractAdminMessage {
 
     public static final byte CLASSIFIER_DISCOVERED_DEVICE = 14;
 
+    public static final byte CLASSIFIER_REPLAY_SYNC = 15;
+
 	private byte classifier;
 
 	protected AbstractAdminMessage(BlaubotMessage message) {
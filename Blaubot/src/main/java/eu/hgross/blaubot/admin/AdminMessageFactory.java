@@ -44,6 +44,8 @@ public class AdminMessageFactory {
             return new CloseRelayConnectionAdminMessage(rawMessage);
         } else if(classifier == AbstractAdminMessage.CLASSIFIER_DISCOVERED_DEVICE) {
             return new DiscoveredDeviceAdminMessage(rawMessage);
+        } else if(classifier == AbstractAdminMessage.CLASSIFIER_REPLAY_SYNC) {
+            return new ReplaySyncAdminMessage(rawMessage);
         } else
 			throw new InvalidClassifierException("The given classifier " + classifier + " is unknown (-> invalid).");
 	}
@@ -67,7 +69,8 @@ public class AdminMessageFactory {
              classifier == AbstractAdminMessage.CLASSIFIER_SERVER_CONNECTION_DOWN ||
              classifier == AbstractAdminMessage.CLASSIFIER_SERVER_CONNECTION_RELAY_PAYLOAD ||
              classifier == AbstractAdminMessage.CLASSIFIER_CLOSE_SERVER_CONNECTION ||
-             classifier == AbstractAdminMessage.CLASSIFIER_DISCOVERED_DEVICE )) {
+             classifier == AbstractAdminMessage.CLASSIFIER_DISCOVERED_DEVICE ||
+             classifier == AbstractAdminMessage.CLASSIFIER_REPLAY_SYNC )) {
 			throw new InvalidClassifierException("The given classifier " + classifier + " is unknown (-> invalid).");
 		}
 	}
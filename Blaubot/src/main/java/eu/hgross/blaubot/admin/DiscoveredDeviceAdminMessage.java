@@ -22,6 +22,7 @@ public class DiscoveredDeviceAdminMessage extends AbstractAdminMessage {
         String uniqueDeviceId;
         State state;
         List<ConnectionMetaDataDTO> connectionMetaDataList;
+        int capabilityScore;
 
         @Override
         public boolean equals(Object o) {
@@ -66,6 +67,7 @@ public class DiscoveredDeviceAdminMessage extends AbstractAdminMessage {
      */
     public DiscoveredDeviceAdminMessage(AbstractBlaubotDeviceDiscoveryEvent deviceDiscoveryEvent) {
         this(deviceDiscoveryEvent.getRemoteDevice().getUniqueDeviceID(), deviceDiscoveryEvent.getRemoteDeviceState(), deviceDiscoveryEvent.getConnectionMetaData());
+        this.data.capabilityScore = deviceDiscoveryEvent.getCapabilityScore();
     }
 
 	public DiscoveredDeviceAdminMessage(BlaubotMessage rawMessage) {
@@ -83,7 +85,9 @@ public class DiscoveredDeviceAdminMessage extends AbstractAdminMessage {
      * @return the discovery event
      */
     public AbstractBlaubotDeviceDiscoveryEvent createDiscoveryEvent() {
-        return data.state.createDiscoveryEventForDevice(new BlaubotDevice(data.uniqueDeviceId), data.connectionMetaDataList);
+        final AbstractBlaubotDeviceDiscoveryEvent discoveryEvent = data.state.createDiscoveryEventForDevice(new BlaubotDevice(data.uniqueDeviceId), data.connectionMetaDataList);
+        discoveryEvent.setCapabilityScore(data.capabilityScore);
+        return discoveryEvent;
     }
 
     @Override
@@ -103,7 +107,7 @@ public class DiscoveredDeviceAdminMessage extends AbstractAdminMessage {
 
 	@Override
 	public String toString() {
-		return "DiscoveredDeviceAdminMessage [uniqueDeviceId=" + data.uniqueDeviceId + ", connectionMetaDataList=" + data.connectionMetaDataList + ", state=" + data.state + "]";
+		return "DiscoveredDeviceAdminMessage [uniqueDeviceId=" + data.uniqueDeviceId + ", connectionMetaDataList=" + data.connectionMetaDataList + ", state=" + data.state + ", capabilityScore=" + data.capabilityScore + "]";
 	}
 	
 	
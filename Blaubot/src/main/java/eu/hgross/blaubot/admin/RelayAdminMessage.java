@@ -10,6 +10,9 @@ import eu.hgross.blaubot.messaging.BlaubotMessage;
  * Relays a BlaubotMessage to the server.
  * Contains only the BlaubotMessage that has to be sent to the server
  *
+ * Note: the ServerConnectionManager relays messages with relay frames (@see {BlaubotMessage#createRelayFrame}),
+ * which are forwarded without decoding and encoding an admin message.
+ *
  * @author Henning Gross <mail.to@henning-gross.de>
  */
 public class RelayAdminMessage extends AbstractAdminMessage {
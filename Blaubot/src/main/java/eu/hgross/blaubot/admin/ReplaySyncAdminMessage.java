@@ -0,0 +1,109 @@
+package eu.hgross.blaubot.admin;
+
+import java.nio.ByteBuffer;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+
+/**
+ * Sent by the BlaubotChannelManager over a new connection to negotiate the replay of messages
+ * lost on a previous connection to the same device.
+ * Not dispatched by the king.
+ *
+ * Contains the epoch in which the sender numbers the messages it sends to the recipient and the epoch
+ * and highest sequence number of the messages the sender received from the recipient so far.
+ */
+public class ReplaySyncAdminMessage extends AbstractAdminMessage {
+    private long outboundEpoch;
+    private long inboundEpoch;
+    private int lastReceivedSequence;
+
+    /**
+     * @param outboundEpoch the epoch of the sequence numbers of messages sent to the recipient
+     * @param inboundEpoch the epoch of the sequence numbers received from the recipient, 0 if unknown
+     * @param lastReceivedSequence the newest sequence number received from the recipient in the inboundEpoch, 0 if none
+     */
+    public ReplaySyncAdminMessage(long outboundEpoch, long inboundEpoch, int lastReceivedSequence) {
+        super(CLASSIFIER_REPLAY_SYNC);
+        this.outboundEpoch = outboundEpoch;
+        this.inboundEpoch = inboundEpoch;
+        this.lastReceivedSequence = lastReceivedSequence;
+    }
+
+    public ReplaySyncAdminMessage(BlaubotMessage rawMessage) {
+        super(rawMessage);
+    }
+
+    @Override
+    protected byte[] payloadToBytes() {
+        ByteBuffer bb = ByteBuffer.allocate(8 + 8 + 4);
+        bb.order(BlaubotConstants.BYTE_ORDER);
+        bb.putLong(outboundEpoch);
+        bb.putLong(inboundEpoch);
+        bb.putInt(lastReceivedSequence);
+        return bb.array();
+    }
+
+    @Override
+    protected void setUpFromBytes(ByteBuffer messagePayloadAsBytes) {
+        messagePayloadAsBytes.order(BlaubotConstants.BYTE_ORDER);
+        this.outboundEpoch = messagePayloadAsBytes.getLong();
+        this.inboundEpoch = messagePayloadAsBytes.getLong();
+        this.lastReceivedSequence = messagePayloadAsBytes.getInt();
+    }
+
+    /**
+     * @return the epoch of the sequence numbers of messages the sender sends to the recipient
+     */
+    public long getOutboundEpoch() {
+        return outboundEpoch;
+    }
+
+    /**
+     * @return the epoch of the sequence numbers the sender received from the recipient, 0 if unknown
+     */
+    public long getInboundEpoch() {
+        return inboundEpoch;
+    }
+
+    /**
+     * @return the highest sequence number the sender received from the recipient in the inbound epoch
+     */
+    public int getLastReceivedSequence() {
+        return lastReceivedSequence;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("ReplaySyncAdminMessage{");
+        sb.append("outboundEpoch=").append(outboundEpoch);
+        sb.append(", inboundEpoch=").append(inboundEpoch);
+        sb.append(", lastReceivedSequence=").append(lastReceivedSequence);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        ReplaySyncAdminMessage that = (ReplaySyncAdminMessage) o;
+
+        if (outboundEpoch != that.outboundEpoch) return false;
+        if (inboundEpoch != that.inboundEpoch) return false;
+        if (lastReceivedSequence != that.lastReceivedSequence) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (int) (outboundEpoch ^ (outboundEpoch >>> 32));
+        result = 31 * result + (int) (inboundEpoch ^ (inboundEpoch >>> 32));
+        result = 31 * result + lastReceivedSequence;
+        return result;
+    }
+}
@@ -0,0 +1,119 @@
+package eu.hgross.blaubot.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A future for thready things running in the background (i.e. the shutdown of senders and receivers).
+ * Listeners are called once the action finished, listeners added afterwards are called immediately.
+ * It can't be cancelled.
+ */
+public class ActionFuture implements Future<Void> {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final List<IActionListener> listeners = new ArrayList<>();
+
+    /**
+     * @return a future that is already done
+     */
+    public static ActionFuture completed() {
+        final ActionFuture future = new ActionFuture();
+        future.complete();
+        return future;
+    }
+
+    /**
+     * Creates a future that is done when all the given futures are done.
+     *
+     * @param futures the futures
+     * @return the combined future
+     */
+    public static ActionFuture allOf(List<ActionFuture> futures) {
+        final ActionFuture all = new ActionFuture();
+        if (futures.isEmpty()) {
+            all.complete();
+            return all;
+        }
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (ActionFuture future : futures) {
+            future.addListener(new IActionListener() {
+                @Override
+                public void onFinished() {
+                    if (remaining.decrementAndGet() == 0) {
+                        all.complete();
+                    }
+                }
+            });
+        }
+        return all;
+    }
+
+    /**
+     * Marks the action as finished and calls the listeners. Subsequent calls are ignored.
+     */
+    public void complete() {
+        final List<IActionListener> toCall;
+        synchronized (listeners) {
+            if (latch.getCount() == 0) {
+                return;
+            }
+            latch.countDown();
+            toCall = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (IActionListener listener : toCall) {
+            listener.onFinished();
+        }
+    }
+
+    /**
+     * Adds a listener to be called when the action finished.
+     *
+     * @param listener the listener, called immediately by the calling thread if the action already finished
+     * @return this future
+     */
+    public ActionFuture addListener(IActionListener listener) {
+        synchronized (listeners) {
+            if (latch.getCount() != 0) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        listener.onFinished();
+        return this;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return null;
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return null;
+    }
+}
@@ -25,6 +25,8 @@ import eu.hgross.blaubot.core.statemachine.states.PeasantState;
 import eu.hgross.blaubot.core.statemachine.states.PeasantState.ConnectionAccomplishmentType;
 import eu.hgross.blaubot.messaging.BlaubotChannelManager;
 import eu.hgross.blaubot.messaging.IBlaubotChannel;
+import eu.hgross.blaubot.messaging.IChannelCodec;
+import eu.hgross.blaubot.messaging.ITypedBlaubotChannel;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -167,6 +169,16 @@ public class Blaubot implements Closeable {
         return serverConnector;
     }
 
+    /**
+     * The capabilities of this device, which decide (advertised as capability score) which device becomes king.
+     * Changes take effect the next time the device becomes free.
+     *
+     * @return the device capabilities
+     */
+    public DeviceCapabilities getDeviceCapabilities() {
+        return connectionStateMachine.getBeaconService().getDeviceCapabilities();
+    }
+
     /**
      * The device object identifying this blaubot instance.
      *
@@ -227,6 +239,19 @@ public class Blaubot implements Closeable {
         return channelManager.createOrGetChannel(channelId);
     }
 
+    /**
+     * Creates the channel with the given id and returns a typed view on it.
+     * The messages are encoded and decoded by the codec (@see {ChannelCodecs} for built-in codecs).
+     *
+     * @param channelId the channel's id
+     * @param codec the codec for the channel's messages
+     * @param <T> the type of the messages
+     * @return a typed channel object that is usable, when blaubot is connected.
+     */
+    public <T> ITypedBlaubotChannel<T> createChannel(short channelId, IChannelCodec<T> codec) {
+        return channelManager.createOrGetChannel(channelId, codec);
+    }
+
 
     /**
      * Adds an {@link ILifecycleListener} to this {@link Blaubot} instance.
@@ -12,6 +12,8 @@ import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeaconStore;
 import eu.hgross.blaubot.core.connector.IBlaubotConnector;
 import eu.hgross.blaubot.core.connector.IncompatibleBlaubotDeviceException;
 import eu.hgross.blaubot.core.statemachine.BlaubotAdapterHelper;
+import eu.hgross.blaubot.util.BlaubotEvents;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -84,6 +86,11 @@ public class BlaubotConnectionManager {
 		deviceConnections.add(connection);
 		connection.addConnectionListener(connectionListener);
 
+		final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+		if (recorder != null) {
+			recorder.onConnectionEstablished(connection.getRemoteDevice().getUniqueDeviceID(), connection.getClass().getSimpleName());
+		}
+
         // proxy event to our listeners
         for (IBlaubotConnectionManagerListener listener : connectionListeners) {
             listener.onConnectionEstablished(connection);
@@ -250,10 +257,17 @@ public class BlaubotConnectionManager {
 			Log.d(LOG_TAG, "Trying to connect to device " + device + " using exponential backoff and max " + maxRetries + " retries.");
 		}
 
+		final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+		final long connectStart = recorder != null ? System.nanoTime() : 0;
 		int outStandingRetries = maxRetries;
+		int attempts = 0;
 		while (outStandingRetries-- > 0) {
 			IBlaubotConnection conn = connectToBlaubotDevice(device, connectorForDevice);
+			attempts += 1;
 			if(conn != null) {
+				if (recorder != null) {
+					recorder.onConnectionAttempt(device.getUniqueDeviceID(), attempts, true, System.nanoTime() - connectStart);
+				}
 				return conn;
 			}
 			
@@ -273,6 +287,9 @@ public class BlaubotConnectionManager {
 		if(Log.logWarningMessages()) {
 			Log.w(LOG_TAG, "Connection to " + device + " could not be established after " + maxRetries + " retries.");
 		}
+		if (recorder != null) {
+			recorder.onConnectionAttempt(device.getUniqueDeviceID(), attempts, false, System.nanoTime() - connectStart);
+		}
 		return null;
 	}
 	
@@ -36,9 +36,14 @@ public class BlaubotConstants {
     public static final short DEFAULT_CHANNEL_ID = (short) 0;
 
     /**
-     * Current version of the message schema (used in every BlaubotMessage's header
+     * Current version of the message schema (used in every BlaubotMessage's header).
+     * Messages of other versions are rejected by the receiver.
+     *
+     * 0: the initial schema
+     * 1: the optional header extensions (trace, time to live, replay sequence)
+     * 2: the relay frames (@see {BlaubotMessageType#isRelayFrame})
      */
-    public static final byte MESSAGE_SCHEMA_VERSION = (byte) 0;
+    public static final byte MESSAGE_SCHEMA_VERSION = (byte) 2;
 
     /**
      * Name of the bonjour path for blaubot beacons
@@ -52,8 +57,8 @@ public class BlaubotConstants {
      * Every BlaubotMessage with bigger payload than this constant will be automatically chunked
      * by the MessageSenders and MessageReceivers.
      *
-     * Because of the RelayMessages, we need to subtract a full header length in bytes from the
-     * payload, because for BlaubotMessages wrapped by a RelayAdminMessage, the header will be
+     * Because of the relay frames, we need to subtract a full header length in bytes from the
+     * payload, because for BlaubotMessages relayed by a relay frame, the header will be
      * part of the payload.
      *
      * Additionally we need to subtract the AdminMessage header length which is one byte.
@@ -68,6 +73,7 @@ public class BlaubotConstants {
     public static final String ACCEPTOR_TYPE_SOCKET_TCP = "EthernetAcceptor_1.0";
     public static final String ACCEPTOR_TYPE_WIFI_AP = "WifiAcceptor_1.0";
     public static final String ACCEPTOR_TYPE_WEBSOCKET = "WebsocketAcceptor_1.0";
+    public static final String ACCEPTOR_TYPE_MOCK_NETWORK = "MockNetworkAcceptor_1.0";
 
     /**
      * The service name used for all RFCOMM based acceptors
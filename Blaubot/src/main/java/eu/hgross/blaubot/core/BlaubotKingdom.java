@@ -1,5 +1,10 @@
 package eu.hgross.blaubot.core;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
 import eu.hgross.blaubot.messaging.BlaubotChannelManager;
 import eu.hgross.blaubot.util.KingdomCensusLifecycleListener;
@@ -36,6 +41,17 @@ public class BlaubotKingdom {
      */
     private IBlaubotConnection managedConnection;
 
+    /**
+     * All connections to the king (the managed connection and additional uplinks of a multipath king).
+     */
+    private final List<IBlaubotConnection> uplinks = new CopyOnWriteArrayList<>();
+
+    /**
+     * Listeners to be informed once, when the kingdom disconnected.
+     */
+    private final List<IBlaubotConnectionListener> disconnectListeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean disconnected = new AtomicBoolean(false);
+
     /**
      * Listens to lifecycle events to have the kingdom's state at hand.
      */
@@ -47,11 +63,20 @@ public class BlaubotKingdom {
      * @param kingDevice the device object for the kingdom's king device
      */
     public BlaubotKingdom(IBlaubotDevice ownDevice, IBlaubotDevice kingDevice) {
+        this(ownDevice, kingDevice, null);
+    }
+
+    /**
+     * @param ownDevice the own device
+     * @param kingDevice the device object for the kingdom's king device
+     * @param channelExecutor the executor shared by the channel managers of all kingdoms or null to use a thread per channel
+     */
+    public BlaubotKingdom(IBlaubotDevice ownDevice, IBlaubotDevice kingDevice, ScheduledExecutorService channelExecutor) {
         this.ownDevice = ownDevice;
         this.kingDevice = kingDevice;
 
         // create components
-        this.channelManager = new BlaubotChannelManager(ownDevice.getUniqueDeviceID());
+        this.channelManager = new BlaubotChannelManager(ownDevice.getUniqueDeviceID(), channelExecutor);
         this.lifeCycleEventDispatcher = new LifeCycleEventDispatcher(ownDevice);
         this.kingdomCensusLifecycleListener = new KingdomCensusLifecycleListener(ownDevice);
 
@@ -74,15 +99,39 @@ public class BlaubotKingdom {
     protected void manageConnection(BlaubotKingdomConnection connection) {
         this.channelManager.setMaster(false);
         this.channelManager.activate();
-        // if the connection dies, we stop the channel manager
+        this.managedConnection = connection;
+        addUplink(connection);
+    }
+
+    /**
+     * Adds an additional connection to the king, over which the channel manager stripes its messages.
+     * The kingdom is disconnected, when the last of its connections is closed.
+     *
+     * @param connection the additional uplink of the king
+     */
+    protected void addUplink(BlaubotKingdomConnection connection) {
+        uplinks.add(connection);
+        // if the last connection dies, we stop the channel manager
         connection.addConnectionListener(new IBlaubotConnectionListener() {
             @Override
             public void onConnectionClosed(IBlaubotConnection connection) {
-                disconnectKingdom();
+                uplinks.remove(connection);
+                if (uplinks.isEmpty()) {
+                    disconnectKingdom();
+                }
             }
         });
-        this.managedConnection = connection;
         this.channelManager.addConnection(connection);
+        if (!connection.isConnected()) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return the number of connections to the king
+     */
+    public int getUplinkCount() {
+        return uplinks.size();
     }
 
     /**
@@ -90,8 +139,10 @@ public class BlaubotKingdom {
      * @param disconnectListener the listener
      */
     public void addDisconnectListener(IBlaubotConnectionListener disconnectListener) {
-        if (this.managedConnection != null) {
-            this.managedConnection.addConnectionListener(disconnectListener);
+        this.disconnectListeners.add(disconnectListener);
+        if (disconnected.get() && disconnectListeners.remove(disconnectListener)) {
+            // already disconnected
+            disconnectListener.onConnectionClosed(managedConnection);
         }
     }
 
@@ -99,11 +150,19 @@ public class BlaubotKingdom {
      * Closes all connections and releases resources regarding this kingdom.
      */
     public void disconnectKingdom() {
+        for (IBlaubotConnection uplink : uplinks) {
+            uplink.disconnect();
+        }
         if(this.managedConnection != null) {
             this.managedConnection.disconnect();
         }
         this.channelManager.reset();
         this.channelManager.deactivate();
+        if (disconnected.compareAndSet(false, true)) {
+            for (IBlaubotConnectionListener listener : disconnectListeners) {
+                listener.onConnectionClosed(managedConnection);
+            }
+        }
     }
 
     /**
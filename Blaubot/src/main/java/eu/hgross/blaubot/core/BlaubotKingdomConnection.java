@@ -17,12 +17,22 @@ import eu.hgross.blaubot.util.Log;
  * createFromInboundConnection (for the server side).
  * The Handshake will be at construction time on inbound connections.
  * On outbound connections the handshake is done automatically before the first byte is send.
+ *
+ * A king may connect to the server by multiple uplinks (@see {MultipathKingdomConnection}).
+ * The handshake of an additional uplink marks it, so that the server adds it to the existing kingdom
+ * instead of replacing the kingdom.
  */
 public class BlaubotKingdomConnection extends AbstractBlaubotConnection implements IBlaubotConnection {
     private static final String LOG_TAG = "BlaubotKingdomConnection";
+    /**
+     * Separates the king's unique device id from the uplink marker in the handshake.
+     */
+    private static final char UPLINK_MARKER_SEPARATOR = '\0';
+    private static final String UPLINK_MARKER = "uplink";
     private final IBlaubotConnection connection;
     private volatile boolean handshakeDone = false;
     private volatile boolean isOutboundConnection = false;
+    private volatile boolean isAdditionalUplink = false;
     private UUID uuid = UUID.randomUUID();
 
     /**
@@ -58,6 +68,20 @@ public class BlaubotKingdomConnection extends AbstractBlaubotConnection implemen
         return blaubotKingdomConnection;
     }
 
+    /**
+     * Creates an additional uplink of a king that is already connected to the server by another
+     * kingdom connection. Ensures to send the handshake before first write.
+     *
+     * @param connection the outbound connection to be wrapped
+     * @param kingUniqueDeviceId the current kingdom's king unique device id
+     * @return the kingdom connection
+     */
+    public static BlaubotKingdomConnection createAdditionalUplinkFromOutboundConnection(IBlaubotConnection connection, String kingUniqueDeviceId) {
+        BlaubotKingdomConnection blaubotKingdomConnection = createFromOutboundConnection(connection, kingUniqueDeviceId);
+        blaubotKingdomConnection.isAdditionalUplink = true;
+        return blaubotKingdomConnection;
+    }
+
     /**
      * Creates this conneciton upon another connection and awaits data to be sent instantly.
      * Should be used in a separate thread.
@@ -74,6 +98,11 @@ public class BlaubotKingdomConnection extends AbstractBlaubotConnection implemen
 
         BlaubotMessage message = BlaubotMessage.readFromBlaubotConnection(connection);
         String kingUniqueDeviceId = new String(message.getPayload(), BlaubotConstants.STRING_CHARSET);
+        final int separatorIndex = kingUniqueDeviceId.indexOf(UPLINK_MARKER_SEPARATOR);
+        if (separatorIndex >= 0) {
+            blaubotKingdomConnection.isAdditionalUplink = UPLINK_MARKER.equals(kingUniqueDeviceId.substring(separatorIndex + 1));
+            kingUniqueDeviceId = kingUniqueDeviceId.substring(0, separatorIndex);
+        }
         blaubotKingdomConnection.kingUniqueDeviceId = kingUniqueDeviceId;
 
         if (Log.logDebugMessages()) {
@@ -86,7 +115,7 @@ public class BlaubotKingdomConnection extends AbstractBlaubotConnection implemen
     /**
      * ensures that the handshake was done before the first byte is sent
      */
-    private synchronized void ensureHandshake() throws IOException {
+    synchronized void ensureHandshake() throws IOException {
         if(!isOutboundConnection) {
             return;
         }
@@ -96,7 +125,8 @@ public class BlaubotKingdomConnection extends AbstractBlaubotConnection implemen
             }
 
             // send uniqueDeviceId of the king
-            byte[] deviceIdBytes = kingUniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
+            final String handshake = isAdditionalUplink ? kingUniqueDeviceId + UPLINK_MARKER_SEPARATOR + UPLINK_MARKER : kingUniqueDeviceId;
+            byte[] deviceIdBytes = handshake.getBytes(BlaubotConstants.STRING_CHARSET);
             BlaubotMessage kingdomIdMessage = new BlaubotMessage();
             kingdomIdMessage.setPriority(BlaubotMessage.Priority.ADMIN);
             kingdomIdMessage.setPayload(deviceIdBytes);
@@ -186,6 +216,7 @@ public class BlaubotKingdomConnection extends AbstractBlaubotConnection implemen
         sb.append("connection=").append(connection);
         sb.append(", handshakeDone=").append(handshakeDone);
         sb.append(", isOutboundConnection=").append(isOutboundConnection);
+        sb.append(", isAdditionalUplink=").append(isAdditionalUplink);
         sb.append(", kingUniqueDeviceId='").append(kingUniqueDeviceId).append('\'');
         sb.append('}');
         return sb.toString();
@@ -250,6 +281,13 @@ public class BlaubotKingdomConnection extends AbstractBlaubotConnection implemen
         System.out.println("done");
     }
 
+    /**
+     * @return true, iff this connection is an additional uplink of an already connected king
+     */
+    public boolean isAdditionalUplink() {
+        return isAdditionalUplink;
+    }
+
     /**
      * Get the uniqueDeviceId of the king
      * @return
@@ -3,11 +3,20 @@ package eu.hgross.blaubot.core;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
@@ -18,6 +27,17 @@ import eu.hgross.blaubot.util.Log;
 
 /**
  * The Blaubot server
+ *
+ * Kings connect to the server via the acceptors and are managed as BlaubotKingdoms.
+ * The server is built to host many kingdoms:
+ * - the handshakes of accepted connections are read by an elastic pool of threads (with a short timeout)
+ * - the channels of all kingdoms are processed by a shared worker pool instead of a thread per channel
+ * - the kingdoms are registered under striped locks, so that connects and disconnects of different kings
+ *   don't block each other
+ *
+ * Per kingdom the server needs the two threads of the kingdom connection's message sender and receiver
+ * and less than 16 KB of heap (without queued messages; measured with 10000 mock kingdoms and one channel
+ * each by the ServerSoakHarness of blaubot-benchmarks).
  */
 public class BlaubotServer {
     private static final String LOG_TAG = "BlaubotServer";
@@ -25,12 +45,35 @@ public class BlaubotServer {
      * Max time for a kingdom to get disconnected after a call of disconnectKingdom() was made.
      */
     private static final long KINGDOM_DISCONNECT_TIMEOUT = 5000;
+    /**
+     * Max time for an accepted connection to send the kingdom handshake.
+     * Kings send the handshake with their first message, at the latest with the first keep alive.
+     */
+    private static final long HANDSHAKE_TIMEOUT = 5000;
+    /**
+     * The number of idle threads kept to read the handshakes of accepted connections.
+     * The pool grows beyond, if more handshakes are pending.
+     */
+    private static final int HANDSHAKE_THREADS = 16;
+    /**
+     * Max time an idle handshake thread above HANDSHAKE_THREADS is kept.
+     */
+    private static final long HANDSHAKE_THREAD_KEEP_ALIVE = 60000;
+    /**
+     * The number of threads shared by the channel managers of all kingdoms.
+     */
+    private static final int WORKER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /**
+     * The number of locks guarding the creation and removal of kingdoms.
+     */
+    private static final int CONNECTION_LOCK_STRIPES = 64;
+    private final IBlaubotDevice ownDevice;
     private final BlaubotConnectionManager connectionManager;
     /**
      * UniqueDeviceId -> BlaubotKingdom
      * The connected Kingdoms.
      */
-    private ConcurrentHashMap<String, BlaubotKingdom> kingdoms;
+    private final ConcurrentHashMap<String, BlaubotKingdom> kingdoms;
 
     /**
      * The attached acceptors over which connections from kingdoms are accepted
@@ -43,22 +86,47 @@ public class BlaubotServer {
     private final Object startStopMonitor = new Object();
 
     /**
-     * Lock for incoming connections regarding kingdom creation
+     * Striped locks for incoming connections regarding kingdom creation (@see {BlaubotServer#getConnectionLock})
+     */
+    private final Object[] connectionLocks;
+
+    /**
+     * Reads the handshakes of accepted connections.
+     */
+    private final ExecutorService handshakeExecutor;
+
+    /**
+     * Processes the channels of all kingdoms and the handshake timeouts.
      */
-    private final Object connectionLock = new Object();
+    private final ScheduledExecutorService workerExecutor;
 
     /**
      * Listener to get informed about connects and disconnects of kingdoms.
      */
     private CopyOnWriteArrayList<IBlaubotServerLifeCycleListener> blaubotServerLifeCycleListeners;
 
+    /**
+     * Counts connections and handshakes, aggregates the kingdom counters on scrape.
+     */
+    private final BlaubotServerMetrics metrics;
+
     /**
      * @param ownDevice the own device containing this server's uniqueDeviceId
      * @param acceptors acceptors
      */
     public BlaubotServer(final IBlaubotDevice ownDevice, IBlaubotConnectionAcceptor... acceptors) {
-        this.kingdoms = new ConcurrentHashMap<>();
+        this.ownDevice = ownDevice;
+        this.kingdoms = new ConcurrentHashMap<>(16, 0.75f, CONNECTION_LOCK_STRIPES);
+        this.connectionLocks = new Object[CONNECTION_LOCK_STRIPES];
+        for (int i = 0; i < CONNECTION_LOCK_STRIPES; i++) {
+            connectionLocks[i] = new Object();
+        }
+        // each handshake blocks its thread until it completes or times out, so pending handshakes get their own thread
+        // instead of waiting for a fixed number of (possibly stalled) readers
+        this.handshakeExecutor = new ThreadPoolExecutor(HANDSHAKE_THREADS, Integer.MAX_VALUE, HANDSHAKE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), new ServerThreadFactory("BlaubotServer-handshake"));
+        this.workerExecutor = Executors.newScheduledThreadPool(WORKER_THREADS, new ServerThreadFactory("BlaubotServer-worker"));
         this.blaubotServerLifeCycleListeners = new CopyOnWriteArrayList<>();
+        this.metrics = new BlaubotServerMetrics(this);
         this.acceptors = Arrays.asList(acceptors);
         this.connectionManager = new BlaubotConnectionManager(this.acceptors, new ArrayList<IBlaubotConnector>());
         this.connectionManager.addConnectionListener(new IBlaubotConnectionManagerListener() {
@@ -72,82 +140,178 @@ public class BlaubotServer {
 
             @Override
             public void onConnectionEstablished(final IBlaubotConnection connection) {
-                // create a thread waiting for the KngdomConnection to be created.
-                // the thread will terminate either with a successfully created kingdom connection or because the connection was lost
+                metrics.onConnectionAccepted();
+                final long acceptedAt = System.nanoTime();
+                // the handshake task will terminate either with a successfully created kingdom connection or because the connection was lost
                 // if successfully created, the connection will be used
-                new Thread(new Runnable() {
+                handshakeExecutor.execute(new Runnable() {
                     @Override
                     public void run() {
-                        try {
-                            final BlaubotKingdomConnection kingdomConnection = BlaubotKingdomConnection.createFromInboundConnection(connection);
-                            synchronized (connectionLock) {
-                                // check if a connection for this unique id exists
-                                final BlaubotKingdom blaubotKingdom = kingdoms.get(connection.getRemoteDevice().getUniqueDeviceID());
-                                if (blaubotKingdom != null) {
-                                    if (Log.logDebugMessages()) {
-                                        Log.d(LOG_TAG, "There was already a kingdom with king " + connection.getRemoteDevice().getUniqueDeviceID() + ". Disconnecting that kingdom first.");
-                                    }
-                                    final CountDownLatch discLatch = new CountDownLatch(1);
-                                    blaubotKingdom.addDisconnectListener(new IBlaubotConnectionListener() {
-                                        @Override
-                                        public void onConnectionClosed(IBlaubotConnection connection) {
-                                            discLatch.countDown();
-                                        }
-                                    });
-                                    blaubotKingdom.disconnectKingdom();
-                                    try {
-                                        boolean timedOut = !discLatch.await(KINGDOM_DISCONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
-                                        if (timedOut) {
-                                            throw new RuntimeException("Kingdom did not disconnect fast enough (max " + KINGDOM_DISCONNECT_TIMEOUT + " ms)");
-                                        }
-                                    } catch (InterruptedException e) {
-                                        e.printStackTrace();
-                                    }
-                                }
-
-                                // create and start management of BlaubotKingdom
-                                if (Log.logDebugMessages()) {
-                                    Log.d(LOG_TAG, "Got new connection and creating a new kingdom with king " + connection.getRemoteDevice().getUniqueDeviceID() + " ...");
-                                }
-                                IBlaubotDevice remoteKingDevice = kingdomConnection.getRemoteDevice();
-                                final String kingUniqueDeviceId = remoteKingDevice.getUniqueDeviceID();
-                                final BlaubotKingdom newKingdom = new BlaubotKingdom(ownDevice, remoteKingDevice);
-                                kingdomConnection.addConnectionListener(new IBlaubotConnectionListener() {
-                                    @Override
-                                    public void onConnectionClosed(IBlaubotConnection connection) {
-                                        synchronized (connectionLock) {
-                                            notifyKingdomDisconnected(newKingdom);
-                                            BlaubotKingdom curKingdom = kingdoms.get(kingUniqueDeviceId);
-                                            if (curKingdom == newKingdom) {
-                                                kingdoms.remove(kingUniqueDeviceId, newKingdom);
-                                            }
-                                            if (Log.logDebugMessages()) {
-                                                Log.d(LOG_TAG, "There are now " + kingdoms.size() + " kingdoms connected to this server.");
-                                            }
-                                        }
-                                    }
-                                });
-                                BlaubotKingdom previous = kingdoms.put(remoteKingDevice.getUniqueDeviceID(), newKingdom);
-                                if (previous != null) {
-                                    // already a kingdom for this unique device id. Should have been disconnected above...
-                                    throw new IllegalStateException("Inconsistant state. There was already a kingdom for this king.");
+                        // the handshake has to complete within the timeout, otherwise the connection is closed
+                        // and the read fails with an IOException
+                        final ScheduledFuture<?> handshakeTimeout = workerExecutor.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (Log.logWarningMessages()) {
+                                    Log.w(LOG_TAG, "The kingdom handshake did not complete within " + HANDSHAKE_TIMEOUT + " ms. Closing connection " + connection);
                                 }
-
-                                newKingdom.manageConnection(kingdomConnection);
-                                notifyKingdomConnected(newKingdom);
-
+                                connection.disconnect();
                             }
+                        }, HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS);
+                        final BlaubotKingdomConnection kingdomConnection;
+                        try {
+                            kingdomConnection = BlaubotKingdomConnection.createFromInboundConnection(connection);
                         } catch (IOException e) {
                             if (Log.logDebugMessages()) {
                                 Log.d(LOG_TAG, "A kingdom connection was not created (closed before handshake completion.");
                             }
+                            metrics.onHandshakeFailed();
+                            return;
+                        } finally {
+                            handshakeTimeout.cancel(false);
+                        }
+                        metrics.onHandshakeCompleted(System.nanoTime() - acceptedAt);
+                        onKingdomConnection(kingdomConnection);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Creates the kingdom for a connection that completed the handshake, replacing a
+     * previous kingdom of the same king.
+     * If there is a previous kingdom, it is disconnected first and the new kingdom is created once the
+     * previous one disconnected, so neither the handshake thread nor the connection lock waits for it.
+     *
+     * @param kingdomConnection the connection
+     */
+    private void onKingdomConnection(final BlaubotKingdomConnection kingdomConnection) {
+        final IBlaubotDevice remoteKingDevice = kingdomConnection.getRemoteDevice();
+        final String kingUniqueDeviceId = remoteKingDevice.getUniqueDeviceID();
+        synchronized (getConnectionLock(kingUniqueDeviceId)) {
+            // check if a connection for this unique id exists
+            final BlaubotKingdom blaubotKingdom = kingdoms.get(kingUniqueDeviceId);
+            if (blaubotKingdom != null && kingdomConnection.isAdditionalUplink()) {
+                // a multipath king added another connection to its kingdom
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "Adding an additional uplink to the kingdom of king " + kingUniqueDeviceId);
+                }
+                blaubotKingdom.addUplink(kingdomConnection);
+                return;
+            }
+            if (blaubotKingdom != null) {
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "There was already a kingdom with king " + kingUniqueDeviceId + ". Disconnecting that kingdom first.");
+                }
+                replaceKingdom(blaubotKingdom, kingdomConnection);
+                return;
+            }
+
+            // create and start management of BlaubotKingdom
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Got new connection and creating a new kingdom with king " + kingUniqueDeviceId + " ...");
+            }
+            final BlaubotKingdom newKingdom = new BlaubotKingdom(ownDevice, remoteKingDevice, workerExecutor);
+            newKingdom.addDisconnectListener(new IBlaubotConnectionListener() {
+                @Override
+                public void onConnectionClosed(IBlaubotConnection connection) {
+                    synchronized (getConnectionLock(kingUniqueDeviceId)) {
+                        if (kingdoms.remove(kingUniqueDeviceId, newKingdom)) {
+                            notifyKingdomDisconnected(newKingdom);
+                        }
+                        if (Log.logDebugMessages()) {
+                            Log.d(LOG_TAG, "There are now " + kingdoms.size() + " kingdoms connected to this server.");
                         }
                     }
-                }).start();
+                }
+            });
+            BlaubotKingdom previous = kingdoms.put(kingUniqueDeviceId, newKingdom);
+            if (previous != null) {
+                // already a kingdom for this unique device id. Should have been disconnected above...
+                throw new IllegalStateException("Inconsistant state. There was already a kingdom for this king.");
+            }
 
+            newKingdom.manageConnection(kingdomConnection);
+            notifyKingdomConnected(newKingdom);
+        }
+    }
 
+    /**
+     * Disconnects the previous kingdom of a king and creates the new kingdom on the worker pool, once the
+     * previous kingdom disconnected. If it does not disconnect within KINGDOM_DISCONNECT_TIMEOUT, the new
+     * connection is closed. Has to be called with the king's connection lock held.
+     *
+     * @param previousKingdom the kingdom to be replaced
+     * @param kingdomConnection the new connection of the king
+     */
+    private void replaceKingdom(final BlaubotKingdom previousKingdom, final BlaubotKingdomConnection kingdomConnection) {
+        final String kingUniqueDeviceId = kingdomConnection.getRemoteDevice().getUniqueDeviceID();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final ScheduledFuture<?> disconnectTimeout = workerExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (done.compareAndSet(false, true)) {
+                    if (Log.logErrorMessages()) {
+                        Log.e(LOG_TAG, "Kingdom did not disconnect fast enough (max " + KINGDOM_DISCONNECT_TIMEOUT + " ms). Closing the new connection of king " + kingUniqueDeviceId);
+                    }
+                    kingdomConnection.disconnect();
+                }
+            }
+        }, KINGDOM_DISCONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        previousKingdom.addDisconnectListener(new IBlaubotConnectionListener() {
+            @Override
+            public void onConnectionClosed(IBlaubotConnection connection) {
+                if (!done.compareAndSet(false, true)) {
+                    return;
+                }
+                disconnectTimeout.cancel(false);
+                // the listener may be called by disconnectKingdom() below, so the new kingdom is created afterwards
+                workerExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (getConnectionLock(kingUniqueDeviceId)) {
+                            // the previous kingdom's own listener may not have removed it yet
+                            if (kingdoms.remove(kingUniqueDeviceId, previousKingdom)) {
+                                notifyKingdomDisconnected(previousKingdom);
+                            }
+                            onKingdomConnection(kingdomConnection);
+                        }
+                    }
+                });
             }
         });
+        previousKingdom.disconnectKingdom();
+    }
+
+    /**
+     * The lock guarding the creation and removal of the kingdom of a king.
+     * The locks are striped, so that kingdoms of different kings are mostly handled in parallel.
+     *
+     * @param kingUniqueDeviceId the king's unique device id
+     * @return the lock
+     */
+    private Object getConnectionLock(String kingUniqueDeviceId) {
+        return connectionLocks[(kingUniqueDeviceId.hashCode() & Integer.MAX_VALUE) % CONNECTION_LOCK_STRIPES];
+    }
+
+    /**
+     * Creates named daemon threads for the server's pools.
+     */
+    private static class ServerThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+        private ServerThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
     /**
@@ -239,6 +403,7 @@ public class BlaubotServer {
      * @param kingdom the connected kingdom
      */
     private void notifyKingdomConnected(BlaubotKingdom kingdom) {
+        metrics.onKingdomConnected();
         for (IBlaubotServerLifeCycleListener lifeCycleListener : blaubotServerLifeCycleListeners) {
             lifeCycleListener.onKingdomConnected(kingdom);
         }
@@ -253,11 +418,35 @@ public class BlaubotServer {
         if (kingdom == null) {
             throw new NullPointerException();
         }
+        metrics.onKingdomDisconnected();
         for (IBlaubotServerLifeCycleListener lifeCycleListener : blaubotServerLifeCycleListeners) {
             lifeCycleListener.onKingdomDisconnected(kingdom);
         }
     }
 
+    /**
+     * @return the number of currently connected kingdoms
+     */
+    public int getKingdomCount() {
+        return kingdoms.size();
+    }
+
+    /**
+     * @return the connected kingdoms
+     */
+    Collection<BlaubotKingdom> getKingdoms() {
+        return kingdoms.values();
+    }
+
+    /**
+     * The server's metrics, i.e. to be served by an acceptor's metrics endpoint.
+     *
+     * @return the metrics
+     */
+    public BlaubotServerMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * @return the used acceptors
      */
@@ -0,0 +1,215 @@
+package eu.hgross.blaubot.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.hgross.blaubot.messaging.BlaubotChannelManager;
+import eu.hgross.blaubot.messaging.BlaubotChannelManagerInfo;
+import eu.hgross.blaubot.messaging.ConnectionInfo;
+import eu.hgross.blaubot.util.LatencyHistogram;
+
+/**
+ * The operational metrics of a BlaubotServer in the Prometheus text exposition format (version 0.0.4).
+ *
+ * The server counts accepted connections and handshakes as they happen. The per-kingdom values are aggregated
+ * on each scrape from the counters of the kingdoms' channel managers, which are read without locking, so
+ * the messaging threads are not slowed down by scrapes.
+ * Per-kingdom counters restart, when a king reconnects.
+ *
+ * Can be served over http by the BlaubotWebsocketAcceptor of blaubot-websockets (@see {BlaubotWebsocketAcceptor#setMetricsEndpoint}).
+ */
+public class BlaubotServerMetrics {
+    /**
+     * The content type of the scrape result
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    /**
+     * The handshake latency buckets are exported for 2^MIN_BUCKET_EXPONENT .. 2^MAX_BUCKET_EXPONENT ns (~1 ms .. ~34 s)
+     */
+    private static final int MIN_BUCKET_EXPONENT = 20;
+    private static final int MAX_BUCKET_EXPONENT = 35;
+    private static final double NANOS_PER_SECOND = 1000000000d;
+
+    private final BlaubotServer server;
+    private final AtomicLong acceptedConnections = new AtomicLong(0);
+    private final AtomicLong failedHandshakes = new AtomicLong(0);
+    private final AtomicLong kingdomsConnected = new AtomicLong(0);
+    private final AtomicLong kingdomsDisconnected = new AtomicLong(0);
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+
+    BlaubotServerMetrics(BlaubotServer server) {
+        this.server = server;
+    }
+
+    void onConnectionAccepted() {
+        acceptedConnections.incrementAndGet();
+    }
+
+    /**
+     * @param nanos the time from accepting the connection to the completed handshake
+     */
+    void onHandshakeCompleted(long nanos) {
+        handshakeLatency.record(nanos);
+    }
+
+    void onHandshakeFailed() {
+        failedHandshakes.incrementAndGet();
+    }
+
+    void onKingdomConnected() {
+        kingdomsConnected.incrementAndGet();
+    }
+
+    void onKingdomDisconnected() {
+        kingdomsDisconnected.incrementAndGet();
+    }
+
+    /**
+     * @return the handshake latencies in ns
+     */
+    public LatencyHistogram getHandshakeLatency() {
+        return handshakeLatency;
+    }
+
+    /**
+     * Collects the current metrics.
+     *
+     * @return the metrics in the Prometheus text format
+     */
+    public String scrape() {
+        final StringBuilder sb = new StringBuilder(1024);
+        writeHeader(sb, "blaubot_server_kingdoms", "gauge", "The number of connected kingdoms.");
+        sb.append("blaubot_server_kingdoms ").append(server.getKingdomCount()).append('\n');
+        writeCounter(sb, "blaubot_server_accepted_connections_total", "The number of accepted connections.", acceptedConnections.get());
+        writeCounter(sb, "blaubot_server_failed_handshakes_total", "The number of accepted connections closed before the kingdom handshake completed.", failedHandshakes.get());
+        writeCounter(sb, "blaubot_server_kingdom_connects_total", "The number of kingdoms that connected.", kingdomsConnected.get());
+        writeCounter(sb, "blaubot_server_kingdom_disconnects_total", "The number of kingdoms that disconnected.", kingdomsDisconnected.get());
+        writeHandshakeLatency(sb);
+        writeKingdoms(sb);
+        return sb.toString();
+    }
+
+    private void writeHandshakeLatency(StringBuilder sb) {
+        final String name = "blaubot_server_handshake_seconds";
+        writeHeader(sb, name, "histogram", "The time from accepting a connection to the completed kingdom handshake.");
+        // read the count first, so that the buckets are never bigger than the count
+        final long count = handshakeLatency.getCount();
+        final long sum = handshakeLatency.getSum();
+        for (int exponent = MIN_BUCKET_EXPONENT; exponent <= MAX_BUCKET_EXPONENT; exponent++) {
+            final long countBelow = Math.min(count, handshakeLatency.getCountBelowPowerOfTwo(exponent));
+            sb.append(name).append("_bucket{le=\"").append(formatDouble((1L << exponent) / NANOS_PER_SECOND)).append("\"} ").append(countBelow).append('\n');
+        }
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+        sb.append(name).append("_sum ").append(formatDouble(sum / NANOS_PER_SECOND)).append('\n');
+        sb.append(name).append("_count ").append(count).append('\n');
+    }
+
+    /**
+     * The values of one kingdom
+     */
+    private static class KingdomSample {
+        private String king;
+        private int uplinks;
+        private long sentMessages;
+        private long receivedMessages;
+        private long sentBytes;
+        private long receivedBytes;
+        private long queuedMessages;
+        private long relayFrames;
+        private long relayBytes;
+    }
+
+    private void writeKingdoms(StringBuilder sb) {
+        final List<KingdomSample> samples = new ArrayList<>();
+        for (BlaubotKingdom kingdom : server.getKingdoms()) {
+            final BlaubotChannelManager channelManager = kingdom.getChannelManager();
+            final KingdomSample sample = new KingdomSample();
+            sample.king = escapeLabelValue(kingdom.getKingDevice().getUniqueDeviceID());
+            sample.uplinks = kingdom.getUplinkCount();
+            sample.relayFrames = channelManager.getRelayFrames();
+            sample.relayBytes = channelManager.getRelayBytes();
+            final BlaubotChannelManagerInfo info = channelManager.createChannelManagerInfo();
+            for (ConnectionInfo connectionInfo : info.getConnections()) {
+                sample.sentMessages += connectionInfo.getSentMessages();
+                sample.receivedMessages += connectionInfo.getReceivedMessages();
+                sample.sentBytes += connectionInfo.getSentPayloadBytes();
+                sample.receivedBytes += connectionInfo.getReceivedPayloadBytes();
+                sample.queuedMessages += connectionInfo.getMessageSenderQueueSize();
+            }
+            samples.add(sample);
+        }
+
+        writeHeader(sb, "blaubot_kingdom_uplinks", "gauge", "The number of connections of a kingdom to the server.");
+        for (KingdomSample sample : samples) {
+            writeKingdomValue(sb, "blaubot_kingdom_uplinks", sample, sample.uplinks);
+        }
+        writeHeader(sb, "blaubot_kingdom_sent_messages_total", "counter", "The messages sent by the server to a kingdom.");
+        for (KingdomSample sample : samples) {
+            writeKingdomValue(sb, "blaubot_kingdom_sent_messages_total", sample, sample.sentMessages);
+        }
+        writeHeader(sb, "blaubot_kingdom_received_messages_total", "counter", "The messages received by the server from a kingdom.");
+        for (KingdomSample sample : samples) {
+            writeKingdomValue(sb, "blaubot_kingdom_received_messages_total", sample, sample.receivedMessages);
+        }
+        writeHeader(sb, "blaubot_kingdom_sent_payload_bytes_total", "counter", "The payload bytes sent by the server to a kingdom.");
+        for (KingdomSample sample : samples) {
+            writeKingdomValue(sb, "blaubot_kingdom_sent_payload_bytes_total", sample, sample.sentBytes);
+        }
+        writeHeader(sb, "blaubot_kingdom_received_payload_bytes_total", "counter", "The payload bytes received by the server from a kingdom.");
+        for (KingdomSample sample : samples) {
+            writeKingdomValue(sb, "blaubot_kingdom_received_payload_bytes_total", sample, sample.receivedBytes);
+        }
+        writeHeader(sb, "blaubot_kingdom_queued_messages", "gauge", "The messages waiting to be sent to a kingdom.");
+        for (KingdomSample sample : samples) {
+            writeKingdomValue(sb, "blaubot_kingdom_queued_messages", sample, sample.queuedMessages);
+        }
+        writeHeader(sb, "blaubot_kingdom_relay_frames_total", "counter", "The relay frames received from a kingdom.");
+        for (KingdomSample sample : samples) {
+            writeKingdomValue(sb, "blaubot_kingdom_relay_frames_total", sample, sample.relayFrames);
+        }
+        writeHeader(sb, "blaubot_kingdom_relay_bytes_total", "counter", "The relayed message bytes received from a kingdom.");
+        for (KingdomSample sample : samples) {
+            writeKingdomValue(sb, "blaubot_kingdom_relay_bytes_total", sample, sample.relayBytes);
+        }
+    }
+
+    private static void writeKingdomValue(StringBuilder sb, String name, KingdomSample sample, long value) {
+        sb.append(name).append("{king=\"").append(sample.king).append("\"} ").append(value).append('\n');
+    }
+
+    private static void writeCounter(StringBuilder sb, String name, String help, long value) {
+        writeHeader(sb, name, "counter", help);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void writeHeader(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String formatDouble(double value) {
+        // locale independent and valid for the exposition format
+        return Double.toString(value);
+    }
+
+    /**
+     * Escapes backslashes, double quotes and line feeds as required for label values.
+     */
+    private static String escapeLabelValue(String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '"') {
+                sb.append("\\\"");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,151 @@
+package eu.hgross.blaubot.core;
+
+/**
+ * The capabilities of this device, advertised as a capability score in the beacon messages.
+ * The device with the highest score becomes king, equal scores are decided by the unique device id.
+ *
+ * The score is either configured or measured from
+ * - the number of processors (up to 8, 4 points each)
+ * - the link type (ethernet 30, wifi 20, unknown 10, bluetooth 5 points)
+ * - the power source (mains 20, unknown 10, battery 0 points)
+ * - the free heap memory (256 MB 18, 64 MB 12, 16 MB 6 points)
+ * The link type and power source are not measurable in plain java and have to be set (i.e. by the
+ * android adapters or the application).
+ *
+ * The score is evaluated by the beacon service each time the device enters the FreeState, so that the advertised
+ * score does not change during a kingdom's lifetime. Devices that did not advertise a score (UNKNOWN_SCORE) are
+ * considered smaller than any device with a score.
+ */
+public class DeviceCapabilities {
+    /**
+     * The score of devices that did not advertise a score
+     */
+    public static final int UNKNOWN_SCORE = 0;
+
+    /**
+     * The link types
+     */
+    public enum LinkType {
+        UNKNOWN(10),
+        BLUETOOTH(5),
+        WIFI(20),
+        ETHERNET(30);
+
+        private final int points;
+
+        LinkType(int points) {
+            this.points = points;
+        }
+    }
+
+    /**
+     * The power sources
+     */
+    public enum PowerSource {
+        UNKNOWN(10),
+        BATTERY(0),
+        MAINS(20);
+
+        private final int points;
+
+        PowerSource(int points) {
+            this.points = points;
+        }
+    }
+
+    private static final int MAX_PROCESSORS = 8;
+    private static final int POINTS_PER_PROCESSOR = 4;
+    private static final long MB = 1024 * 1024;
+
+    private volatile int configuredScore = UNKNOWN_SCORE;
+    private volatile LinkType linkType = LinkType.UNKNOWN;
+    private volatile PowerSource powerSource = PowerSource.UNKNOWN;
+
+    /**
+     * Configures a fixed score instead of measuring it.
+     *
+     * @param score the score (> 0) or UNKNOWN_SCORE to measure the score
+     * @return this capabilities object
+     */
+    public DeviceCapabilities setConfiguredScore(int score) {
+        if (score < UNKNOWN_SCORE) {
+            throw new IllegalArgumentException("The score has to be positive.");
+        }
+        this.configuredScore = score;
+        return this;
+    }
+
+    /**
+     * @return the configured score or UNKNOWN_SCORE, if the score is measured
+     */
+    public int getConfiguredScore() {
+        return configuredScore;
+    }
+
+    /**
+     * @param linkType the type of the link used to connect to other devices
+     * @return this capabilities object
+     */
+    public DeviceCapabilities setLinkType(LinkType linkType) {
+        if (linkType == null) {
+            throw new NullPointerException("linkType may not be null");
+        }
+        this.linkType = linkType;
+        return this;
+    }
+
+    public LinkType getLinkType() {
+        return linkType;
+    }
+
+    /**
+     * @param powerSource the device's power source
+     * @return this capabilities object
+     */
+    public DeviceCapabilities setPowerSource(PowerSource powerSource) {
+        if (powerSource == null) {
+            throw new NullPointerException("powerSource may not be null");
+        }
+        this.powerSource = powerSource;
+        return this;
+    }
+
+    public PowerSource getPowerSource() {
+        return powerSource;
+    }
+
+    /**
+     * @return the configured score or the score measured now (always > UNKNOWN_SCORE)
+     */
+    public int getScore() {
+        final int configured = configuredScore;
+        if (configured != UNKNOWN_SCORE) {
+            return configured;
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        final int processorPoints = Math.min(MAX_PROCESSORS, runtime.availableProcessors()) * POINTS_PER_PROCESSOR;
+        final long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        final int memoryPoints;
+        if (freeMemory >= 256 * MB) {
+            memoryPoints = 18;
+        } else if (freeMemory >= 64 * MB) {
+            memoryPoints = 12;
+        } else if (freeMemory >= 16 * MB) {
+            memoryPoints = 6;
+        } else {
+            memoryPoints = 0;
+        }
+        // at least 1 point to be distinguishable from an unknown score
+        return Math.max(1, processorPoints + linkType.points + powerSource.points + memoryPoints);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("DeviceCapabilities{");
+        sb.append("configuredScore=").append(configuredScore);
+        sb.append(", linkType=").append(linkType);
+        sb.append(", powerSource=").append(powerSource);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,356 @@
+package eu.hgross.blaubot.core;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.PathStriper;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * The king's connection to the server, which uses multiple uplinks (the king's own connection to the
+ * server and relay connections through peasants) at once.
+ * It is added to the channel manager like a single connection.
+ *
+ * Written messages are striped by channel over the uplinks (@see {PathStriper}), so the messages of
+ * a channel keep their order. If an uplink fails, its channels move to the remaining uplinks with
+ * the next message. The connection is closed when its last uplink is closed.
+ *
+ * Each uplink is read by its own thread, which forwards the received messages undecoded into this
+ * connection's input queue. The chunk ids of chunked messages are mapped to ids unique across the uplinks,
+ * since the server sends on each uplink with its own chunk id generator.
+ * When the connection is closed, the already received messages can still be read before the end of stream.
+ *
+ * Note that the write methods expect exactly one whole message per call (as written by the
+ * BlaubotMessageSender).
+ */
+public class MultipathKingdomConnection extends AbstractBlaubotConnection {
+    private static final String LOG_TAG = "MultipathKingdomConnection";
+    /**
+     * Marks the end of the input queue
+     */
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final IBlaubotDevice remoteDevice;
+    private final String kingUniqueDeviceId;
+    private final LinkedBlockingQueue<byte[]> inputQueue = new LinkedBlockingQueue<>();
+    private final DataInputStream dataInputStream = new DataInputStream(new FrameInputStream());
+    private final Object disconnectMonitor = new Object();
+    private volatile boolean connected = true;
+    private final CopyOnWriteArrayList<Uplink> uplinks;
+    private final PathStriper<Uplink> striper;
+    private final AtomicInteger chunkIdGenerator = new AtomicInteger(0);
+
+    /**
+     * An uplink with its statistics and reader
+     */
+    private class Uplink {
+        private final BlaubotKingdomConnection connection;
+        private final Map<Short, Short> chunkIdMapping = new HashMap<>();
+        private volatile long sentBytes = 0;
+        private volatile long writeNanos = 0;
+
+        private Uplink(BlaubotKingdomConnection connection) {
+            this.connection = connection;
+        }
+
+        private synchronized void write(byte[] bytes) throws IOException {
+            final long start = System.nanoTime();
+            connection.write(bytes);
+            writeNanos += System.nanoTime() - start;
+            sentBytes += bytes.length;
+        }
+
+        /**
+         * Reads messages from the uplink until it fails
+         */
+        private void read() {
+            final byte[] headerBuffer = new byte[BlaubotMessage.FULL_HEADER_LENGTH];
+            final ByteBuffer headerByteBuffer = ByteBuffer.wrap(headerBuffer).order(BlaubotConstants.BYTE_ORDER);
+            try {
+                while (connection.isConnected()) {
+                    final byte[] messageBytes = BlaubotMessage.readBytesFromBlaubotConnection(connection, headerByteBuffer, headerBuffer);
+                    if (BlaubotMessage.isChunkFromBytes(messageBytes)) {
+                        mapChunkId(messageBytes);
+                    }
+                    inputQueue.add(messageBytes);
+                }
+            } catch (IOException e) {
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "Uplink failed: " + connection);
+                }
+            }
+            connection.disconnect();
+        }
+
+        private void mapChunkId(byte[] chunkBytes) {
+            final short chunkId = BlaubotMessage.getChunkIdFromBytes(chunkBytes);
+            Short mappedId = chunkIdMapping.get(chunkId);
+            if (mappedId == null) {
+                mappedId = (short) chunkIdGenerator.getAndIncrement();
+                chunkIdMapping.put(chunkId, mappedId);
+            }
+            BlaubotMessage.setChunkIdInBytes(chunkBytes, mappedId);
+            if (BlaubotMessage.getPayloadLengthFromBytes(chunkBytes) < BlaubotConstants.MAX_PAYLOAD_SIZE) {
+                // the last chunk
+                chunkIdMapping.remove(chunkId);
+            }
+        }
+    }
+
+    /**
+     * Reads the messages from the input queue as a stream of bytes
+     */
+    private class FrameInputStream extends InputStream {
+        private byte[] frame = new byte[0];
+        private int position = 0;
+
+        /**
+         * Takes the next message from the queue, if the current one was read completely.
+         *
+         * @return false, if the end of stream is reached
+         */
+        private boolean nextFrame() throws IOException {
+            while (position >= frame.length) {
+                if (frame == END_OF_STREAM) {
+                    return false;
+                }
+                try {
+                    frame = inputQueue.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while reading");
+                }
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextFrame()) {
+                return -1;
+            }
+            return frame[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+            if (byteCount == 0) {
+                return 0;
+            }
+            if (!nextFrame()) {
+                return -1;
+            }
+            final int count = Math.min(byteCount, frame.length - position);
+            System.arraycopy(frame, position, buffer, byteOffset, count);
+            position += count;
+            return count;
+        }
+    }
+
+    /**
+     * @param primaryUplink the first uplink
+     * @param kingUniqueDeviceId the current kingdom's king unique device id
+     */
+    public MultipathKingdomConnection(BlaubotKingdomConnection primaryUplink, String kingUniqueDeviceId) {
+        this.remoteDevice = primaryUplink.getRemoteDevice();
+        this.kingUniqueDeviceId = kingUniqueDeviceId;
+        this.uplinks = new CopyOnWriteArrayList<>();
+        this.striper = new PathStriper<>(new PathStriper.IPathStatistics<Uplink>() {
+            @Override
+            public long getSentBytes(Uplink path) {
+                return path.sentBytes;
+            }
+
+            @Override
+            public long getWriteNanos(Uplink path) {
+                return path.writeNanos;
+            }
+        });
+        if (!addUplink(primaryUplink)) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Adds an uplink. The handshake is sent immediately, so that the server knows the uplink
+     * before the first message is striped to it.
+     *
+     * @param kingdomConnection the uplink
+     * @return false, if the uplink failed or this connection is already closed
+     */
+    public boolean addUplink(final BlaubotKingdomConnection kingdomConnection) {
+        if (!isConnected()) {
+            return false;
+        }
+        try {
+            kingdomConnection.ensureHandshake();
+        } catch (IOException e) {
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Handshake failed on new uplink " + kingdomConnection);
+            }
+            kingdomConnection.disconnect();
+            return false;
+        }
+        final Uplink uplink = new Uplink(kingdomConnection);
+        uplinks.add(uplink);
+        striper.addPath(uplink);
+        kingdomConnection.addConnectionListener(new IBlaubotConnectionListener() {
+            @Override
+            public void onConnectionClosed(IBlaubotConnection connection) {
+                removeUplink(uplink);
+            }
+        });
+        if (!kingdomConnection.isConnected()) {
+            removeUplink(uplink);
+            return false;
+        }
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                uplink.read();
+            }
+        });
+        reader.setName("uplink-reader-" + kingdomConnection.getRemoteDevice().getUniqueDeviceID());
+        reader.setDaemon(true);
+        reader.start();
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Added uplink " + kingdomConnection + ", now using " + uplinks.size() + " uplinks");
+        }
+        return true;
+    }
+
+    private void removeUplink(Uplink uplink) {
+        if (!uplinks.remove(uplink)) {
+            return;
+        }
+        striper.removePath(uplink);
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Removed uplink " + uplink.connection + ", " + uplinks.size() + " uplinks left");
+        }
+        if (uplinks.isEmpty()) {
+            disconnect();
+        }
+    }
+
+    /**
+     * @return the currently used uplinks
+     */
+    public List<BlaubotKingdomConnection> getUplinks() {
+        final List<BlaubotKingdomConnection> connections = new ArrayList<>();
+        for (Uplink uplink : uplinks) {
+            connections.add(uplink.connection);
+        }
+        return connections;
+    }
+
+    /**
+     * @return the king's unique device id
+     */
+    public String getKingUniqueDeviceId() {
+        return kingUniqueDeviceId;
+    }
+
+    @Override
+    public void disconnect() {
+        synchronized (disconnectMonitor) {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+        }
+        for (Uplink uplink : uplinks) {
+            uplink.connection.disconnect();
+        }
+        // the queued messages are read before the end of stream
+        inputQueue.add(END_OF_STREAM);
+        notifyDisconnected();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public IBlaubotDevice getRemoteDevice() {
+        return remoteDevice;
+    }
+
+    @Override
+    public void write(int b) throws SocketTimeoutException, IOException {
+        throw new IOException("Only whole messages can be written to a multipath connection");
+    }
+
+    @Override
+    public void write(byte[] bytes, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
+        write(Arrays.copyOfRange(bytes, byteOffset, byteOffset + byteCount));
+    }
+
+    @Override
+    public void write(byte[] bytes) throws SocketTimeoutException, IOException {
+        final short channelId = BlaubotMessage.getChannelIdFromBytes(bytes);
+        while (isConnected()) {
+            final Uplink uplink = striper.select(channelId);
+            if (uplink == null) {
+                break;
+            }
+            try {
+                uplink.write(bytes);
+                return;
+            } catch (IOException e) {
+                // fail over to the next uplink
+                uplink.connection.disconnect();
+                removeUplink(uplink);
+            }
+        }
+        throw new IOException("not connected");
+    }
+
+    @Override
+    public int read() throws SocketTimeoutException, IOException {
+        return dataInputStream.read();
+    }
+
+    @Override
+    public int read(byte[] buffer) throws SocketTimeoutException, IOException {
+        return dataInputStream.read(buffer);
+    }
+
+    @Override
+    public int read(byte[] buffer, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
+        return dataInputStream.read(buffer, byteOffset, byteCount);
+    }
+
+    @Override
+    public void readFully(byte[] buffer) throws SocketTimeoutException, IOException {
+        dataInputStream.readFully(buffer);
+    }
+
+    @Override
+    public void readFully(byte[] buffer, int offset, int byteCount) throws SocketTimeoutException, IOException {
+        dataInputStream.readFully(buffer, offset, byteCount);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("MultipathKingdomConnection{");
+        sb.append("kingUniqueDeviceId='").append(kingUniqueDeviceId).append('\'');
+        sb.append(", uplinks=").append(getUplinks());
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -2,15 +2,17 @@ package eu.hgross.blaubot.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
 import eu.hgross.blaubot.admin.CloseRelayConnectionAdminMessage;
-import eu.hgross.blaubot.admin.RelayAdminMessage;
 import eu.hgross.blaubot.admin.ServerConnectionAvailableAdminMessage;
 import eu.hgross.blaubot.admin.ServerConnectionDownAdminMessage;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
@@ -22,6 +24,7 @@ import eu.hgross.blaubot.messaging.BlaubotMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessageReceiver;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
 import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.messaging.IBlaubotRelayFrameListener;
 import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
 import eu.hgross.blaubot.util.Log;
 
@@ -34,10 +37,11 @@ import eu.hgross.blaubot.util.Log;
  * <p/>
  * It always sends admin messages if a connection to the server is available or down.
  * <p/>
- * In client mode it listens to RelayAdminMessages and sends them to the available server connection (if any).
+ * In client mode it listens to relay frames and writes the relayed messages to the available server connection (if any).
  * <p/>
  * In server mode it listens to the Available/Down messages and collects possible connections to the
- * server as there could be more than just one.
+ * server as there could be more than just one. Up to MAX_UPLINKS of them are used at once through
+ * a MultipathKingdomConnection, which stripes the channels over them.
  */
 public class ServerConnectionManager extends LifecycleListenerAdapter {
     private static final String LOG_TAG = "ServerConnectionManager";
@@ -46,6 +50,10 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
      * (master mode only).
      */
     private static final long CONNECTION_SELECT_INTERVAL = 1500;
+    /**
+     * The max number of connections to the server used at once (master mode only).
+     */
+    private static final int MAX_UPLINKS = 4;
 
     /**
      * The main blaubot channel manager
@@ -85,7 +93,12 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
     /**
      * The facade connection added to the main channel manager if operating as master. May be null.
      */
-    private volatile IBlaubotConnection facadeConnection;
+    private volatile MultipathKingdomConnection facadeConnection;
+
+    /**
+     * The connections (from the connectionManager) currently used as uplinks by the facadeConnection.
+     */
+    private final Set<IBlaubotConnection> uplinkConnections = Collections.newSetFromMap(new ConcurrentHashMap<IBlaubotConnection, Boolean>());
 
     /**
      * The current king device set by the LifecycleListener.
@@ -94,11 +107,7 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
     private IBlaubotDevice currentKingDevice;
 
     /**
-     * Current connection to the server, if in Master mode. May be null.
-     */
-    private BlaubotKingdomConnection currentServerConnection;
-    /**
-     * synchronizes the creation and shutdowns of the RelayMessageMediator
+     * synchronizes the creation and shutdowns of the facadeConnection
      */
     private Object serverConnectionLock = new Object();
 
@@ -137,43 +146,43 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                 }
 
                 synchronized (serverConnectionLock) {
-                    final boolean connected = currentServerConnection != null;
-                    if (!connected) {
-                        if (Log.logDebugMessages()) {
-//                            Log.d(LOG_TAG, "Currently no connection to the server available. Selecting ...");
-                        }
-                        List<IBlaubotConnection> allConnections = connectionManager.getAllConnections();
-                        if (allConnections.isEmpty()) {
-                            if (Log.logDebugMessages()) {
-//                                Log.d(LOG_TAG, "No connection path to the server known ... could not select a connection.");
-                            }
-                            return;
-                        }
-
-                        // -- we have connections
+                    final List<IBlaubotConnection> allConnections = connectionManager.getAllConnections();
+                    if (allConnections.isEmpty()) {
+                        return;
+                    }
+                    final MultipathKingdomConnection current = facadeConnection;
+                    if (current == null) {
                         if (Log.logDebugMessages()) {
-                            Log.d(LOG_TAG, "There are " + allConnections.size() + " connections to the server available, selecting one out of these: " + allConnections);
+                            Log.d(LOG_TAG, "There are " + allConnections.size() + " connections to the server available, selecting out of these: " + allConnections);
                         }
 
-                        // choose and add disconnection handling
-                        /**
-                         * TODO: prioritize a connection from ourselve (king), because it is a direct connection. If we don'T have a direct connection prioritize peasant relay connections over prince relay connections!
-                         */
+                        // prefer our own (direct) connection over relay connections
                         IBlaubotConnection chosenConnection = allConnections.get(0);
+                        for (IBlaubotConnection connection : allConnections) {
+                            if (!(connection instanceof BlaubotServerRelayConnection)) {
+                                chosenConnection = connection;
+                                break;
+                            }
+                        }
 
                         if (Log.logDebugMessages()) {
-                            Log.d(LOG_TAG, "Chosen connection: " + chosenConnection);
+                            Log.d(LOG_TAG, "Chosen primary connection: " + chosenConnection);
                         }
 
-                        // upgrade to KingdomConnection
+                        // upgrade to KingdomConnection and wrap into the facade
                         final BlaubotKingdomConnection kingdomConnection = BlaubotKingdomConnection.createFromOutboundConnection(chosenConnection, ownDevice.getUniqueDeviceID());
-                        currentServerConnection = kingdomConnection;
-                        kingdomConnection.addConnectionListener(new IBlaubotConnectionListener() {
+                        final MultipathKingdomConnection facade = new MultipathKingdomConnection(kingdomConnection, ownDevice.getUniqueDeviceID());
+                        if (!facade.isConnected()) {
+                            return;
+                        }
+                        rememberUplink(chosenConnection);
+                        facadeConnection = facade;
+                        facade.addConnectionListener(new IBlaubotConnectionListener() {
                             @Override
                             public void onConnectionClosed(IBlaubotConnection connection) {
                                 synchronized (serverConnectionLock) {
-                                    if (currentServerConnection == kingdomConnection) {
-                                        currentServerConnection = null;
+                                    if (facadeConnection == facade) {
+                                        facadeConnection = null;
                                     }
                                 }
                             }
@@ -183,7 +192,25 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                         if (Log.logDebugMessages()) {
                             Log.d(LOG_TAG, "Adding the kingdom connection to the Blaubot connection manager");
                         }
-                        mainBlaubotConnectionManager.addConnection(kingdomConnection);
+                        mainBlaubotConnectionManager.addConnection(facade);
+                    }
+
+                    // add the remaining connections as additional uplinks
+                    final MultipathKingdomConnection facade = facadeConnection;
+                    if (facade == null) {
+                        return;
+                    }
+                    for (IBlaubotConnection connection : allConnections) {
+                        if (uplinkConnections.size() >= MAX_UPLINKS) {
+                            break;
+                        }
+                        if (uplinkConnections.contains(connection) || !connection.isConnected()) {
+                            continue;
+                        }
+                        final BlaubotKingdomConnection uplink = BlaubotKingdomConnection.createAdditionalUplinkFromOutboundConnection(connection, ownDevice.getUniqueDeviceID());
+                        if (facade.addUplink(uplink)) {
+                            rememberUplink(connection);
+                        }
                     }
                 }
 
@@ -233,65 +260,100 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                     // all this is handled through the usual blaubot connection manager (this.connectionManager) and the wrapping connection
                     // BlaubotServerRelayConnection, which is also listening to this admin message to trigger te onDisconnect listeners.
                     // so nothing to do here
-                } else if (adminMessage instanceof RelayAdminMessage || adminMessage instanceof CloseRelayConnectionAdminMessage) {
+                } else if (adminMessage instanceof CloseRelayConnectionAdminMessage) {
                     if(!isMaster) {
-
-                        /**
-                         * If we are not master, we have the mediator role.
-                         *  important here:
-                         *  Do we already have a mediator?
-                         *      if yes -> do nothing, the mediator should do the rest
-                         *      if no -> Get a serverconnection from the ConnectionManager. There has to be a connection because RelayAdminMessages and CloseRelayConnectionAdminMessage
-                         *               are only send after we sent ServerConnectionAvailable but of course there could be some timing problems and the connection is not there.
-                         *               Then create the mediator.
-                         */
-                        synchronized (relayMessageMediatorLock) {
-                            if(relayMessageMediator == null) {
-                                if (Log.logDebugMessages()) {
-                                    Log.d(LOG_TAG, "Got a RelayAdminMessage and had no relayMessageMediator. Creating one.");
-                                }
-
-                                List<IBlaubotConnection> allServerConnections = ServerConnectionManager.this.connectionManager.getAllConnections();
-                                if(!allServerConnections.isEmpty()) {
-                                    IBlaubotConnection connection = allServerConnections.get(0);
-                                    if(connection instanceof BlaubotServerRelayConnection) {
-                                        // TODO: concurreny problem here on change to master mode (got a websocket connection here)
-                                        // TODO sync isMaster flag and setMaster()
-                                        throw new RuntimeException(""+allServerConnections);
-                                    }
-                                    final RelayMessageMediator mediator = new RelayMessageMediator(connection);
-
-                                    // maintain reference
-                                    connection.addConnectionListener(new IBlaubotConnectionListener() {
-                                        @Override
-                                        public void onConnectionClosed(IBlaubotConnection connection) {
-                                            if(relayMessageMediator == mediator) {
-                                                relayMessageMediator = null;
-                                            }
-                                        }
-                                    });
-
-                                    relayMessageMediator = mediator;
-                                    mediator.activate();
-                                    // kick the current admin message in
-                                    mediator.onAdminMessage(adminMessage);
-                                    if (Log.logDebugMessages()) {
-                                        Log.d(LOG_TAG, "Created a RelayMessageMediator for connection " + connection);
-                                    }
-                                } else {
-                                    if (Log.logErrorMessages()) {
-                                        Log.e(LOG_TAG, "No mediator to resend the received RelayAdminMessage.");
-                                    }
-                                }
-                            }
+                        final RelayMessageMediator mediator = createRelayMessageMediatorIfNeeded();
+                        if (mediator != null) {
+                            // kick the current admin message in
+                            mediator.onAdminMessage(adminMessage);
                         }
                     }
                 }
             }
         });
+        this.channelManager.addRelayFrameListener(new IBlaubotRelayFrameListener() {
+            @Override
+            public void onRelayFrame(BlaubotMessage relayFrame, String originUniqueDeviceId) {
+                if (!isMaster && relayFrame.getRelayTag() == BlaubotMessage.RELAY_TAG_TO_SERVER) {
+                    final RelayMessageMediator mediator = createRelayMessageMediatorIfNeeded();
+                    if (mediator != null) {
+                        // kick the current frame in
+                        mediator.onRelayFrame(relayFrame, originUniqueDeviceId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * If we are not master, we have the mediator role.
+     *  important here:
+     *  Do we already have a mediator?
+     *      if yes -> do nothing, the mediator should do the rest
+     *      if no -> Get a serverconnection from the ConnectionManager. There has to be a connection because relay frames and CloseRelayConnectionAdminMessage
+     *               are only send after we sent ServerConnectionAvailable but of course there could be some timing problems and the connection is not there.
+     *               Then create the mediator.
+     *
+     * @return the newly created mediator, which missed the current frame or admin message, or null if a mediator already existed or could not be created
+     */
+    private RelayMessageMediator createRelayMessageMediatorIfNeeded() {
+        synchronized (relayMessageMediatorLock) {
+            if(relayMessageMediator != null) {
+                return null;
+            }
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Got a relay frame or close instruction and had no relayMessageMediator. Creating one.");
+            }
+
+            List<IBlaubotConnection> allServerConnections = ServerConnectionManager.this.connectionManager.getAllConnections();
+            if(allServerConnections.isEmpty()) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "No mediator to resend the received relay frame.");
+                }
+                return null;
+            }
+            IBlaubotConnection connection = allServerConnections.get(0);
+            if(connection instanceof BlaubotServerRelayConnection) {
+                // TODO: concurreny problem here on change to master mode (got a websocket connection here)
+                // TODO sync isMaster flag and setMaster()
+                throw new RuntimeException(""+allServerConnections);
+            }
+            final RelayMessageMediator mediator = new RelayMessageMediator(connection);
+
+            // maintain reference
+            connection.addConnectionListener(new IBlaubotConnectionListener() {
+                @Override
+                public void onConnectionClosed(IBlaubotConnection connection) {
+                    if(relayMessageMediator == mediator) {
+                        relayMessageMediator = null;
+                    }
+                }
+            });
+
+            relayMessageMediator = mediator;
+            mediator.activate();
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Created a RelayMessageMediator for connection " + connection);
+            }
+            return mediator;
+        }
     }
 
 
+    /**
+     * Remembers a connection as used uplink until it is closed.
+     * @param connection the connection from the connectionManager
+     */
+    private void rememberUplink(IBlaubotConnection connection) {
+        uplinkConnections.add(connection);
+        connection.addConnectionListener(new IBlaubotConnectionListener() {
+            @Override
+            public void onConnectionClosed(IBlaubotConnection connection) {
+                uplinkConnections.remove(connection);
+            }
+        });
+    }
+
     /**
      * Handles everything if we get aware of a available connection
      * @param connection the newly available connection
@@ -305,6 +367,11 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
         } else {
             // if king, we store the connection in the connection manager, where it will be automatically removed, if not available anymore.
             connectionManager.addConnection(connection);
+            // and use it right away instead of waiting for the next selection
+            final ScheduledExecutorService executorService = connectionSelectionExecutorService;
+            if (executorService != null) {
+                executorService.execute(connectionSelectionTask);
+            }
         }
     }
 
@@ -429,10 +496,11 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
             Log.d(LOG_TAG, "Clearing state: ServerConnection");
         }
         synchronized (serverConnectionLock) {
-            if(this.currentServerConnection != null) {
-                this.currentServerConnection.disconnect();
-                this.currentServerConnection = null;
+            if(this.facadeConnection != null) {
+                this.facadeConnection.disconnect();
+                this.facadeConnection = null;
             }
+            this.uplinkConnections.clear();
         }
         if (Log.logDebugMessages()) {
             Log.d(LOG_TAG, "State cleared.");
@@ -498,9 +566,9 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
     /**
      * @return the currently USED server connection by the channel manager or null, if no connection exists
      */
-    public BlaubotKingdomConnection getCurrentlyUsedServerConnection() {
+    public MultipathKingdomConnection getCurrentlyUsedServerConnection() {
         synchronized (serverConnectionLock) {
-            return currentServerConnection;
+            return facadeConnection;
         }
     }
 
@@ -520,9 +588,10 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
      * via onAdminMessage().
      *
      * It manages the real connection to the server (the direct connection).
-     * To do that, it uses a MessageSender and MessageReceiver pair (for chunking).
+     * The messages are forwarded as bytes in relay frames: a message read from the server is sent to
+     * the king without decoding it and the payload of a frame from the king is written to the server as it is.
      */
-    private class RelayMessageMediator implements IBlaubotAdminMessageListener {
+    private class RelayMessageMediator implements IBlaubotAdminMessageListener, IBlaubotRelayFrameListener {
         private static final String LOG_TAG = "RelayMessageMediator";
         private final IBlaubotConnection serverConnection;
         /**
@@ -536,7 +605,7 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
         public RelayMessageMediator(final IBlaubotConnection serverConnection) {
             this.serverConnection = serverConnection;
             this.messageReceiver = new BlaubotMessageReceiver(serverConnection);
-            this.messageReceiver.setForwardChunks(true); // forward chunked messages (don't inspect them)
+            this.messageReceiver.setRelayTag(BlaubotMessage.RELAY_TAG_FROM_SERVER); // forward the read bytes (don't inspect them)
             // handles broken connections
             serverConnection.addConnectionListener(new IBlaubotConnectionListener() {
                 @Override
@@ -546,24 +615,22 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                     }
                     messageReceiver.deactivate(null);
                     channelManager.removeAdminMessageListener(RelayMessageMediator.this);
+                    channelManager.removeRelayFrameListener(RelayMessageMediator.this);
                 }
             });
 
             // listen to messages from the server
             this.messageReceiver.addMessageListener(new IBlaubotMessageListener() {
                 @Override
-                public void onMessage(BlaubotMessage blaubotMessage) {
-//                    if (Log.logDebugMessages()) {
-//                        Log.d(LOG_TAG, "Got a message from the server connection, dispatching it via RelayMessage");
-//                    }
+                public void onMessage(BlaubotMessage relayFrame) {
                     // got a message from the server, relay to the king
-                    RelayAdminMessage relayAdminMessage = new RelayAdminMessage(blaubotMessage.toBytes());
-                    channelManager.publishToAllConnections(relayAdminMessage.toBlaubotMessage());
+                    channelManager.publishToAllConnections(relayFrame);
                 }
             });
 
             // listens to messages from the king
             channelManager.addAdminMessageListener(this);
+            channelManager.addRelayFrameListener(this);
         }
 
 
@@ -576,22 +643,20 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
         }
 
         @Override
-        public void onAdminMessage(AbstractAdminMessage adminMessage) {
-            if (adminMessage instanceof RelayAdminMessage) {
-                if(Log.logDebugMessages()) {
-                    BlaubotMessage unwrappedMessage = ((RelayAdminMessage) adminMessage).getAsBlaubotMessage();
-                    //if (!unwrappedMessage.getMessageType().isKeepAliveMessage()) {
-                    //    Log.d(LOG_TAG, "Dispatching a relay message to the server connection: " + unwrappedMessage);
-                    //}
-                }
+        public void onRelayFrame(BlaubotMessage relayFrame, String originUniqueDeviceId) {
+            if (relayFrame.getRelayTag() != BlaubotMessage.RELAY_TAG_TO_SERVER) {
+                return;
+            }
+            try {
+                serverConnection.write(relayFrame.getPayload());
+            } catch (IOException e) {
+                // handled by the connection manager
+            }
+        }
 
-                byte[] messageBytes = ((RelayAdminMessage) adminMessage).getMessageBytes();
-                try {
-                    serverConnection.write(messageBytes);
-                } catch (IOException e) {
-                    // handled by the connection manager
-                }
-            } else if(adminMessage instanceof CloseRelayConnectionAdminMessage) {
+        @Override
+        public void onAdminMessage(AbstractAdminMessage adminMessage) {
+            if(adminMessage instanceof CloseRelayConnectionAdminMessage) {
                 String mediatorUniqueDeviceId = ((CloseRelayConnectionAdminMessage) adminMessage).getMediatorUniqueDeviceId();
                 if (mediatorUniqueDeviceId.equals(ownDevice.getUniqueDeviceID())) {
                     if(Log.logDebugMessages()) {
@@ -607,7 +672,7 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
 
 
     /**
-     * A relay connection is a connection that uses admin messages to transport bytes from
+     * A relay connection is a connection that uses relay frames to transport bytes from
      * A to C using an intermediate participant B (mediator).
      * There are connections A to B and B to C and the relay connection uses an established
      * network to make the transitive connection between A and C (recipient).
@@ -620,7 +685,7 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
      * it but since we are using MessageReceivers internally it is only capable of sending and
      * receiving full blaubot message byte packages!
      */
-    public class BlaubotServerRelayConnection extends BlaubotConnectionQueueMock implements IBlaubotAdminMessageListener {
+    public class BlaubotServerRelayConnection extends BlaubotConnectionQueueMock implements IBlaubotAdminMessageListener, IBlaubotRelayFrameListener {
         private UUID uuid = UUID.randomUUID();
         private static final String LOG_TAG = "BlaubotServerRelayConnection";
         /**
@@ -633,8 +698,8 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
         private final String recipientUniqueDeviceId;
         /**
          * Everything thaht is written to this connection via it's write(*) methods will be received
-         * by this receiver locally and then be wrapped into a RelayMessage to be send as admin
-         * message via the ChannelManager.
+         * by this receiver locally and then be wrapped into a relay frame to be send via the
+         * ChannelManager.
          */
         private final BlaubotMessageReceiver messageReceiver;
 
@@ -651,20 +716,13 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
              */
             final BlaubotConnectionQueueMock dummyConnection = getOtherEndpointConnection(new BlaubotDevice("Internal BlaubotServerRelayConnection DummyDevice "));
             this.messageReceiver = new BlaubotMessageReceiver(dummyConnection);
-            this.messageReceiver.setForwardChunks(true); // we want to just forward junks (not collect them as whole to be chunked again later)
+            this.messageReceiver.setRelayTag(BlaubotMessage.RELAY_TAG_TO_SERVER); // we want to just forward the written bytes (not decode and encode them again)
             this.messageReceiver.activate();
             this.messageReceiver.addMessageListener(new IBlaubotMessageListener() {
                 @Override
-                public void onMessage(BlaubotMessage blaubotMessage) {
-                    // wrap the message into a relay admin message
-                    final RelayAdminMessage relayAdminMessage = new RelayAdminMessage(blaubotMessage.toBytes());
-                    // create a blaubot mesasge from the relay admin message (= blaubot message containing which is a relay admin message, which contains a blaubotmessage ;-))
-                    final BlaubotMessage msg = relayAdminMessage.toBlaubotMessage();
-//                    if (!blaubotMessage.getMessageType().isKeepAliveMessage()) {
-//                        Log.d(LOG_TAG, "Dispatching ... Sending RelayAdminMessage to mediator: " + msg);
-//                    }
+                public void onMessage(BlaubotMessage relayFrame) {
                     // send it to the mediator
-                    channelManager.publishToSingleDevice(msg, mediatorUniqueDeviceId);
+                    channelManager.publishToSingleDevice(relayFrame, mediatorUniqueDeviceId);
                 }
             });
             this.recipientUniqueDeviceId = recipientUniqueDeviceId;
@@ -672,10 +730,12 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
 
             // listener handling (cleanup and wiring)
             channelManager.addAdminMessageListener(this);
+            channelManager.addRelayFrameListener(this);
             this.addConnectionListener(new IBlaubotConnectionListener() {
                 @Override
                 public void onConnectionClosed(IBlaubotConnection connection) {
                     channelManager.removeAdminMessageListener(BlaubotServerRelayConnection.this);
+                    channelManager.removeRelayFrameListener(BlaubotServerRelayConnection.this);
                 }
             });
 
@@ -701,13 +761,14 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                     // note that this message will also be received if an onDeviceLeft() for this device occurs.
                     _disconnect(); // triggers its own listeners
                 }
-            } else if (adminMessage instanceof RelayAdminMessage) {
-//                if(Log.logDebugMessages()) {
-//                    Log.d(LOG_TAG, "Dispatching relay admin message of " + ((RelayAdminMessage) adminMessage).getMessageBytes().length + " bytes to input stream of the relay connection");
-//                }
+            }
+        }
+
+        @Override
+        public void onRelayFrame(BlaubotMessage relayFrame, String originUniqueDeviceId) {
+            if (relayFrame.getRelayTag() == BlaubotMessage.RELAY_TAG_FROM_SERVER && mediatorUniqueDeviceId.equals(originUniqueDeviceId)) {
                 // put data to the queue. This bytes can then be read via the read(*) methods.
-                byte[] messageBytes = ((RelayAdminMessage) adminMessage).getMessageBytes();
-                writeMockDataToInputStream(messageBytes);
+                writeMockDataToInputStream(relayFrame.getPayload());
             }
         }
 
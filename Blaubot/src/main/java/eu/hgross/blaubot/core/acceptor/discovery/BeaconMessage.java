@@ -9,6 +9,7 @@ import java.util.UUID;
 
 import eu.hgross.blaubot.core.BlaubotConstants;
 import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.DeviceCapabilities;
 import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.core.IBlaubotDevice;
 import eu.hgross.blaubot.core.IUnidentifiedBlaubotDevice;
@@ -26,6 +27,12 @@ import eu.hgross.blaubot.util.Log;
 public class BeaconMessage implements Serializable {
 	private static final String LOG_TAG = "BeaconMessage";
 	private static final long serialVersionUID = 7447451131850355749L;
+    /**
+     * The first int of beacon messages carrying the capability scores.
+     * Beacon messages of older devices start with the (positive) length of the unique device id instead and
+     * have no scores, which are UNKNOWN_SCORE then.
+     */
+    private static final int SCORES_LAYOUT_MARKER = -2;
     private String ownUniqueDeviceId = "";
 
     private State currentState;
@@ -33,6 +40,8 @@ public class BeaconMessage implements Serializable {
 
     private String kingDeviceUniqueId = "";                                              // only set if currentState is State.Prince or State.Peasant
     private List<ConnectionMetaDataDTO> kingsConnectionMetaDataList = new ArrayList<>(); // only set if currentState is State.Prince or State.Peasant
+    private int capabilityScore = DeviceCapabilities.UNKNOWN_SCORE;
+    private int kingCapabilityScore = DeviceCapabilities.UNKNOWN_SCORE;                 // only set if currentState is State.Prince or State.Peasant
 
     /**
      * Constructor for the beacon message in cases where we have no king or we are the king
@@ -84,6 +93,19 @@ public class BeaconMessage implements Serializable {
 		this.currentState = currentState;
 	}
 
+    /**
+     * Sets the capability scores advertised with this message.
+     *
+     * @param capabilityScore the sending side's capability score
+     * @param kingCapabilityScore the king's capability score, if known and the sending side has a king
+     * @return this message
+     */
+    public BeaconMessage setCapabilityScores(int capabilityScore, int kingCapabilityScore) {
+        this.capabilityScore = capabilityScore;
+        this.kingCapabilityScore = kingCapabilityScore;
+        return this;
+    }
+
     /**
      * Get the byte representation of this message
      *
@@ -101,9 +123,12 @@ public class BeaconMessage implements Serializable {
         int deviceId_length = deviceIdBytes.length;
         int kingMetadata_length = kingConnectionMetaDataListBytes.length;
 
-        ByteBuffer bb = ByteBuffer.allocate(20 + uniqueDeviceId_length + stateString_length + metadata_length + deviceId_length + kingMetadata_length); // 5 ints + byte lengths
+        ByteBuffer bb = ByteBuffer.allocate(32 + uniqueDeviceId_length + stateString_length + metadata_length + deviceId_length + kingMetadata_length); // 8 ints + byte lengths
 		bb.order(BlaubotConstants.BYTE_ORDER);
 
+        // layout
+        bb.putInt(SCORES_LAYOUT_MARKER);
+
         // unique device id
         bb.putInt(uniqueDeviceId_length);
         bb.put(uniqueDeviceIdBytes);
@@ -124,6 +149,10 @@ public class BeaconMessage implements Serializable {
         bb.putInt(kingMetadata_length);
         bb.put(kingConnectionMetaDataListBytes);
 
+        // capability scores
+        bb.putInt(capabilityScore);
+        bb.putInt(kingCapabilityScore);
+
 		bb.flip();
 		return bb.array();
 		
@@ -134,6 +163,10 @@ public class BeaconMessage implements Serializable {
 		bb.order(BlaubotConstants.BYTE_ORDER);
 
         int uniqueDeviceIdLength = bb.getInt();
+        final boolean hasScores = uniqueDeviceIdLength == SCORES_LAYOUT_MARKER;
+        if (hasScores) {
+            uniqueDeviceIdLength = bb.getInt();
+        }
         byte[] uniqueDeviceIdBytes = new byte[uniqueDeviceIdLength];
         bb.get(uniqueDeviceIdBytes, 0, uniqueDeviceIdLength);
 
@@ -152,6 +185,13 @@ public class BeaconMessage implements Serializable {
         int king_metaDataList_length = bb.getInt();
         byte[] king_metaDataListBytes = new byte[king_metaDataList_length];
         bb.get(king_metaDataListBytes, 0, king_metaDataList_length);
+
+        int capabilityScore = DeviceCapabilities.UNKNOWN_SCORE;
+        int kingCapabilityScore = DeviceCapabilities.UNKNOWN_SCORE;
+        if (hasScores && bb.remaining() >= 8) {
+            capabilityScore = bb.getInt();
+            kingCapabilityScore = bb.getInt();
+        }
 		
 		BeaconMessage out = new BeaconMessage();
         out.ownUniqueDeviceId = new String(uniqueDeviceIdBytes, BlaubotConstants.STRING_CHARSET);
@@ -159,6 +199,8 @@ public class BeaconMessage implements Serializable {
         out.ownConnectionMetaDataList = ConnectionMetaDataDTO.fromJson(new String(metaDataListBytes, BlaubotConstants.STRING_CHARSET));
 		out.kingDeviceUniqueId = new String(deviceIdBytes, BlaubotConstants.STRING_CHARSET);
         out.kingsConnectionMetaDataList = ConnectionMetaDataDTO.fromJson(new String(king_metaDataListBytes, BlaubotConstants.STRING_CHARSET));
+        out.capabilityScore = capabilityScore;
+        out.kingCapabilityScore = kingCapabilityScore;
 		return out;
 	}
 	
@@ -184,6 +226,22 @@ public class BeaconMessage implements Serializable {
         }
         int uniqueDeviceIdLength = bbUniqueDeviceIdLength.getInt();
 
+        // the layout marker, if the capability scores follow the king's meta data list
+        ByteBuffer bbLayout = ByteBuffer.allocate(0);
+        if (uniqueDeviceIdLength == SCORES_LAYOUT_MARKER) {
+            bbLayout = bbUniqueDeviceIdLength;
+            bbUniqueDeviceIdLength = ByteBuffer.allocate(4);
+            bbUniqueDeviceIdLength.order(BlaubotConstants.BYTE_ORDER);
+            try {
+                connection.readFully(bbUniqueDeviceIdLength.array(), 0, 4);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to read length byte for unique device idfrom beacon message. Closing connection", e);
+                connection.disconnect();
+                return null;
+            }
+            uniqueDeviceIdLength = bbUniqueDeviceIdLength.getInt();
+        }
+
         // state bytes
         ByteBuffer bbUniqueDeviceId = ByteBuffer.allocate(uniqueDeviceIdLength);
         bbUniqueDeviceId.order(BlaubotConstants.BYTE_ORDER);
@@ -311,10 +369,28 @@ public class BeaconMessage implements Serializable {
             return null;
         }
 
+        /*
+            Read CAPABILITY SCORES (only sent with the layout marker)
+         */
+        ByteBuffer bbScores = ByteBuffer.allocate(bbLayout.capacity() > 0 ? 8 : 0);
+        bbScores.order(BlaubotConstants.BYTE_ORDER);
+        if (bbScores.capacity() > 0) {
+            try {
+                connection.readFully(bbScores.array(), 0, bbScores.capacity());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to read the capability scores. Closing connection", e);
+                connection.disconnect();
+                return null;
+            }
+        }
+
         // Combine all into one array
-		ByteBuffer together = ByteBuffer.allocate(bbUniqueDeviceId.capacity() + bbUniqueDeviceIdLength.capacity() + bb.capacity() + bbMsg.capacity() + bbMeta.capacity() + bbMetaStr.capacity() + bbId.capacity() + bbIdStr.capacity() + bbKingList.capacity() + bbKingMetaStr.capacity());
+		ByteBuffer together = ByteBuffer.allocate(bbLayout.capacity() + bbUniqueDeviceId.capacity() + bbUniqueDeviceIdLength.capacity() + bb.capacity() + bbMsg.capacity() + bbMeta.capacity() + bbMetaStr.capacity() + bbId.capacity() + bbIdStr.capacity() + bbKingList.capacity() + bbKingMetaStr.capacity() + bbScores.capacity());
 		together.order(BlaubotConstants.BYTE_ORDER);
 
+        // layout
+        together.put(bbLayout.array());
+
         // unique device id
         together.put(bbUniqueDeviceIdLength.array());
         together.put(bbUniqueDeviceId.array());
@@ -335,6 +411,9 @@ public class BeaconMessage implements Serializable {
         together.put(bbKingList.array());
         together.put(bbKingMetaStr.array());
 
+        // capability scores
+        together.put(bbScores.array());
+
 		together.flip();
 		return BeaconMessage.fromBytes(together.array());
 	}
@@ -371,6 +450,22 @@ public class BeaconMessage implements Serializable {
         return kingsConnectionMetaDataList;
     }
 
+    /**
+     * The capability score of the sending side (@see {DeviceCapabilities})
+     * @return the score or DeviceCapabilities.UNKNOWN_SCORE
+     */
+    public int getCapabilityScore() {
+        return capabilityScore;
+    }
+
+    /**
+     * Note: is only set if currentState is State.Prince or State.Peasant
+     * @return the king's capability score or DeviceCapabilities.UNKNOWN_SCORE
+     */
+    public int getKingCapabilityScore() {
+        return kingCapabilityScore;
+    }
+
     public static void main (String args[]) throws IOException {
         final ArrayList<ConnectionMetaDataDTO> ownConnectionMetaDataList = new ArrayList<>();
         final ArrayList<ConnectionMetaDataDTO> kingsConnectionMetaDataList = new ArrayList<>();
@@ -413,6 +508,8 @@ public class BeaconMessage implements Serializable {
         sb.append(", ownConnectionMetaDataList=").append(ownConnectionMetaDataList);
         sb.append(", kingDeviceUniqueId='").append(kingDeviceUniqueId).append('\'');
         sb.append(", kingsConnectionMetaDataList=").append(kingsConnectionMetaDataList);
+        sb.append(", capabilityScore=").append(capabilityScore);
+        sb.append(", kingCapabilityScore=").append(kingCapabilityScore);
         sb.append('}');
         return sb.toString();
     }
@@ -425,6 +522,8 @@ public class BeaconMessage implements Serializable {
         BeaconMessage that = (BeaconMessage) o;
 
         if (currentState != that.currentState) return false;
+        if (capabilityScore != that.capabilityScore) return false;
+        if (kingCapabilityScore != that.kingCapabilityScore) return false;
         if (kingDeviceUniqueId != null ? !kingDeviceUniqueId.equals(that.kingDeviceUniqueId) : that.kingDeviceUniqueId != null)
             return false;
         if (kingsConnectionMetaDataList != null ? !kingsConnectionMetaDataList.equals(that.kingsConnectionMetaDataList) : that.kingsConnectionMetaDataList != null)
@@ -441,6 +540,8 @@ public class BeaconMessage implements Serializable {
         result = 31 * result + (ownConnectionMetaDataList != null ? ownConnectionMetaDataList.hashCode() : 0);
         result = 31 * result + (kingDeviceUniqueId != null ? kingDeviceUniqueId.hashCode() : 0);
         result = 31 * result + (kingsConnectionMetaDataList != null ? kingsConnectionMetaDataList.hashCode() : 0);
+        result = 31 * result + capabilityScore;
+        result = 31 * result + kingCapabilityScore;
         return result;
     }
 }
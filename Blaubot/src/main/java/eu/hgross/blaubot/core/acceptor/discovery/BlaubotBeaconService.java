@@ -8,6 +8,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.DeviceCapabilities;
 import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.core.IBlaubotDevice;
 import eu.hgross.blaubot.core.State;
@@ -19,6 +20,7 @@ import eu.hgross.blaubot.core.connector.IBlaubotConnector;
 import eu.hgross.blaubot.core.statemachine.BlaubotAdapterHelper;
 import eu.hgross.blaubot.core.statemachine.ConnectionStateMachine;
 import eu.hgross.blaubot.core.statemachine.events.AbstractBlaubotDeviceDiscoveryEvent;
+import eu.hgross.blaubot.core.statemachine.states.FreeState;
 import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
 import eu.hgross.blaubot.core.statemachine.states.IBlaubotSubordinatedState;
 import eu.hgross.blaubot.util.Log;
@@ -47,6 +49,7 @@ public class BlaubotBeaconService {
     private final List<IBlaubotDiscoveryEventListener> discoveryEventListeners; // proxy listeners
     private final ConnectionStateMachine connectionStateMachine;
     private final IBlaubotBeaconStore beaconStore;
+    private final DeviceCapabilities deviceCapabilities;
 
 
     /**
@@ -63,6 +66,9 @@ public class BlaubotBeaconService {
         this.discoveryEventListeners = new CopyOnWriteArrayList<>();
         this.beaconStore = new BlaubotBeaconStore();
         this.addDiscoveryEventListener((BlaubotBeaconStore)this.beaconStore);
+        this.deviceCapabilities = new DeviceCapabilities();
+        this.beaconStore.putCapabilityScore(ownDevice.getUniqueDeviceID(), deviceCapabilities.getScore());
+        this.currentBeaconMessage.setCapabilityScores(getOwnCapabilityScore(), DeviceCapabilities.UNKNOWN_SCORE);
         this.connectionAcceptors = connectionAcceptors;
 		this.beaconConnectionManager = new BlaubotConnectionManager(new ArrayList<IBlaubotConnectionAcceptor>(blaubotBeacons), new ArrayList<IBlaubotConnector>());
 		this.beaconConnectionManager.addConnectionListener(new IBlaubotConnectionManagerListener() {
@@ -220,6 +226,7 @@ public class BlaubotBeaconService {
                 State theirState = theirMessage.getCurrentState();
 
                 AbstractBlaubotDeviceDiscoveryEvent discoveryEvent = theirState.createDiscoveryEventForDevice(remoteDevice, theirMessage.getOwnConnectionMetaDataList());
+                discoveryEvent.setCapabilityScore(theirMessage.getCapabilityScore());
                 discoveryEventListener.onDeviceDiscoveryEvent(discoveryEvent);
 
                 if(theirMessage.getCurrentState() == State.Peasant || theirMessage.getCurrentState() == State.Prince) {
@@ -231,6 +238,7 @@ public class BlaubotBeaconService {
                     String kingDeviceUniqueId = theirMessage.getKingDeviceUniqueId();
                     IBlaubotDevice kingDevice = new BlaubotDevice(kingDeviceUniqueId);
                     AbstractBlaubotDeviceDiscoveryEvent kingDiscoveryEvent = State.King.createDiscoveryEventForDevice(kingDevice, theirMessage.getKingsConnectionMetaDataList());
+                    kingDiscoveryEvent.setCapabilityScore(theirMessage.getKingCapabilityScore());
                     discoveryEventListener.onDeviceDiscoveryEvent(kingDiscoveryEvent);
                 }
 			}
@@ -252,6 +260,11 @@ public class BlaubotBeaconService {
             Log.d(LOG_TAG, "State changed, building new BeaconMessage");
         }
 
+        // the score is evaluated when we become free, so that it does not change during a kingdom's lifetime
+        if (newState instanceof FreeState) {
+            beaconStore.putCapabilityScore(ownDevice.getUniqueDeviceID(), deviceCapabilities.getScore());
+        }
+
         // build the beacon message
         final State state = State.getStateByStatemachineClass(newState.getClass());
         final List<ConnectionMetaDataDTO> ownConnectionMetaDataList = BlaubotAdapterHelper.getConnectionMetaDataList(connectionAcceptors);
@@ -262,9 +275,11 @@ public class BlaubotBeaconService {
             if (kingConnectionMetaDataList == null) {
                 throw new IllegalStateException("Could not get connection metadata information for our king but we are in a subordinate state!");
             }
-            currentBeaconMessage = new BeaconMessage(ownDeviceUniqueDeviceID, state, ownConnectionMetaDataList, kingUniqueId, kingConnectionMetaDataList);
+            currentBeaconMessage = new BeaconMessage(ownDeviceUniqueDeviceID, state, ownConnectionMetaDataList, kingUniqueId, kingConnectionMetaDataList)
+                    .setCapabilityScores(getOwnCapabilityScore(), beaconStore.getLastKnownCapabilityScore(kingUniqueId));
         } else {
-            currentBeaconMessage = new BeaconMessage(ownDeviceUniqueDeviceID, state, ownConnectionMetaDataList);
+            currentBeaconMessage = new BeaconMessage(ownDeviceUniqueDeviceID, state, ownConnectionMetaDataList)
+                    .setCapabilityScores(getOwnCapabilityScore(), DeviceCapabilities.UNKNOWN_SCORE);
         }
 
         if (Log.logDebugMessages()) {
@@ -281,6 +296,23 @@ public class BlaubotBeaconService {
 		return blaubotBeacons;
 	}
 
+    /**
+     * The capabilities of our device, which are advertised as capability score by the beacons.
+     * Changes take effect the next time the device becomes free.
+     *
+     * @return the capabilities
+     */
+    public DeviceCapabilities getDeviceCapabilities() {
+        return deviceCapabilities;
+    }
+
+    /**
+     * @return the capability score currently advertised by our beacons
+     */
+    public int getOwnCapabilityScore() {
+        return beaconStore.getLastKnownCapabilityScore(ownDevice.getUniqueDeviceID());
+    }
+
     /**
      * Get the beacon store corresponding to the managed beacons
      * @return the store
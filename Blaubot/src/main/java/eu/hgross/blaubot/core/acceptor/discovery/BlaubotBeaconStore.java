@@ -3,6 +3,7 @@ package eu.hgross.blaubot.core.acceptor.discovery;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
+import eu.hgross.blaubot.core.DeviceCapabilities;
 import eu.hgross.blaubot.core.IBlaubotDevice;
 import eu.hgross.blaubot.core.State;
 import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
@@ -20,10 +21,12 @@ public class BlaubotBeaconStore implements IBlaubotBeaconStore, IBlaubotDiscover
      */
     private final ConcurrentHashMap<String, AbstractBlaubotDeviceDiscoveryEvent> lastBeaconEvents;
     private final ConcurrentHashMap<String, List<ConnectionMetaDataDTO>> lastConnectiontMetaData;
+    private final ConcurrentHashMap<String, Integer> lastCapabilityScores;
 
     public BlaubotBeaconStore() {
         this.lastBeaconEvents = new ConcurrentHashMap<>();
         this.lastConnectiontMetaData = new ConcurrentHashMap<>();
+        this.lastCapabilityScores = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -40,6 +43,19 @@ public class BlaubotBeaconStore implements IBlaubotBeaconStore, IBlaubotDiscover
         return lastDiscoveryEvent.getRemoteDeviceState();
     }
 
+    @Override
+    public int getLastKnownCapabilityScore(String uniqueDeviceId) {
+        final Integer score = lastCapabilityScores.get(uniqueDeviceId);
+        return score != null ? score : DeviceCapabilities.UNKNOWN_SCORE;
+    }
+
+    @Override
+    public void putCapabilityScore(String uniqueDeviceId, int capabilityScore) {
+        if (capabilityScore != DeviceCapabilities.UNKNOWN_SCORE) {
+            this.lastCapabilityScores.put(uniqueDeviceId, capabilityScore);
+        }
+    }
+
     @Override
     public AbstractBlaubotDeviceDiscoveryEvent getLastDiscoveryEvent(String uniqueDeviceID) {
         return this.lastBeaconEvents.get(uniqueDeviceID);
@@ -50,6 +66,7 @@ public class BlaubotBeaconStore implements IBlaubotBeaconStore, IBlaubotDiscover
         // create event and put it to the store (no populating!)
         final eu.hgross.blaubot.core.State theirState = theirBeaconMessage.getCurrentState();
         AbstractBlaubotDeviceDiscoveryEvent discoveryEvent = theirState.createDiscoveryEventForDevice(remoteDevice, theirBeaconMessage.getOwnConnectionMetaDataList());
+        discoveryEvent.setCapabilityScore(theirBeaconMessage.getCapabilityScore());
         onDeviceDiscoveryEvent(discoveryEvent);
     }
 
@@ -63,6 +80,7 @@ public class BlaubotBeaconStore implements IBlaubotBeaconStore, IBlaubotDiscover
         final String uniqueDeviceID = discoveryEvent.getRemoteDevice().getUniqueDeviceID();
         this.lastBeaconEvents.put(uniqueDeviceID, discoveryEvent);
         putConnectionMetaData(uniqueDeviceID, discoveryEvent.getConnectionMetaData());
+        putCapabilityScore(uniqueDeviceID, discoveryEvent.getCapabilityScore());
     }
 
     @Override
@@ -70,6 +88,7 @@ public class BlaubotBeaconStore implements IBlaubotBeaconStore, IBlaubotDiscover
         final StringBuffer sb = new StringBuffer("BlaubotBeaconStore{");
         sb.append("lastConnectiontMetaData=").append(lastConnectiontMetaData);
         sb.append(", lastBeaconEvents=").append(lastBeaconEvents);
+        sb.append(", lastCapabilityScores=").append(lastCapabilityScores);
         sb.append('}');
         return sb.toString();
     }
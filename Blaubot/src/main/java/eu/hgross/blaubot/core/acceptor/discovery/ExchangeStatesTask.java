@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import eu.hgross.blaubot.core.DeviceCapabilities;
 import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.core.IBlaubotDevice;
 import eu.hgross.blaubot.core.State;
@@ -109,8 +110,10 @@ public class ExchangeStatesTask implements Runnable {
                     throw new IllegalStateException("We don't have connection meta data for the king stored, but we are in a subordinate state");
                 }
                 ourStateMessage = new BeaconMessage(ownUniqueDeviceID, getState(), ourAcceptorMetaDataList, kingDeviceUniqueId, kingConnectionMetaData);
+                ourStateMessage.setCapabilityScores(beaconStore.getLastKnownCapabilityScore(ownUniqueDeviceID), beaconStore.getLastKnownCapabilityScore(kingDeviceUniqueId));
 			} else {
 				ourStateMessage = new BeaconMessage(ownUniqueDeviceID, getState(), ourAcceptorMetaDataList);
+                ourStateMessage.setCapabilityScores(beaconStore.getLastKnownCapabilityScore(ownUniqueDeviceID), DeviceCapabilities.UNKNOWN_SCORE);
 			}
             if(LOGGING_ACTIVE && Log.logDebugMessages()) {
                 Log.d(LOG_TAG, "Sending our state to " + connection.getRemoteDevice() + "'s beacon: " + ourStateMessage);
@@ -130,15 +133,16 @@ public class ExchangeStatesTask implements Runnable {
 		}
 
         // dispatch THEIR state and connection info to the listener
-		handleDiscoveredBlaubotDevice(connection.getRemoteDevice(), beaconMessage.getCurrentState(), beaconMessage.getOwnConnectionMetaDataList());
+		handleDiscoveredBlaubotDevice(connection.getRemoteDevice(), beaconMessage.getCurrentState(), beaconMessage.getOwnConnectionMetaDataList(), beaconMessage.getCapabilityScore());
 	}
 
-	private void handleDiscoveredBlaubotDevice(final IBlaubotDevice device, final State state, final List<ConnectionMetaDataDTO> myConnectionMetaDataList) {
+	private void handleDiscoveredBlaubotDevice(final IBlaubotDevice device, final State state, final List<ConnectionMetaDataDTO> myConnectionMetaDataList, final int capabilityScore) {
 		if (eventListener != null) {
 			executorService.execute(new Runnable() {
 				@Override
 				public void run() {
 					AbstractBlaubotDeviceDiscoveryEvent event = state.createDiscoveryEventForDevice(device, myConnectionMetaDataList);
+					event.setCapabilityScore(capabilityScore);
 					if (eventListener != null) {
 						eventListener.onDeviceDiscoveryEvent(event);
 					}
@@ -27,6 +27,22 @@ public interface IBlaubotBeaconStore {
      */
     public State getLastKnownState(String uniqueDeviceId);
 
+    /**
+     * Retrieve the last known capability score for a device
+     * @param uniqueDeviceId the device's unique id
+     * @return the last known score or DeviceCapabilities.UNKNOWN_SCORE, if unknown
+     */
+    public int getLastKnownCapabilityScore(String uniqueDeviceId);
+
+    /**
+     * Puts a capability score received from anywhere to the store.
+     * Unknown scores don't overwrite known scores.
+     *
+     * @param uniqueDeviceId the unique device id
+     * @param capabilityScore the device's capability score
+     */
+    public void putCapabilityScore(String uniqueDeviceId, int capabilityScore);
+
     /**
      * Get the last received discovery event for a given uniqueDeviceId
      *
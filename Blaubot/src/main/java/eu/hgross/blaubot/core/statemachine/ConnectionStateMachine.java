@@ -30,6 +30,8 @@ import eu.hgross.blaubot.core.statemachine.states.StoppedState;
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
 import eu.hgross.blaubot.admin.RelayAdminMessage;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
+import eu.hgross.blaubot.util.BlaubotEvents;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -53,6 +55,10 @@ public class ConnectionStateMachine {
 	private final StateMachineSession stateMachineSession;
 	private StateMachineEventDispatcher stateMachineEventDispatcher;
 	protected IBlaubotState currentState;
+	/**
+	 * The time (System.nanoTime()) the current state was entered, only maintained for the event recorder
+	 */
+	private long currentStateSinceNanos;
 
     /**
      * Create the connection state machine for a blaubot instance.
@@ -154,6 +160,8 @@ public class ConnectionStateMachine {
 		if(newState == currentState)
 			return; // do nothing if same state
         IBlaubotState oldState = currentState;
+        final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+        final long transitionStart = recorder != null ? System.nanoTime() : 0;
 		if(Log.logDebugMessages()) {
 			Log.d(LOG_TAG, "[Current state: " + currentState + "] Changing to state " + newState);
 		}
@@ -204,6 +212,11 @@ public class ConnectionStateMachine {
 		if (Log.logDebugMessages()) {
 			Log.d(LOG_TAG, "Done notifying onStateChanged() ...");
 		}
+		if (recorder != null) {
+			final long timeInOldState = currentStateSinceNanos > 0 ? transitionStart - currentStateSinceNanos : 0;
+			recorder.onStateChanged(stateMachineSession.getOwnDevice().getUniqueDeviceID(), oldState.toString(), newState.toString(), timeInOldState, System.nanoTime() - transitionStart);
+		}
+		currentStateSinceNanos = recorder != null ? transitionStart : 0;
 	}
 	
 	/**
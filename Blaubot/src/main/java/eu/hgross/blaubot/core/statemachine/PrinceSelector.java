@@ -0,0 +1,205 @@
+package eu.hgross.blaubot.core.statemachine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the prince out of the king's peasants by the quality of their connections to the king.
+ *
+ * Each candidate gets a score between 0 and 1, which is the weighted sum of
+ * - the rtt (min rtt measured on the connection, RTT_REFERENCE scores 0.5)
+ * - the bandwidth (bottleneck bandwidth of the connection, BANDWIDTH_REFERENCE scores 0.5)
+ * - the uptime (time since the connection was established minus MIN_CONNECTION_AGE, UPTIME_REFERENCE scores 0.5)
+ * - the stability (disconnects and missed prince ACKs within the last STABILITY_WINDOW)
+ * Unknown rtts and bandwidths score 0.5. Equal scores are decided by the unique device id (the greater id wins),
+ * which is the former selection.
+ * The uptime only counts after MIN_CONNECTION_AGE, so the peasants of a fresh kingdom, which connected within
+ * a few seconds, are not ranked by the order of their connects. Without rtt and bandwidth measurements a fresh
+ * kingdom therefore picks the same prince as the former selection.
+ *
+ * A pronounced prince is only replaced, if a challenger's score exceeds the prince's score by SWITCH_MARGIN
+ * during SWITCH_DELAY, so that noisy measurements don't make the prince flap.
+ *
+ * Not thread safe, used from the state machine thread.
+ */
+public class PrinceSelector {
+    /**
+     * The relative amount by which a challenger's score has to exceed the prince's score
+     */
+    public static final double SWITCH_MARGIN = 0.2;
+    /**
+     * The time in ms a challenger has to stay better to replace the prince
+     */
+    public static final long SWITCH_DELAY = 10000;
+    /**
+     * The time span in ms in which disconnects and missed ACKs count against a candidate
+     */
+    public static final long STABILITY_WINDOW = 600000;
+    /**
+     * The connection age in ms from which on the uptime is scored
+     */
+    public static final long MIN_CONNECTION_AGE = 30000;
+    private static final long RTT_REFERENCE = 100000000L;
+    private static final double BANDWIDTH_REFERENCE = 64 * 1024;
+    private static final long UPTIME_REFERENCE = 60000;
+    private static final double RTT_WEIGHT = 0.3;
+    private static final double BANDWIDTH_WEIGHT = 0.3;
+    private static final double UPTIME_WEIGHT = 0.2;
+    private static final double STABILITY_WEIGHT = 0.2;
+
+    /**
+     * Provides the measured statistics of the connections to the candidates.
+     */
+    public interface ILinkStatistics {
+        /**
+         * @param uniqueDeviceId the candidate
+         * @return the rtt in nanoseconds, 0 if unknown
+         */
+        long getRtt(String uniqueDeviceId);
+
+        /**
+         * @param uniqueDeviceId the candidate
+         * @return the bandwidth in bytes per second, 0 if unknown
+         */
+        double getBandwidth(String uniqueDeviceId);
+    }
+
+    private final ILinkStatistics linkStatistics;
+    private final Map<String, Long> connectedSince;
+    private final Map<String, List<Long>> failures;
+    private String challenger;
+    private long challengerSince;
+
+    /**
+     * @param linkStatistics the source of the candidates' rtt and bandwidth
+     */
+    public PrinceSelector(ILinkStatistics linkStatistics) {
+        this.linkStatistics = linkStatistics;
+        this.connectedSince = new HashMap<>();
+        this.failures = new HashMap<>();
+    }
+
+    /**
+     * @param uniqueDeviceId the device that connected to the king
+     * @param now the current time in ms
+     */
+    public void onConnected(String uniqueDeviceId, long now) {
+        connectedSince.put(uniqueDeviceId, now);
+    }
+
+    /**
+     * @param uniqueDeviceId the device whose connection to the king closed
+     * @param now the current time in ms
+     */
+    public void onDisconnected(String uniqueDeviceId, long now) {
+        connectedSince.remove(uniqueDeviceId);
+        addFailure(uniqueDeviceId, now);
+    }
+
+    /**
+     * @param uniqueDeviceId the pronounced prince that did not ACK in time
+     * @param now the current time in ms
+     */
+    public void onAckTimeout(String uniqueDeviceId, long now) {
+        addFailure(uniqueDeviceId, now);
+    }
+
+    private void addFailure(String uniqueDeviceId, long now) {
+        List<Long> deviceFailures = failures.get(uniqueDeviceId);
+        if (deviceFailures == null) {
+            deviceFailures = new ArrayList<>();
+            failures.put(uniqueDeviceId, deviceFailures);
+        }
+        deviceFailures.add(now);
+    }
+
+    private int countRecentFailures(String uniqueDeviceId, long now) {
+        final List<Long> deviceFailures = failures.get(uniqueDeviceId);
+        if (deviceFailures == null) {
+            return 0;
+        }
+        final Iterator<Long> it = deviceFailures.iterator();
+        while (it.hasNext()) {
+            if (now - it.next() > STABILITY_WINDOW) {
+                it.remove();
+            }
+        }
+        if (deviceFailures.isEmpty()) {
+            failures.remove(uniqueDeviceId);
+            return 0;
+        }
+        return deviceFailures.size();
+    }
+
+    /**
+     * @param uniqueDeviceId the candidate
+     * @param now the current time in ms
+     * @return the candidate's score between 0 and 1
+     */
+    public double getScore(String uniqueDeviceId, long now) {
+        final long rtt = linkStatistics.getRtt(uniqueDeviceId);
+        final double rttScore = rtt > 0 ? (double) RTT_REFERENCE / (RTT_REFERENCE + rtt) : 0.5;
+        final double bandwidth = linkStatistics.getBandwidth(uniqueDeviceId);
+        final double bandwidthScore = bandwidth > 0 ? bandwidth / (bandwidth + BANDWIDTH_REFERENCE) : 0.5;
+        Long since = connectedSince.get(uniqueDeviceId);
+        if (since == null) {
+            since = now;
+            connectedSince.put(uniqueDeviceId, now);
+        }
+        final long uptime = Math.max(0, now - since - MIN_CONNECTION_AGE);
+        final double uptimeScore = (double) uptime / (uptime + UPTIME_REFERENCE);
+        final double stabilityScore = 1.0 / (1 + countRecentFailures(uniqueDeviceId, now));
+        return RTT_WEIGHT * rttScore + BANDWIDTH_WEIGHT * bandwidthScore + UPTIME_WEIGHT * uptimeScore + STABILITY_WEIGHT * stabilityScore;
+    }
+
+    /**
+     * Selects the prince.
+     *
+     * @param candidates the unique device ids of the candidates
+     * @param currentPrince the current prince's unique device id or null
+     * @param now the current time in ms
+     * @return the prince or null, if there are no candidates
+     */
+    public String select(List<String> candidates, String currentPrince, long now) {
+        String best = null;
+        double bestScore = -1;
+        for (String candidate : candidates) {
+            final double score = getScore(candidate, now);
+            if (best == null || score > bestScore || (score == bestScore && candidate.compareTo(best) > 0)) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        if (best == null || currentPrince == null || !candidates.contains(currentPrince) || best.equals(currentPrince)) {
+            challenger = null;
+            return best;
+        }
+
+        // hysteresis
+        final double princeScore = getScore(currentPrince, now);
+        if (bestScore <= princeScore * (1 + SWITCH_MARGIN)) {
+            challenger = null;
+            return currentPrince;
+        }
+        if (!best.equals(challenger)) {
+            challenger = best;
+            challengerSince = now;
+            return currentPrince;
+        }
+        if (now - challengerSince < SWITCH_DELAY) {
+            return currentPrince;
+        }
+        challenger = null;
+        return best;
+    }
+
+    /**
+     * @return true, if a challenger waits to replace the prince
+     */
+    public boolean hasChallenger() {
+        return challenger != null;
+    }
+}
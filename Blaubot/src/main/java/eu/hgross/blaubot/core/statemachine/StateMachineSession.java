@@ -4,6 +4,7 @@ import java.util.List;
 
 import eu.hgross.blaubot.core.BlaubotServerConnector;
 import eu.hgross.blaubot.core.ConnectionStateMachineConfig;
+import eu.hgross.blaubot.core.DeviceCapabilities;
 import eu.hgross.blaubot.core.IBlaubotAdapter;
 import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.core.IBlaubotDevice;
@@ -11,6 +12,7 @@ import eu.hgross.blaubot.core.BlaubotConnectionManager;
 import eu.hgross.blaubot.core.ServerConnectionManager;
 import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
 import eu.hgross.blaubot.core.acceptor.discovery.BlaubotBeaconService;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeaconStore;
 import eu.hgross.blaubot.core.connector.IBlaubotConnector;
 import eu.hgross.blaubot.core.statemachine.states.FreeState;
 import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
@@ -20,6 +22,9 @@ import eu.hgross.blaubot.admin.CensusMessage;
 import eu.hgross.blaubot.admin.PronouncePrinceAdminMessage;
 import eu.hgross.blaubot.messaging.BlaubotChannelManager;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
+import eu.hgross.blaubot.messaging.LinkEstimator;
+import eu.hgross.blaubot.util.BlaubotEvents;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -39,6 +44,7 @@ public class StateMachineSession {
     private CensusMessage lastCensusMessage;
 	private PronouncePrinceAdminMessage lastPronouncePrinceAdminMessage;
     private ServerConnectionManager serverConnectionManager;
+    private final PrinceSelector princeSelector;
 
     public StateMachineSession(ConnectionStateMachine stateMachine, IBlaubotDevice ownDevice, ServerConnectionManager serverConnectionManager) {
         this.serverConnectionManager = serverConnectionManager;
@@ -47,6 +53,19 @@ public class StateMachineSession {
 		this.connectionManager = stateMachine.blaubot.getConnectionManager();
 		this.beaconService = stateMachine.getBeaconService();
 		this.channelManager= connectionStateMachine.blaubot.getChannelManager();
+        this.princeSelector = new PrinceSelector(new PrinceSelector.ILinkStatistics() {
+            @Override
+            public long getRtt(String uniqueDeviceId) {
+                final LinkEstimator linkEstimator = channelManager.getLinkEstimator(uniqueDeviceId);
+                return linkEstimator != null ? linkEstimator.getMinRtt() : 0;
+            }
+
+            @Override
+            public double getBandwidth(String uniqueDeviceId) {
+                final LinkEstimator linkEstimator = channelManager.getLinkEstimator(uniqueDeviceId);
+                return linkEstimator != null ? linkEstimator.getBottleneckBandwidth() : 0;
+            }
+        });
 		channelManager.addAdminMessageListener(new IBlaubotAdminMessageListener() {
             @Override
             public void onAdminMessage(AbstractAdminMessage adminMessage) {
@@ -116,6 +135,14 @@ public class StateMachineSession {
 		return connectionStateMachine.blaubot.getAdapters();
 	}
 
+    /**
+     * The prince selector keeps the connection history of the peasants across king states.
+     * @return the prince selector
+     */
+    public PrinceSelector getPrinceSelector() {
+        return princeSelector;
+    }
+
     /**
      * The server connection manager
      * @return
@@ -158,7 +185,9 @@ public class StateMachineSession {
 
     /**
      * Checks whether the other device is greater as our own device or nots.
-     *f
+     * The device with the higher capability score (advertised by the beacons) is greater, a device with an unknown
+     * score is smaller than any device with a score. If the scores are equal, the unique device ids are compared.
+     *
      * @param blaubotDevice the blaubot device to check
      * @return true iff blaubotDevice is greater than our own device
      */
@@ -167,6 +196,14 @@ public class StateMachineSession {
             Log.w(LOG_TAG, "Comparing with myself");
             return true;
         }
+        final IBlaubotBeaconStore beaconStore = beaconService.getBeaconStore();
+        final int ownScore = beaconService.getOwnCapabilityScore();
+        final int theirScore = beaconStore.getLastKnownCapabilityScore(blaubotDevice.getUniqueDeviceID());
+        // compare (score, unique device id) lexicographically to keep the order total and transitive;
+        // devices that did not advertise a score have the UNKNOWN_SCORE (0) and are smaller than any scored device
+        if (ownScore != theirScore) {
+            return theirScore > ownScore;
+        }
         // a.compareTo(b)
         // a<b  -> <0
         // a==b ->  0
@@ -178,6 +215,19 @@ public class StateMachineSession {
         return ownDevice;
     }
 
+    /**
+     * Reports a phase of the king election or prince selection to the event recorder, if recording is enabled.
+     *
+     * @param phase the phase
+     * @param otherUniqueDeviceId the other device of the phase, may be null
+     */
+    public void recordElectionPhase(IBlaubotEventRecorder.ElectionPhase phase, String otherUniqueDeviceId) {
+        final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+        if (recorder != null) {
+            recorder.onElectionPhase(ownDevice.getUniqueDeviceID(), phase, otherUniqueDeviceId);
+        }
+    }
+
     /**
      * Retrieves a guessed ConnectionStateMachineConfig based on the BeaconStore informations from the
      * registered connector's adapters.
@@ -3,6 +3,7 @@ package eu.hgross.blaubot.core.statemachine.events;
 import java.util.ArrayList;
 import java.util.List;
 
+import eu.hgross.blaubot.core.DeviceCapabilities;
 import eu.hgross.blaubot.core.IBlaubotDevice;
 import eu.hgross.blaubot.core.State;
 import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
@@ -24,6 +25,11 @@ public abstract class AbstractBlaubotDeviceDiscoveryEvent extends AbstractBlaubo
      */
 	protected IBlaubotDevice remoteDevice;
 
+    /**
+     * The capability score advertised by the remote device, if known
+     */
+    protected int capabilityScore = DeviceCapabilities.UNKNOWN_SCORE;
+
     /**
      * Gets the remote device for which a state was retrieved
      * @return the remote device for which we retrieved state informations
@@ -32,6 +38,21 @@ public abstract class AbstractBlaubotDeviceDiscoveryEvent extends AbstractBlaubo
 		return this.remoteDevice;
 	}
 
+    /**
+     * The capability score advertised by the remote device (@see {DeviceCapabilities}).
+     * @return the score or DeviceCapabilities.UNKNOWN_SCORE, if the event was created without a score
+     */
+    public int getCapabilityScore() {
+        return capabilityScore;
+    }
+
+    /**
+     * @param capabilityScore the capability score advertised by the remote device
+     */
+    public void setCapabilityScore(int capabilityScore) {
+        this.capabilityScore = capabilityScore;
+    }
+
     /**
      * The remote device's state.
      * @return the state of the remote device
@@ -50,6 +71,7 @@ public abstract class AbstractBlaubotDeviceDiscoveryEvent extends AbstractBlaubo
         sb.append("connectionMetaDataDTOList=").append(connectionMetaDataDTOList);
         sb.append(", remoteDevice=").append(remoteDevice);
         sb.append(", deviceState=").append(getRemoteDeviceState());
+        sb.append(", capabilityScore=").append(capabilityScore);
         sb.append('}');
         return sb.toString();
     }
@@ -0,0 +1,12 @@
+package eu.hgross.blaubot.core.statemachine.events;
+
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
+
+/**
+ * Periodically pushed by the KingState to check, if a better prince candidate is available.
+ */
+public class PrinceReevaluationEvent extends AbstractTimeoutStateMachineEvent {
+	public PrinceReevaluationEvent(IBlaubotState fromState) {
+		super(fromState);
+	}
+}
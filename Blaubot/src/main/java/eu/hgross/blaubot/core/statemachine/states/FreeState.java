@@ -12,6 +12,7 @@ import eu.hgross.blaubot.core.statemachine.events.DiscoveredFreeEvent;
 import eu.hgross.blaubot.core.statemachine.events.DiscoveredKingEvent;
 import eu.hgross.blaubot.core.statemachine.states.PeasantState.ConnectionAccomplishmentType;
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder.ElectionPhase;
 import eu.hgross.blaubot.util.Log;
 
 public class FreeState implements IBlaubotState {
@@ -74,6 +75,7 @@ public class FreeState implements IBlaubotState {
 				if(Log.logDebugMessages()) {
 					Log.d(LOG_TAG, "Successfully connected to King.");
 				}
+				session.recordElectionPhase(ElectionPhase.JOINED_KING, device.getUniqueDeviceID());
 				// change to peasant state
 				return new PeasantState(conn, ConnectionAccomplishmentType.VOLUNTARILY);
 				
@@ -94,6 +96,7 @@ public class FreeState implements IBlaubotState {
 				if(Log.logDebugMessages()) {
 					Log.d(LOG_TAG, "Other Free is greater than we are - trying to connect.");
 				}
+				session.recordElectionPhase(ElectionPhase.YIELDED, device.getUniqueDeviceID());
 				// the other device should get crowned soon
 				// connect to the greater device
 				IBlaubotConnection conn = session.getConnectionManager().connectToBlaubotDevice(device, BlaubotConnectionManager.AUTO_MAX_RETRIES);
@@ -117,6 +120,7 @@ public class FreeState implements IBlaubotState {
 				}
 				// -- we are the greater device
 				// we crown ourselves
+				session.recordElectionPhase(ElectionPhase.CROWNED, device.getUniqueDeviceID());
 				return new KingState();
 			}
 		} else {
@@ -4,25 +4,28 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 
 import eu.hgross.blaubot.core.BlaubotConnectionManager;
-import eu.hgross.blaubot.core.BlaubotKingdomConnection;
 import eu.hgross.blaubot.core.ConnectionStateMachineConfig;
 import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.MultipathKingdomConnection;
 import eu.hgross.blaubot.core.State;
 import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
 import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
 import eu.hgross.blaubot.core.statemachine.BlaubotAdapterHelper;
+import eu.hgross.blaubot.core.statemachine.PrinceSelector;
 import eu.hgross.blaubot.core.statemachine.StateMachineSession;
 import eu.hgross.blaubot.core.statemachine.events.AbstractBlaubotDeviceDiscoveryEvent;
 import eu.hgross.blaubot.core.statemachine.events.AbstractTimeoutStateMachineEvent;
 import eu.hgross.blaubot.core.statemachine.events.DiscoveredKingEvent;
 import eu.hgross.blaubot.core.statemachine.events.KingTimeoutEvent;
+import eu.hgross.blaubot.core.statemachine.events.PrinceReevaluationEvent;
 import eu.hgross.blaubot.core.statemachine.events.PronouncedPrinceACKTimeoutStateMachineEvent;
 import eu.hgross.blaubot.core.statemachine.states.PeasantState.ConnectionAccomplishmentType;
 import eu.hgross.blaubot.admin.ACKPronouncePrinceAdminMessage;
@@ -31,6 +34,9 @@ import eu.hgross.blaubot.admin.BowDownToNewKingAdminMessage;
 import eu.hgross.blaubot.admin.CensusMessage;
 import eu.hgross.blaubot.admin.PronouncePrinceAdminMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.util.BlaubotEvents;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder.ElectionPhase;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -40,6 +46,10 @@ import eu.hgross.blaubot.util.Log;
  */
 public class KingState implements IBlaubotState {
 	private static final String LOG_TAG = "KingState";
+	/**
+	 * The interval in ms in which the prince candidates are re-evaluated
+	 */
+	private static final long PRINCE_REEVALUATION_INTERVAL = 2000;
 	private Timer noConnectionsTimer;
 	private boolean connectingToAnotherKing = false; // TODO: i think this is
 														// now usesless ->
@@ -101,6 +111,7 @@ public class KingState implements IBlaubotState {
 				currentTimer = null;
 			}
 			currentPrinceUniqueId = ackMessage.getUniqueDeviceId();
+			session.recordElectionPhase(ElectionPhase.PRINCE_ACKNOWLEDGED, currentPrinceUniqueId);
 			sendCencusMessage();
 
 		}
@@ -155,8 +166,12 @@ public class KingState implements IBlaubotState {
 			if (Log.logWarningMessages()) {
 				Log.w(LOG_TAG, "Timeout event for prince pronouncing received: re-pronouncing");
 			}
+			if (lastPronouncedPrinceMessage != null) {
+				session.getPrinceSelector().onAckTimeout(lastPronouncedPrinceMessage.getUniqueDeviceId(), System.currentTimeMillis());
+				session.recordElectionPhase(ElectionPhase.PRINCE_ACK_TIMEOUT, lastPronouncedPrinceMessage.getUniqueDeviceId());
+			}
 			currentPrinceUniqueId = null;
-			pronouncePrince();
+			pronouncePrince(false);
 		}
 
 	}
@@ -193,40 +208,33 @@ public class KingState implements IBlaubotState {
 
 	/**
 	 * Pronounces a new prince based on the currently connected devices.
+	 * The prince is chosen by the quality of the connections (@see {PrinceSelector}).
+	 *
+	 * @param onlyIfChanged if true, nothing is sent if the current prince is still the best candidate
 	 */
-	private void pronouncePrince() {
+	private void pronouncePrince(boolean onlyIfChanged) {
 		if (Log.logDebugMessages()) {
 			Log.d(LOG_TAG, "Pronouncing new prince");
 		}
-		// select the new prince
-		List<IBlaubotConnection> connections = session.getConnectionManager().getAllConnections();
-		Collections.sort(connections, new Comparator<IBlaubotConnection>() {
-			@Override
-			public int compare(IBlaubotConnection o1, IBlaubotConnection o2) {
-				return o1.getRemoteDevice().compareTo(o2.getRemoteDevice());
+		// collect the candidates
+		final LinkedHashMap<String, IBlaubotConnection> candidates = new LinkedHashMap<>();
+		MultipathKingdomConnection currentlyUsedServerConnection = session.getServerConnectionManager().getCurrentlyUsedServerConnection();
+		for (IBlaubotConnection connection : session.getConnectionManager().getAllConnections()) {
+			final String uniqueDeviceID = connection.getRemoteDevice().getUniqueDeviceID();
+			// filter server connection(s)
+			if (currentlyUsedServerConnection != null && session.isServerUniqueDeviceId(uniqueDeviceID)) {
+				continue;
 			}
-		});
-		Collections.reverse(connections);
-
-
-        // filter server connection(s)
-        BlaubotKingdomConnection currentlyUsedServerConnection = session.getServerConnectionManager().getCurrentlyUsedServerConnection();
-        if(currentlyUsedServerConnection != null) {
-            ArrayList<IBlaubotConnection> toRemove = new ArrayList<>();
-            for(IBlaubotConnection connection : connections) {
-				final String uniqueDeviceID = connection.getRemoteDevice().getUniqueDeviceID();
-				if (session.isServerUniqueDeviceId(uniqueDeviceID)) {
-                    toRemove.add(connection);
-                }
-            }
-            connections.removeAll(toRemove);
-        }
+			candidates.put(uniqueDeviceID, connection);
+		}
 
-		// if there is at least one connection, take the one with the highest
-		// device unique id (first in list)
-		if (!connections.isEmpty()) {
-			IBlaubotConnection princeConnection = connections.get(0);
-			String newPrinceUniqueId = princeConnection.getRemoteDevice().getUniqueDeviceID();
+		// select the new prince
+		final String newPrinceUniqueId = session.getPrinceSelector().select(new ArrayList<>(candidates.keySet()), currentPrinceUniqueId, System.currentTimeMillis());
+		if (onlyIfChanged && (newPrinceUniqueId == null || newPrinceUniqueId.equals(currentPrinceUniqueId))) {
+			return;
+		}
+		if (newPrinceUniqueId != null) {
+			IBlaubotConnection princeConnection = candidates.get(newPrinceUniqueId);
             final List<ConnectionMetaDataDTO> lastKnownConnectionMetaData = session.getBeaconService().getBeaconStore().getLastKnownConnectionMetaData(newPrinceUniqueId);
             PronouncePrinceAdminMessage princeAdminMessage = new PronouncePrinceAdminMessage(newPrinceUniqueId, lastKnownConnectionMetaData);
 			if (Log.logDebugMessages()) {
@@ -241,6 +249,7 @@ public class KingState implements IBlaubotState {
             int pronouncing_ack_timeout = connectionStateMachineConfigForDevice.getPrinceAckTimeout();
             session.getChannelManager().publishToAllConnections(pronouncePrinceBlaubotMessage);
 			this.princeWatcher.onPronouncedMessageSent(princeAdminMessage, pronouncing_ack_timeout);
+			session.recordElectionPhase(ElectionPhase.PRINCE_PRONOUNCED, newPrinceUniqueId);
 
 			// currentPrinceUniqueId = newPrinceUniqueId; // currently done by
 			// princeWatcher
@@ -257,7 +266,8 @@ public class KingState implements IBlaubotState {
 	@Override
 	public IBlaubotState onConnectionEstablished(IBlaubotConnection connection) {
 		this.noConnectionsTimer.cancel();
-		pronouncePrince();
+		session.getPrinceSelector().onConnected(connection.getRemoteDevice().getUniqueDeviceID(), System.currentTimeMillis());
+		pronouncePrince(false);
 		synchronized (listenerLock) {
 			if (this.peasantConnectionsListener != null)
 				this.peasantConnectionsListener.onConnectionEstablished(connection);
@@ -271,7 +281,8 @@ public class KingState implements IBlaubotState {
         if (Log.logDebugMessages()) {
 			Log.d(LOG_TAG, "A connection was lost/closed. We have " + connectedDevices + " connected devices now.");
 		}
-		this.pronouncePrince();
+		session.getPrinceSelector().onDisconnected(connection.getRemoteDevice().getUniqueDeviceID(), System.currentTimeMillis());
+		this.pronouncePrince(false);
         if (connectedDevices != 0) {
             return this;
         }
@@ -299,6 +310,24 @@ public class KingState implements IBlaubotState {
         return connectedDevicesCount;
     }
 
+    /**
+     * Starts the timer that periodically checks for a better prince candidate.
+     * The timer cancels itself when we leave this state.
+     */
+    private void startPrinceReevaluationTimer() {
+        final Timer timer = new Timer();
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (session.getConnectionStateMachine().getCurrentState() != KingState.this) {
+                    timer.cancel();
+                    return;
+                }
+                session.getConnectionStateMachine().pushStateMachineEvent(new PrinceReevaluationEvent(KingState.this));
+            }
+        }, PRINCE_REEVALUATION_INTERVAL, PRINCE_REEVALUATION_INTERVAL);
+    }
+
     /**
      * Starts the timer for the king timeout (no peasants for some time)
      */
@@ -364,6 +393,8 @@ public class KingState implements IBlaubotState {
 					Log.d(LOG_TAG, "Found a greater king than i am :-/ Have to join the new king (" + remoteDevice + ")");
 					Log.d(LOG_TAG, "Connecting to king " + remoteDevice);
 				}
+				final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+				final long mergeStart = recorder != null ? System.nanoTime() : 0;
 				// connect to the king using the exponential backoff strategy
 				IBlaubotConnection conn = session.getConnectionManager().connectToBlaubotDevice(remoteDevice, BlaubotConnectionManager.AUTO_MAX_RETRIES);
 				boolean connect = conn != null;
@@ -440,12 +471,18 @@ public class KingState implements IBlaubotState {
 					if (Log.logDebugMessages()) {
 						Log.d(LOG_TAG, "Will now transition to PeasantState (BOWED_DOWN).");
 					}
+					if (recorder != null) {
+						recorder.onKingdomMerge(session.getOwnDevice().getUniqueDeviceID(), remoteDevice.getUniqueDeviceID(), true, connections.size(), System.nanoTime() - mergeStart);
+					}
 
 					return new PeasantState(conn, ConnectionAccomplishmentType.BOWED_DOWN);
 				} else {
 					if (Log.logDebugMessages()) {
 						Log.d(LOG_TAG, "Connection to new king failed.");
 					}
+					if (recorder != null) {
+						recorder.onKingdomMerge(session.getOwnDevice().getUniqueDeviceID(), remoteDevice.getUniqueDeviceID(), false, 0, System.nanoTime() - mergeStart);
+					}
 					connectingToAnotherKing = false;
 					createAndStartNewTimer(); // will go to free, if there are
 												// no connections
@@ -467,8 +504,9 @@ public class KingState implements IBlaubotState {
 		this.princeWatcher = new PrinceWatcher();
 		BlaubotAdapterHelper.startAcceptors(session.getConnectionStateMachine().getConnectionAcceptors());
 		BlaubotAdapterHelper.setDiscoveryActivated(session.getBeaconService(), false);
-		// start the timer
+		// start the timers
 		createAndStartNewTimer();
+		startPrinceReevaluationTimer();
 		sendCencusMessage();
         session.getServerConnectionManager().setMaster(true);
 	}
@@ -535,6 +573,11 @@ public class KingState implements IBlaubotState {
 			}
 		} else if (timeoutEvent instanceof PronouncedPrinceACKTimeoutStateMachineEvent) {
 			this.princeWatcher.onTimeout((PronouncedPrinceACKTimeoutStateMachineEvent) timeoutEvent);
+		} else if (timeoutEvent instanceof PrinceReevaluationEvent) {
+			// only re-pronounce an installed prince, pronouncing is in progress otherwise
+			if (timeoutEvent.getConnectionStateMachineState() == this && currentPrinceUniqueId != null) {
+				pronouncePrince(true);
+			}
 		}
 
 		return this;
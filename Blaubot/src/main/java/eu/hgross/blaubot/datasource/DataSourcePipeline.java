@@ -0,0 +1,437 @@
+package eu.hgross.blaubot.datasource;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.messaging.BlaubotChannel;
+import eu.hgross.blaubot.messaging.IBlaubotChannel;
+import eu.hgross.blaubot.messaging.IChannelCodec;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Packs the samples of a high rate data source (i.e. an IMU at 1 kHz) into batches and publishes each batch as
+ * one BlaubotMessage to a channel. A batch is published, when it reaches the max batch size or when its first
+ * sample lingered for the linger time.
+ *
+ * When the channel's queue fills up to the high watermark or rejects a batch, the pipeline pauses, keeps up to
+ * maxPendingBatches full batches and tells its IBackpressureListeners to pause. When the queue drained down to
+ * the low watermark, the pending batches are published and the listeners are told to resume.
+ * The watermarks only apply to BlaubotChannels, other channels pause only when they reject a batch.
+ *
+ * Subscribers receive the samples one by one with an UnbatchingMessageListener using the same sample codec.
+ *
+ * @param <T> the type of the samples
+ */
+public class DataSourcePipeline<T> {
+    private static final String LOG_TAG = "DataSourcePipeline";
+    private static final int DEFAULT_LINGER_TIME = 5;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    private static final int DEFAULT_MAX_PENDING_BATCHES = 16;
+    private static final float DEFAULT_HIGH_WATERMARK = 0.8f;
+    private static final float DEFAULT_LOW_WATERMARK = 0.5f;
+    /**
+     * The interval in ms in which a paused pipeline checks the channel's queue
+     */
+    private static final int RESUME_CHECK_INTERVAL = 2;
+
+    /**
+     * Publishes lingering batches and checks paused pipelines. Shared by all pipelines.
+     */
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "blaubot-datasource-pipeline");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // most batches are full before they linger out
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * A change of the paused state to be told to the listeners
+     */
+    private enum Transition {
+        NONE, PAUSED, RESUMED
+    }
+
+    private final IBlaubotChannel channel;
+    private final SampleBatchCodec<T> batchCodec;
+    private final CopyOnWriteArrayList<IBackpressureListener> backpressureListeners;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private final ArrayDeque<List<T>> pendingBatches;
+    private List<T> currentBatch;
+    private long batchSequence;
+    private ScheduledFuture<?> lingerFuture;
+    private ScheduledFuture<?> resumeCheckFuture;
+    private boolean paused;
+    private boolean closed;
+    private long pushedSamples;
+    private long publishedBatches;
+    private long droppedSamples;
+
+    private volatile int lingerTime = DEFAULT_LINGER_TIME;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile int maxPendingBatches = DEFAULT_MAX_PENDING_BATCHES;
+    private volatile float highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile float lowWatermark = DEFAULT_LOW_WATERMARK;
+
+    /**
+     * @param channel the channel to publish the batches to
+     * @param sampleCodec the codec of the samples, FixedLayoutCodecs produce the most compact batches
+     */
+    public DataSourcePipeline(IBlaubotChannel channel, IChannelCodec<T> sampleCodec) {
+        this.channel = channel;
+        this.batchCodec = new SampleBatchCodec<>(sampleCodec);
+        this.backpressureListeners = new CopyOnWriteArrayList<>();
+        this.pendingBatches = new ArrayDeque<>();
+        this.currentBatch = new ArrayList<>(maxBatchSize);
+    }
+
+    /**
+     * Sets the max time a sample waits for more samples before its batch is published.
+     *
+     * @param lingerTime the linger time in ms, 0 publishes each sample on its own
+     * @return this pipeline
+     */
+    public DataSourcePipeline<T> setLingerTime(int lingerTime) {
+        if (lingerTime < 0) {
+            throw new IllegalArgumentException("Linger time must not be negative");
+        }
+        this.lingerTime = lingerTime;
+        return this;
+    }
+
+    /**
+     * Sets the max number of samples in one batch.
+     *
+     * @param maxBatchSize the max number of samples, at most 65535
+     * @return this pipeline
+     */
+    public DataSourcePipeline<T> setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1 || maxBatchSize > SampleBatchCodec.MAX_SAMPLES) {
+            throw new IllegalArgumentException("Max batch size must be in [1, " + SampleBatchCodec.MAX_SAMPLES + "]");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of full batches kept while paused. Samples pushed afterwards are dropped.
+     *
+     * @param maxPendingBatches the max number of pending batches
+     * @return this pipeline
+     */
+    public DataSourcePipeline<T> setMaxPendingBatches(int maxPendingBatches) {
+        if (maxPendingBatches < 0) {
+            throw new IllegalArgumentException("Max pending batches must not be negative");
+        }
+        this.maxPendingBatches = maxPendingBatches;
+        return this;
+    }
+
+    /**
+     * Sets the fill levels of the channel's queue to pause and resume at.
+     *
+     * @param highWatermark pause, when the queue is filled to this fraction of its capacity
+     * @param lowWatermark resume, when the queue drained to this fraction of its capacity
+     * @return this pipeline
+     */
+    public DataSourcePipeline<T> setWatermarks(float highWatermark, float lowWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > 1) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low <= high <= 1");
+        }
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        return this;
+    }
+
+    public void addBackpressureListener(IBackpressureListener listener) {
+        backpressureListeners.add(listener);
+    }
+
+    public void removeBackpressureListener(IBackpressureListener listener) {
+        backpressureListeners.remove(listener);
+    }
+
+    /**
+     * Adds a sample to the current batch.
+     *
+     * @param sample the sample, must not be modified afterwards
+     * @return true, iff the sample was added or false, if it was dropped because the pipeline is paused and
+     * its pending batches are full
+     * @throws IllegalStateException if the pipeline was closed
+     */
+    public boolean push(T sample) {
+        Transition transition = Transition.NONE;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("The pipeline was closed");
+            }
+            if (paused && pendingBatches.size() >= maxPendingBatches && currentBatch.size() >= maxBatchSize) {
+                droppedSamples += 1;
+                return false;
+            }
+            currentBatch.add(sample);
+            pushedSamples += 1;
+            if (currentBatch.size() >= maxBatchSize || lingerTime == 0) {
+                if (!paused || pendingBatches.size() < maxPendingBatches) {
+                    transition = sealCurrentBatch();
+                }
+            } else if (currentBatch.size() == 1) {
+                scheduleLinger();
+            }
+        }
+        notifyListeners(transition);
+        return true;
+    }
+
+    /**
+     * Publishes the current batch without waiting for the linger time.
+     * If the pipeline is paused, the batch is kept as pending batch.
+     */
+    public void flush() {
+        final Transition transition;
+        synchronized (lock) {
+            transition = sealCurrentBatch();
+        }
+        notifyListeners(transition);
+    }
+
+    /**
+     * Flushes the current batch and stops the pipeline.
+     * Pending batches that the channel does not accept right now are dropped.
+     */
+    public void close() {
+        final Transition transition;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            transition = sealCurrentBatch();
+            closed = true;
+            cancelFutures();
+            for (List<T> batch : pendingBatches) {
+                droppedSamples += batch.size();
+            }
+            if (!pendingBatches.isEmpty() && Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Closed with " + pendingBatches.size() + " pending batches on channel #" + channel.getChannelConfig().getChannelId());
+            }
+            pendingBatches.clear();
+        }
+        notifyListeners(transition);
+    }
+
+    /**
+     * @return true, iff the pipeline waits for the channel's queue to drain
+     */
+    public boolean isPaused() {
+        synchronized (lock) {
+            return paused;
+        }
+    }
+
+    /**
+     * @return the number of samples added by push()
+     */
+    public long getPushedSampleCount() {
+        synchronized (lock) {
+            return pushedSamples;
+        }
+    }
+
+    /**
+     * @return the number of batches accepted by the channel
+     */
+    public long getPublishedBatchCount() {
+        synchronized (lock) {
+            return publishedBatches;
+        }
+    }
+
+    /**
+     * @return the number of samples dropped while paused or on close()
+     */
+    public long getDroppedSampleCount() {
+        synchronized (lock) {
+            return droppedSamples;
+        }
+    }
+
+    /**
+     * Moves the current batch to the pending batches and publishes as many pending batches as the channel accepts.
+     * Must hold the lock.
+     *
+     * @return the change of the paused state
+     */
+    private Transition sealCurrentBatch() {
+        if (lingerFuture != null) {
+            lingerFuture.cancel(false);
+            lingerFuture = null;
+        }
+        batchSequence += 1;
+        if (!currentBatch.isEmpty()) {
+            pendingBatches.addLast(currentBatch);
+            currentBatch = new ArrayList<>(maxBatchSize);
+        }
+        return paused ? Transition.NONE : publishPendingBatches();
+    }
+
+    /**
+     * Publishes the pending batches until the channel's queue reaches the high watermark or rejects a batch.
+     * Must hold the lock.
+     *
+     * @return PAUSED, if the pipeline was paused
+     */
+    private Transition publishPendingBatches() {
+        while (!pendingBatches.isEmpty()) {
+            if (getQueueFill() >= highWatermark) {
+                return pause();
+            }
+            if (!channel.publish(pendingBatches.peekFirst(), batchCodec, 0)) {
+                return pause();
+            }
+            pendingBatches.removeFirst();
+            publishedBatches += 1;
+        }
+        return Transition.NONE;
+    }
+
+    /**
+     * Must hold the lock.
+     *
+     * @return PAUSED
+     */
+    private Transition pause() {
+        paused = true;
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Pausing on channel #" + channel.getChannelConfig().getChannelId() + " with " + pendingBatches.size() + " pending batches");
+        }
+        resumeCheckFuture = TIMER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkResume();
+            }
+        }, RESUME_CHECK_INTERVAL, RESUME_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        return Transition.PAUSED;
+    }
+
+    /**
+     * Called periodically while paused.
+     */
+    private void checkResume() {
+        Transition transition = Transition.NONE;
+        synchronized (lock) {
+            if (!paused || closed || getQueueFill() > lowWatermark) {
+                return;
+            }
+            paused = false;
+            resumeCheckFuture.cancel(false);
+            resumeCheckFuture = null;
+            // the current batch may have lingered out while paused
+            if (!currentBatch.isEmpty()) {
+                pendingBatches.addLast(currentBatch);
+                currentBatch = new ArrayList<>(maxBatchSize);
+                batchSequence += 1;
+            }
+            // the queue may fill up again while catching up
+            if (publishPendingBatches() == Transition.NONE) {
+                transition = Transition.RESUMED;
+            }
+        }
+        notifyListeners(transition);
+    }
+
+    /**
+     * Publishes the current batch after the linger time.
+     * Must hold the lock.
+     */
+    private void scheduleLinger() {
+        final long sequence = batchSequence;
+        lingerFuture = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                final Transition transition;
+                synchronized (lock) {
+                    if (closed || sequence != batchSequence) {
+                        // already published
+                        return;
+                    }
+                    if (paused && pendingBatches.size() >= maxPendingBatches) {
+                        // published on resume
+                        lingerFuture = null;
+                        return;
+                    }
+                    transition = sealCurrentBatch();
+                }
+                notifyListeners(transition);
+            }
+        }, lingerTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void cancelFutures() {
+        if (lingerFuture != null) {
+            lingerFuture.cancel(false);
+            lingerFuture = null;
+        }
+        if (resumeCheckFuture != null) {
+            resumeCheckFuture.cancel(false);
+            resumeCheckFuture = null;
+        }
+    }
+
+    /**
+     * @return the fill level of the channel's queue in [0, 1] or 0, if unknown
+     */
+    private float getQueueFill() {
+        if (!(channel instanceof BlaubotChannel)) {
+            return 0;
+        }
+        final BlaubotChannel blaubotChannel = (BlaubotChannel) channel;
+        final int capacity = blaubotChannel.getQueueCapacity();
+        return capacity > 0 ? (float) blaubotChannel.getQueueSize() / capacity : 0;
+    }
+
+    private void notifyListeners(Transition transition) {
+        if (transition == Transition.NONE) {
+            return;
+        }
+        for (IBackpressureListener listener : backpressureListeners) {
+            if (transition == Transition.PAUSED) {
+                listener.onPause();
+            } else {
+                listener.onResume();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("DataSourcePipeline{");
+        synchronized (lock) {
+            sb.append("channelId=").append(channel.getChannelConfig().getChannelId());
+            sb.append(", paused=").append(paused);
+            sb.append(", pendingBatches=").append(pendingBatches.size());
+            sb.append(", pushedSamples=").append(pushedSamples);
+            sb.append(", publishedBatches=").append(publishedBatches);
+            sb.append(", droppedSamples=").append(droppedSamples);
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
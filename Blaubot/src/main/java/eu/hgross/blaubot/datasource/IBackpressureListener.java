@@ -0,0 +1,19 @@
+package eu.hgross.blaubot.datasource;
+
+/**
+ * Tells the producer of a DataSourcePipeline to pause and resume pushing samples.
+ * Called by the thread that detected the change (a pushing thread or the pipeline's timer), without holding
+ * the pipeline's lock. Must not block.
+ */
+public interface IBackpressureListener {
+    /**
+     * The channel's queue is (nearly) full. Samples pushed from now on are buffered until the pipeline's
+     * buffer is full and dropped afterwards.
+     */
+    void onPause();
+
+    /**
+     * The channel's queue drained, samples can be pushed again.
+     */
+    void onResume();
+}
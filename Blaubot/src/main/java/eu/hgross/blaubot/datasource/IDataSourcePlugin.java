@@ -5,6 +5,7 @@ package eu.hgross.blaubot.datasource;
  * blaubot. once a data source plugin has been activated, it provides data from
  * a specific source such as a rotation sensor or the position of fingers on the
  * touchscreen and sends these data via a specific channel to other devices.
+ * High rate sources should push their samples into a DataSourcePipeline instead of publishing each sample.
  * @deprecated
  */
 public interface IDataSourcePlugin {
@@ -0,0 +1,101 @@
+package eu.hgross.blaubot.datasource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.FixedLayoutCodec;
+import eu.hgross.blaubot.messaging.IChannelCodec;
+
+/**
+ * Packs many samples into the payload of one BlaubotMessage:
+ *
+ * sample count (2), sample length (2), samples
+ *
+ * Samples of a FixedLayoutCodec are written back to back with the sample length in the header. For other codecs
+ * the header's sample length is VARIABLE_LENGTH and each sample is prefixed with its length (2).
+ *
+ * @param <T> the type of the samples
+ */
+class SampleBatchCodec<T> implements IChannelCodec<List<T>> {
+    private static final int HEADER_LENGTH = 2 + 2;
+    private static final int SAMPLE_LENGTH_FIELD_LENGTH = 2;
+    private static final int VARIABLE_LENGTH = 0;
+    /**
+     * The max number of samples in one batch
+     */
+    static final int MAX_SAMPLES = 0xFFFF;
+
+    /**
+     * Called for each sample of a received batch
+     *
+     * @param <T> the type of the samples
+     */
+    interface ISampleVisitor<T> {
+        void onSample(T sample);
+    }
+
+    private final IChannelCodec<T> sampleCodec;
+    private final int fixedLength;
+
+    SampleBatchCodec(IChannelCodec<T> sampleCodec) {
+        this.sampleCodec = sampleCodec;
+        this.fixedLength = sampleCodec instanceof FixedLayoutCodec && ((FixedLayoutCodec<T>) sampleCodec).getLength() <= 0xFFFF ? ((FixedLayoutCodec<T>) sampleCodec).getLength() : VARIABLE_LENGTH;
+    }
+
+    @Override
+    public int getEncodedLength(List<T> samples) {
+        if (fixedLength != VARIABLE_LENGTH) {
+            return HEADER_LENGTH + samples.size() * fixedLength;
+        }
+        int length = HEADER_LENGTH;
+        for (T sample : samples) {
+            length += SAMPLE_LENGTH_FIELD_LENGTH + sampleCodec.getEncodedLength(sample);
+        }
+        return length;
+    }
+
+    @Override
+    public void encode(List<T> samples, ByteBuffer buffer) {
+        buffer.putShort((short) samples.size());
+        buffer.putShort((short) fixedLength);
+        for (T sample : samples) {
+            if (fixedLength == VARIABLE_LENGTH) {
+                buffer.putShort((short) sampleCodec.getEncodedLength(sample));
+            }
+            sampleCodec.encode(sample, buffer);
+        }
+    }
+
+    @Override
+    public List<T> decode(ByteBuffer buffer) {
+        final List<T> samples = new ArrayList<>();
+        decode(buffer, new ISampleVisitor<T>() {
+            @Override
+            public void onSample(T sample) {
+                samples.add(sample);
+            }
+        });
+        return samples;
+    }
+
+    /**
+     * Decodes the samples of a batch one by one without collecting them.
+     *
+     * @param buffer the batch
+     * @param visitor called for each sample
+     */
+    void decode(ByteBuffer buffer, ISampleVisitor<T> visitor) {
+        final int count = buffer.getShort() & 0xFFFF;
+        final int sampleLength = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            final int length = sampleLength != VARIABLE_LENGTH ? sampleLength : buffer.getShort() & 0xFFFF;
+            // let the sample codec only see the sample's bytes
+            final ByteBuffer sampleBuffer = buffer.slice().order(BlaubotConstants.BYTE_ORDER);
+            sampleBuffer.limit(length);
+            visitor.onSample(sampleCodec.decode(sampleBuffer));
+            buffer.position(buffer.position() + length);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package eu.hgross.blaubot.datasource;
+
+import java.nio.ByteBuffer;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.messaging.IChannelCodec;
+import eu.hgross.blaubot.messaging.ITypedMessageListener;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Receives the batches published by a DataSourcePipeline and passes the samples one by one to a listener.
+ * The samples are decoded straight from the received payload.
+ *
+ *      channel.subscribe(new UnbatchingMessageListener<>(IMU_SAMPLE_CODEC, new ITypedMessageListener<ImuSample>() {
+ *          public void onMessage(ImuSample sample, BlaubotMessage batch) {
+ *              ...
+ *          }
+ *      }));
+ *
+ * @param <T> the type of the samples
+ */
+public class UnbatchingMessageListener<T> implements IBlaubotMessageListener {
+    private static final String LOG_TAG = "UnbatchingMessageListener";
+    private final SampleBatchCodec<T> batchCodec;
+    private final ITypedMessageListener<T> sampleListener;
+
+    /**
+     * @param sampleCodec the codec of the samples, the same as the pipeline's
+     * @param sampleListener called for each sample with the sample and the batch it was received in
+     */
+    public UnbatchingMessageListener(IChannelCodec<T> sampleCodec, ITypedMessageListener<T> sampleListener) {
+        this.batchCodec = new SampleBatchCodec<>(sampleCodec);
+        this.sampleListener = sampleListener;
+    }
+
+    @Override
+    public void onMessage(final BlaubotMessage blaubotMessage) {
+        final byte[] payload = blaubotMessage.getPayload();
+        if (payload == null || payload.length == 0) {
+            return;
+        }
+        try {
+            batchCodec.decode(ByteBuffer.wrap(payload).order(BlaubotConstants.BYTE_ORDER), new SampleBatchCodec.ISampleVisitor<T>() {
+                @Override
+                public void onSample(T sample) {
+                    sampleListener.onMessage(sample, blaubotMessage);
+                }
+            });
+        } catch (RuntimeException e) {
+            // i.e. a BufferUnderflowException for a message not published by a pipeline
+            if (Log.logErrorMessages()) {
+                Log.e(LOG_TAG, "Could not unbatch a message on channel #" + blaubotMessage.getChannelId() + ": " + e);
+            }
+        }
+    }
+}
@@ -2,16 +2,21 @@ package eu.hgross.blaubot.messaging;
 
 import java.util.Observable;
 import java.util.Observer;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import eu.hgross.blaubot.admin.AddSubscriptionAdminMessage;
 import eu.hgross.blaubot.admin.RemoveSubscriptionAdminMessage;
+import eu.hgross.blaubot.util.BlaubotEvents;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder;
 import eu.hgross.blaubot.util.Log;
 
 
@@ -33,7 +38,11 @@ import eu.hgross.blaubot.util.Log;
  * queue and hands this messages to the BlaubotChannelManager.
  *
  * To influence the MessagePicking and message rates, @see {BlaubotChannel#getChannelConfig}.
- * The picking and rates can be changed at runtime.
+ * The picking, rates, priority and queue capacity can be changed at runtime. The changes are applied to
+ * the running channel without stopping the processing or dropping queued messages.
+ *
+ * If the channel manager was created with a shared executor, no processing thread is created. Instead
+ * the queue is processed on demand by tasks scheduled on the shared executor while messages are queued.
  */
 public class BlaubotChannel implements IBlaubotChannel {
     private static final String LOG_TAG = "BlaubotChannel";
@@ -64,13 +73,30 @@ public class BlaubotChannel implements IBlaubotChannel {
      * The bounded queue where all messages go to on {BlaubotChannel#publish} calls.
      * See the queueProcessor doc.
      */
-    private BlockingQueue<BlaubotMessage> messageQueue;
+    private volatile BlockingQueue<BlaubotMessage> messageQueue;
 
     private long sentMessages = 0;
     private long sentBytes = 0;
     private long receivedMessages = 0;
     private long receivedBytes = 0;
 
+    /**
+     * Counts the published messages to decide which ones are sampled for tracing.
+     */
+    private final AtomicLong publishCounter = new AtomicLong(0);
+    /**
+     * Aggregated hop latencies of the traced messages received on this channel.
+     */
+    private final MessageTraceStatistics traceStatistics = new MessageTraceStatistics();
+    /**
+     * Counts the messages of this channel that were dropped because their time to live expired.
+     */
+    private final AtomicLong expiredMessages = new AtomicLong(0);
+    /**
+     * Counts the published messages that were not added because the queue was full.
+     */
+    private final AtomicLong rejectedMessages = new AtomicLong(0);
+
     /**
      * The queueProcessor is a Runnable, that uses the channel's config to retrieve
      * the message picker strategy to empty the channel's message queue.
@@ -93,8 +119,14 @@ public class BlaubotChannel implements IBlaubotChannel {
                     return;
                 }
                 final IBlaubotMessagePickerStrategy picker = channelConfig.getMessagePicker();
-                final BlaubotMessage blaubotMessage = picker.pickNextMessage(messageQueue);
+                BlaubotMessage blaubotMessage = picker.pickNextMessage(messageQueue);
+                // drop expired messages and pick the next one in the same run (without waiting for new ones)
+                while (blaubotMessage != null && blaubotMessage.isExpired()) {
+                    onMessageExpired(blaubotMessage);
+                    blaubotMessage = messageQueue.isEmpty() ? null : picker.pickNextMessage(messageQueue);
+                }
                 if (blaubotMessage != null) {
+                    blaubotMessage.stampTrace(MessageTrace.TracePoint.PICKED);
                     final int connectionCount = channelManager.publishChannelMessage(blaubotMessage);
                     final boolean wasNotSendToAnyConnection = connectionCount <= 0;
                     if (wasNotSendToAnyConnection) {
@@ -102,7 +134,7 @@ public class BlaubotChannel implements IBlaubotChannel {
                             Log.w(LOG_TAG, "A picked message was not committed to any MessageSender.");
                         }
                     } else {
-                        sentBytes += blaubotMessage.getPayload().length;
+                        sentBytes += blaubotMessage.getPayloadLength();
                         sentMessages += 1;
                     }
                 }
@@ -113,11 +145,113 @@ public class BlaubotChannel implements IBlaubotChannel {
         }
     };
 
+    /**
+     * Runs the queueProcessor on the channel's own executor.
+     * Each run schedules the next one with the currently configured message rate, so that rate changes are
+     * applied without restarting the executor.
+     */
+    private class QueueProcessingTask {
+        private final ScheduledExecutorService executor;
+        /**
+         * The number of the currently scheduled run; superseded runs do nothing
+         */
+        private long scheduledRun = 0;
+        private ScheduledFuture<?> future;
+
+        private QueueProcessingTask(ScheduledExecutorService executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Schedules the next run. Has to be called with the monitor of this task held.
+         * @param delay the delay in ms
+         */
+        private void schedule(long delay) {
+            final long run = ++scheduledRun;
+            try {
+                future = executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        process(run);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the executor was shut down
+            }
+        }
+
+        private void process(long run) {
+            synchronized (this) {
+                if (run != scheduledRun) {
+                    return;
+                }
+            }
+            queueProcessor.run();
+            synchronized (this) {
+                if (run == scheduledRun) {
+                    schedule(channelConfig.getMinMessageRateDelay());
+                }
+            }
+        }
+
+        /**
+         * Replaces the pending run by a run with the current message rate.
+         */
+        private synchronized void reschedule() {
+            if (future != null) {
+                future.cancel(false);
+            }
+            schedule(channelConfig.getMinMessageRateDelay());
+        }
+    }
+
+    /**
+     * Runs the queueProcessor once on the channel manager's shared executor and reschedules itself,
+     * if there are more messages to process.
+     * It does not wait for messages, so that it never blocks a thread of the shared executor.
+     */
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (drainMonitor) {
+                drainScheduled.set(false);
+                if (!sharedProcessingActive || messageQueue.isEmpty()) {
+                    return;
+                }
+                queueProcessor.run();
+            }
+            if (!messageQueue.isEmpty()) {
+                scheduleDrain(channelConfig.getMinMessageRateDelay());
+            }
+        }
+    };
+
+    /**
+     * True, iff the channel is activated and processes its queue on the shared executor.
+     */
+    private volatile boolean sharedProcessingActive = false;
+    /**
+     * True, iff a drainTask is scheduled and not yet started.
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    /**
+     * The last scheduled drainTask
+     */
+    private volatile ScheduledFuture<?> drainFuture;
+    /**
+     * Held by the drainTask while processing.
+     */
+    private final Object drainMonitor = new Object();
+
     /**
      * The ExecutorService that is used to run the queueProcessor.
      * It is created/shut down by the activate/deactivate methods.
      */
     private ScheduledExecutorService executorService;
+    /**
+     * Runs the queueProcessor on the executorService
+     */
+    private volatile QueueProcessingTask queueProcessingTask;
     /**
      * The max time for the executorService to shut down on deactivate()
      */
@@ -126,6 +260,14 @@ public class BlaubotChannel implements IBlaubotChannel {
      * Locks access to the executorService variable.
      */
     private final Object activateDeactivateMonitor = new Object();
+    /**
+     * Held while the message queue is replaced or messages are moved to it.
+     */
+    private final Object messageQueueMonitor = new Object();
+    /**
+     * The messages retained for late subscribers, if this device is king (null, if retention is disabled)
+     */
+    private volatile RetainedHistory retainedHistory;
 
 
     /**
@@ -142,96 +284,269 @@ public class BlaubotChannel implements IBlaubotChannel {
         this.setUpMessageQueue();
     }
 
+    /**
+     * Applies the retention settings of the channel config.
+     * The retained messages are dropped, if the policy changed.
+     */
+    private synchronized void applyRetention() {
+        final RetentionPolicy policy = channelConfig.getRetentionPolicy();
+        final RetainedHistory history = retainedHistory;
+        if (policy == RetentionPolicy.NONE) {
+            retainedHistory = null;
+        } else if (history == null || history.getPolicy() != policy) {
+            retainedHistory = new RetainedHistory(policy, channelConfig.getRetentionCapacity());
+        } else {
+            synchronized (history) {
+                history.setCapacity(channelConfig.getRetentionCapacity());
+            }
+        }
+    }
+
+    /**
+     * The messages retained for late subscribers.
+     * Only filled, while this device is king. The BlaubotChannelManager synchronizes on the history.
+     *
+     * @return the history or null, if retention is disabled
+     */
+    protected RetainedHistory getRetainedHistory() {
+        return retainedHistory;
+    }
+
+    /**
+     * Extracts the key for the LAST_PER_KEY retention from a dispatched message.
+     *
+     * @param message the message
+     * @return the key or null
+     */
+    protected Object extractRetentionKey(BlaubotMessage message) {
+        final IBlaubotMessageKeyExtractor keyExtractor = channelConfig.getMessageKeyExtractor();
+        return keyExtractor != null ? keyExtractor.extractKey(message) : null;
+    }
+
+    /**
+     * The number of messages currently retained for late subscribers (king only).
+     *
+     * @return the number of retained messages
+     */
+    public int getRetainedMessageCount() {
+        final RetainedHistory history = retainedHistory;
+        if (history == null) {
+            return 0;
+        }
+        synchronized (history) {
+            return history.size();
+        }
+    }
+
+    /**
+     * Drops the retained messages, i.e. if this device is no longer king.
+     */
+    protected void clearRetainedMessages() {
+        if (retainedHistory != null) {
+            retainedHistory = null;
+            applyRetention();
+        }
+    }
+
     /**
      * Creates the message queue.
      * If the message queue is not null, a new one is created and the messages of the old queue
-     * are appended to the new one.
+     * are moved to the new one.
      */
     private void setUpMessageQueue() {
-        final ArrayBlockingQueue<BlaubotMessage> newMessageQueue = new ArrayBlockingQueue<>(channelConfig.getQueueCapacity());
-        int sizeBefore = 0;
-        boolean allTransferred = true;
-        if (this.messageQueue != null) {
-            sizeBefore = messageQueue.size();
-            try {
-                // drain the old queue to the new one
-                this.messageQueue.drainTo(newMessageQueue);
-            } catch (IllegalStateException e) {
-                // -- the new queue size is to small for the messages
-                allTransferred = false;
+        synchronized (messageQueueMonitor) {
+            final IResizableMessageQueue newMessageQueue;
+            if (channelConfig.getPickerStrategy() == BlaubotChannelConfig.MessagePickerStrategy.CONFLATE_BY_KEY) {
+                newMessageQueue = new ConflatingMessageQueue(channelConfig.getQueueCapacity(), channelConfig);
+            } else if (channelConfig.isOverflowEnabled()) {
+                newMessageQueue = new SpillingMessageQueue(channelConfig.getQueueCapacity(), channelConfig.getOverflowDirectory(), channelConfig.getOverflowCapacity(), channelConfig.getChannelId());
+            } else {
+                newMessageQueue = new ResizableMessageQueue(channelConfig.getQueueCapacity());
+            }
+            final BlockingQueue<BlaubotMessage> oldMessageQueue = this.messageQueue;
+            this.messageQueue = newMessageQueue;
+            if (oldMessageQueue != null) {
+                // the messages added before sealing are moved, the publishers offering to the old queue afterwards
+                // offer again to the new one (@see {BlaubotChannel#enqueue}) and the queue processor stops waiting on it
+                ((IResizableMessageQueue) oldMessageQueue).seal();
+                moveMessages(oldMessageQueue, newMessageQueue);
+                if (oldMessageQueue instanceof SpillingMessageQueue) {
+                    ((SpillingMessageQueue) oldMessageQueue).close();
+                }
             }
         }
-        this.messageQueue = newMessageQueue;
-        final int sizeAfter = messageQueue.size();
-        if (sizeAfter != sizeBefore) {
-            allTransferred = false;
-        }
-        if (!allTransferred) {
-            // log error and move on
-            if (Log.logErrorMessages()) {
-                Log.e(LOG_TAG, "Could not add all of the previous messages to the queue (new queue size was smaller than the amount of messages in the queue). Dropped all messages exceeding the capacity.");
+    }
+
+    /**
+     * Moves the messages of a replaced queue to the current queue.
+     * The queue is enlarged while moving, so that no message is dropped, if the replaced queue held more
+     * messages than the capacity (they are sent before new messages are accepted).
+     *
+     * @param from the replaced queue
+     * @param to the current queue
+     */
+    private void moveMessages(BlockingQueue<BlaubotMessage> from, IResizableMessageQueue to) {
+        synchronized (messageQueueMonitor) {
+            final int capacity = to.getCapacity();
+            int dropped = 0;
+            BlaubotMessage message;
+            while ((message = from.poll()) != null) {
+                boolean moved = to.offer(message);
+                while (!moved && to.size() >= to.getCapacity()) {
+                    // the queue may hold more messages than its capacity (it was shrunk or messages were moved before)
+                    // and publishers may take the enlarged capacity concurrently
+                    to.setCapacity(to.size() + from.size() + 1);
+                    moved = to.offer(message);
+                }
+                if (!moved) {
+                    // the overflow is exhausted
+                    dropped += 1;
+                }
+            }
+            to.setCapacity(capacity);
+            if (dropped > 0 && Log.logErrorMessages()) {
+                Log.e(LOG_TAG, "Could not move " + dropped + " messages to the new message queue of channel #" + channelConfig.getChannelId() + ". Dropped them.");
             }
         }
     }
 
     /**
-     * Listens to changes of the channel config at runtime and restarts
-     * the channel if needed.
+     * Listens to changes of the channel config at runtime and applies them to the running channel.
      */
     private Observer channelConfigObserver = new Observer() {
         @Override
         public void update(Observable o, Object arg) {
             if (o == channelConfig) {
+                if (channelConfig.getRetentionPolicy() != RetentionPolicy.NONE || retainedHistory != null) {
+                    applyRetention();
+                }
+                // the second arg tells us, if the queue or the message rate changed
                 if (arg instanceof Boolean && ((Boolean) arg).booleanValue()) {
-                    if (Log.logDebugMessages()) {
-                        Log.d(LOG_TAG, "BlaubotChannelConfig changed and restart of channel needed. Restarting BlaubotChannel ...");
-                    }
-                    // restart channel, if the config notified that this is necessary, which is
-                    // told us by the second arg - yeah we could introduce a new listener, but why.
-                    restart();
+                    reconfigure();
                 }
             }
         }
     };
 
     /**
-     * Deactivates, then activates the channel to reflect changes made to the channel config.
-     * (Executor restart)
+     * Applies the queue capacity, queue type and message rate of the channel config to the running channel.
+     * The queue is only replaced, if its type changed (conflation, overflow), the processing is not stopped.
      */
-    private synchronized void restart() {
-        boolean wasActiveBefore = deactivate();
-        if (wasActiveBefore) {
-            if (Log.logDebugMessages()) {
-                Log.d(LOG_TAG, "BlaubotChannel #" + channelConfig.getChannelId() + " was activated before the restart, re-activating ...");
-            }
-            activate();
-        } else {
-            if (Log.logDebugMessages()) {
-                Log.d(LOG_TAG, "BlaubotChannel #" + channelConfig.getChannelId() + " was not activated before the restart. Not activating the channel.");
+    private void reconfigure() {
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "BlaubotChannelConfig of channel #{} changed, applying it ...", channelConfig.getChannelId());
+        }
+        synchronized (messageQueueMonitor) {
+            final BlockingQueue<BlaubotMessage> queue = messageQueue;
+            if (!isMessageQueueTypeUpToDate(queue)) {
+                setUpMessageQueue();
+            } else {
+                final IResizableMessageQueue resizableQueue = (IResizableMessageQueue) queue;
+                if (resizableQueue.getCapacity() != channelConfig.getQueueCapacity()) {
+                    resizableQueue.setCapacity(channelConfig.getQueueCapacity());
+                }
             }
         }
+
+        // apply the message rate to the pending run
+        final QueueProcessingTask task = queueProcessingTask;
+        if (task != null) {
+            task.reschedule();
+        }
+        final ScheduledFuture<?> future = drainFuture;
+        if (sharedProcessingActive && future != null && future.cancel(false)) {
+            drainScheduled.set(false);
+            scheduleDrain(channelConfig.getMinMessageRateDelay());
+        }
     }
 
     @Override
     public boolean publish(BlaubotMessage blaubotMessage) {
-        setUpChannelMessage(blaubotMessage);
-        final boolean addedToQueue = messageQueue.offer(blaubotMessage);
-        return addedToQueue;
+        return enqueue(blaubotMessage);
     }
 
     @Override
     public boolean publish(BlaubotMessage blaubotMessage, long timeout) {
+        return enqueue(blaubotMessage, timeout);
+    }
+
+    /**
+     * Adds a message to the queue without blocking.
+     *
+     * @param blaubotMessage the message to be published through this channel
+     * @return true, iff the message was added to the queue
+     */
+    private boolean enqueue(BlaubotMessage blaubotMessage) {
+        setUpChannelMessage(blaubotMessage);
+        BlockingQueue<BlaubotMessage> queue = messageQueue;
+        boolean addedToQueue = queue.offer(blaubotMessage);
+        while (!addedToQueue && isReplaced(queue)) {
+            queue = messageQueue;
+            addedToQueue = queue.offer(blaubotMessage);
+        }
+        if (addedToQueue) {
+            scheduleDrain(0);
+        } else {
+            rejectedMessages.incrementAndGet();
+        }
+        recordPublish(blaubotMessage, addedToQueue, queue);
+        return addedToQueue;
+    }
+
+    /**
+     * @param queue the queue a message was offered to
+     * @return true, iff the queue was replaced and the message has to be offered to the current queue
+     */
+    private boolean isReplaced(BlockingQueue<BlaubotMessage> queue) {
+        return queue != messageQueue && ((IResizableMessageQueue) queue).isSealed();
+    }
+
+    /**
+     * Adds a message to the queue, blocking up to timeout ms if the queue is full.
+     *
+     * @param blaubotMessage the message to be published through this channel
+     * @param timeout the timeout in ms
+     * @return true, iff the message was added to the queue
+     */
+    private boolean enqueue(BlaubotMessage blaubotMessage, long timeout) {
         setUpChannelMessage(blaubotMessage);
         try {
-            return messageQueue.offer(blaubotMessage, timeout, TimeUnit.MILLISECONDS);
+            BlockingQueue<BlaubotMessage> queue = messageQueue;
+            boolean addedToQueue = queue.offer(blaubotMessage, timeout, TimeUnit.MILLISECONDS);
+            while (!addedToQueue && isReplaced(queue)) {
+                queue = messageQueue;
+                addedToQueue = queue.offer(blaubotMessage, timeout, TimeUnit.MILLISECONDS);
+            }
+            if (addedToQueue) {
+                scheduleDrain(0);
+            } else {
+                rejectedMessages.incrementAndGet();
+            }
+            recordPublish(blaubotMessage, addedToQueue, queue);
+            return addedToQueue;
         } catch (InterruptedException e) {
+            rejectedMessages.incrementAndGet();
             if (Log.logWarningMessages()) {
-                Log.w(LOG_TAG, "Got interrupted trying to offer a message to the queue. Message was not added: " + blaubotMessage);
+                Log.w(LOG_TAG, "Got interrupted trying to offer a message to the queue. Message was not added: {}", blaubotMessage);
             }
             return false;
         }
     }
 
+    /**
+     * Reports the published message to the event recorder, if recording is enabled.
+     *
+     * @param blaubotMessage the published message
+     * @param accepted true, if the message was added to the queue
+     * @param queue the queue
+     */
+    private void recordPublish(BlaubotMessage blaubotMessage, boolean accepted, BlockingQueue<BlaubotMessage> queue) {
+        final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+        if (recorder != null) {
+            recorder.onMessagePublished(channelConfig.getChannelId(), blaubotMessage.getPayloadLength(), accepted, queue.size());
+        }
+    }
+
     /**
      * Takes a blaubot message and modifies the header according to this channel
      * @param blaubotMessage the message to be published through this channel
@@ -240,20 +555,63 @@ public class BlaubotChannel implements IBlaubotChannel {
         blaubotMessage.setChannelId(this.channelConfig.getChannelId());
         blaubotMessage.getMessageType().setIsFirstHop(true);
         blaubotMessage.setPriority(channelConfig.getPriority());
+
+        // apply the channel's ttl, if the message has no own deadline
+        final int messageTimeToLive = channelConfig.getMessageTimeToLive();
+        if (messageTimeToLive > 0 && !blaubotMessage.hasDeadline()) {
+            blaubotMessage.setTimeToLive(messageTimeToLive);
+        }
+
+        // sample for tracing
+        final int traceSamplingInterval = channelConfig.getTraceSamplingInterval();
+        if (traceSamplingInterval > 0 && publishCounter.getAndIncrement() % traceSamplingInterval == 0) {
+            final MessageTrace trace = new MessageTrace();
+            trace.stamp(MessageTrace.TracePoint.PUBLISHED);
+            blaubotMessage.setTrace(trace);
+        }
+
+        // the queue wait is only measured for the event recorder
+        if (BlaubotEvents.isEnabled()) {
+            blaubotMessage.setQueuedSinceNanos(System.nanoTime());
+        }
     }
 
     @Override
     public boolean publish(byte[] payload) {
         BlaubotMessage msg = new BlaubotMessage();
         msg.setPayload(payload);
-        return publish(msg);
+        return enqueue(msg);
     }
 
     @Override
     public boolean publish(byte[] payload, long timeout) {
         BlaubotMessage msg = new BlaubotMessage();
         msg.setPayload(payload);
-        return publish(msg, timeout);
+        return enqueue(msg, timeout);
+    }
+
+    @Override
+    public <T> boolean publish(T message, IChannelCodec<T> codec) {
+        final BlaubotMessage msg = new BlaubotMessage();
+        msg.setPayload(message, codec);
+        return enqueue(msg);
+    }
+
+    @Override
+    public <T> boolean publish(T message, IChannelCodec<T> codec, long timeout) {
+        final BlaubotMessage msg = new BlaubotMessage();
+        msg.setPayload(message, codec);
+        return enqueue(msg, timeout);
+    }
+
+    @Override
+    public <T> boolean publish(T message, IChannelCodec<T> codec, int timeToLive, long timeout) {
+        final BlaubotMessage msg = new BlaubotMessage();
+        msg.setPayload(message, codec);
+        if (timeToLive > 0) {
+            msg.setTimeToLive(timeToLive);
+        }
+        return enqueue(msg, timeout);
     }
 
     @Override
@@ -358,10 +716,35 @@ public class BlaubotChannel implements IBlaubotChannel {
      * @param message the message posted to this channel
      */
     protected void notify(BlaubotMessage message) {
-        receivedBytes += message.getPayload().length;
+        receivedBytes += message.getPayloadLength();
         receivedMessages += 1;
+        final MessageTrace trace = message.getTrace();
+        if (trace != null) {
+            trace.stamp(MessageTrace.TracePoint.DELIVERED);
+            traceStatistics.record(trace);
+        }
+        final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+        final long dispatchStart = recorder != null ? System.nanoTime() : 0;
+        int listeners = 0;
         for (IBlaubotMessageListener listener : messageListeners) {
             listener.onMessage(message);
+            listeners += 1;
+        }
+        if (recorder != null) {
+            recorder.onMessageDispatched(channelConfig.getChannelId(), message.getPayloadLength(), listeners, false, System.nanoTime() - dispatchStart);
+        }
+    }
+
+    /**
+     * Called if a message of this channel was dropped because its time to live expired.
+     * Gets called by the queue processor, the message senders and the message dispatcher.
+     *
+     * @param message the expired message
+     */
+    protected void onMessageExpired(BlaubotMessage message) {
+        expiredMessages.incrementAndGet();
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Dropped expired message on channel #{}: {}", channelConfig.getChannelId(), message);
         }
     }
 
@@ -426,28 +809,53 @@ public class BlaubotChannel implements IBlaubotChannel {
      */
     protected void activate() {
         if (Log.logDebugMessages()) {
-            Log.d(LOG_TAG, "Activating BlaubotChannel #" + channelConfig.getChannelId() + " ...");
+            Log.d(LOG_TAG, "Activating BlaubotChannel #{} ...", channelConfig.getChannelId());
         }
         synchronized (activateDeactivateMonitor) {
-            if (executorService != null) {
+            if (isActive()) {
                 if (Log.logWarningMessages()) {
                     // TODO actually not a warning and might happen -> debug when evaluated
                     Log.w(LOG_TAG, "activate() called but channel was already activated. Doing nothing!");
                 }
                 return;
             }
-            // check if we have to adjust the queue size
-            if (messageQueue.size() != channelConfig.getQueueCapacity()) {
-                setUpMessageQueue();
+            if (channelManager.getChannelExecutor() != null) {
+                sharedProcessingActive = true;
+                scheduleDrain(0);
+            } else {
+                executorService = Executors.newSingleThreadScheduledExecutor();
+                final QueueProcessingTask task = new QueueProcessingTask(executorService);
+                synchronized (task) {
+                    task.schedule(0);
+                }
+                queueProcessingTask = task;
             }
-
-            executorService = Executors.newSingleThreadScheduledExecutor();
-            final int minMessageRateDelay = channelConfig.getMinMessageRateDelay();
-            executorService.scheduleWithFixedDelay(queueProcessor, 0, minMessageRateDelay, TimeUnit.MILLISECONDS);
         }
         if (Log.logDebugMessages()) {
-            Log.d(LOG_TAG, "BlaubotChannel #" + channelConfig.getChannelId() + " activated.");
+            Log.d(LOG_TAG, "BlaubotChannel #{} activated.", channelConfig.getChannelId());
+        }
+    }
+
+    /**
+     * Checks whether the message queue's type matches the channel config.
+     * The capacity is not checked, since it can be changed without replacing the queue.
+     *
+     * @param queue the message queue
+     * @return true, iff the queue does not need to be set up again
+     */
+    private boolean isMessageQueueTypeUpToDate(BlockingQueue<BlaubotMessage> queue) {
+        final boolean conflating = channelConfig.getPickerStrategy() == BlaubotChannelConfig.MessagePickerStrategy.CONFLATE_BY_KEY;
+        if (conflating) {
+            return queue instanceof ConflatingMessageQueue;
         }
+        if (queue instanceof SpillingMessageQueue) {
+            // a spilled backlog is only moved to a new queue, if the overflow settings changed
+            final SpillingMessageQueue spillingQueue = (SpillingMessageQueue) queue;
+            return channelConfig.isOverflowEnabled()
+                    && spillingQueue.getOverflowDirectory().equals(channelConfig.getOverflowDirectory())
+                    && spillingQueue.getOverflowCapacity() == channelConfig.getOverflowCapacity();
+        }
+        return !channelConfig.isOverflowEnabled() && queue instanceof ResizableMessageQueue;
     }
 
     /**
@@ -457,7 +865,7 @@ public class BlaubotChannel implements IBlaubotChannel {
      */
     protected boolean deactivate() {
         if (Log.logDebugMessages()) {
-            Log.d(LOG_TAG, "Deactivating BlaubotChannel #" + channelConfig.getChannelId() + " ...");
+            Log.d(LOG_TAG, "Deactivating BlaubotChannel #{} ...", channelConfig.getChannelId());
         }
         boolean wasActivated = false;
         synchronized (activateDeactivateMonitor) {
@@ -471,9 +879,22 @@ public class BlaubotChannel implements IBlaubotChannel {
                 wasActivated = true;
             }
             executorService = null;
+            queueProcessingTask = null;
+            if (sharedProcessingActive) {
+                sharedProcessingActive = false;
+                final ScheduledFuture<?> future = drainFuture;
+                if (future != null) {
+                    future.cancel(false);
+                }
+                // wait for a running drain task
+                synchronized (drainMonitor) {
+                    drainScheduled.set(false);
+                }
+                wasActivated = true;
+            }
         }
         if (Log.logDebugMessages()) {
-            Log.d(LOG_TAG, "BlaubotChannel #" + channelConfig.getChannelId() + " deactivated.");
+            Log.d(LOG_TAG, "BlaubotChannel #{} deactivated.", channelConfig.getChannelId());
         }
         return wasActivated;
     }
@@ -482,14 +903,32 @@ public class BlaubotChannel implements IBlaubotChannel {
      * @return true, iff active (= executor started)
      */
     protected boolean isActive() {
-        return executorService != null;
+        return executorService != null || sharedProcessingActive;
+    }
+
+    /**
+     * Schedules the drainTask on the shared executor, if the channel processes its queue there and
+     * no drainTask is pending.
+     * @param delay the delay in ms
+     */
+    private void scheduleDrain(long delay) {
+        final ScheduledExecutorService sharedExecutor = channelManager.getChannelExecutor();
+        if (!sharedProcessingActive || sharedExecutor == null || !drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            drainFuture = sharedExecutor.schedule(drainTask, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the executor was shut down
+            drainScheduled.set(false);
+        }
     }
 
     /**
      * The queue capacity
      * @return capacity of the queue
      */
-    protected int getQueueCapacity() {
+    public int getQueueCapacity() {
         return channelConfig.getQueueCapacity();
     }
 
@@ -497,10 +936,69 @@ public class BlaubotChannel implements IBlaubotChannel {
      * The current amount of messages in the queue
      * @return current amount of messages in the queue
      */
-    protected int getQueueSize() {
+    public int getQueueSize() {
         return messageQueue.size();
     }
 
+    /**
+     * The number of messages that were replaced in the queue by newer messages with the same key.
+     * Only counted while the CONFLATE_BY_KEY strategy is used.
+     * @return number of conflated messages since the queue was set up
+     */
+    public long getConflatedMessages() {
+        final BlockingQueue<BlaubotMessage> queue = messageQueue;
+        return queue instanceof ConflatingMessageQueue ? ((ConflatingMessageQueue) queue).getConflatedMessages() : 0;
+    }
+
+    /**
+     * The number of published messages that were spilled to disk because the queue was full
+     * (@see {BlaubotChannelConfig#setOverflowDirectory}).
+     * Counted since the queue was set up.
+     * @return number of spilled messages
+     */
+    public long getSpilledMessages() {
+        final BlockingQueue<BlaubotMessage> queue = messageQueue;
+        return queue instanceof SpillingMessageQueue ? ((SpillingMessageQueue) queue).getSpilledMessages() : 0;
+    }
+
+    /**
+     * The number of spilled messages that were drained back from disk into the queue.
+     * Counted since the queue was set up.
+     * @return number of drained messages
+     */
+    public long getDrainedMessages() {
+        final BlockingQueue<BlaubotMessage> queue = messageQueue;
+        return queue instanceof SpillingMessageQueue ? ((SpillingMessageQueue) queue).getDrainedMessages() : 0;
+    }
+
+    /**
+     * The number of messages currently spilled to disk.
+     * They are included in getQueueSize().
+     * @return number of messages on disk
+     */
+    protected int getSpillSize() {
+        final BlockingQueue<BlaubotMessage> queue = messageQueue;
+        return queue instanceof SpillingMessageQueue ? ((SpillingMessageQueue) queue).getSpillSize() : 0;
+    }
+
+    /**
+     * The number of messages of this channel that were dropped by this device because their time to live
+     * expired (@see {BlaubotChannelConfig#setMessageTimeToLive}).
+     * Includes messages dropped in the channel's queue, the message senders and, if king, before relaying.
+     * @return number of expired messages
+     */
+    public long getExpiredMessages() {
+        return expiredMessages.get();
+    }
+
+    /**
+     * The number of messages that were not published because the queue was full (publish() returned false).
+     * @return number of rejected messages
+     */
+    public long getRejectedMessages() {
+        return rejectedMessages.get();
+    }
+
     /**
      * The amount of bytes sent through this channel so far.
      * @return number of bytes
@@ -526,6 +1024,16 @@ public class BlaubotChannel implements IBlaubotChannel {
         return receivedMessages;
     }
 
+    /**
+     * The aggregated per-hop latencies of the traced messages received by this channel.
+     * Tracing has to be enabled on the publishing side (@see {BlaubotChannelConfig#setTraceSamplingInterval}).
+     *
+     * @return the trace statistics
+     */
+    public MessageTraceStatistics getTraceStatistics() {
+        return traceStatistics;
+    }
+
     /**
      * The amount of bytes received by this channel so far.
      * @return number of bytes
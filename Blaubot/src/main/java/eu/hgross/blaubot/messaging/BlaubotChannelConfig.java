@@ -1,5 +1,6 @@
 package eu.hgross.blaubot.messaging;
 
+import java.io.File;
 import java.util.Observable;
 
 import eu.hgross.blaubot.util.Log;
@@ -9,6 +10,7 @@ import eu.hgross.blaubot.util.Log;
  * Can limit message rates and set picking strategies as well as priorities.
  * The channel configuration is local - changes made are only reflected to the local device and
  * not communicated to other devices.
+ * Changes are applied to the running channel immediately, without restarting it.
  */
 public class BlaubotChannelConfig extends Observable {
     private static final String LOG_TAG = "BlaubotChannelConfig";
@@ -16,10 +18,26 @@ public class BlaubotChannelConfig extends Observable {
      * Use this constant for {BlaubotChannelConfig#setMessageRateLimit} to not use a message rate limit.
      */
     public static final int MESSAGE_RATE_NO_LIMIT = -1;
+    /**
+     * Use this constant for {BlaubotChannelConfig#setTraceSamplingInterval} to disable tracing.
+     */
+    public static final int TRACING_DISABLED = 0;
+    /**
+     * Use this constant for {BlaubotChannelConfig#setMessageTimeToLive} to not expire messages.
+     */
+    public static final int NO_TIME_TO_LIVE = 0;
     /**
      * Default maximum size of the message queue
      */
     private static final int DEFAULT_QUEUE_CAPACITY = 200;
+    /**
+     * Default scheduling weight of a channel
+     */
+    public static final int DEFAULT_WEIGHT = 1;
+    /**
+     * Default maximum size of the overflow segment files in bytes
+     */
+    public static final long DEFAULT_OVERFLOW_CAPACITY = 64 * 1024 * 1024;
     /**
      * The channel id for this channel.
      */
@@ -27,23 +45,63 @@ public class BlaubotChannelConfig extends Observable {
     /**
      * The message picker to be used
      */
-    private IBlaubotMessagePickerStrategy messagePicker;
+    private volatile IBlaubotMessagePickerStrategy messagePicker;
 
     /**
      * The message rate limit to be used (minimum delay between to messages in ms)
      * Defaults to no limit.
      */
-    private int minMessageRateDelay;
+    private volatile int minMessageRateDelay;
 
     /**
      * The priority with which messages of this channel are send.
      */
-    private BlaubotMessage.Priority priority;
+    private volatile BlaubotMessage.Priority priority;
 
     /**
      * The max size of the message queue.
      */
-    private int queueCapacity;
+    private volatile int queueCapacity;
+
+    /**
+     * Every n-th published message is traced (0 = tracing disabled)
+     */
+    private volatile int traceSamplingInterval;
+
+    /**
+     * Extracts the keys for the CONFLATE_BY_KEY strategy
+     */
+    private volatile IBlaubotMessageKeyExtractor messageKeyExtractor;
+
+    /**
+     * The time to live in ms for published messages without an own deadline (0 = no ttl)
+     */
+    private volatile int messageTimeToLive;
+
+    /**
+     * The directory for the overflow segment files (null = no overflow)
+     */
+    private File overflowDirectory;
+
+    /**
+     * The max size of the overflow segment files in bytes
+     */
+    private long overflowCapacity;
+
+    /**
+     * The share of a connection this channel gets relative to the other channels
+     */
+    private volatile int weight;
+
+    /**
+     * Which messages the king retains for late subscribers
+     */
+    private volatile RetentionPolicy retentionPolicy;
+
+    /**
+     * The max number of retained messages (LAST_MESSAGES) or keys (LAST_PER_KEY)
+     */
+    private volatile int retentionCapacity;
 
     /**
      * Constructs a channel config for a channel id using the default
@@ -58,6 +116,13 @@ public class BlaubotChannelConfig extends Observable {
         _setMessagePickerStrategy(MessagePickerStrategy.PROCESS_ALL);
         _setPriority(BlaubotMessage.Priority.NORMAL);
         _setQueueCapacity(DEFAULT_QUEUE_CAPACITY);
+        this.traceSamplingInterval = TRACING_DISABLED;
+        this.messageTimeToLive = NO_TIME_TO_LIVE;
+        this.overflowDirectory = null;
+        this.overflowCapacity = DEFAULT_OVERFLOW_CAPACITY;
+        this.weight = DEFAULT_WEIGHT;
+        this.retentionPolicy = RetentionPolicy.NONE;
+        this.retentionCapacity = 0;
     }
 
     /**
@@ -86,14 +151,15 @@ public class BlaubotChannelConfig extends Observable {
     /**
      * Sets max the size of the message queue.
      *
-     * Attention:
-     * If there are currently more than queueCapacity messages in the message queue, all messages
-     * that exceed the queue capacity will be dropped. This is likely to happen, if the queue size
-     * is decreased at runtime.
+     * If there are currently more than queueCapacity messages in the message queue, no messages are
+     * dropped. Instead, publish() rejects new messages until the queue shrunk below the capacity.
      *
-     * @param queueCapacity the new capacity.
+     * @param queueCapacity the new capacity (> 0).
      */
     public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("The queue capacity has to be > 0");
+        }
         _setQueueCapacity(queueCapacity);
         setChanged();
         notifyObservers(Boolean.TRUE);
@@ -147,10 +213,13 @@ public class BlaubotChannelConfig extends Observable {
      * @return this channel config instance
      */
     public BlaubotChannelConfig setMessagePickerStrategy(MessagePickerStrategy strategy) {
+        final boolean conflatingBefore = getPickerStrategy() == MessagePickerStrategy.CONFLATE_BY_KEY;
+        final boolean overflowBefore = isOverflowEnabled();
         _setMessagePickerStrategy(strategy);
-        // notify listeners
+        // notify listeners (the channel has to swap the queue, if the conflation or overflow changed)
+        final boolean conflatingAfter = strategy == MessagePickerStrategy.CONFLATE_BY_KEY;
         setChanged();
-        notifyObservers(Boolean.FALSE);
+        notifyObservers(conflatingBefore != conflatingAfter || overflowBefore != isOverflowEnabled());
         return this;
     }
 
@@ -206,6 +275,207 @@ public class BlaubotChannelConfig extends Observable {
         return MESSAGE_RATE_NO_LIMIT == minMessageRateDelay ? 1 : minMessageRateDelay;
     }
 
+    /**
+     * Enables the per-hop latency tracing for messages published through this channel.
+     * Every n-th published message gets a trace extension attached, which is stamped on each hop
+     * until it is delivered to the subscribers. The subscribers aggregate the hop latencies of
+     * the received traced messages (@see {BlaubotChannel#getTraceStatistics}).
+     *
+     * @param traceSamplingInterval trace every n-th message; 1 traces all messages, TRACING_DISABLED (0) disables tracing
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setTraceSamplingInterval(int traceSamplingInterval) {
+        if (traceSamplingInterval < 0) {
+            throw new IllegalArgumentException("The trace sampling interval has to be >= 0");
+        }
+        this.traceSamplingInterval = traceSamplingInterval;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * The trace sampling interval.
+     * @return every n-th message is traced, TRACING_DISABLED (0) if tracing is disabled
+     */
+    public int getTraceSamplingInterval() {
+        return traceSamplingInterval;
+    }
+
+    /**
+     * Sets the key extractor for the CONFLATE_BY_KEY strategy.
+     * The extractor is used for messages without a conflation key set by the publisher
+     * (@see {BlaubotMessage#setConflationKey}).
+     *
+     * @param messageKeyExtractor the extractor or null, to only conflate messages with a conflation key
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setMessageKeyExtractor(IBlaubotMessageKeyExtractor messageKeyExtractor) {
+        this.messageKeyExtractor = messageKeyExtractor;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * The key extractor for the CONFLATE_BY_KEY strategy.
+     * @return the extractor or null, if not set
+     */
+    public IBlaubotMessageKeyExtractor getMessageKeyExtractor() {
+        return messageKeyExtractor;
+    }
+
+    /**
+     * Sets the time to live for messages published to this channel.
+     * The ttl is applied on publish to messages without an own deadline (@see {BlaubotMessage#setTimeToLive}).
+     * Expired messages are dropped by the channel's queue, the message senders and the king instead of
+     * being delivered late and are counted by the channel (@see {BlaubotChannel#getExpiredMessages}).
+     *
+     * @param messageTimeToLive the ttl in ms; NO_TIME_TO_LIVE (0) to not expire messages
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setMessageTimeToLive(int messageTimeToLive) {
+        if (messageTimeToLive < 0) {
+            throw new IllegalArgumentException("The time to live has to be >= 0");
+        }
+        this.messageTimeToLive = messageTimeToLive;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * The time to live for published messages.
+     * @return the ttl in ms, NO_TIME_TO_LIVE (0) if messages don't expire
+     */
+    public int getMessageTimeToLive() {
+        return messageTimeToLive;
+    }
+
+    /**
+     * Enables the overflow of the message queue to disk.
+     * If the queue is full, further published messages are spilled to memory-mapped segment files in the
+     * given directory instead of being rejected and are drained back in order as the queue is processed
+     * (@see {SpillingMessageQueue}). The heap usage stays bounded by the queue capacity.
+     * Only used with the PROCESS_ALL strategy, since the other strategies discard queued messages anyway.
+     *
+     * @param overflowDirectory the directory for the segment files or null to disable the overflow
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setOverflowDirectory(File overflowDirectory) {
+        this.overflowDirectory = overflowDirectory;
+        setChanged();
+        notifyObservers(Boolean.TRUE);
+        return this;
+    }
+
+    /**
+     * The directory for the overflow segment files.
+     * @return the directory or null, if the overflow is disabled
+     */
+    public File getOverflowDirectory() {
+        return overflowDirectory;
+    }
+
+    /**
+     * Sets the max size of the overflow segment files.
+     * Messages are rejected by publish(), if the overflow is full, too.
+     *
+     * @param overflowCapacity the max size in bytes
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setOverflowCapacity(long overflowCapacity) {
+        if (overflowCapacity <= 0) {
+            throw new IllegalArgumentException("The overflow capacity has to be > 0");
+        }
+        this.overflowCapacity = overflowCapacity;
+        setChanged();
+        notifyObservers(Boolean.TRUE);
+        return this;
+    }
+
+    /**
+     * The max size of the overflow segment files.
+     * @return the max size in bytes
+     */
+    public long getOverflowCapacity() {
+        return overflowCapacity;
+    }
+
+    /**
+     * Sets the scheduling weight of this channel.
+     * Channels sharing a connection get bandwidth proportional to their weights, if they have messages
+     * queued at the same time (@see {FairMessageQueue}). A bulk channel with a low weight does therefore not
+     * delay the messages of an interactive channel by more than one chunk.
+     * Admin messages are always sent first. The priority only orders the messages within a channel.
+     *
+     * @param weight the weight (>= 1), defaults to DEFAULT_WEIGHT
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setWeight(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("The weight has to be >= 1");
+        }
+        this.weight = weight;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * The scheduling weight of this channel.
+     * @return the weight
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Lets the king retain the last messages of this channel and send them to each device subscribing later,
+     * so that late joiners get the current state without the publishers re-publishing it.
+     * Since any device can become king, the retention has to be configured on all devices. The retained messages
+     * are lost, if the king changes.
+     * A device gets the retained messages whenever it announces its subscription to the king, that is when it
+     * subscribes and after (re)connecting, so the messages should be safe to apply more than once.
+     *
+     * @param retentionPolicy the messages to retain
+     * @param retentionCapacity the max number of retained messages (LAST_MESSAGES) or keys (LAST_PER_KEY), >= 1
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setRetention(RetentionPolicy retentionPolicy, int retentionCapacity) {
+        if (retentionPolicy != RetentionPolicy.NONE && retentionCapacity < 1) {
+            throw new IllegalArgumentException("The retention capacity has to be >= 1");
+        }
+        this.retentionPolicy = retentionPolicy;
+        this.retentionCapacity = retentionPolicy != RetentionPolicy.NONE ? retentionCapacity : 0;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * The retention policy for late subscribers.
+     * @return the policy, defaults to NONE
+     */
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    /**
+     * The max number of retained messages or keys.
+     * @return the capacity
+     */
+    public int getRetentionCapacity() {
+        return retentionCapacity;
+    }
+
+    /**
+     * @return true, iff the message queue overflows to disk with the current settings
+     */
+    protected boolean isOverflowEnabled() {
+        return overflowDirectory != null && getPickerStrategy() == MessagePickerStrategy.PROCESS_ALL;
+    }
+
     /**
      * Unique identifier for PickingStrategy-Implementations.
      */
@@ -221,7 +491,14 @@ public class BlaubotChannelConfig extends Observable {
         /**
          * Picks the oldest message in the queue and discards all newer ones.
          */
-        DISCARD_NEW;
+        DISCARD_NEW,
+        /**
+         * Keeps only the latest message per key in the queue, in the order of the first arrival of each key.
+         * Messages are picked one by one like PROCESS_ALL.
+         * The key is set by the publisher (@see {BlaubotMessage#setConflationKey}) or extracted by the
+         * channel config's key extractor (@see {BlaubotChannelConfig#setMessageKeyExtractor}).
+         */
+        CONFLATE_BY_KEY;
 
         /**
          * Creates the picker for this strategy.
@@ -235,6 +512,8 @@ public class BlaubotChannelConfig extends Observable {
                 return new DiscardNewPickerStrategy();
             } else if (this.equals(DISCARD_OLD)) {
                 return new DiscardOldPickerStrategy();
+            } else if (this.equals(CONFLATE_BY_KEY)) {
+                return new ConflateByKeyPickerStrategy();
             } else {
                 throw new RuntimeException("Unknown strategy");
             }
@@ -3,22 +3,29 @@ package eu.hgross.blaubot.messaging;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
 import eu.hgross.blaubot.admin.AddSubscriptionAdminMessage;
 import eu.hgross.blaubot.admin.AdminMessageFactory;
 import eu.hgross.blaubot.admin.RemoveSubscriptionAdminMessage;
+import eu.hgross.blaubot.admin.ReplaySyncAdminMessage;
+import eu.hgross.blaubot.core.ActionFuture;
 import eu.hgross.blaubot.core.BlaubotDevice;
 import eu.hgross.blaubot.core.IActionListener;
 import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.core.IBlaubotDevice;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
 import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+import eu.hgross.blaubot.util.BlaubotEvents;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -31,7 +38,28 @@ public class BlaubotChannelManager {
     private static final String LOG_TAG = "BlaubotChannelManager";
     private ConcurrentHashMap<Short, BlaubotChannel> channels;
     private ConcurrentHashMap<IBlaubotConnection, BlaubotMessageManager> messageManagers;
+    /**
+     * Stripes the messages to the master over the connections, if there are multiple connections
+     * to the master (client mode only, e.g. a kingdom connected to the server by multiple uplinks).
+     */
+    private final PathStriper<BlaubotMessageManager> masterPaths = new PathStriper<>(new PathStriper.IPathStatistics<BlaubotMessageManager>() {
+        @Override
+        public long getSentBytes(BlaubotMessageManager path) {
+            return path.getMessageSender().getSentPayloadBytes();
+        }
+
+        @Override
+        public long getWriteNanos(BlaubotMessageManager path) {
+            return path.getMessageSender().getWriteNanos();
+        }
+    });
     private CopyOnWriteArrayList<IBlaubotAdminMessageListener> adminMessageListeners;
+    private CopyOnWriteArrayList<IBlaubotRelayFrameListener> relayFrameListeners;
+    /**
+     * Count the received relay frames and their bytes
+     */
+    private final AtomicLong relayFrames = new AtomicLong(0);
+    private final AtomicLong relayBytes = new AtomicLong(0);
     private CopyOnWriteArrayList<IBlaubotSubscriptionChangeListener> subscriptionChangeListeners;
     private volatile boolean isMaster = false;
     private String ownUniqueDeviceId;
@@ -46,14 +74,68 @@ public class BlaubotChannelManager {
      */
     private volatile BlaubotMessageManager ownMessageManager;
 
+    /**
+     * The time the replay buffer of a disconnected device is kept.
+     */
+    private static final long REPLAY_BUFFER_RETENTION = 60000;
+
+    /**
+     * The max number of messages retained per remote device for replays, 0 if disabled.
+     */
+    private volatile int replayBufferCapacity = 0;
+
+    /**
+     * Whether the connections pace their senders by their link estimation
+     */
+    private volatile boolean sendRateShaping = false;
+
+    /**
+     * The default max time in ms to send the queued messages of removed connections (DrainPolicy.DRAIN)
+     */
+    public static final long DEFAULT_DRAIN_TIMEOUT = 2000;
+    private volatile DrainPolicy drainPolicy = DrainPolicy.ABANDON;
+    private volatile long drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+
+    /**
+     * The replay buffers by the unique device ids of the remote devices.
+     */
+    private final ConcurrentHashMap<String, MessageReplayBuffer> replayBuffers = new ConcurrentHashMap<>();
+
+    /**
+     * Our own channel messages that were queued but not sent when the connection failed or the role changed.
+     * They are published again with the next connection, which may be to a new king.
+     */
+    private final List<BlaubotMessage> unsentFirstHopMessages = new ArrayList<>();
+
+    /**
+     * The executor shared with other channel managers to process the channels' queues or null, if each
+     * channel uses its own thread.
+     */
+    private final ScheduledExecutorService channelExecutor;
+
     /**
      * @param ownUniqueDeviceId the own unique device id
      */
     public BlaubotChannelManager(String ownUniqueDeviceId) {
+        this(ownUniqueDeviceId, null);
+    }
+
+    /**
+     * Creates a channel manager, whose channels process their queues on the given executor instead of
+     * starting a thread for each channel.
+     * Used by the BlaubotServer to share a small worker pool between the channel managers of all kingdoms.
+     * The executor is not shut down by the channel manager.
+     *
+     * @param ownUniqueDeviceId the own unique device id
+     * @param channelExecutor the shared executor or null to use a thread per channel
+     */
+    public BlaubotChannelManager(String ownUniqueDeviceId, ScheduledExecutorService channelExecutor) {
+        this.channelExecutor = channelExecutor;
         this.ownUniqueDeviceId = ownUniqueDeviceId;
         this.channels = new ConcurrentHashMap<>();
         this.messageManagers = new ConcurrentHashMap<>();
         this.adminMessageListeners = new CopyOnWriteArrayList<>();
+        this.relayFrameListeners = new CopyOnWriteArrayList<>();
         this.subscriptionChangeListeners = new CopyOnWriteArrayList<>();
     }
 
@@ -129,6 +211,19 @@ public class BlaubotChannelManager {
         return channel;
     }
 
+    /**
+     * Creates a channel, if not already existent, and returns a typed view on it.
+     *
+     * @param channelId the channel id to create the channel for
+     * @param codec the codec to encode and decode the channel's messages
+     * @param <T> the type of the messages
+     * @return a typed view on the channel
+     * @throws java.lang.IllegalArgumentException if the channelId is smaller than 0
+     */
+    public <T> ITypedBlaubotChannel<T> createOrGetChannel(short channelId, IChannelCodec<T> codec) {
+        return new TypedBlaubotChannel<>(createOrGetChannel(channelId), codec);
+    }
+
     /**
      * Sets this ChannelManager to master mode, meaning that this instance is managing all
      * communications or client mode.
@@ -136,53 +231,36 @@ public class BlaubotChannelManager {
      * All the connection managers will be discarded when called, meaning that all connections
      * that are still valid have to be added again.
      *
+     * Does not block: the discarded message managers stop receiving immediately and are shut down in the
+     * background according to the drain policy (@see {setDrainPolicy}).
+     *
      * @param isMaster notify if the channel manager is now in master role
+     * @return the future of the discarded message managers' shutdown
      */
-    public void setMaster(final boolean isMaster) {
+    public ActionFuture setMaster(final boolean isMaster) {
         final boolean prevState = this.isMaster;
         if(isMaster == prevState) {
             // nothing to do
-            return;
+            return ActionFuture.completed();
         }
         this.isMaster = isMaster;
+        // the retained messages belong to the previous kingdom
+        for (BlaubotChannel channel : channels.values()) {
+            channel.clearRetainedMessages();
+        }
 
         if (Log.logDebugMessages()) {
             Log.d(LOG_TAG, "setMaster(" + isMaster + ") -> Deactivating all MessageManagers");
         }
         // discard all of the connection management
-        ArrayList<CountDownLatch> latches = new ArrayList<>();
-        for(final BlaubotMessageManager mm : messageManagers.values()) {
-            final CountDownLatch latch = new CountDownLatch(1);
-            latches.add(latch);
-            mm.deactivate(new IActionListener() {
-                @Override
-                public void onFinished() {
-                    latch.countDown();
-                    if (Log.logDebugMessages()) {
-                        Log.d(LOG_TAG, "MessageManager sucessfully stopped: " + mm);
-                    }
-                }
-            });
-        }
-
-        if (Log.logDebugMessages()) {
-            Log.d(LOG_TAG, "Awaiting " + latches.size() + " MessageManagers to shut down ...");
-        }
-        // block until all managers are properly shut down
-        for (CountDownLatch latch : latches) {
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                continue;
+        final List<ActionFuture> futures = new ArrayList<>();
+        for (IBlaubotConnection connection : new ArrayList<>(messageManagers.keySet())) {
+            final BlaubotMessageManager mm = messageManagers.remove(connection);
+            if (mm != null) {
+                futures.add(discardMessageManager(connection, mm));
             }
         }
-
-        // then forget about them
-        messageManagers.clear();
-
-        if (Log.logDebugMessages()) {
-            Log.d(LOG_TAG, "All " + latches.size() + " MessageManagers shut down properly.");
-        }
+        ownMessageManager = null;
 
         if(isMaster) {
             // Add our own dummy connection
@@ -200,13 +278,85 @@ public class BlaubotChannelManager {
             } else {
                 throw new RuntimeException("Could not add reflexive connection to ChannelManager");
             }
-        } else {
-            // We transitioned from master to not master
-            // forget all connections
-            // -- all managers should be deactivated
-            messageManagers.clear();
-            ownMessageManager = null;
         }
+
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Shutting down " + futures.size() + " MessageManagers in the background");
+        }
+        return ActionFuture.allOf(futures);
+    }
+
+    /**
+     * Stops dispatching the messages received by a message manager, that is not managed anymore, and
+     * deactivates it in the background. The messages it did not send are taken over when its sender stopped.
+     *
+     * @param connection the connection of the message manager
+     * @param mm the message manager, already removed from messageManagers
+     * @return the future of the deactivation
+     */
+    private ActionFuture discardMessageManager(final IBlaubotConnection connection, final BlaubotMessageManager mm) {
+        // the master's channels on this connection are reassigned on their next message
+        masterPaths.removePath(mm);
+        mm.getMessageReceiver().removeMessageListener(messageDispatcher);
+        // from now on, messages for the device are kept in its replay buffer (if any)
+        final MessageReplayBuffer replayBuffer = replayBuffers.get(connection.getRemoteDevice().getUniqueDeviceID());
+        if (replayBuffer != null) {
+            replayBuffer.onDisconnected();
+        }
+        final ActionFuture future = mm.deactivate(drainPolicy, drainTimeout);
+        future.addListener(new IActionListener() {
+            @Override
+            public void onFinished() {
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "MessageManager sucessfully stopped: " + mm);
+                }
+            }
+        });
+        // the future is completed, if the sender did not stop in time, but the sender may still write the
+        // queued messages, so they are taken over once its thread exited
+        mm.getSenderStoppedFuture().addListener(new IActionListener() {
+            @Override
+            public void onFinished() {
+                takeOverUnsentMessages(connection, mm);
+                if (!isMaster && hasConnections()) {
+                    // we are already connected again
+                    republishUnsentFirstHopMessages();
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Sets what happens to the messages queued for a connection, when the connection is removed or the role
+     * (master/client) changes. Defaults to ABANDON.
+     *
+     * @param drainPolicy the policy
+     * @param drainTimeout the max time in ms to send the queued messages, if the policy is DRAIN
+     */
+    public void setDrainPolicy(DrainPolicy drainPolicy, long drainTimeout) {
+        if (drainPolicy == null) {
+            throw new NullPointerException("drainPolicy may not be null");
+        }
+        if (drainTimeout < 0) {
+            throw new IllegalArgumentException("The drain timeout has to be positive.");
+        }
+        this.drainTimeout = drainTimeout;
+        this.drainPolicy = drainPolicy;
+    }
+
+    /**
+     * @return the policy applied to the messages queued for removed connections
+     */
+    public DrainPolicy getDrainPolicy() {
+        return drainPolicy;
+    }
+
+    /**
+     * @return the max time in ms to send the queued messages of removed connections, if the policy is DRAIN
+     */
+    public long getDrainTimeout() {
+        return drainTimeout;
     }
 
     /**
@@ -223,6 +373,10 @@ public class BlaubotChannelManager {
         if(added) {
             connection.addConnectionListener(disconnectionListener);
             mm = messageManagers.get(connection);
+            if (!isMaster) {
+                masterPaths.addPath(mm);
+            }
+            setUpReplay(connection, mm);
             // regenerate the AddSubscriptionAdminMessages for each subscription of each
             // channel and add them to the queue before activating the message manager
             synchronized (subscriptionLock) {
@@ -241,6 +395,7 @@ public class BlaubotChannelManager {
             if(Log.logDebugMessages()) {
                 Log.d(LOG_TAG, "Added connection " + connection + ", send subscriptions and activated MessageManager for it.");
             }
+            republishUnsentFirstHopMessages();
         } else {
             // TODO: what about this case?? -> ignore?
             Log.e(LOG_TAG, "addConnection(..): Connection was not added (was already in map): " + connection);
@@ -251,32 +406,24 @@ public class BlaubotChannelManager {
     }
 
     /**
-     * Removes a connection from the channel manager so it is not being managed anymore
+     * Removes a connection from the channel manager so it is not being managed anymore.
+     * Does not block: the connection's message manager is shut down in the background according to the
+     * drain policy (@see {setDrainPolicy}).
+     *
      * @param connection the connection to remove
+     * @return the future of the connection's message manager shutdown
      */
-    public void removeConnection(IBlaubotConnection connection) {
+    public ActionFuture removeConnection(IBlaubotConnection connection) {
         if(Log.logDebugMessages()) {
             Log.d(LOG_TAG, "Removing connection: " + connection);
         }
         connection.removeConnectionListener(disconnectionListener);
         BlaubotMessageManager mm = messageManagers.remove(connection);
+        ActionFuture future = ActionFuture.completed();
         if (mm != null) {
-            // remove listeners to incoming messages from the MessageManager and deactivate it.
-            mm.getMessageReceiver().removeMessageListener(messageDispatcher);
-            final CountDownLatch latch = new CountDownLatch(1);
-            mm.deactivate(new IActionListener() {
-                @Override
-                public void onFinished() {
-                    latch.countDown();
-                }
-            });
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            future = discardMessageManager(connection, mm);
             if(Log.logDebugMessages()) {
-                Log.d(LOG_TAG, "Removed connection and deactivated MessageManager for connection: " + connection);
+                Log.d(LOG_TAG, "Removed connection, deactivating MessageManager for connection: " + connection);
             }
         } else {
             if(Log.logWarningMessages()) {
@@ -285,6 +432,184 @@ public class BlaubotChannelManager {
         }
 
         maintainChannelActivation();
+        return future;
+    }
+
+    /**
+     * Sets the capacity of the per-device replay buffers. Replaying is disabled by default.
+     *
+     * If enabled, the last capacity channel messages sent to each remote device are retained and
+     * numbered. If a device reconnects, both sides exchange the last sequence number they received and
+     * only the missed messages are sent again. Messages that were queued but not sent on the failed
+     * connection are sent on the next connection (our own messages to the next king, also after a handover
+     * to the prince). Should be enabled on all devices of the kingdom.
+     *
+     * Chunked messages (payloads bigger than BlaubotConstants.MAX_PAYLOAD_SIZE) are not replayed.
+     * The replay state of a device is discarded, if it does not reconnect within a minute.
+     *
+     * @param replayBufferCapacity the max number of retained messages per device, 0 to disable replaying
+     */
+    public void setReplayBufferCapacity(int replayBufferCapacity) {
+        if (replayBufferCapacity < 0) {
+            throw new IllegalArgumentException("The replay buffer capacity has to be >= 0");
+        }
+        this.replayBufferCapacity = replayBufferCapacity;
+        // the buffers are recreated on the next connect with a new epoch
+        replayBuffers.clear();
+    }
+
+    /**
+     * Enables the shaping of the send rate of all connections.
+     * Each connection estimates its rtt and delivery rate from the keep alives and, if enabled, paces its
+     * sender BBR-style to keep the queueing delay on the link small (@see {LinkEstimator}).
+     * Disabled by default. The estimates are maintained anyway (@see {BlaubotChannelManager#getLinkEstimator}).
+     *
+     * @param sendRateShaping true, to enable the shaping
+     */
+    public void setSendRateShaping(boolean sendRateShaping) {
+        this.sendRateShaping = sendRateShaping;
+        for (BlaubotMessageManager mm : messageManagers.values()) {
+            mm.getLinkEstimator().setShapingEnabled(sendRateShaping);
+        }
+    }
+
+    /**
+     * @return true, iff the send rate of the connections is shaped
+     */
+    public boolean isSendRateShaping() {
+        return sendRateShaping;
+    }
+
+    /**
+     * The rtt and bandwidth estimation of the connection to a device.
+     *
+     * @param uniqueDeviceId the remote device's unique device id
+     * @return the estimator or null, if there is no connection to this device
+     */
+    public LinkEstimator getLinkEstimator(String uniqueDeviceId) {
+        for (Map.Entry<IBlaubotConnection, BlaubotMessageManager> entry : messageManagers.entrySet()) {
+            if (entry.getKey().getRemoteDevice().getUniqueDeviceID().equals(uniqueDeviceId)) {
+                return entry.getValue().getLinkEstimator();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the max number of retained messages per device, 0 if replaying is disabled
+     */
+    public int getReplayBufferCapacity() {
+        return replayBufferCapacity;
+    }
+
+    /**
+     * Attaches the replay buffer of the connection's remote device to the connection's message sender
+     * and queues the ReplaySyncAdminMessage and the messages not sent on a previous connection.
+     * Has to be called before the message manager is activated.
+     *
+     * @param connection the new connection
+     * @param mm the connection's message manager
+     */
+    private void setUpReplay(IBlaubotConnection connection, BlaubotMessageManager mm) {
+        final int capacity = replayBufferCapacity;
+        final String remoteUniqueDeviceId = connection.getRemoteDevice().getUniqueDeviceID();
+        if (capacity <= 0 || remoteUniqueDeviceId.equals(ownUniqueDeviceId)) {
+            return;
+        }
+
+        // forget about devices that did not come back
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String, MessageReplayBuffer> entry : replayBuffers.entrySet()) {
+            if (entry.getValue().isStale(now, REPLAY_BUFFER_RETENTION)) {
+                replayBuffers.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        MessageReplayBuffer buffer = replayBuffers.get(remoteUniqueDeviceId);
+        if (buffer == null) {
+            buffer = new MessageReplayBuffer(capacity);
+            final MessageReplayBuffer prev = replayBuffers.putIfAbsent(remoteUniqueDeviceId, buffer);
+            if (prev != null) {
+                buffer = prev;
+            }
+        }
+        buffer.onConnected();
+
+        final BlaubotMessageSender messageSender = mm.getMessageSender();
+        messageSender.setReplayBuffer(buffer);
+        final ReplaySyncAdminMessage syncMessage = new ReplaySyncAdminMessage(buffer.getEpoch(), buffer.getInboundEpoch(), buffer.getLastReceivedSequence());
+        messageSender.sendMessage(syncMessage.toBlaubotMessage());
+        for (BlaubotMessage unsentMessage : buffer.takeUnsentMessages()) {
+            messageSender.sendMessage(unsentMessage);
+        }
+    }
+
+    /**
+     * Takes the messages a deactivated message manager did not send, if replaying is enabled.
+     * Our own channel messages are kept to be published again with the next connection, messages
+     * dispatched by the king are kept in the remote device's replay buffer.
+     *
+     * @param connection the connection of the message manager
+     * @param mm the deactivated message manager
+     */
+    private void takeOverUnsentMessages(IBlaubotConnection connection, BlaubotMessageManager mm) {
+        final List<BlaubotMessage> unsentMessages = mm.getMessageSender().drainQueuedMessages();
+        final MessageReplayBuffer buffer = replayBuffers.get(connection.getRemoteDevice().getUniqueDeviceID());
+        final int capacity = replayBufferCapacity;
+        if (capacity <= 0) {
+            return;
+        }
+
+        final List<BlaubotMessage> dispatchedMessages = new ArrayList<>();
+        synchronized (unsentFirstHopMessages) {
+            for (BlaubotMessage message : unsentMessages) {
+                if (!MessageReplayBuffer.isReplayable(message)) {
+                    continue;
+                }
+                if (message.getMessageType().isFirstHop()) {
+                    unsentFirstHopMessages.add(message);
+                } else {
+                    dispatchedMessages.add(message);
+                }
+            }
+            while (unsentFirstHopMessages.size() > capacity) {
+                unsentFirstHopMessages.remove(0);
+            }
+        }
+        if (buffer != null) {
+            buffer.addUnsentMessages(dispatchedMessages);
+            if (!buffer.isDisconnected()) {
+                // the device connected again before the message manager was shut down
+                for (BlaubotMessageManager current : messageManagers.values()) {
+                    if (current.getMessageSender().getReplayBuffer() == buffer) {
+                        for (BlaubotMessage unsentMessage : buffer.takeUnsentMessages()) {
+                            current.getMessageSender().sendMessage(unsentMessage);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes our own channel messages again, that were not sent on a failed connection.
+     */
+    private void republishUnsentFirstHopMessages() {
+        final List<BlaubotMessage> messages;
+        synchronized (unsentFirstHopMessages) {
+            if (unsentFirstHopMessages.isEmpty()) {
+                return;
+            }
+            messages = new ArrayList<>(unsentFirstHopMessages);
+            unsentFirstHopMessages.clear();
+        }
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Publishing {} messages again that were not sent on a previous connection", messages.size());
+        }
+        for (BlaubotMessage message : messages) {
+            publishChannelMessage(message);
+        }
     }
 
     /**
@@ -314,6 +639,50 @@ public class BlaubotChannelManager {
         }
     }
 
+    /**
+     * Attached to all MessageSenders to count the messages they dropped because their time to live
+     * expired at the corresponding channel.
+     */
+    private final IBlaubotMessageListener expiredMessageListener = new IBlaubotMessageListener() {
+        @Override
+        public void onMessage(BlaubotMessage message) {
+            final short channelId = message.getChannelId();
+            if (channelId < 0) {
+                return;
+            }
+            final BlaubotChannel channel = channels.get(channelId);
+            if (channel != null) {
+                channel.onMessageExpired(message);
+            }
+        }
+    };
+
+    /**
+     * @return the listener to be attached to MessageSenders to count expired messages
+     */
+    protected IBlaubotMessageListener getExpiredMessageListener() {
+        return expiredMessageListener;
+    }
+
+    /**
+     * Provides the weights of the channel configs to the MessageSenders.
+     * Channels unknown to this manager (dispatched by the king only) get the default weight.
+     */
+    private final FairMessageQueue.IChannelWeightProvider channelWeightProvider = new FairMessageQueue.IChannelWeightProvider() {
+        @Override
+        public int getWeight(short channelId) {
+            final BlaubotChannel channel = channels.get(channelId);
+            return channel != null ? channel.getChannelConfig().getWeight() : BlaubotChannelConfig.DEFAULT_WEIGHT;
+        }
+    };
+
+    /**
+     * @return the weight provider to be attached to MessageSenders
+     */
+    protected FairMessageQueue.IChannelWeightProvider getChannelWeightProvider() {
+        return channelWeightProvider;
+    }
+
     /**
      * MessageRouter
      * This is the central point where messages arrive from the managed IBlaubotConnections and will
@@ -329,6 +698,16 @@ public class BlaubotChannelManager {
         @Override
         public void onMessage(BlaubotMessage message) {
             final BlaubotMessageType messageType = message.getMessageType();
+            if (message.getReplaySequence() > 0 && !onNumberedMessageReceived(message)) {
+                // already received before a reconnect
+                return;
+            }
+
+            // relay frames are point to point (king and mediator) and never re-dispatched
+            if (messageType.isRelayFrame()) {
+                handleRelayFrame(message);
+                return;
+            }
 
             // simple dispatcher logic: if the firstHop bit is set and we are master, we unset the flag
             // and re-send this message to all our connections (including ourselve).
@@ -344,6 +723,10 @@ public class BlaubotChannelManager {
                 // or if we need to dispatch more granular
                 if(messageType.isAdminMessage()) {
                     // -- this message is an adminMessage that needs to be broadcasted (dispatched to others) further.
+                    final AbstractAdminMessage adminMessage = AdminMessageFactory.createAdminMessageFromRawMessage(message);
+                    if (adminMessage instanceof AddSubscriptionAdminMessage) {
+                        onSubscriptionAnnounced((AddSubscriptionAdminMessage) adminMessage, message.getLastOriginatorConnection());
+                    }
                     publishToAllConnections(message);
                 } else if (messageType.isKeepAliveMessage()) {
                     // keep alive messages are never broadcasted - assert that
@@ -375,6 +758,10 @@ public class BlaubotChannelManager {
                 // get the channel
                 short channelId = message.getChannelId();
                 BlaubotChannel channel = (BlaubotChannel) createOrGetChannel(channelId);
+                if (message.isExpired()) {
+                    channel.onMessageExpired(message);
+                    return;
+                }
 
                 // notify listeners, if any
                 channel.notify(message);
@@ -396,16 +783,118 @@ public class BlaubotChannelManager {
             }
 
             BlaubotChannel channel = (BlaubotChannel) createOrGetChannel(channelId);
+            if (message.isExpired()) {
+                // don't waste the second hop on a late message
+                channel.onMessageExpired(message);
+                return;
+            }
+            message.stampTrace(MessageTrace.TracePoint.DISPATCHED_BY_KING);
+            final RetainedHistory history = channel.getRetainedHistory();
+            if (history == null) {
+                dispatchToSubscribers(channel, message);
+                return;
+            }
+            // retaining and dispatching under the history's lock lets new subscribers get each message once,
+            // either from the history or dispatched (@see {onSubscriptionAnnounced})
+            final Object retentionKey = channel.extractRetentionKey(message);
+            synchronized (history) {
+                history.add(message, retentionKey);
+                dispatchToSubscribers(channel, message);
+            }
+        }
+
+        /**
+         * Sends a message to the channel's subscribers and keeps it for the disconnected subscribers.
+         * @param channel the channel
+         * @param message the message
+         */
+        private void dispatchToSubscribers(BlaubotChannel channel, BlaubotMessage message) {
             final ConcurrentSkipListSet<String> subscriptions = channel.getSubscriptions();
+            final Set<String> servedSubscribers = replayBufferCapacity > 0 ? new HashSet<String>() : null;
+            final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+            final long dispatchStart = recorder != null ? System.nanoTime() : 0;
+            int recipients = 0;
             for(BlaubotMessageManager messageManager : messageManagers.values()) {
                 final BlaubotMessageSender messageSender = messageManager.getMessageSender();
                 final String uniqueDeviceID = messageSender.getBlaubotConnection().getRemoteDevice().getUniqueDeviceID();
                 if(subscriptions.contains(uniqueDeviceID)) {
                     messageSender.sendMessage(message);
+                    recipients += 1;
+                    if (servedSubscribers != null) {
+                        servedSubscribers.add(uniqueDeviceID);
+                    }
+                }
+            }
+            if (recorder != null) {
+                recorder.onMessageDispatched(channel.getChannelConfig().getChannelId(), message.getPayloadLength(), recipients, true, System.nanoTime() - dispatchStart);
+            }
+
+            // keep the message for subscribers that are reconnecting
+            if (servedSubscribers != null && servedSubscribers.size() < subscriptions.size() && MessageReplayBuffer.isReplayable(message)) {
+                for (String subscriber : subscriptions) {
+                    if (servedSubscribers.contains(subscriber)) {
+                        continue;
+                    }
+                    final MessageReplayBuffer buffer = replayBuffers.get(subscriber);
+                    if (buffer != null && buffer.isDisconnected()) {
+                        buffer.addUnsentMessage(message);
+                    }
                 }
             }
         }
 
+        /**
+         * Records the replay sequence of a message received from a remote device.
+         *
+         * @param message the numbered message
+         * @return false, if the message is a duplicate
+         */
+        private boolean onNumberedMessageReceived(BlaubotMessage message) {
+            final IBlaubotConnection connection = message.getLastOriginatorConnection();
+            if (connection == null) {
+                return true;
+            }
+            final MessageReplayBuffer buffer = replayBuffers.get(connection.getRemoteDevice().getUniqueDeviceID());
+            return buffer == null || buffer.onReceived(message.getReplaySequence());
+        }
+
+        /**
+         * Handles the replay negotiation of a new connection.
+         * Ignored, if replaying is disabled.
+         *
+         * @param syncMessage the remote device's sync message
+         * @param connection the connection the message was received from
+         */
+        private void handleReplaySync(ReplaySyncAdminMessage syncMessage, IBlaubotConnection connection) {
+            if (connection == null) {
+                return;
+            }
+            final MessageReplayBuffer buffer = replayBuffers.get(connection.getRemoteDevice().getUniqueDeviceID());
+            final BlaubotMessageManager mm = messageManagers.get(connection);
+            if (buffer == null || mm == null) {
+                return;
+            }
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Got replay sync from {}: {}", connection.getRemoteDevice(), syncMessage);
+            }
+            buffer.setInboundEpoch(syncMessage.getOutboundEpoch());
+            mm.getMessageSender().onReplayRequest(syncMessage.getInboundEpoch(), syncMessage.getLastReceivedSequence());
+        }
+
+        /**
+         * Notifies the relay frame listeners.
+         * @param message the received relay frame
+         */
+        private void handleRelayFrame(BlaubotMessage message) {
+            final IBlaubotConnection origin = message.getLastOriginatorConnection();
+            final String originUniqueDeviceId = origin != null ? origin.getRemoteDevice().getUniqueDeviceID() : null;
+            relayFrames.incrementAndGet();
+            relayBytes.addAndGet(message.getPayloadLength());
+            for (IBlaubotRelayFrameListener listener : relayFrameListeners) {
+                listener.onRelayFrame(message, originUniqueDeviceId);
+            }
+        }
+
         private void handleKeepAliveMessage(BlaubotMessage message) {
             //Log.d(LOG_TAG, "Got keep alive message");
             // TODO: anything needed here?
@@ -423,6 +912,12 @@ public class BlaubotChannelManager {
             if (adminMessage instanceof AddSubscriptionAdminMessage) {
                 short channelId = ((AddSubscriptionAdminMessage) adminMessage).getChannelId();
                 String uniqueId = ((AddSubscriptionAdminMessage) adminMessage).getUniqueDeviceId();
+                final IBlaubotConnection origin = message.getLastOriginatorConnection();
+                final BlaubotMessageManager originMessageManager = origin != null ? messageManagers.get(origin) : null;
+                if (originMessageManager != null && originMessageManager != ownMessageManager) {
+                    // re-announced by a (re)connecting device, first hop announcements were handled before the broadcast
+                    onSubscriptionAnnounced((AddSubscriptionAdminMessage) adminMessage, origin);
+                }
                 BlaubotChannel channel = (BlaubotChannel) createOrGetChannel(channelId);
                 channel.addSubscription(uniqueId);
             } else if(adminMessage instanceof RemoveSubscriptionAdminMessage) {
@@ -430,6 +925,8 @@ public class BlaubotChannelManager {
                 String uniqueId = ((RemoveSubscriptionAdminMessage) adminMessage).getUniqueDeviceId();
                 BlaubotChannel channel = (BlaubotChannel) createOrGetChannel(channelId);
                 channel.removeSubscription(uniqueId);
+            } else if(adminMessage instanceof ReplaySyncAdminMessage) {
+                handleReplaySync((ReplaySyncAdminMessage) adminMessage, message.getLastOriginatorConnection());
             }
             // finally notify all other listeners
             for(IBlaubotAdminMessageListener listener : adminMessageListeners) {
@@ -443,10 +940,49 @@ public class BlaubotChannelManager {
      * The uniqueDevice Id
      * @return the unique device id
      */
-    protected String getOwnUniqueDeviceId() {
+    public String getOwnUniqueDeviceId() {
         return ownUniqueDeviceId;
     }
 
+    /**
+     * Sends the retained messages of a channel to a device, that announced its subscription to the king.
+     * The subscription is added while holding the channel's history, so the device gets each message exactly once:
+     * either from the history or dispatched afterwards. The subscription listeners are notified afterwards, when the
+     * announcement is handled like any other admin message.
+     * Ignored, if not master, if the channel retains no messages or if the subscription was announced on behalf of
+     * another device.
+     *
+     * @param addSubscriptionAdminMessage the announcement
+     * @param origin the connection the announcement was received from
+     */
+    private void onSubscriptionAnnounced(AddSubscriptionAdminMessage addSubscriptionAdminMessage, IBlaubotConnection origin) {
+        if (!isMaster || origin == null) {
+            return;
+        }
+        final String uniqueDeviceId = addSubscriptionAdminMessage.getUniqueDeviceId();
+        if (!uniqueDeviceId.equals(origin.getRemoteDevice().getUniqueDeviceID())) {
+            return;
+        }
+        final BlaubotChannel channel = (BlaubotChannel) createOrGetChannel(addSubscriptionAdminMessage.getChannelId());
+        final RetainedHistory history = channel.getRetainedHistory();
+        final BlaubotMessageManager messageManager = messageManagers.get(origin);
+        if (history == null || messageManager == null) {
+            return;
+        }
+        synchronized (history) {
+            synchronized (subscriptionLock) {
+                channel.getSubscriptions().add(uniqueDeviceId);
+            }
+            final List<BlaubotMessage> retainedMessages = history.getMessages();
+            for (BlaubotMessage retainedMessage : retainedMessages) {
+                messageManager.getMessageSender().sendMessage(retainedMessage);
+            }
+            if (Log.logDebugMessages() && !retainedMessages.isEmpty()) {
+                Log.d(LOG_TAG, "Sent " + retainedMessages.size() + " retained messages of channel #" + channel.getChannelConfig().getChannelId() + " to " + uniqueDeviceId);
+            }
+        }
+    }
+
     /**
      * Note: This is a low level messaging method used for internal messaging and admin messages.
      *
@@ -518,11 +1054,32 @@ public class BlaubotChannelManager {
             return 1;
         } else {
             // we send it to the master
-            return publishToAllConnections(channelMessage);
+            return publishToMaster(channelMessage);
         }
 
     }
 
+    /**
+     * Sends a message to the master (client mode).
+     * If there are multiple connections to the master, the message is sent over the connection
+     * its channel is assigned to (@see {PathStriper}), so that each message is sent once and the
+     * messages of a channel keep their order.
+     *
+     * @param message the message
+     * @return the number of message senders that got the message
+     */
+    private int publishToMaster(BlaubotMessage message) {
+        if (messageManagers.size() <= 1) {
+            return publishToAllConnections(message);
+        }
+        final BlaubotMessageManager messageManager = masterPaths.select(message.getChannelId());
+        if (messageManager == null) {
+            return publishToAllConnections(message);
+        }
+        messageManager.getMessageSender().sendMessage(message);
+        return 1;
+    }
+
     /**
      * Sends a BlaubotMessage as admin message to the master, from where it is dispatched to all clients (including the master).
      *
@@ -540,7 +1097,7 @@ public class BlaubotChannelManager {
             return 1;
         } else {
             // we send it to the master via the connection
-            return publishToAllConnections(adminMessage);
+            return publishToMaster(adminMessage);
         }
     }
 
@@ -568,16 +1125,49 @@ public class BlaubotChannelManager {
     }
 
     /**
-     * Removes all connections (and deactivates their senders/receivers).
+     * Adds a listener for relay frames.
+     * @param relayFrameListener the listener to add
+     */
+    public void addRelayFrameListener(IBlaubotRelayFrameListener relayFrameListener) {
+        this.relayFrameListeners.add(relayFrameListener);
+    }
+
+    /**
+     * Removes a listener for relay frames.
+     * @param relayFrameListener the listener to be removed
+     */
+    public void removeRelayFrameListener(IBlaubotRelayFrameListener relayFrameListener) {
+        this.relayFrameListeners.remove(relayFrameListener);
+    }
+
+    /**
+     * @return the number of relay frames received so far
+     */
+    public long getRelayFrames() {
+        return relayFrames.get();
+    }
+
+    /**
+     * @return the number of relayed message bytes received in relay frames so far
+     */
+    public long getRelayBytes() {
+        return relayBytes.get();
+    }
+
+    /**
+     * Removes all connections (and deactivates their senders/receivers in the background).
      * Note: subscriptions will not be touched
+     *
+     * @return the future of the senders' and receivers' shutdown
      */
-    public void reset() {
+    public ActionFuture reset() {
         // remove all connections and their messagemanagers
         final Collection<BlaubotMessageManager> blaubotMessageManagers = messageManagers.values();
+        final List<ActionFuture> futures = new ArrayList<>();
         for(BlaubotMessageManager manager : blaubotMessageManagers) {
-//            manager.deactivate();
-            removeConnection(manager.getMessageSender().getBlaubotConnection());
+            futures.add(removeConnection(manager.getMessageSender().getBlaubotConnection()));
         }
+        return ActionFuture.allOf(futures);
     }
 
 
@@ -603,36 +1193,31 @@ public class BlaubotChannelManager {
     }
 
     /**
-     * Deactivates all MessageManagers and Channels
+     * Deactivates all MessageManagers and Channels.
+     * Does not block, the MessageManagers are shut down in the background.
+     *
+     * @return the future of the MessageManagers' shutdown
      */
-    public void deactivate() {
+    public ActionFuture deactivate() {
         if (Log.logDebugMessages()) {
             Log.d(LOG_TAG, "Deactivating ChannelManager ...");
         }
 
         // deactivate channel managers
-        ArrayList<CountDownLatch> latches = new ArrayList<>();
+        final List<ActionFuture> futures = new ArrayList<>();
         for (BlaubotMessageManager messageManager : messageManagers.values()) {
-            final CountDownLatch latch = new CountDownLatch(1);
-            latches.add(latch);
-            messageManager.deactivate(new IActionListener() {
-                @Override
-                public void onFinished() {
-                    latch.countDown();
-                }
-            });
+            futures.add(messageManager.deactivate(drainPolicy, drainTimeout));
         }
-
-        for (CountDownLatch latch : latches) {
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        final ActionFuture future = ActionFuture.allOf(futures);
+        future.addListener(new IActionListener() {
+            @Override
+            public void onFinished() {
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "ChannelManager deactivated.");
+                }
             }
-        }
-        if (Log.logDebugMessages()) {
-            Log.d(LOG_TAG, "ChannelManager deactivated.");
-        }
+        });
+        return future;
     }
 
     /**
@@ -645,6 +1230,14 @@ public class BlaubotChannelManager {
         }
     }
 
+    /**
+     * The executor the channels process their queues on.
+     * @return the shared executor or null, if each channel uses its own thread
+     */
+    protected ScheduledExecutorService getChannelExecutor() {
+        return channelExecutor;
+    }
+
     /**
      * Creates an object containing detailed informations about the state of the channel manager.
      * Useful for debugging and unit testing.
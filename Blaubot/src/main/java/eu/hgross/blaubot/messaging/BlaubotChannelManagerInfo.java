@@ -10,12 +10,17 @@ import java.util.List;
  * Debug infos created by the BlaubotChannelManager.
  * Exposes some usally protected data, so be cautios.
  *
+ * The counters of the channels and connections are read without locking the messaging threads, so rates can be
+ * computed from the counter deltas of two infos and their timestamps.
+ *
  */
 public class BlaubotChannelManagerInfo {
+    private final long timestamp;
     private List<ChannelInfo> channels;
     private List<ConnectionInfo> connections;
 
     public BlaubotChannelManagerInfo(Collection<BlaubotChannel> channels, Collection<BlaubotMessageManager> messageManagers, String ownDeviceId) {
+        this.timestamp = System.currentTimeMillis();
         this.channels = new ArrayList<>();
         this.connections = new ArrayList<>();
 
@@ -44,5 +49,12 @@ public class BlaubotChannelManagerInfo {
     public List<ConnectionInfo> getConnections() {
         return connections;
     }
+
+    /**
+     * @return the time this info was created in ms since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
 }
 
@@ -8,6 +8,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import eu.hgross.blaubot.core.BlaubotConstants;
 import eu.hgross.blaubot.core.IBlaubotConnection;
@@ -27,7 +28,41 @@ public class BlaubotMessage {
     public final static int CHUNK_ID_FIELD_LENGTH = 2;
 
     public final static int CHUNK_NO_FIELD_LENGTH = 2;
-    public final static int FULL_HEADER_LENGTH = VERSION_FIELD_LENGTH + TYPE_FIELD_LENGTH + PRIORITY_FIELD_LENGTH + CHANNEL_FIELD_LENGTH + CHUNK_ID_FIELD_LENGTH + CHUNK_NO_FIELD_LENGTH + PAYLOAD_LENGTH_FIELD_LENGTH;
+    public final static int TRACE_FIELD_LENGTH = MessageTrace.TRACE_FIELD_LENGTH;
+    public final static int TIME_TO_LIVE_FIELD_LENGTH = 4;
+    public final static int REPLAY_SEQUENCE_FIELD_LENGTH = 4;
+    public final static int RELAY_TAG_FIELD_LENGTH = CHANNEL_FIELD_LENGTH; // the relay tag is sent instead of the channel id
+    public final static int FULL_HEADER_LENGTH = VERSION_FIELD_LENGTH + TYPE_FIELD_LENGTH + PRIORITY_FIELD_LENGTH + CHANNEL_FIELD_LENGTH + CHUNK_ID_FIELD_LENGTH + CHUNK_NO_FIELD_LENGTH + TRACE_FIELD_LENGTH + TIME_TO_LIVE_FIELD_LENGTH + REPLAY_SEQUENCE_FIELD_LENGTH + PAYLOAD_LENGTH_FIELD_LENGTH;
+
+    /**
+     * Relay tag of a relay frame that is sent from the king to the mediator, which writes the frame's
+     * payload to its server connection.
+     */
+    public final static short RELAY_TAG_TO_SERVER = 1;
+    /**
+     * Relay tag of a relay frame that contains a message, the mediator read from its server connection
+     * and sends to the king.
+     */
+    public final static short RELAY_TAG_FROM_SERVER = 2;
+
+    /**
+     * Creates a relay frame, which carries the bytes of a serialized message unchanged, so that a
+     * mediator can forward them to the next hop without decoding and encoding the message.
+     * Relay frames are never chunked, since a serialized message always fits into the payload.
+     *
+     * @param relayTag the origin/destination tag (RELAY_TAG_TO_SERVER or RELAY_TAG_FROM_SERVER)
+     * @param messageBytes the serialized message (header and payload)
+     * @return the relay frame
+     */
+    public static BlaubotMessage createRelayFrame(short relayTag, byte[] messageBytes) {
+        final BlaubotMessage frame = new BlaubotMessage();
+        frame.messageType.setIsRelayFrame(true).setIsFirstHop(false);
+        frame.channelId = -1;
+        frame.relayTag = relayTag;
+        frame.priority = Priority.ADMIN_LOW;
+        frame.setPayload(messageBytes);
+        return frame;
+    }
 
     /**
      * Creates chunks of this message containing the given chunkId.
@@ -71,6 +106,9 @@ public class BlaubotMessage {
             chunk.setChunkNo((short) chunkNo);
             chunk.setPriority(priority);
             chunk.channelId = channelId;
+            chunk.trace = trace;
+            chunk.copyDeadlineFrom(this);
+            chunk.queuedSinceNanos = queuedSinceNanos;
             chunk.setPayload(chunkPayload);
 
             chunks.add(chunk);
@@ -87,6 +125,9 @@ public class BlaubotMessage {
             chunk.setChunkNo((short) (chunks.size() + 1));
             chunk.setPriority(priority);
             chunk.channelId = channelId;
+            chunk.trace = trace;
+            chunk.copyDeadlineFrom(this);
+            chunk.queuedSinceNanos = queuedSinceNanos;
             chunk.setPayload(new byte[0]);
             chunks.add(chunk);
         }
@@ -149,6 +190,8 @@ public class BlaubotMessage {
         out.setPriority(p);
         out.setChannelId(channelId);
         out.setLastOriginatorConnection(originator);
+        out.trace = chunks.get(0).trace;
+        out.copyDeadlineFrom(chunks.get(0));
         out.setPayload(payload);
         return out;
     }
@@ -180,13 +223,18 @@ public class BlaubotMessage {
 
     }
 
-    private byte protocolVersion;
+    private byte protocolVersion = BlaubotConstants.MESSAGE_SCHEMA_VERSION;
     private BlaubotMessageType messageType;
     private Priority priority;
     private short channelId;
     private short chunkId;
     private short chunkNo;
     private byte[] payload;
+    /**
+     * The payload to be encoded straight into the serialized message, if set by a typed channel
+     * (@see {BlaubotMessage#setPayload(Object, IChannelCodec)}). Replaced by the payload bytes, if they are needed.
+     */
+    private volatile EncodedPayload<?> encodedPayload;
     /**
      * An attribute that is not sent via the connection
      * Only used to send messages with the same priority in the order they were
@@ -196,6 +244,44 @@ public class BlaubotMessage {
 
     private IBlaubotConnection lastOriginatorConnection;
 
+    /**
+     * The trace extension, if this message was sampled for tracing.
+     * Only transmitted, if the isTraced bit of the message type is set.
+     */
+    private MessageTrace trace;
+
+    /**
+     * The key used by the CONFLATE_BY_KEY strategy of the channel's queue.
+     * An attribute that is not sent via the connection.
+     */
+    private Object conflationKey;
+
+    /**
+     * The deadline of this message in System.nanoTime() units.
+     * Only valid, if the hasDeadline bit of the message type is set.
+     * Transmitted as the remaining time to live, since the clocks of the devices are not synchronized.
+     */
+    private long deadlineNanos;
+
+    /**
+     * The time (System.nanoTime()) this message was published or received on this device.
+     * Only set, if an event recorder is set (@see {BlaubotEvents}), 0 otherwise.
+     * An attribute that is not sent via the connection.
+     */
+    private long queuedSinceNanos;
+
+    /**
+     * The sequence number of the connection's replay buffer this message was received with.
+     * 0, if the sender did not use a replay buffer.
+     * The sequence is assigned per connection by the sender, so it is not transmitted on further hops.
+     */
+    private int replaySequence;
+
+    /**
+     * The origin/destination tag of a relay frame. Only valid, if this message is a relay frame.
+     */
+    private short relayTag;
+
     /**
      * Constructs a default message, which sends data on a default channel
      */
@@ -221,6 +307,158 @@ public class BlaubotMessage {
         this.lastOriginatorConnection = originatorConnection;
     }
 
+    /**
+     * The conflation key of this message.
+     * @return the key or null, if not set by the publisher
+     */
+    public Object getConflationKey() {
+        return conflationKey;
+    }
+
+    /**
+     * Sets the key for channels using the CONFLATE_BY_KEY picker strategy.
+     * A queued message with an equal key is replaced by this message when it is published.
+     * The key is local to the publisher and not sent via the connection.
+     * If not set, the channel config's key extractor is used.
+     *
+     * @param conflationKey the key (has to implement equals() and hashCode()) or null
+     */
+    public void setConflationKey(Object conflationKey) {
+        this.conflationKey = conflationKey;
+    }
+
+    /**
+     * Sets the time to live of this message.
+     * Expired messages are dropped by the queues on their way (channel queue, message senders, king)
+     * instead of being delivered late.
+     * Messages published to a channel with a time to live (@see {BlaubotChannelConfig#setMessageTimeToLive})
+     * get the channel's ttl, if no ttl was set.
+     *
+     * @param timeToLive the ttl in ms, starting now; 0 to remove the deadline
+     */
+    public void setTimeToLive(int timeToLive) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("The time to live has to be >= 0");
+        }
+        if (timeToLive == 0) {
+            this.messageType.setHasDeadline(false);
+            return;
+        }
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeToLive);
+        this.messageType.setHasDeadline(true);
+    }
+
+    /**
+     * @return true, iff this message has a deadline
+     */
+    public boolean hasDeadline() {
+        return messageType.hasDeadline();
+    }
+
+    /**
+     * The remaining time to live of this message.
+     * @return the remaining ttl in ms (0 if expired) or -1, if the message has no deadline
+     */
+    public long getRemainingTimeToLive() {
+        if (!messageType.hasDeadline()) {
+            return -1;
+        }
+        final long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        return remaining > 0 ? remaining : 0;
+    }
+
+    /**
+     * @return true, iff this message has a deadline that has passed
+     */
+    public boolean isExpired() {
+        return messageType.hasDeadline() && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * The replay sequence number this message was received with (@see {MessageReplayBuffer}).
+     * @return the sequence number or 0, if received without one
+     */
+    protected int getReplaySequence() {
+        return replaySequence;
+    }
+
+    /**
+     * The deadline in System.nanoTime() units. Only valid, if hasDeadline() is true.
+     * @return the deadline
+     */
+    protected long getDeadline() {
+        return deadlineNanos;
+    }
+
+    /**
+     * Sets the deadline in System.nanoTime() units (used to restore spilled messages).
+     * @param deadlineNanos the deadline
+     */
+    protected void setDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+        this.messageType.setHasDeadline(true);
+    }
+
+    /**
+     * Copies the deadline (if any) of the given message to this message.
+     * @param message the message to copy the deadline from
+     */
+    protected void copyDeadlineFrom(BlaubotMessage message) {
+        this.deadlineNanos = message.deadlineNanos;
+        this.messageType.setHasDeadline(message.messageType.hasDeadline());
+    }
+
+    /**
+     * @return the time (System.nanoTime()) this message was published or received on this device, 0 if unknown
+     */
+    protected long getQueuedSinceNanos() {
+        return queuedSinceNanos;
+    }
+
+    /**
+     * Sets the time this message was published or received on this device (only used for event recording).
+     * @param queuedSinceNanos the time (System.nanoTime())
+     */
+    protected void setQueuedSinceNanos(long queuedSinceNanos) {
+        this.queuedSinceNanos = queuedSinceNanos;
+    }
+
+    /**
+     * The trace extension of this message.
+     * @return the trace or null, if this message is not traced
+     */
+    public MessageTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Attaches a trace extension to this message (or removes it).
+     * @param trace the trace or null to disable tracing for this message
+     */
+    protected void setTrace(MessageTrace trace) {
+        this.trace = trace;
+        this.messageType.setIsTraced(trace != null);
+    }
+
+    /**
+     * Stamps the given trace point, if this message is traced.
+     * @param tracePoint the trace point
+     */
+    protected void stampTrace(MessageTrace.TracePoint tracePoint) {
+        final MessageTrace t = trace;
+        if (t != null) {
+            t.stamp(tracePoint);
+        }
+    }
+
+    /**
+     * The origin/destination tag of this relay frame.
+     * @return RELAY_TAG_TO_SERVER or RELAY_TAG_FROM_SERVER, if this is a relay frame
+     */
+    public short getRelayTag() {
+        return relayTag;
+    }
+
     public byte getProtocolVersion() {
         return protocolVersion;
     }
@@ -269,13 +507,98 @@ public class BlaubotMessage {
     }
 
     /**
-     * Retrieve this message's payload
+     * A value and the codec to encode it.
+     */
+    private static class EncodedPayload<T> {
+        private final T value;
+        private final IChannelCodec<T> codec;
+        private final int length;
+
+        private EncodedPayload(T value, IChannelCodec<T> codec) {
+            this.value = value;
+            this.codec = codec;
+            this.length = codec.getEncodedLength(value);
+        }
+
+        /**
+         * Encodes the value at the buffer's position.
+         * @param buffer the buffer
+         * @throws IllegalStateException if the codec did not write the announced number of bytes
+         */
+        private void writeTo(ByteBuffer buffer) {
+            final int start = buffer.position();
+            codec.encode(value, buffer);
+            final int written = buffer.position() - start;
+            if (written != length) {
+                throw new IllegalStateException("The codec " + codec + " wrote " + written + " bytes, but announced " + length + " bytes.");
+            }
+        }
+
+        private byte[] toBytes() {
+            final ByteBuffer buffer = ByteBuffer.allocate(length).order(BlaubotConstants.BYTE_ORDER);
+            writeTo(buffer);
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Retrieve this message's payload.
+     * If the payload was set with a codec, it is encoded now.
      * @return payload as byte array (max 65535 bytes)
      */
     public byte[] getPayload() {
+        final EncodedPayload<?> encoded = encodedPayload;
+        if (encoded != null) {
+            // i.e. for chunking or spilling
+            payload = encoded.toBytes();
+            encodedPayload = null;
+        }
         return payload;
     }
 
+    /**
+     * The length of this message's payload.
+     * Does not encode a payload set with a codec.
+     * @return the number of payload bytes
+     */
+    public int getPayloadLength() {
+        final EncodedPayload<?> encoded = encodedPayload;
+        if (encoded != null) {
+            return encoded.length;
+        }
+        return payload != null ? payload.length : 0;
+    }
+
+    /**
+     * Decodes this message's payload.
+     * The codec reads straight from the payload bytes.
+     *
+     * @param codec the codec
+     * @param <T> the type of the payload
+     * @return the decoded payload
+     */
+    public <T> T getPayload(IChannelCodec<T> codec) {
+        final byte[] bytes = getPayload();
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes != null ? bytes : new byte[0]).order(BlaubotConstants.BYTE_ORDER);
+        return codec.decode(buffer);
+    }
+
+    /**
+     * Sets the payload of this message to a value, that is encoded by the codec straight into the serialized
+     * message, when the message is sent.
+     * The value must not be modified afterwards.
+     *
+     * @param value the value
+     * @param codec the codec to encode the value
+     * @param <T> the type of the value
+     */
+    public <T> void setPayload(T value, IChannelCodec<T> codec) {
+        final EncodedPayload<T> encoded = new EncodedPayload<>(value, codec);
+        this.messageType.setContainsPayload(encoded.length > 0);
+        this.payload = encoded.length > 0 ? null : new byte[0];
+        this.encodedPayload = encoded.length > 0 ? encoded : null;
+    }
+
     /**
      * Set the payload of this message.
      * @param payload the payload bytes
@@ -293,6 +616,7 @@ public class BlaubotMessage {
             this.messageType.setContainsPayload(false);
         }
         this.payload = payload;
+        this.encodedPayload = null;
     }
 
     /**
@@ -319,7 +643,11 @@ public class BlaubotMessage {
         setPriority(Priority.fromByte(priority));
 
         // Now we check if we have to deal with channels
-        if (messageType.isAdminMessage() || messageType.isKeepAliveMessage()) {
+        if (messageType.isRelayFrame()) {
+            // -- relay frames carry the relay tag instead of the channel
+            setChannelId((short) -1);
+            this.relayTag = byteBuffer.getShort();
+        } else if (messageType.isAdminMessage() || messageType.isKeepAliveMessage()) {
             // -- no channel needed
             setChannelId((byte) -1);
         } else {
@@ -341,6 +669,26 @@ public class BlaubotMessage {
             // we ignore this fields
         }
 
+        // trace extension, if any
+        if (messageType.isTraced()) {
+            this.trace = MessageTrace.readFrom(byteBuffer);
+        } else {
+            this.trace = null;
+        }
+
+        // remaining time to live, if any
+        if (messageType.hasDeadline()) {
+            final int remainingTimeToLive = byteBuffer.getInt();
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remainingTimeToLive);
+        }
+
+        // replay sequence, if any
+        if (messageType.hasReplaySequence()) {
+            this.replaySequence = byteBuffer.getInt();
+        } else {
+            this.replaySequence = 0;
+        }
+
         // Check if there is any payload
         if (messageType.containsPayload()) {
             // PAYLOAD_LENGTH
@@ -359,9 +707,12 @@ public class BlaubotMessage {
      * @return the length of all header fields excluding the payload bytes.
      */
     protected static int calculateHeaderLength(BlaubotMessageType messageType) {
-        boolean isChannelFieldRelevant = !messageType.isAdminMessage() && !messageType.isKeepAliveMessage();
+        boolean isChannelFieldRelevant = messageType.isRelayFrame() || (!messageType.isAdminMessage() && !messageType.isKeepAliveMessage());
         boolean containsPayload = messageType.containsPayload();
         boolean isChunkMessage = messageType.isChunk();
+        boolean isTraced = messageType.isTraced();
+        boolean hasDeadline = messageType.hasDeadline();
+        boolean hasReplaySequence = messageType.hasReplaySequence();
 
         // calculate the total header length needed
         int totalLength = FULL_HEADER_LENGTH;
@@ -374,6 +725,15 @@ public class BlaubotMessage {
         if (!isChunkMessage) {
             totalLength -= CHUNK_ID_FIELD_LENGTH + CHUNK_NO_FIELD_LENGTH;
         }
+        if (!isTraced) {
+            totalLength -= TRACE_FIELD_LENGTH;
+        }
+        if (!hasDeadline) {
+            totalLength -= TIME_TO_LIVE_FIELD_LENGTH;
+        }
+        if (!hasReplaySequence) {
+            totalLength -= REPLAY_SEQUENCE_FIELD_LENGTH;
+        }
         return totalLength;
     }
 
@@ -381,11 +741,32 @@ public class BlaubotMessage {
      * Serializes the message to a byte array.
      * The resulting bytes contain the header as well as the payload (if any).
      *
+     * A received message is serialized as received, including its trace and replay sequence (if any).
+     *
      * @return byte array containing the message's header as well as payload (if any)
      */
     public byte[] toBytes() {
+        return toBytes(trace, replaySequence);
+    }
+
+    /**
+     * Serializes the message to a byte array using the given trace instead of the message's own trace
+     * and the given replay sequence number.
+     * Used by the senders to stamp a trace point and number the message without modifying the (maybe shared) message.
+     *
+     * @param trace the trace to be serialized, has to be non-null if the message type's isTraced bit is set
+     * @param replaySequence the sequence number of the connection's replay buffer or 0, if none
+     * @return byte array containing the message's header as well as payload (if any)
+     */
+    protected byte[] toBytes(MessageTrace trace, int replaySequence) {
+        // the type is shared with other senders, so we copy it if the sequence bit differs
+        final boolean withReplaySequence = replaySequence > 0;
+        final BlaubotMessageType messageType = withReplaySequence == this.messageType.hasReplaySequence() ? this.messageType : BlaubotMessageType.copy(this.messageType).setHasReplaySequence(withReplaySequence);
         int headerLength = calculateHeaderLength(messageType);
-        int totalLength = headerLength + (messageType.containsPayload() ? payload.length : 0);
+        final EncodedPayload<?> encoded = encodedPayload;
+        final byte[] payload = encoded == null ? this.payload : null;
+        final int payloadLength = encoded != null ? encoded.length : (payload != null ? payload.length : 0);
+        int totalLength = headerLength + (messageType.containsPayload() ? payloadLength : 0);
 
         // allocate and encode attributes
         ByteBuffer bb = ByteBuffer.allocate(totalLength).order(BlaubotConstants.BYTE_ORDER);
@@ -399,6 +780,8 @@ public class BlaubotMessage {
         final boolean isChannelRelevant = !messageType.isAdminMessage() && !messageType.isKeepAliveMessage();
         if (isChannelRelevant) {
             bb.putShort(channelId);
+        } else if (messageType.isRelayFrame()) {
+            bb.putShort(relayTag);
         }
 
         // chunked message fields, if relevant
@@ -408,19 +791,36 @@ public class BlaubotMessage {
             bb.putShort(getChunkNo());
         }
 
+        // trace extension, if relevant
+        if (messageType.isTraced()) {
+            (trace != null ? trace : new MessageTrace()).writeTo(bb);
+        }
+
+        // remaining time to live, if relevant
+        if (messageType.hasDeadline()) {
+            bb.putInt((int) Math.min(getRemainingTimeToLive(), Integer.MAX_VALUE));
+        }
+
+        // replay sequence, if relevant
+        if (withReplaySequence) {
+            bb.putInt(replaySequence);
+        }
+
         // append payload, if relevant
         if (messageType.containsPayload()) {
             // note the cast to short which is effectively: (intValue) & 0xffff
             // so the result could be a negative short!
-            bb.putShort((short) payload.length);
-            bb.put(payload);
+            bb.putShort((short) payloadLength);
+            if (encoded != null) {
+                // straight into the message, without an intermediate array
+                encoded.writeTo(bb);
+            } else {
+                bb.put(payload);
+            }
         }
 
-        // retrieve byte array from buffer
-        byte[] bytes = new byte[totalLength];
-        bb.clear();
-        bb.get(bytes);
-        return bytes;
+        // the buffer's array has exactly the message's length
+        return bb.array();
     }
 
     /**
@@ -465,8 +865,6 @@ public class BlaubotMessage {
                 // create buffer - Note: intentionally no reuse of buffers - faster because of javas memory management
                 byte[] payloadBuffer = new byte[payloadLength];
                 messageByteBuffer.get(payloadBuffer, 0, payloadLength);
-                byte[] orderedPayload = new byte[payloadLength]; // byte ordered
-                ByteBuffer.wrap(payloadBuffer).order(BlaubotConstants.BYTE_ORDER).get(orderedPayload);
                 message.setPayload(payloadBuffer);
             }
         }
@@ -519,7 +917,7 @@ public class BlaubotMessage {
         if (protocolVersion != that.protocolVersion) return false;
         if (messageType != null ? !messageType.equals(that.messageType) : that.messageType != null)
             return false;
-        if (!Arrays.equals(payload, that.payload)) return false;
+        if (!Arrays.equals(getPayload(), that.getPayload())) return false;
         if (priority != that.priority) return false;
 
         return true;
@@ -532,6 +930,7 @@ public class BlaubotMessage {
         result = 31 * result + (messageType != null ? messageType.hashCode() : 0);
         result = 31 * result + (priority != null ? priority.hashCode() : 0);
         result = 31 * result + (int) channelId;
+        final byte[] payload = getPayload();
         result = 31 * result + (payload != null ? Arrays.hashCode(payload) : 0);
         return result;
     }
@@ -543,14 +942,23 @@ public class BlaubotMessage {
         sb.append(", messageType=").append(messageType);
         sb.append(", priority=").append(priority);
         sb.append(", channelId=").append(channelId);
+        if (messageType.isRelayFrame()) {
+            sb.append(", relayTag=").append(relayTag);
+        }
         sb.append(", chunkId=").append(chunkId);
         sb.append(", chunkNo=").append(chunkNo);
         sb.append(", payload=");
-        if (payload == null) sb.append("null");
+        if (payload == null && encodedPayload == null) sb.append("null");
         else {
-            sb.append(payload.length + " bytes");
+            sb.append(getPayloadLength() + " bytes");
         }
         sb.append(", sequenceNumber=").append(sequenceNumber);
+        if (trace != null) {
+            sb.append(", trace=").append(trace);
+        }
+        if (hasDeadline()) {
+            sb.append(", remainingTimeToLive=").append(getRemainingTimeToLive());
+        }
         sb.append(", lastOriginatorConnection=").append(lastOriginatorConnection);
         sb.append('}');
         return sb.toString();
@@ -612,8 +1020,6 @@ public class BlaubotMessage {
                 // create buffer - Note: intentionally no reuse of buffers - faster because of javas memory management
                 payloadBuffer = new byte[payloadLength];
                 blaubotConnection.readFully(payloadBuffer, 0, payloadLength);
-                byte[] orderedPayload = new byte[payloadLength]; // byte ordered
-                ByteBuffer.wrap(payloadBuffer).order(BlaubotConstants.BYTE_ORDER).get(orderedPayload);
                 message.setPayload(payloadBuffer);
             }
         }
@@ -624,6 +1030,122 @@ public class BlaubotMessage {
         return message;
     }
 
+    /**
+     * Reads the channel id from a serialized message without decoding the message.
+     *
+     * @param messageBytes the message's bytes (header and payload)
+     * @return the channel id or -1, if the message does not involve a channel (admin, keep alive and relay frames)
+     */
+    public static short getChannelIdFromBytes(byte[] messageBytes) {
+        final BlaubotMessageType messageType = BlaubotMessageType.fromByte(messageBytes[VERSION_FIELD_LENGTH]);
+        if (messageType.isAdminMessage() || messageType.isKeepAliveMessage()) {
+            return -1;
+        }
+        return ByteBuffer.wrap(messageBytes).order(BlaubotConstants.BYTE_ORDER).getShort(VERSION_FIELD_LENGTH + TYPE_FIELD_LENGTH + PRIORITY_FIELD_LENGTH);
+    }
+
+    /**
+     * Calculates the offset of the chunk id field of a serialized chunk.
+     *
+     * @param messageType the chunk's message type
+     * @return the offset of the chunk id field
+     */
+    private static int getChunkIdOffset(BlaubotMessageType messageType) {
+        final boolean isChannelFieldRelevant = messageType.isRelayFrame() || (!messageType.isAdminMessage() && !messageType.isKeepAliveMessage());
+        return VERSION_FIELD_LENGTH + TYPE_FIELD_LENGTH + PRIORITY_FIELD_LENGTH + (isChannelFieldRelevant ? CHANNEL_FIELD_LENGTH : 0);
+    }
+
+    /**
+     * Checks whether a serialized message is a chunk without decoding the message.
+     *
+     * @param messageBytes the message's bytes (header and payload)
+     * @return true, iff the message is a chunk of a bigger message
+     */
+    public static boolean isChunkFromBytes(byte[] messageBytes) {
+        return BlaubotMessageType.fromByte(messageBytes[VERSION_FIELD_LENGTH]).isChunk();
+    }
+
+    /**
+     * Reads the chunk id from a serialized chunk without decoding the message.
+     *
+     * @param messageBytes the chunk's bytes (header and payload)
+     * @return the chunk id
+     * @throws IllegalArgumentException if the message is not a chunk
+     */
+    public static short getChunkIdFromBytes(byte[] messageBytes) {
+        final BlaubotMessageType messageType = BlaubotMessageType.fromByte(messageBytes[VERSION_FIELD_LENGTH]);
+        if (!messageType.isChunk()) {
+            throw new IllegalArgumentException("The message is not a chunk");
+        }
+        return ByteBuffer.wrap(messageBytes).order(BlaubotConstants.BYTE_ORDER).getShort(getChunkIdOffset(messageType));
+    }
+
+    /**
+     * Replaces the chunk id of a serialized chunk without decoding the message.
+     *
+     * @param messageBytes the chunk's bytes (header and payload)
+     * @param chunkId the new chunk id
+     * @throws IllegalArgumentException if the message is not a chunk
+     */
+    public static void setChunkIdInBytes(byte[] messageBytes, short chunkId) {
+        final BlaubotMessageType messageType = BlaubotMessageType.fromByte(messageBytes[VERSION_FIELD_LENGTH]);
+        if (!messageType.isChunk()) {
+            throw new IllegalArgumentException("The message is not a chunk");
+        }
+        ByteBuffer.wrap(messageBytes).order(BlaubotConstants.BYTE_ORDER).putShort(getChunkIdOffset(messageType), chunkId);
+    }
+
+    /**
+     * Calculates the payload length of a serialized message without decoding the message.
+     *
+     * @param messageBytes the message's bytes (header and payload)
+     * @return the payload length in bytes
+     */
+    public static int getPayloadLengthFromBytes(byte[] messageBytes) {
+        final BlaubotMessageType messageType = BlaubotMessageType.fromByte(messageBytes[VERSION_FIELD_LENGTH]);
+        if (!messageType.containsPayload()) {
+            return 0;
+        }
+        return messageBytes.length - calculateHeaderLength(messageType);
+    }
+
+    /**
+     * Reads the bytes of the next message from a given connection without decoding the message.
+     * Used by relays to forward messages unchanged.
+     *
+     * @param blaubotConnection the connection
+     * @param headerByteBuffer the byte buffer around header buffer
+     * @param headerBuffer the header buffer
+     * @return the message's bytes (header and payload)
+     * @throws IOException if something goes wrong
+     */
+    public static byte[] readBytesFromBlaubotConnection(IBlaubotConnection blaubotConnection, ByteBuffer headerByteBuffer, byte[] headerBuffer) throws IOException {
+        headerByteBuffer.clear();
+
+        // Partially read version and type, then decide how much bytes we need to read
+        int partialHeaderLength = BlaubotMessage.VERSION_FIELD_LENGTH + BlaubotMessage.TYPE_FIELD_LENGTH;
+        blaubotConnection.readFully(headerBuffer, 0, partialHeaderLength);
+        byte messageSchemaVersion = headerByteBuffer.get();
+        if (messageSchemaVersion != BlaubotConstants.MESSAGE_SCHEMA_VERSION) {
+            throw new RuntimeException("Incompatible Blaubot message schema version: " + messageSchemaVersion);
+        }
+        BlaubotMessageType messageType = BlaubotMessageType.fromByte(headerByteBuffer.get());
+        int totalHeaderLength = BlaubotMessage.calculateHeaderLength(messageType);
+        blaubotConnection.readFully(headerBuffer, partialHeaderLength, totalHeaderLength - partialHeaderLength);
+
+        // the payload length is the last header field
+        int payloadLength = 0;
+        if (messageType.containsPayload()) {
+            payloadLength = headerByteBuffer.getShort(totalHeaderLength - PAYLOAD_LENGTH_FIELD_LENGTH) & 0xffff;
+        }
+        final byte[] messageBytes = new byte[totalHeaderLength + payloadLength];
+        System.arraycopy(headerBuffer, 0, messageBytes, 0, totalHeaderLength);
+        if (payloadLength > 0) {
+            blaubotConnection.readFully(messageBytes, totalHeaderLength, payloadLength);
+        }
+        return messageBytes;
+    }
+
     public static void main(String[] args) {
         BlaubotMessage msg = new BlaubotMessage();
         msg.setPayload("blabla".getBytes());
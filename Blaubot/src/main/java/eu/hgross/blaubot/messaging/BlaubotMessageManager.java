@@ -1,8 +1,13 @@
 package eu.hgross.blaubot.messaging;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import eu.hgross.blaubot.core.ActionFuture;
 import eu.hgross.blaubot.core.IActionListener;
 import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.util.Log;
@@ -18,9 +23,25 @@ public class BlaubotMessageManager {
      * The maximum period in ms after which a message sender or receiver has to be shut down after instructed to do so.
      */
     private static final long MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME = 5000;
+    /**
+     * Completes the deactivations of senders and receivers that did not stop in time.
+     */
+    private static final ScheduledExecutorService SHUTDOWN_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "message-manager-shutdown-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     private final BlaubotMessageReceiver messageReceiver;
     private final BlaubotMessageSender messageSender;
     private final BlaubotChannelManager channelManager;
+    private final LinkEstimator linkEstimator;
+    /**
+     * Completed when the sender's thread exited after the last deactivation (null, if never deactivated)
+     */
+    private volatile ActionFuture senderStoppedFuture;
 
     /**
      * Constructs a BlaubotMessageManager based on a pre-created receiver and sender object.
@@ -33,6 +54,10 @@ public class BlaubotMessageManager {
         this.messageReceiver = messageReceiver;
         this.messageSender = messageSender;
         this.channelManager = channelManager;
+        this.messageSender.setExpiredMessageListener(channelManager.getExpiredMessageListener());
+        this.messageSender.setChannelWeightProvider(channelManager.getChannelWeightProvider());
+        this.linkEstimator = new LinkEstimator();
+        setUpLinkEstimator();
     }
 
     /**
@@ -46,6 +71,24 @@ public class BlaubotMessageManager {
         this.channelManager = channelManager;
         this.messageReceiver = new BlaubotMessageReceiver(blaubotConnection);
         this.messageSender = new BlaubotMessageSender(blaubotConnection);
+        this.messageSender.setExpiredMessageListener(channelManager.getExpiredMessageListener());
+        this.messageSender.setChannelWeightProvider(channelManager.getChannelWeightProvider());
+        this.linkEstimator = new LinkEstimator();
+        setUpLinkEstimator();
+    }
+
+    /**
+     * Wires the link estimator to the sender and receiver.
+     */
+    private void setUpLinkEstimator() {
+        this.linkEstimator.setShapingEnabled(channelManager.isSendRateShaping());
+        this.messageSender.setLinkEstimator(linkEstimator);
+        this.messageReceiver.addMessageListener(new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage message) {
+                linkEstimator.onMessageReceived(message);
+            }
+        });
     }
 
     /**
@@ -61,67 +104,77 @@ public class BlaubotMessageManager {
      * @param actionListener a listener that is called when the receiver and sender are deactivated. may be null
      */
     public void deactivate(final IActionListener actionListener) {
+        final ActionFuture future = deactivate(DrainPolicy.ABANDON, 0);
+        if (actionListener != null) {
+            future.addListener(actionListener);
+        }
+    }
+
+    /**
+     * Deactivates sender and receiver in the background.
+     * The future is done, when both stopped or did not stop within MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME
+     * (after draining). Use getSenderStoppedFuture() to wait for the sender's thread to exit.
+     *
+     * @param drainPolicy what to do with the queued messages
+     * @param drainTimeout the max time in ms to send queued messages, if the policy is DRAIN
+     * @return the future of the deactivation
+     */
+    public ActionFuture deactivate(DrainPolicy drainPolicy, long drainTimeout) {
         if (Log.logDebugMessages()) {
-            Log.d(LOG_TAG, "Deactivating ...");
+            Log.d(LOG_TAG, "Deactivating ({}) ...", drainPolicy);
         }
-        final CountDownLatch receiverLatch = new CountDownLatch(1);
-        final CountDownLatch senderLatch = new CountDownLatch(1);
-        IActionListener receiverListener = new IActionListener() {
+        final long senderDrainTimeout = drainPolicy == DrainPolicy.DRAIN ? drainTimeout : 0;
+        final ActionFuture senderFuture = new ActionFuture();
+        final ActionFuture receiverFuture = new ActionFuture();
+        senderStoppedFuture = senderFuture;
+        messageReceiver.deactivate(new IActionListener() {
             @Override
             public void onFinished() {
-                receiverLatch.countDown();
+                receiverFuture.complete();
             }
-        };
-        IActionListener senderListener = new IActionListener() {
+        });
+        messageSender.deactivate(new IActionListener() {
             @Override
             public void onFinished() {
-                senderLatch.countDown();
+                senderFuture.complete();
             }
-        };
+        }, senderDrainTimeout);
 
-        messageReceiver.deactivate(receiverListener);
-        messageSender.deactivate(senderListener);
-        if (actionListener != null) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    // stop sender
-                    if (Log.logDebugMessages()) {
-                        Log.d(LOG_TAG, "Awaiting sender to stop: " + messageSender);
-                    }
-                    try {
-                        boolean timedOut = !senderLatch.await(MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME, TimeUnit.MILLISECONDS);
-                        if (timedOut) {
-                            throw new RuntimeException("A MessageSender did not shut down fast enough (waited " + MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME + " ms); Sender: " + messageSender);
-                        }
-                    } catch (InterruptedException e) {
-                        // wayne
-                    }
-
-                    // stop receiver
-                    if (Log.logDebugMessages()) {
-                        Log.d(LOG_TAG, "Awaiting receiver to stop: " + messageReceiver);
-                    }
-                    try {
-                        boolean timedOut = !receiverLatch.await(MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME, TimeUnit.MILLISECONDS);
-                        if (timedOut) {
-                            if (Log.logErrorMessages()) {
-                                Log.e(LOG_TAG, "A MessageReceiver did not shut down fast enough (waited " + MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME + " ms); Receiver: "+ messageReceiver);
-                            }
-                            // TODO: there is a bug regarding .disconnect() call on queue connections which causes the own connection's receiver not to be called here? Looks like setMaster(false); on the channel manager is called multiple times anyways -> check that
-                            //throw new RuntimeException("A MessageReceiver did not shut down fast enough (waited " + MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME + " ms); Receiver: "+ messageReceiver);
-                        }
-                    } catch (InterruptedException e) {
-                        // wayne
-                    }
-
-                    if (Log.logDebugMessages()) {
-                        Log.d(LOG_TAG, "Receiver and Sender are now stopped.");
-                    }
-                    actionListener.onFinished();
+        final ActionFuture future = ActionFuture.allOf(Arrays.asList(senderFuture, receiverFuture));
+        // a sender or receiver that does not stop must not hold back the future
+        final ScheduledFuture<?> timeout = SHUTDOWN_TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!senderFuture.isDone() && Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "A MessageSender did not shut down fast enough (waited " + MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME + " ms); Sender: " + messageSender);
                 }
-            }).start();
-        }
+                if (!receiverFuture.isDone() && Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "A MessageReceiver did not shut down fast enough (waited " + MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME + " ms); Receiver: "+ messageReceiver);
+                }
+                future.complete();
+            }
+        }, senderDrainTimeout + MAX_SENDER_AND_RECEIVER_SHUTDOWN_TIME, TimeUnit.MILLISECONDS);
+        future.addListener(new IActionListener() {
+            @Override
+            public void onFinished() {
+                timeout.cancel(false);
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "Receiver and Sender are now stopped.");
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * The future of the sender's shutdown after the last deactivation.
+     * Unlike the future returned by deactivate(), it is not completed before the sender's thread exited, so
+     * the queued messages can be taken over, when it is done, without the sender still writing them.
+     *
+     * @return the future or null, if the message manager was not deactivated yet
+     */
+    public ActionFuture getSenderStoppedFuture() {
+        return senderStoppedFuture;
     }
 
     public BlaubotMessageReceiver getMessageReceiver() {
@@ -132,6 +185,13 @@ public class BlaubotMessageManager {
         return messageSender;
     }
 
+    /**
+     * @return the rtt and bandwidth estimation of the managed connection
+     */
+    public LinkEstimator getLinkEstimator() {
+        return linkEstimator;
+    }
+
 
     @Override
     public boolean equals(Object o) {
@@ -6,12 +6,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import eu.hgross.blaubot.core.BlaubotConstants;
 import eu.hgross.blaubot.core.IActionListener;
 import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.util.BlaubotEvents;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -36,6 +37,10 @@ public class BlaubotMessageReceiver {
     private final CopyOnWriteArrayList<IBlaubotMessageListener> messageListeners;
     private volatile MessageReceivingThread messageReceivingThread;
     private boolean forwardChunks = false;
+    /**
+     * If > 0, the read messages are not decoded but wrapped into relay frames with this tag
+     */
+    private volatile short relayTag = 0;
     /**
      * Monitor to avoid execution of two MessageReceivingThreads at the same time on this instance.
      * (could happen on fast activate/deactivate calls)
@@ -125,6 +130,18 @@ public class BlaubotMessageReceiver {
         this.forwardChunks = forwardChunks;
     }
 
+    /**
+     * If set, the receiver does not decode the read messages, but notifies its listeners with relay
+     * frames (@see {BlaubotMessage#createRelayFrame}) containing the unchanged message bytes.
+     * Chunks are forwarded as they are in this mode.
+     * Default: 0 (decode messages)
+     *
+     * @param relayTag the relay tag of the frames or 0 to decode the messages
+     */
+    public void setRelayTag(short relayTag) {
+        this.relayTag = relayTag;
+    }
+
     /**
      * @return number of received chunk messages (chunks themselves)
      */
@@ -189,6 +206,20 @@ public class BlaubotMessageReceiver {
         }
         if (completeListOfChunks != null) {
             BlaubotMessage msg = BlaubotMessage.fromChunks(completeListOfChunks);
+            final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+            if (recorder != null) {
+                // the chunks may have been received out of order
+                long firstReceived = 0;
+                for (BlaubotMessage chunk : completeListOfChunks) {
+                    final long received = chunk.getQueuedSinceNanos();
+                    if (received > 0 && (firstReceived == 0 || received - firstReceived < 0)) {
+                        firstReceived = received;
+                    }
+                }
+                final long now = System.nanoTime();
+                msg.setQueuedSinceNanos(now);
+                recorder.onChunksReassembled(blaubotConnection.getRemoteDevice().getUniqueDeviceID(), msg.getChannelId(), completeListOfChunks.size(), msg.getPayload().length, firstReceived > 0 ? now - firstReceived : 0);
+            }
             //Log.d(LOG_TAG, "ReceivedChunks: " + completeListOfChunks);
             //Log.d(LOG_TAG, "Got all chunks for chunkId " + chunkId + " (" + completeListOfChunks.size() + " chunks), bytes: " + msg.getPayload().length);
             notifyListeners(msg);
@@ -212,7 +243,7 @@ public class BlaubotMessageReceiver {
             // TODO handle exceptions: they need to bubble up to the top level to eliminate this receiver. Maybe we just close the connection due to the obviously corrupted messaging
             synchronized (receiverMonitor) {
                 if (Log.logDebugMessages()) {
-                    Log.d(LOG_TAG, "Started receiver for connection: " + blaubotConnection);
+                    Log.d(LOG_TAG, "Started receiver for connection: {}", blaubotConnection);
                 }
                 byte[] headerBuffer, payloadBuffer;
                 int headerLength = BlaubotMessage.FULL_HEADER_LENGTH;
@@ -223,8 +254,15 @@ public class BlaubotMessageReceiver {
                 while (messageReceivingThread == this && !isInterrupted()) {
                     // Read from the InputStream
                     try {
-                        Random r = new Random();
-                        int i = r.nextInt();
+                        final short tag = relayTag;
+                        if (tag > 0) {
+                            // forward the bytes as they are
+                            final byte[] messageBytes = BlaubotMessage.readBytesFromBlaubotConnection(blaubotConnection, headerByteBuffer, headerBuffer);
+                            receivedMessages += 1;
+                            receivedPayloadBytes += messageBytes.length;
+                            notifyListeners(BlaubotMessage.createRelayFrame(tag, messageBytes));
+                            continue;
+                        }
                         BlaubotMessage message = BlaubotMessage.readFromBlaubotConnection(blaubotConnection, headerByteBuffer, headerBuffer);
 
                         // maintain stats
@@ -233,6 +271,11 @@ public class BlaubotMessageReceiver {
 
                         // check if we need to process a chunked message
                         boolean isChunk = message.getMessageType().isChunk();
+                        final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+                        if (recorder != null) {
+                            message.setQueuedSinceNanos(System.nanoTime());
+                            recorder.onMessageReceived(blaubotConnection.getRemoteDevice().getUniqueDeviceID(), message.getChannelId(), message.getPayload().length, isChunk);
+                        }
                         if (isChunk) {
                             receivedChunkMessages += 1;
                         }
@@ -246,7 +289,7 @@ public class BlaubotMessageReceiver {
 
                     } catch (IOException e) {
                         if (Log.logDebugMessages()) {
-                            Log.d(LOG_TAG, "IOException ("+e.getMessage()+") while reading from connection: " + blaubotConnection);
+                            Log.d(LOG_TAG, "IOException ({}) while reading from connection: {}", e.getMessage(), blaubotConnection);
                         }
                         try {
                             Thread.sleep(SLEEP_TIME_ON_IO_FAILURE);
@@ -258,14 +301,14 @@ public class BlaubotMessageReceiver {
                 synchronized (finishedMonitor) {
                     finished = true;
                     if (Log.logDebugMessages()) {
-                        Log.d(LOG_TAG, "Receiver finished. Notifying listener (connection: " + blaubotConnection + ")");
+                        Log.d(LOG_TAG, "Receiver finished. Notifying listener (connection: {})", blaubotConnection);
                     }
                     if (finishedListener != null) {
                         finishedListener.onFinished();
                     }
                 }
                 if (Log.logDebugMessages()) {
-                    Log.d(LOG_TAG, "Stopped receiver for connection: " + blaubotConnection);
+                    Log.d(LOG_TAG, "Stopped receiver for connection: {}", blaubotConnection);
                 }
             }
         }
@@ -289,6 +332,9 @@ public class BlaubotMessageReceiver {
     }
 
     private void notifyListeners(BlaubotMessage message) {
+        if (message.getTrace() != null) {
+            message.stampTrace(message.getMessageType().isFirstHop() ? MessageTrace.TracePoint.RECEIVED_BY_KING : MessageTrace.TracePoint.RECEIVED);
+        }
         // notify listeners about new message
         for (IBlaubotMessageListener listener : messageListeners) {
             listener.onMessage(message);
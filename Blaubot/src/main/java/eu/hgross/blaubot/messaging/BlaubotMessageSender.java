@@ -2,20 +2,26 @@ package eu.hgross.blaubot.messaging;
 
 import java.io.IOException;
 import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import eu.hgross.blaubot.core.BlaubotConstants;
 import eu.hgross.blaubot.core.IActionListener;
 import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.util.BlaubotEvents;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder;
 import eu.hgross.blaubot.util.Log;
 
 /**
  * The message sender simply queues messages that are going to be sent over the IBlaubotConnection
  * for which this message sender was created for.
+ * Admin messages are sent first, the channels share the connection by their weights (@see {FairMessageQueue}).
  *
  * The sender can be activated/deactivated, meaning stopping and starting a queue consuming thread
  * that serializes and sends the queued messages (if any) over the given IBlaubotConnection.
@@ -36,9 +42,9 @@ public class BlaubotMessageSender {
     private final ConcurrentHashMap<Short, Short> chunkIdMapping;
 
     /**
-     * The message queue, prioritized by the priorityComparator
+     * The message queue, scheduling the channels fairly and ordering by the priorityComparator within a channel
      */
-    private final PriorityBlockingQueue<BlaubotMessage> queuedMessages;
+    private final FairMessageQueue queuedMessages;
 
     /**
      * The connection over which the messages are send
@@ -57,6 +63,50 @@ public class BlaubotMessageSender {
     private AtomicInteger sequenceNumberGenerator;
     private long sentMessages = 0;
     private long sentPayloadBytes = 0;
+    private long writeNanos = 0;
+    private long expiredMessages = 0;
+
+    /**
+     * Gets called with messages that were dropped because their time to live expired.
+     */
+    private volatile IBlaubotMessageListener expiredMessageListener;
+
+    /**
+     * The (own) chunk ids of chunked messages that expired before their first chunk was sent.
+     * The remaining chunks of these ids are dropped as well.
+     * Only accessed by the MessageSendingThread.
+     */
+    private final Set<Short> droppedChunkIds = new HashSet<>();
+
+    /**
+     * Estimates rtt and delivery rate from the keep alives and paces the sending. May be null.
+     */
+    private volatile LinkEstimator linkEstimator;
+
+    /**
+     * The replay buffer for the remote device or null, if replaying is disabled.
+     */
+    private volatile MessageReplayBuffer replayBuffer;
+    private volatile ReplayRequest replayRequest;
+    private long replayedMessages = 0;
+
+    /**
+     * Queued to wake up the sending thread on replay requests.
+     */
+    private static final BlaubotMessage REPLAY_REQUEST_MARKER = new BlaubotMessage();
+    static {
+        REPLAY_REQUEST_MARKER.setPriority(BlaubotMessage.Priority.ADMIN);
+    }
+
+    private static class ReplayRequest {
+        private final long epoch;
+        private final int lastReceivedSequence;
+
+        private ReplayRequest(long epoch, int lastReceivedSequence) {
+            this.epoch = epoch;
+            this.lastReceivedSequence = lastReceivedSequence;
+        }
+    }
 
     /**
      * Comparator for the priority queue.
@@ -93,7 +143,7 @@ public class BlaubotMessageSender {
         this.sequenceNumberGenerator = new AtomicInteger(0);
         this.chunkIdGenerator = new AtomicShort((short)0);
         this.blaubotConnection = blaubotConnection;
-        this.queuedMessages = new PriorityBlockingQueue<>(50, priorityComparator);
+        this.queuedMessages = new FairMessageQueue(priorityComparator);
         this.chunkIdMapping = new ConcurrentHashMap<>();
     }
 
@@ -104,8 +154,14 @@ public class BlaubotMessageSender {
      * @param message the message to be send
      */
     public void sendMessage(BlaubotMessage message) {
-        // check if we need to chunk this message
-        final boolean needsToBeChunked = message.getMessageType().containsPayload() && message.getPayload().length > BlaubotConstants.MAX_PAYLOAD_SIZE;
+        // don't queue messages that already expired (chunks are handled by the sending thread)
+        if (!message.getMessageType().isChunk() && message.isExpired()) {
+            onMessageExpired(message);
+            return;
+        }
+
+        // check if we need to chunk this message (relay frames always fit, since they contain at most one full message)
+        final boolean needsToBeChunked = message.getMessageType().containsPayload() && message.getPayloadLength() > BlaubotConstants.MAX_PAYLOAD_SIZE && !message.getMessageType().isRelayFrame();
         if (needsToBeChunked) {
             if (message.getMessageType().isChunk()) {
                 throw new IllegalStateException("Already chunked messages should never be chunked again!");
@@ -134,6 +190,123 @@ public class BlaubotMessageSender {
         queuedMessages.add(message);
     }
 
+    /**
+     * Sets the listener to be called with messages that were dropped because their time to live expired.
+     * @param expiredMessageListener the listener or null
+     */
+    protected void setExpiredMessageListener(IBlaubotMessageListener expiredMessageListener) {
+        this.expiredMessageListener = expiredMessageListener;
+    }
+
+    /**
+     * Sets the provider of the channel weights used to share the connection between the channels.
+     * @param weightProvider the provider or null to weight all channels equally
+     */
+    protected void setChannelWeightProvider(FairMessageQueue.IChannelWeightProvider weightProvider) {
+        this.queuedMessages.setWeightProvider(weightProvider);
+    }
+
+    /**
+     * Sets the link estimator of the connection.
+     * The keep alives are sent with its estimation fields and the sending is paced by it, if shaping is enabled.
+     *
+     * @param linkEstimator the estimator or null
+     */
+    protected void setLinkEstimator(LinkEstimator linkEstimator) {
+        this.linkEstimator = linkEstimator;
+    }
+
+    /**
+     * Sets the replay buffer for the remote device.
+     * If set, the replayable messages are numbered and retained and the sender holds them back after
+     * activation until the remote device sent its replay request (@see {BlaubotMessageSender#onReplayRequest}).
+     * Has to be set before activation.
+     *
+     * @param replayBuffer the buffer or null to disable replaying
+     */
+    protected void setReplayBuffer(MessageReplayBuffer replayBuffer) {
+        this.replayBuffer = replayBuffer;
+    }
+
+    /**
+     * @return the replay buffer for the remote device or null, if replaying is disabled
+     */
+    protected MessageReplayBuffer getReplayBuffer() {
+        return replayBuffer;
+    }
+
+    /**
+     * Called when the remote device sent its replay request.
+     * The sender replays the retained messages with a higher sequence number, then continues sending.
+     *
+     * @param epoch the epoch of the replay buffer the remote device received messages in
+     * @param lastReceivedSequence the highest sequence number the remote device received
+     */
+    protected void onReplayRequest(long epoch, int lastReceivedSequence) {
+        this.replayRequest = new ReplayRequest(epoch, lastReceivedSequence);
+        queuedMessages.add(REPLAY_REQUEST_MARKER);
+    }
+
+    /**
+     * Removes all queued messages.
+     * Used to take over the messages of a deactivated sender.
+     *
+     * @return the queued messages in sending order
+     */
+    protected List<BlaubotMessage> drainQueuedMessages() {
+        final List<BlaubotMessage> messages = new ArrayList<>();
+        BlaubotMessage message;
+        while ((message = queuedMessages.poll()) != null) {
+            if (message != REPLAY_REQUEST_MARKER) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    private void onMessageExpired(BlaubotMessage message) {
+        expiredMessages += 1;
+        final IBlaubotMessageListener listener = expiredMessageListener;
+        if (listener != null) {
+            listener.onMessage(message);
+        }
+    }
+
+    /**
+     * Checks if the message expired and has to be dropped.
+     * Chunks are dropped as a whole: once the first chunk of a message was sent, the remaining chunks
+     * are sent regardless of the deadline, since the receiver could not reassemble the message otherwise.
+     * Has to be called from the MessageSendingThread.
+     *
+     * @param message the polled message
+     * @return true, iff the message has to be dropped
+     */
+    private boolean dropIfExpired(BlaubotMessage message) {
+        if (message.getMessageType().isChunk()) {
+            final Short chunkId = message.getChunkId();
+            final boolean isLastChunk = message.getPayload().length < BlaubotConstants.MAX_PAYLOAD_SIZE;
+            if (droppedChunkIds.contains(chunkId)) {
+                if (isLastChunk) {
+                    droppedChunkIds.remove(chunkId);
+                }
+                return true;
+            }
+            if (message.getChunkNo() != 1 || !message.isExpired()) {
+                return false;
+            }
+            if (!isLastChunk) {
+                droppedChunkIds.add(chunkId);
+            }
+            onMessageExpired(message);
+            return true;
+        }
+        if (!message.isExpired()) {
+            return false;
+        }
+        onMessageExpired(message);
+        return true;
+    }
+
     /**
      * Activates the message receiver (reading from the connection)
      */
@@ -150,11 +323,27 @@ public class BlaubotMessageSender {
      * @param actionListener callback to be informed when the sender was closed (thread finished), can be null
      */
     public void deactivate(IActionListener actionListener) {
+        deactivate(actionListener, 0);
+    }
+
+    /**
+     * Deactivates the message sender after it sent the queued messages or the drain timeout elapsed.
+     * Does not block.
+     *
+     * @param actionListener callback to be informed when the sender was closed (thread finished), can be null
+     * @param drainTimeout the max time in ms to keep sending queued messages, 0 to stop after the current message
+     */
+    public void deactivate(IActionListener actionListener, long drainTimeout) {
         MessageSendingThread mst = messageSendingThread;
-        messageSendingThread = null;
         if (mst != null) {
             mst.attachFinishListener(actionListener);
-            mst.interrupt();
+            if (drainTimeout > 0) {
+                mst.drain(System.currentTimeMillis() + drainTimeout);
+            }
+            messageSendingThread = null;
+            if (drainTimeout <= 0) {
+                mst.interrupt();
+            }
         } else {
             if (actionListener != null) {
                 actionListener.onFinished();
@@ -169,6 +358,13 @@ public class BlaubotMessageSender {
         return sentPayloadBytes;
     }
 
+    /**
+     * @return the time spent writing to the connection so far in nanoseconds
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
     /**
      * sent messages
      * @return sent messages so far
@@ -177,14 +373,54 @@ public class BlaubotMessageSender {
         return sentMessages;
     }
 
+    /**
+     * @return messages dropped so far because their time to live expired
+     */
+    public long getExpiredMessages() {
+        return expiredMessages;
+    }
+
+    /**
+     * @return messages replayed so far after reconnects
+     */
+    public long getReplayedMessages() {
+        return replayedMessages;
+    }
+
     class MessageSendingThread extends Thread {
         private static final long POLL_TIMEOUT = 1000;
         private static final long WAIT_TIME_ON_FAILED_SEND = 500;
+        /**
+         * Max time to hold back replayable messages while awaiting the replay request of the remote device.
+         */
+        private static final long REPLAY_REQUEST_TIMEOUT = 2000;
         private static final String LOG_TAG = "MessageSendingThread";
 
         private IActionListener finishedListener;
         private boolean finished = false;
         private Object finishedMonitor = new Object();
+        /**
+         * The time until which queued messages are sent after the sender was deactivated, 0 if not draining
+         */
+        private volatile long drainDeadline = 0;
+
+        /**
+         * Lets the thread send the queued messages until the deadline, after it was deactivated.
+         * @param deadline the deadline (System.currentTimeMillis())
+         */
+        private void drain(long deadline) {
+            drainDeadline = deadline;
+            // wakes up the thread, if it waits for messages
+            queuedMessages.add(REPLAY_REQUEST_MARKER);
+        }
+
+        /**
+         * @return true, iff the thread was deactivated but has to send the queued messages
+         */
+        private boolean isDraining() {
+            final long deadline = drainDeadline;
+            return deadline > 0 && queuedMessages.size() > 0 && System.currentTimeMillis() < deadline;
+        }
 
         /**
          * Attaches a listener that gets called, if the thread finished.
@@ -202,37 +438,87 @@ public class BlaubotMessageSender {
             }
         }
 
+        /**
+         * Replayable messages polled while awaiting the replay request.
+         * They are sent after the replayed messages to keep the order.
+         */
+        private final List<BlaubotMessage> heldMessages = new ArrayList<>();
+
         @Override
         public void run() {
             synchronized (senderMonitor) {
                 if(Log.logDebugMessages()) {
-                    Log.d(LOG_TAG, "Started sender for connection " + blaubotConnection);
+                    Log.d(LOG_TAG, "Started sender for connection {}", blaubotConnection);
                 }
-                while (messageSendingThread == this && !isInterrupted()) {
+                final MessageReplayBuffer buffer = replayBuffer;
+                boolean awaitingReplayRequest = buffer != null;
+                final long replayRequestDeadline = System.currentTimeMillis() + REPLAY_REQUEST_TIMEOUT;
+                while ((messageSendingThread == this || isDraining()) && !isInterrupted()) {
+                    long pollTimeout = POLL_TIMEOUT;
+                    if (awaitingReplayRequest) {
+                        final ReplayRequest request = replayRequest;
+                        final long remaining = replayRequestDeadline - System.currentTimeMillis();
+                        if (request != null || remaining <= 0) {
+                            awaitingReplayRequest = false;
+                            if (request == null && Log.logWarningMessages()) {
+                                Log.w(LOG_TAG, "Got no replay request from {} in time, not replaying.", blaubotConnection.getRemoteDevice());
+                            }
+                            try {
+                                sendReplayAndHeldMessages(buffer, request);
+                            } catch (IOException e) {
+                                // the connection failed, keep the held messages for the next connection
+                                queuedMessages.addAll(heldMessages);
+                                heldMessages.clear();
+                            }
+                        } else {
+                            pollTimeout = Math.min(POLL_TIMEOUT, remaining);
+                        }
+                    }
+
+                    final LinkEstimator estimator = linkEstimator;
+                    if (estimator != null) {
+                        // shaping: wait until the pacing rate allows the next message
+                        final long pacingDelay = Math.min(estimator.getPacingDelay(), TimeUnit.MILLISECONDS.toNanos(pollTimeout));
+                        if (pacingDelay > 0) {
+                            try {
+                                TimeUnit.NANOSECONDS.sleep(pacingDelay);
+                            } catch (InterruptedException interruptedException) {
+                                break;
+                            }
+                            continue;
+                        }
+                    }
+
                     BlaubotMessage messageToSend = null;
                     try {
-                        messageToSend = queuedMessages.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                        messageToSend = queuedMessages.poll(pollTimeout, TimeUnit.MILLISECONDS);
                     } catch (InterruptedException interruptedException) {
                         break;
                     }
 
-                    if (messageToSend == null) {
+                    if (messageToSend == null && estimator != null) {
+                        estimator.onSenderIdle();
+                    }
+                    if (messageToSend == null || messageToSend == REPLAY_REQUEST_MARKER || dropIfExpired(messageToSend)) {
+                        continue;
+                    }
+
+                    if (awaitingReplayRequest && MessageReplayBuffer.isReplayable(messageToSend)) {
+                        heldMessages.add(messageToSend);
                         continue;
                     }
 
                     try {
-                        if (Log.logDebugMessages()) {
-                            //Log.d(LOG_TAG, "Sending message: " + messageToSend);
-                        }
-                        final byte[] bytes = messageToSend.toBytes();
-                        blaubotConnection.write(bytes);
-
-                        // maintain stats
-                        sentMessages += 1;
-                        sentPayloadBytes += bytes.length;
+                        writeMessage(messageToSend, buffer);
                     } catch (IOException e) {
-                        // back to queue on fail
-                        queuedMessages.add(messageToSend);
+                        // back to queue on fail, if not expired in the meantime
+                        if (!dropIfExpired(messageToSend)) {
+                            queuedMessages.add(messageToSend);
+                        }
+                        if (messageSendingThread != this) {
+                            // draining a failed connection is pointless
+                            break;
+                        }
                         try {
                             // wait an amount of time to mitigate busy waits on failed connections
                             Thread.sleep(WAIT_TIME_ON_FAILED_SEND);
@@ -240,8 +526,10 @@ public class BlaubotMessageSender {
                             break;
                         }
                     }
-                    // send message
                 }
+                // give the held messages back to the queue, from where they can be taken over (drainQueuedMessages())
+                queuedMessages.addAll(heldMessages);
+                heldMessages.clear();
                 synchronized (finishedMonitor) {
                     finished = true;
                     if (finishedListener != null) {
@@ -249,7 +537,95 @@ public class BlaubotMessageSender {
                     }
                 }
                 if(Log.logDebugMessages()) {
-                    Log.d(LOG_TAG, "Stopped sender for connection " + blaubotConnection);
+                    Log.d(LOG_TAG, "Stopped sender for connection {}", blaubotConnection);
+                }
+            }
+        }
+
+        /**
+         * Sends the messages the remote device missed (if requested) and then the held messages.
+         *
+         * @param buffer the replay buffer
+         * @param request the replay request or null, if none was received
+         * @throws IOException if the connection failed
+         */
+        private void sendReplayAndHeldMessages(MessageReplayBuffer buffer, ReplayRequest request) throws IOException {
+            if (request != null) {
+                final List<Integer> sequences = new ArrayList<>();
+                final List<BlaubotMessage> replay = buffer.getMessagesToReplay(request.epoch, request.lastReceivedSequence, sequences);
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "Replaying {} messages to {}", replay.size(), blaubotConnection.getRemoteDevice());
+                }
+                for (int i = 0; i < replay.size(); i++) {
+                    final BlaubotMessage message = replay.get(i);
+                    if (message.isExpired()) {
+                        onMessageExpired(message);
+                        continue;
+                    }
+                    // replayed with the original sequence number
+                    writeMessage(message, sequences.get(i));
+                    replayedMessages += 1;
+                }
+            }
+            final Iterator<BlaubotMessage> it = heldMessages.iterator();
+            while (it.hasNext()) {
+                final BlaubotMessage message = it.next();
+                if (!dropIfExpired(message)) {
+                    writeMessage(message, buffer);
+                }
+                it.remove();
+            }
+        }
+
+        /**
+         * Writes the message to the connection and retains it in the replay buffer, if replayable.
+         *
+         * @param message the message
+         * @param buffer the replay buffer or null
+         * @throws IOException if the connection failed
+         */
+        private void writeMessage(BlaubotMessage message, MessageReplayBuffer buffer) throws IOException {
+            final boolean retain = buffer != null && MessageReplayBuffer.isReplayable(message);
+            final int replaySequence = retain ? buffer.nextSequence() : 0;
+            writeMessage(message, replaySequence);
+            if (retain) {
+                buffer.add(replaySequence, message);
+            }
+        }
+
+        private void writeMessage(BlaubotMessage message, int replaySequence) throws IOException {
+            final LinkEstimator estimator = linkEstimator;
+            if (estimator != null && message.getMessageType().isPlainKeepAlive()) {
+                message = estimator.createKeepAlive(message);
+            }
+            final MessageTrace trace = message.getTrace();
+            final MessageTrace traceToSend;
+            if (trace != null) {
+                // the message may be shared by multiple senders (king dispatch), so we stamp a copy
+                final MessageTrace.TracePoint tracePoint = message.getMessageType().isFirstHop() ? MessageTrace.TracePoint.SENT : MessageTrace.TracePoint.SENT_BY_KING;
+                traceToSend = trace.copyAndStamp(tracePoint);
+            } else {
+                traceToSend = null;
+            }
+            final byte[] bytes = message.toBytes(traceToSend, replaySequence);
+            final long writeStart = System.nanoTime();
+            blaubotConnection.write(bytes);
+
+            // maintain stats
+            final long writeEnd = System.nanoTime();
+            writeNanos += writeEnd - writeStart;
+            final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+            if (recorder != null) {
+                final long queuedSince = message.getQueuedSinceNanos();
+                final long queueWait = queuedSince > 0 ? writeStart - queuedSince : 0;
+                recorder.onMessageSent(blaubotConnection.getRemoteDevice().getUniqueDeviceID(), message.getChannelId(), bytes.length, message.getMessageType().isChunk(), queueWait, writeEnd - writeStart);
+            }
+            sentMessages += 1;
+            sentPayloadBytes += bytes.length;
+            if (estimator != null) {
+                estimator.onMessageSent(message.getPayloadLength());
+                if (queuedMessages.size() == 0) {
+                    estimator.onSenderIdle();
                 }
             }
         }
@@ -14,6 +14,10 @@ public class BlaubotMessageType {
     private static final int IS_FIRST_HOP = 2; // basically signals, that a message has to pass the master first before reaching it's final destination
     private static final int CONTAINS_PAYLOAD_BIT = 3;
     private static final int IS_CHUNK = 4;
+    private static final int IS_TRACED = 5; // signals, that the header contains a trace extension (MessageTrace)
+    private static final int HAS_DEADLINE = 6; // signals, that the header contains the remaining time to live
+    private static final int HAS_REPLAY_SEQUENCE = 7; // signals, that the header contains a replay sequence number (MessageReplayBuffer)
+    // a relay frame is flagged as admin AND keep alive message, which is an otherwise unused combination
 
     public BlaubotMessageType() {
         this.bitset = new BitSet(8);
@@ -67,6 +71,37 @@ public class BlaubotMessageType {
         return bitset.get(IS_CHUNK);
     }
 
+    public boolean isTraced() {
+        return bitset.get(IS_TRACED);
+    }
+
+    public boolean hasDeadline() {
+        return bitset.get(HAS_DEADLINE);
+    }
+
+    public boolean hasReplaySequence() {
+        return bitset.get(HAS_REPLAY_SEQUENCE);
+    }
+
+    /**
+     * Relay frames carry the bytes of a message that is relayed between the king and the server
+     * (via a mediator) and a relay tag instead of a channel id.
+     *
+     * @return true, iff this is a relay frame
+     */
+    public boolean isRelayFrame() {
+        return bitset.get(IS_ADMIN_MESSAGE) && bitset.get(IS_KEEP_ALIVE_MESSAGE);
+    }
+
+    /**
+     * Relay frames set the keep alive bit as well, so use this to check for actual keep alive messages.
+     *
+     * @return true, iff this is a keep alive message and not a relay frame
+     */
+    public boolean isPlainKeepAlive() {
+        return isKeepAliveMessage() && !isRelayFrame();
+    }
+
     public BlaubotMessageType setContainsPayload(boolean val) {
         bitset.set(CONTAINS_PAYLOAD_BIT, val);
         return this;
@@ -92,6 +127,27 @@ public class BlaubotMessageType {
         return this;
     }
 
+    public BlaubotMessageType setIsTraced(boolean val) {
+        bitset.set(IS_TRACED, val);
+        return this;
+    }
+
+    public BlaubotMessageType setHasDeadline(boolean val) {
+        bitset.set(HAS_DEADLINE, val);
+        return this;
+    }
+
+    public BlaubotMessageType setHasReplaySequence(boolean val) {
+        bitset.set(HAS_REPLAY_SEQUENCE, val);
+        return this;
+    }
+
+    public BlaubotMessageType setIsRelayFrame(boolean val) {
+        bitset.set(IS_ADMIN_MESSAGE, val);
+        bitset.set(IS_KEEP_ALIVE_MESSAGE, val);
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -117,6 +173,10 @@ public class BlaubotMessageType {
         sb.append(", isKeepAliveMessage=").append(isKeepAliveMessage());
         sb.append(", isFirstHop=").append(isFirstHop());
         sb.append(", isChunk=").append(isChunk());
+        sb.append(", isTraced=").append(isTraced());
+        sb.append(", hasDeadline=").append(hasDeadline());
+        sb.append(", hasReplaySequence=").append(hasReplaySequence());
+        sb.append(", isRelayFrame=").append(isRelayFrame());
         sb.append(", bitset=").append(bitset);
         sb.append('}');
         return sb.toString();
@@ -0,0 +1,175 @@
+package eu.hgross.blaubot.messaging;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+
+/**
+ * The built-in codecs for typed channels (@see {IChannelCodec}).
+ */
+public final class ChannelCodecs {
+    private ChannelCodecs() {
+    }
+
+    /**
+     * Passes the payload through (the byte array is copied into the serialized message once).
+     */
+    public static final IChannelCodec<byte[]> BYTES = new IChannelCodec<byte[]>() {
+        @Override
+        public int getEncodedLength(byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        public void encode(byte[] value, ByteBuffer buffer) {
+            buffer.put(value);
+        }
+
+        @Override
+        public byte[] decode(ByteBuffer buffer) {
+            final byte[] value = new byte[buffer.remaining()];
+            buffer.get(value);
+            return value;
+        }
+    };
+
+    public static final IChannelCodec<Boolean> BOOLEAN = new FixedLayoutCodec<Boolean>(1) {
+        @Override
+        public void encode(Boolean value, ByteBuffer buffer) {
+            buffer.put(value ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        public Boolean decode(ByteBuffer buffer) {
+            return buffer.get() != 0;
+        }
+    };
+
+    public static final IChannelCodec<Byte> BYTE = new FixedLayoutCodec<Byte>(1) {
+        @Override
+        public void encode(Byte value, ByteBuffer buffer) {
+            buffer.put(value);
+        }
+
+        @Override
+        public Byte decode(ByteBuffer buffer) {
+            return buffer.get();
+        }
+    };
+
+    public static final IChannelCodec<Short> SHORT = new FixedLayoutCodec<Short>(2) {
+        @Override
+        public void encode(Short value, ByteBuffer buffer) {
+            buffer.putShort(value);
+        }
+
+        @Override
+        public Short decode(ByteBuffer buffer) {
+            return buffer.getShort();
+        }
+    };
+
+    public static final IChannelCodec<Integer> INTEGER = new FixedLayoutCodec<Integer>(4) {
+        @Override
+        public void encode(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    };
+
+    public static final IChannelCodec<Long> LONG = new FixedLayoutCodec<Long>(8) {
+        @Override
+        public void encode(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public Long decode(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+    };
+
+    public static final IChannelCodec<Float> FLOAT = new FixedLayoutCodec<Float>(4) {
+        @Override
+        public void encode(Float value, ByteBuffer buffer) {
+            buffer.putFloat(value);
+        }
+
+        @Override
+        public Float decode(ByteBuffer buffer) {
+            return buffer.getFloat();
+        }
+    };
+
+    public static final IChannelCodec<Double> DOUBLE = new FixedLayoutCodec<Double>(8) {
+        @Override
+        public void encode(Double value, ByteBuffer buffer) {
+            buffer.putDouble(value);
+        }
+
+        @Override
+        public Double decode(ByteBuffer buffer) {
+            return buffer.getDouble();
+        }
+    };
+
+    /**
+     * Encodes strings with BlaubotConstants.STRING_CHARSET (UTF-8).
+     * Unpaired surrogates are replaced by '?'.
+     */
+    public static final IChannelCodec<String> STRING = new IChannelCodec<String>() {
+        @Override
+        public int getEncodedLength(String value) {
+            int length = 0;
+            final int chars = value.length();
+            for (int i = 0; i < chars; i++) {
+                final char c = value.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // replaced
+                    length += 1;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        @Override
+        public void encode(String value, ByteBuffer buffer) {
+            // encoders are not thread safe
+            final CharsetEncoder encoder = BlaubotConstants.STRING_CHARSET.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            final CoderResult result = encoder.encode(CharBuffer.wrap(value), buffer, true);
+            if (result.isOverflow()) {
+                throw new IllegalStateException("The buffer is too small for the string");
+            }
+            encoder.flush(buffer);
+        }
+
+        @Override
+        public String decode(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                final String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), BlaubotConstants.STRING_CHARSET);
+                buffer.position(buffer.limit());
+                return value;
+            }
+            return BlaubotConstants.STRING_CHARSET.decode(buffer).toString();
+        }
+    };
+}
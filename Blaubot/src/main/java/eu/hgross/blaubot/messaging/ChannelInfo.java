@@ -47,6 +47,49 @@ public class ChannelInfo {
         return channel.getReceivedBytes();
     }
 
+    public long getConflatedMessages() {
+        return channel.getConflatedMessages();
+    }
+
+    public long getSpilledMessages() {
+        return channel.getSpilledMessages();
+    }
+
+    public long getDrainedMessages() {
+        return channel.getDrainedMessages();
+    }
+
+    public int getSpillSize() {
+        return channel.getSpillSize();
+    }
+
+    public long getExpiredMessages() {
+        return channel.getExpiredMessages();
+    }
+
+    public long getRejectedMessages() {
+        return channel.getRejectedMessages();
+    }
+
+    /**
+     * @return the messages lost on this device, the expired and the rejected messages
+     */
+    public long getDroppedMessages() {
+        return getExpiredMessages() + getRejectedMessages();
+    }
+
+    /**
+     * @return the fill level of the queue in [0, 1]
+     */
+    public float getQueueFillLevel() {
+        final int capacity = getQueueCapacity();
+        return capacity > 0 ? Math.min(1f, (float) getQueueSize() / capacity) : 0;
+    }
+
+    public MessageTraceStatistics getTraceStatistics() {
+        return channel.getTraceStatistics();
+    }
+
     public BlaubotChannel getChannel() {
         return channel;
     }
@@ -0,0 +1,25 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks messages from the given queue one by one.
+ * The conflation itself is done by the channel's ConflatingMessageQueue, which replaces queued messages
+ * with newer messages having the same key when they are published.
+ */
+public class ConflateByKeyPickerStrategy implements IBlaubotMessagePickerStrategy {
+    @Override
+    public BlaubotMessage pickNextMessage(BlockingQueue<BlaubotMessage> messageQueue) {
+        try {
+            return messageQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public BlaubotChannelConfig.MessagePickerStrategy getConstant() {
+        return BlaubotChannelConfig.MessagePickerStrategy.CONFLATE_BY_KEY;
+    }
+}
@@ -0,0 +1,352 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded message queue that keeps only the latest message per conflation key.
+ *
+ * A message replaces a queued message with the same key at the replaced message's position, so the queue
+ * stays in FIFO order of the first arrival of each key. Replacing never blocks and does not count against
+ * the capacity. Messages without a key are queued like in a normal FIFO queue.
+ *
+ * The key of a message is the key set by the publisher (@see {BlaubotMessage#setConflationKey}) or, if not
+ * set, the key returned by the channel config's key extractor (@see {BlaubotChannelConfig#setMessageKeyExtractor}).
+ */
+public class ConflatingMessageQueue extends AbstractQueue<BlaubotMessage> implements IResizableMessageQueue {
+    private int capacity;
+    private final BlaubotChannelConfig channelConfig;
+    private final LinkedHashMap<Object, BlaubotMessage> messages;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private boolean sealed = false;
+    private final AtomicLong conflatedMessages;
+
+    /**
+     * @param capacity the max number of distinct keys in the queue
+     * @param channelConfig the channel config to get the key extractor from
+     */
+    public ConflatingMessageQueue(int capacity, BlaubotChannelConfig channelConfig) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity has to be > 0");
+        }
+        this.capacity = capacity;
+        this.channelConfig = channelConfig;
+        this.messages = new LinkedHashMap<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+        this.conflatedMessages = new AtomicLong(0);
+    }
+
+    /**
+     * @return the number of messages that were replaced by a newer message with the same key
+     */
+    public long getConflatedMessages() {
+        return conflatedMessages.get();
+    }
+
+    /**
+     * @return the max number of distinct keys in the queue
+     */
+    @Override
+    public int getCapacity() {
+        lock.lock();
+        try {
+            return capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity has to be > 0");
+        }
+        lock.lock();
+        try {
+            final boolean grown = capacity > this.capacity;
+            this.capacity = capacity;
+            if (grown) {
+                notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void seal() {
+        lock.lock();
+        try {
+            sealed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isSealed() {
+        lock.lock();
+        try {
+            return sealed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The key to store the message with.
+     * Messages without a conflation key get a unique key.
+     */
+    private Object getKey(BlaubotMessage message) {
+        Object key = message.getConflationKey();
+        if (key == null) {
+            final IBlaubotMessageKeyExtractor keyExtractor = channelConfig.getMessageKeyExtractor();
+            if (keyExtractor != null) {
+                key = keyExtractor.extractKey(message);
+            }
+        }
+        return key == null ? new Object() : key;
+    }
+
+    /**
+     * Inserts or replaces the message. Has to be called with the lock held.
+     * @return true, if the message was inserted or replaced another one, false if the queue is full
+     */
+    private boolean insert(Object key, BlaubotMessage message) {
+        if (sealed) {
+            return false;
+        }
+        if (messages.containsKey(key)) {
+            // put keeps the position of the first arrival
+            messages.put(key, message);
+            conflatedMessages.incrementAndGet();
+            return true;
+        }
+        if (messages.size() >= capacity) {
+            return false;
+        }
+        messages.put(key, message);
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * Removes the head. Has to be called with the lock held and a non empty queue.
+     */
+    private BlaubotMessage extract() {
+        final Iterator<BlaubotMessage> it = messages.values().iterator();
+        final BlaubotMessage head = it.next();
+        it.remove();
+        if (messages.size() < capacity) {
+            notFull.signal();
+        }
+        return head;
+    }
+
+    @Override
+    public boolean offer(BlaubotMessage message) {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        final Object key = getKey(message);
+        lock.lock();
+        try {
+            return insert(key, message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(BlaubotMessage message, long timeout, TimeUnit unit) throws InterruptedException {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        final Object key = getKey(message);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!insert(key, message)) {
+                if (sealed || nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(BlaubotMessage message) throws InterruptedException {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        final Object key = getKey(message);
+        lock.lockInterruptibly();
+        try {
+            while (!insert(key, message)) {
+                if (sealed) {
+                    throw new IllegalStateException("The queue is sealed");
+                }
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage poll() {
+        lock.lock();
+        try {
+            return messages.isEmpty() ? null : extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (messages.isEmpty()) {
+                if (sealed || nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (messages.isEmpty()) {
+                if (sealed) {
+                    throw new IllegalStateException("The queue is sealed");
+                }
+                notEmpty.await();
+            }
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage peek() {
+        lock.lock();
+        try {
+            return messages.isEmpty() ? null : messages.values().iterator().next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return Math.max(0, capacity - messages.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            messages.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super BlaubotMessage> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super BlaubotMessage> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            final Iterator<BlaubotMessage> it = messages.values().iterator();
+            while (drained < maxElements && it.hasNext()) {
+                c.add(it.next());
+                it.remove();
+                drained++;
+            }
+            if (drained > 0) {
+                notFull.signalAll();
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queued messages.
+     */
+    @Override
+    public Iterator<BlaubotMessage> iterator() {
+        lock.lock();
+        try {
+            return new ArrayList<>(messages.values()).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            final StringBuffer sb = new StringBuffer("ConflatingMessageQueue{");
+            sb.append("size=").append(messages.size());
+            sb.append(", capacity=").append(capacity);
+            sb.append(", conflatedMessages=").append(conflatedMessages.get());
+            sb.append('}');
+            return sb.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -30,6 +30,14 @@ public class ConnectionInfo {
         return messageSender.getSentPayloadBytes();
     }
 
+    public long getExpiredMessages() {
+        return messageSender.getExpiredMessages();
+    }
+
+    public long getReplayedMessages() {
+        return messageSender.getReplayedMessages();
+    }
+
     public IBlaubotConnection getBlaubotConnection() {
         return messageSender.getBlaubotConnection();
     }
@@ -41,4 +49,25 @@ public class ConnectionInfo {
     public long getReceivedPayloadBytes() {
         return messageReceiver.getReceivedPayloadBytes();
     }
+
+    /**
+     * @return the smoothed round trip time in nanoseconds, 0 if unknown
+     */
+    public long getSmoothedRtt() {
+        return messageManager.getLinkEstimator().getSmoothedRtt();
+    }
+
+    /**
+     * @return the nanoseconds the sender spent writing to the connection
+     */
+    public long getWriteNanos() {
+        return messageSender.getWriteNanos();
+    }
+
+    /**
+     * @return the rtt and bandwidth estimation of the connection
+     */
+    public LinkEstimator getLinkEstimator() {
+        return messageManager.getLinkEstimator();
+    }
 }
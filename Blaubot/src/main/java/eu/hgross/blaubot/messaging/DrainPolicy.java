@@ -0,0 +1,19 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Decides what happens to the queued messages of a connection's sender, when the connection is removed
+ * from the channel manager or the channel manager changes its role (master/client).
+ * In both cases the sender is stopped in the background.
+ */
+public enum DrainPolicy {
+    /**
+     * The sender stops after the message it is currently writing. The queued messages are taken over,
+     * if replaying is enabled, or dropped.
+     */
+    ABANDON,
+    /**
+     * The sender keeps sending the queued messages until its queue is empty or the drain timeout
+     * elapsed. The remaining messages are handled like ABANDON.
+     */
+    DRAIN
+}
@@ -0,0 +1,247 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The send queue of a BlaubotMessageSender.
+ *
+ * Admin and keep alive messages (and messages with the priority ADMIN or ADMIN_LOW) are always
+ * polled first, ordered by their priority and sequence number.
+ * All other messages are queued per channel and the channels are served by deficit round robin:
+ * each round a channel may send up to its weight (@see {BlaubotChannelConfig#setWeight}) times
+ * QUANTUM bytes, unused credit is carried over to the next round as long as the channel has
+ * queued messages. A bulk transfer therefore delays the messages of other channels by at most
+ * one chunk and no channel is starved.
+ * Relay frames are scheduled like the messages of an own channel.
+ *
+ * Within a channel the messages are ordered by priority and sequence number.
+ */
+public class FairMessageQueue {
+    /**
+     * The bytes a channel with weight 1 may send per round
+     */
+    public static final int QUANTUM = 4096;
+
+    /**
+     * The flow of the relay frames
+     */
+    private static final int RELAY_FLOW = Integer.MIN_VALUE;
+
+    /**
+     * Provides the scheduling weights of the channels.
+     */
+    public interface IChannelWeightProvider {
+        /**
+         * @param channelId the channel id
+         * @return the weight of the channel (>= 1)
+         */
+        int getWeight(short channelId);
+    }
+
+    private static class Flow {
+        private final short channelId;
+        private final PriorityQueue<BlaubotMessage> messages;
+        private long deficit = 0;
+        /**
+         * true, if the flow got its quantum for the current round
+         */
+        private boolean credited = false;
+
+        private Flow(short channelId, Comparator<BlaubotMessage> comparator) {
+            this.channelId = channelId;
+            this.messages = new PriorityQueue<>(16, comparator);
+        }
+    }
+
+    private final Comparator<BlaubotMessage> comparator;
+    private final PriorityQueue<BlaubotMessage> strictMessages;
+    private final HashMap<Integer, Flow> flows;
+    /**
+     * The flows with queued messages in round robin order
+     */
+    private final ArrayDeque<Flow> activeFlows;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private volatile IChannelWeightProvider weightProvider;
+    /**
+     * Written under the lock, read without it by size()
+     */
+    private volatile int size = 0;
+
+    /**
+     * @param comparator orders the messages by priority and sequence number
+     */
+    public FairMessageQueue(Comparator<BlaubotMessage> comparator) {
+        this.comparator = comparator;
+        this.strictMessages = new PriorityQueue<>(16, comparator);
+        this.flows = new HashMap<>();
+        this.activeFlows = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+    }
+
+    /**
+     * @param weightProvider provides the channel weights or null to weight all channels equally
+     */
+    public void setWeightProvider(IChannelWeightProvider weightProvider) {
+        this.weightProvider = weightProvider;
+    }
+
+    /**
+     * Adds a message.
+     * @param message the message
+     */
+    public void add(BlaubotMessage message) {
+        lock.lock();
+        try {
+            enqueue(message);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the messages.
+     * @param messages the messages
+     */
+    public void addAll(Collection<BlaubotMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (BlaubotMessage message : messages) {
+                enqueue(message);
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the next message or null, if the queue is empty
+     */
+    public BlaubotMessage poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Polls the next message and waits for one, if the queue is empty.
+     *
+     * @param timeout the max time to wait
+     * @param unit the unit of the timeout
+     * @return the next message or null, if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public BlaubotMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Does not take the lock, so that monitoring does not contend with the sender.
+     * @return the number of queued messages
+     */
+    public int size() {
+        return size;
+    }
+
+    private static boolean isStrict(BlaubotMessage message) {
+        final BlaubotMessageType messageType = message.getMessageType();
+        if (messageType.isRelayFrame()) {
+            return false;
+        }
+        return messageType.isAdminMessage() || messageType.isKeepAliveMessage() || message.getPriority().value <= BlaubotMessage.Priority.ADMIN_LOW.value;
+    }
+
+    private void enqueue(BlaubotMessage message) {
+        size += 1;
+        if (isStrict(message)) {
+            strictMessages.add(message);
+            return;
+        }
+        final boolean isRelayFrame = message.getMessageType().isRelayFrame();
+        final short channelId = isRelayFrame ? -1 : message.getChannelId();
+        final int flowKey = isRelayFrame ? RELAY_FLOW : channelId;
+        Flow flow = flows.get(flowKey);
+        if (flow == null) {
+            flow = new Flow(channelId, comparator);
+            flows.put(flowKey, flow);
+        }
+        if (flow.messages.isEmpty()) {
+            activeFlows.addLast(flow);
+        }
+        flow.messages.add(message);
+    }
+
+    private BlaubotMessage dequeue() {
+        if (size == 0) {
+            return null;
+        }
+        size -= 1;
+        final BlaubotMessage strictMessage = strictMessages.poll();
+        if (strictMessage != null) {
+            return strictMessage;
+        }
+        while (true) {
+            final Flow flow = activeFlows.peekFirst();
+            if (!flow.credited) {
+                flow.deficit += (long) getWeight(flow.channelId) * QUANTUM;
+                flow.credited = true;
+            }
+            final BlaubotMessage message = flow.messages.peek();
+            final int cost = getCost(message);
+            if (cost <= flow.deficit) {
+                flow.messages.poll();
+                flow.deficit -= cost;
+                if (flow.messages.isEmpty()) {
+                    // idle flows don't keep their credit
+                    activeFlows.pollFirst();
+                    flow.deficit = 0;
+                    flow.credited = false;
+                }
+                return message;
+            }
+            // round is over for this flow
+            flow.credited = false;
+            activeFlows.addLast(activeFlows.pollFirst());
+        }
+    }
+
+    private int getWeight(short channelId) {
+        final IChannelWeightProvider provider = weightProvider;
+        if (provider == null || channelId < 0) {
+            return BlaubotChannelConfig.DEFAULT_WEIGHT;
+        }
+        return Math.max(1, provider.getWeight(channelId));
+    }
+
+    private static int getCost(BlaubotMessage message) {
+        return BlaubotMessage.FULL_HEADER_LENGTH + message.getPayloadLength();
+    }
+}
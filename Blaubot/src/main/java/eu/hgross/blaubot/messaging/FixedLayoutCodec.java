@@ -0,0 +1,42 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Base class for codecs of records with a fixed binary layout, i.e. a position update consisting of
+ * an int id and two doubles:
+ *
+ *      new FixedLayoutCodec<Position>(4 + 8 + 8) {
+ *          public void encode(Position p, ByteBuffer buffer) {
+ *              buffer.putInt(p.id).putDouble(p.x).putDouble(p.y);
+ *          }
+ *          public Position decode(ByteBuffer buffer) {
+ *              return new Position(buffer.getInt(), buffer.getDouble(), buffer.getDouble());
+ *          }
+ *      };
+ *
+ * @param <T> the type of the records
+ */
+public abstract class FixedLayoutCodec<T> implements IChannelCodec<T> {
+    private final int length;
+
+    /**
+     * @param length the size of an encoded record in bytes
+     */
+    protected FixedLayoutCodec(int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("The length has to be > 0");
+        }
+        this.length = length;
+    }
+
+    /**
+     * @return the size of an encoded record in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int getEncodedLength(T value) {
+        return length;
+    }
+}
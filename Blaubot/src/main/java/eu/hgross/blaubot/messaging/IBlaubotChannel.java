@@ -44,6 +44,46 @@ public interface IBlaubotChannel {
      */
     boolean publish(byte[] payload, long timeout);
 
+    /**
+     * Post a message to this channel's queue.
+     * The message will be wrapped in a BlaubotMessage and encoded straight into the serialized message
+     * by the codec (@see {BlaubotMessage#setPayload(Object, IChannelCodec)}).
+     *
+     * @param message the message
+     * @param codec the codec for the message
+     * @param <T> the type of the message
+     * @return true, iff the message was added to the queue or false, if the queue was full while trying to publish
+     */
+    <T> boolean publish(T message, IChannelCodec<T> codec);
+
+    /**
+     * Post a message to this channel's queue.
+     * The message will be wrapped in a BlaubotMessage and encoded straight into the serialized message
+     * by the codec (@see {BlaubotMessage#setPayload(Object, IChannelCodec)}).
+     * Blocks for 'timeout' milliseconds, if the channel's message queue is full.
+     *
+     * @param message the message
+     * @param codec the codec for the message
+     * @param timeout the timeout in ms
+     * @param <T> the type of the message
+     * @return true, iff the message was added to the queue or false, if the timeout elapsed before
+     */
+    <T> boolean publish(T message, IChannelCodec<T> codec, long timeout);
+
+    /**
+     * Post a message with its own time to live to this channel's queue.
+     * Like publish(message, codec, timeout), but the message expires after timeToLive ms instead of the
+     * channel's time to live (@see {BlaubotMessage#setTimeToLive}).
+     *
+     * @param message the message
+     * @param codec the codec for the message
+     * @param timeToLive the time to live in ms or 0 to apply the channel's time to live
+     * @param timeout the timeout in ms
+     * @param <T> the type of the message
+     * @return true, iff the message was added to the queue or false, if the timeout elapsed before
+     */
+    <T> boolean publish(T message, IChannelCodec<T> codec, int timeToLive, long timeout);
+
     /**
      * Subscribes to this channel and attaches a message listener
      *
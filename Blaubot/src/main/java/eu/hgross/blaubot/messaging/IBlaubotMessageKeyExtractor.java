@@ -0,0 +1,15 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Extracts the conflation key from a message published to a channel using the CONFLATE_BY_KEY strategy.
+ * Messages with equal keys (equals() and hashCode()) replace each other in the channel's queue.
+ *
+ * Called on the publishing thread, so it should be cheap (i.e. read an entity id from the first payload bytes).
+ */
+public interface IBlaubotMessageKeyExtractor {
+    /**
+     * @param message the published message
+     * @return the key or null, if the message must not be conflated
+     */
+    Object extractKey(BlaubotMessage message);
+}
@@ -0,0 +1,14 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Listener for relay frames (@see {BlaubotMessage#createRelayFrame}) received by the BlaubotChannelManager.
+ */
+public interface IBlaubotRelayFrameListener {
+
+    /**
+     * Called when a relay frame was received
+     * @param relayFrame the frame, its payload contains the relayed message's bytes
+     * @param originUniqueDeviceId the unique device id of the device, the frame was received from
+     */
+    public void onRelayFrame(BlaubotMessage relayFrame, String originUniqueDeviceId);
+}
@@ -0,0 +1,41 @@
+package eu.hgross.blaubot.messaging;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the messages of a typed channel (@see {ITypedBlaubotChannel}).
+ *
+ * The codec writes straight into the buffer of the serialized message and reads straight from the received
+ * payload, so no intermediate byte arrays are needed.
+ * The buffers use BlaubotConstants.BYTE_ORDER.
+ * Codecs are used by multiple threads concurrently and should therefore be stateless.
+ *
+ * Built-in codecs can be found in {ChannelCodecs}, records with a fixed size can extend {FixedLayoutCodec}.
+ *
+ * @param <T> the type of the messages
+ */
+public interface IChannelCodec<T> {
+    /**
+     * @param value the value to encode
+     * @return the exact number of bytes encode() will write for the value
+     */
+    int getEncodedLength(T value);
+
+    /**
+     * Writes the value at the buffer's position.
+     * Has to write exactly getEncodedLength(value) bytes.
+     *
+     * @param value the value to encode
+     * @param buffer the buffer of the serialized message
+     */
+    void encode(T value, ByteBuffer buffer);
+
+    /**
+     * Reads a value from the buffer.
+     * The buffer's remaining bytes are the complete payload of the message.
+     *
+     * @param buffer the payload of the received message
+     * @return the decoded value
+     */
+    T decode(ByteBuffer buffer);
+}
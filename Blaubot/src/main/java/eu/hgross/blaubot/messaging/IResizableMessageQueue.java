@@ -0,0 +1,37 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded message queue whose capacity can be changed while it is used.
+ * Used by the BlaubotChannel to apply queue capacity changes of the channel config without replacing
+ * the queue.
+ */
+public interface IResizableMessageQueue extends BlockingQueue<BlaubotMessage> {
+    /**
+     * @return the current capacity
+     */
+    int getCapacity();
+
+    /**
+     * Sets the capacity.
+     * If the queue holds more messages than the new capacity, no message is dropped. Instead, new messages
+     * are rejected until the queue shrunk below the capacity.
+     * Waiting producers are woken up, if the capacity was increased.
+     *
+     * @param capacity the new capacity (> 0)
+     */
+    void setCapacity(int capacity);
+
+    /**
+     * Seals the queue, when it is replaced: all further messages are rejected, the queued messages can still
+     * be taken. Waiting producers and consumers are woken up, their offers fail and their polls return null
+     * (put() and take() throw an IllegalStateException), so that they use the new queue instead.
+     */
+    void seal();
+
+    /**
+     * @return true, iff the queue was sealed
+     */
+    boolean isSealed();
+}
@@ -0,0 +1,69 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * A view on a channel that publishes and receives typed messages, which are encoded and decoded by a
+ * codec (@see {IChannelCodec}).
+ * The codec writes straight into the serialized message and reads straight from the received payload.
+ *
+ * All devices using the channel have to use the same codec.
+ *
+ * @param <T> the type of the messages
+ */
+public interface ITypedBlaubotChannel<T> {
+    /**
+     * Publishes a message to the channel.
+     * The message is encoded when it is sent.
+     *
+     * @param message the message
+     * @return true, if the message was added to the channel's queue, false if the queue is full
+     */
+    boolean publish(T message);
+
+    /**
+     * Publishes a message to the channel and waits for space in the channel's queue.
+     *
+     * @param message the message
+     * @param timeout the max time in ms to wait for space in the queue
+     * @return true, if the message was added to the channel's queue, false otherwise
+     */
+    boolean publish(T message, long timeout);
+
+    /**
+     * Adds a listener and subscribes to the channel.
+     * @param messageListener the listener
+     */
+    void subscribe(ITypedMessageListener<T> messageListener);
+
+    /**
+     * Subscribes to the channel.
+     */
+    void subscribe();
+
+    /**
+     * Unsubscribes from the channel.
+     */
+    void unsubscribe();
+
+    /**
+     * Adds a listener to the decoded messages without subscribing.
+     * @param messageListener the listener
+     */
+    void addMessageListener(ITypedMessageListener<T> messageListener);
+
+    /**
+     * Removes a listener.
+     * Unsubscribes, if no listeners are left on the channel.
+     * @param messageListener the listener
+     */
+    void removeMessageListener(ITypedMessageListener<T> messageListener);
+
+    /**
+     * @return the codec
+     */
+    IChannelCodec<T> getCodec();
+
+    /**
+     * @return the untyped channel
+     */
+    IBlaubotChannel getChannel();
+}
@@ -0,0 +1,17 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Listens to the decoded messages of a typed channel (@see {ITypedBlaubotChannel}).
+ *
+ * @param <T> the type of the messages
+ */
+public interface ITypedMessageListener<T> {
+
+    /**
+     * Called for each received message.
+     *
+     * @param message the decoded message
+     * @param blaubotMessage the received message containing the encoded payload
+     */
+    void onMessage(T message, BlaubotMessage blaubotMessage);
+}
@@ -0,0 +1,301 @@
+package eu.hgross.blaubot.messaging;
+
+import java.nio.ByteBuffer;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+
+/**
+ * Estimates the round trip time and delivery rate of a connection and derives a pacing rate from them.
+ *
+ * The estimates are taken from the keep alive messages, which both sides of a connection send periodically.
+ * Each keep alive carries the sender's timestamp, the last timestamp received from the remote side (echo),
+ * the time the echo was held and the number of payload bytes received from the remote side so far:
+ * - rtt sample = now - echo - hold
+ * - delivery rate sample = received bytes delta / remote timestamp delta
+ *
+ * The pacing follows BBR: the bottleneck bandwidth is the max of the last delivery rate samples, the
+ * round trip propagation time is the min of the rtt samples of the last 10 seconds.
+ * In STARTUP the pacing rate is 2.89 times the bandwidth estimate until the estimate stops growing by 25%
+ * for three samples. After one DRAIN sample (pacing below the estimate to empty the queues) the pacing
+ * rate cycles through the gains 1.25, 0.75, 1, 1, 1, 1, 1, 1 (PROBE_BW) - one gain per sample.
+ * Samples taken while the sender ran out of messages (app limited) only raise the bandwidth estimate.
+ *
+ * Shaping is disabled by default, the estimates are always maintained.
+ * Keep alives without payload (older versions) are ignored.
+ */
+public class LinkEstimator {
+    /**
+     * The states of the pacing
+     */
+    public enum State {
+        STARTUP,
+        DRAIN,
+        PROBE_BW
+    }
+
+    private static final int KEEP_ALIVE_PAYLOAD_LENGTH = 4 * 8;
+    private static final double STARTUP_GAIN = 2.89;
+    private static final double[] PROBE_BW_GAINS = new double[]{1.25, 0.75, 1, 1, 1, 1, 1, 1};
+    /**
+     * The number of delivery rate samples the bottleneck bandwidth is the max of
+     */
+    private static final int BANDWIDTH_WINDOW = 10;
+    /**
+     * The time span the round trip propagation time is the min of
+     */
+    private static final long MIN_RTT_WINDOW = 10000000000L;
+    private static final double RTT_SAMPLE_WEIGHT = 0.125;
+    /**
+     * The pacing rate never drops below this rate (bytes per second)
+     */
+    public static final double MIN_PACING_RATE = 8 * 1024;
+
+    private volatile boolean shapingEnabled = false;
+
+    // receiving side (receiver thread), read by the sender thread
+    private volatile long receivedBytes = 0;
+    private volatile long lastRemoteTimestamp = 0;
+    private volatile long lastRemoteTimestampReceivedAt = 0;
+
+    // estimates, guarded by this
+    // volatile to be read by monitoring without the lock
+    private volatile long smoothedRtt = 0;
+    private volatile long minRtt = 0;
+    private long minRttTimestamp = 0;
+    private long rttSamples = 0;
+    private double deliveryRate = 0;
+    private final double[] bandwidthSamples = new double[BANDWIDTH_WINDOW];
+    private int bandwidthSampleIndex = 0;
+    private double bottleneckBandwidth = 0;
+    private long previousRemoteTimestamp = 0;
+    private long previousRemoteReceivedBytes = -1;
+    private State state = State.STARTUP;
+    private double fullBandwidth = 0;
+    private int fullBandwidthCount = 0;
+    private int probeBwCycleIndex = 0;
+    private volatile double pacingRate = 0;
+
+    // sending side (sender thread)
+    private volatile boolean appLimited = false;
+    private long nextSendTime = 0;
+
+    /**
+     * Creates the keep alive message to be sent instead of the given one.
+     *
+     * @param keepAlive the queued keep alive
+     * @return the keep alive containing the estimation fields
+     */
+    protected BlaubotMessage createKeepAlive(BlaubotMessage keepAlive) {
+        final long now = System.nanoTime();
+        final long remoteTimestamp = lastRemoteTimestamp;
+        final long hold = remoteTimestamp != 0 ? now - lastRemoteTimestampReceivedAt : 0;
+        final ByteBuffer bb = ByteBuffer.allocate(KEEP_ALIVE_PAYLOAD_LENGTH).order(BlaubotConstants.BYTE_ORDER);
+        bb.putLong(now);
+        bb.putLong(remoteTimestamp);
+        bb.putLong(hold);
+        bb.putLong(receivedBytes);
+
+        final BlaubotMessage message = new BlaubotMessage();
+        message.getMessageType().setIsAdminMessage(false).setIsKeepAliveMessage(true).setContainsPayload(true).setIsFirstHop(false);
+        message.setPriority(keepAlive.getPriority());
+        message.setPayload(bb.array());
+        return message;
+    }
+
+    /**
+     * Called by the receiver thread for each received message.
+     *
+     * @param message the message
+     */
+    protected void onMessageReceived(BlaubotMessage message) {
+        final byte[] payload = message.getPayload();
+        final boolean isKeepAlive = message.getMessageType().isPlainKeepAlive();
+        if (payload != null && !isKeepAlive) {
+            receivedBytes += payload.length;
+        }
+        if (!isKeepAlive || payload == null || payload.length != KEEP_ALIVE_PAYLOAD_LENGTH) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final ByteBuffer bb = ByteBuffer.wrap(payload).order(BlaubotConstants.BYTE_ORDER);
+        final long remoteTimestamp = bb.getLong();
+        final long echo = bb.getLong();
+        final long hold = bb.getLong();
+        final long remoteReceivedBytes = bb.getLong();
+        lastRemoteTimestampReceivedAt = now;
+        lastRemoteTimestamp = remoteTimestamp;
+
+        synchronized (this) {
+            if (echo != 0) {
+                onRttSample(now, now - echo - hold);
+            }
+            if (previousRemoteReceivedBytes >= 0 && remoteTimestamp > previousRemoteTimestamp) {
+                final double rate = (remoteReceivedBytes - previousRemoteReceivedBytes) * 1e9 / (remoteTimestamp - previousRemoteTimestamp);
+                onDeliveryRateSample(rate, appLimited);
+            }
+            appLimited = false;
+            previousRemoteTimestamp = remoteTimestamp;
+            previousRemoteReceivedBytes = remoteReceivedBytes;
+        }
+    }
+
+    private void onRttSample(long now, long rtt) {
+        if (rtt <= 0) {
+            return;
+        }
+        rttSamples += 1;
+        smoothedRtt = smoothedRtt == 0 ? rtt : (long) ((1 - RTT_SAMPLE_WEIGHT) * smoothedRtt + RTT_SAMPLE_WEIGHT * rtt);
+        if (minRtt == 0 || rtt <= minRtt || now - minRttTimestamp > MIN_RTT_WINDOW) {
+            minRtt = rtt;
+            minRttTimestamp = now;
+        }
+    }
+
+    private void onDeliveryRateSample(double rate, boolean appLimited) {
+        deliveryRate = rate;
+        if (!appLimited || rate > bottleneckBandwidth) {
+            bandwidthSamples[bandwidthSampleIndex] = rate;
+            bandwidthSampleIndex = (bandwidthSampleIndex + 1) % BANDWIDTH_WINDOW;
+            double max = 0;
+            for (double sample : bandwidthSamples) {
+                max = Math.max(max, sample);
+            }
+            bottleneckBandwidth = max;
+        }
+
+        // advance the state machine
+        double gain;
+        switch (state) {
+            case STARTUP:
+                if (!appLimited) {
+                    if (bottleneckBandwidth >= fullBandwidth * 1.25) {
+                        fullBandwidth = bottleneckBandwidth;
+                        fullBandwidthCount = 0;
+                    } else if (++fullBandwidthCount >= 3) {
+                        state = State.DRAIN;
+                    }
+                }
+                gain = state == State.DRAIN ? 1 / STARTUP_GAIN : STARTUP_GAIN;
+                break;
+            case DRAIN:
+                state = State.PROBE_BW;
+                probeBwCycleIndex = 0;
+                gain = PROBE_BW_GAINS[probeBwCycleIndex];
+                break;
+            default:
+                probeBwCycleIndex = (probeBwCycleIndex + 1) % PROBE_BW_GAINS.length;
+                gain = PROBE_BW_GAINS[probeBwCycleIndex];
+                break;
+        }
+        pacingRate = bottleneckBandwidth > 0 ? Math.max(MIN_PACING_RATE, gain * bottleneckBandwidth) : 0;
+    }
+
+    /**
+     * Called by the sender thread when it ran out of messages to send.
+     */
+    protected void onSenderIdle() {
+        appLimited = true;
+    }
+
+    /**
+     * Called by the sender thread before polling the next message.
+     *
+     * @return the time in nanoseconds to wait before the next message may be sent, 0 if it may be sent now
+     */
+    protected long getPacingDelay() {
+        if (!shapingEnabled || pacingRate <= 0) {
+            return 0;
+        }
+        return Math.max(0, nextSendTime - System.nanoTime());
+    }
+
+    /**
+     * Called by the sender thread after a message was sent.
+     *
+     * @param payloadBytes the payload bytes of the sent message
+     */
+    protected void onMessageSent(int payloadBytes) {
+        final double rate = pacingRate;
+        if (!shapingEnabled || rate <= 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        nextSendTime = Math.max(now, nextSendTime) + (long) (payloadBytes * 1e9 / rate);
+    }
+
+    /**
+     * @param shapingEnabled true, to pace the sender with the pacing rate
+     */
+    public void setShapingEnabled(boolean shapingEnabled) {
+        this.shapingEnabled = shapingEnabled;
+    }
+
+    /**
+     * @return true, iff the sender is paced with the pacing rate
+     */
+    public boolean isShapingEnabled() {
+        return shapingEnabled;
+    }
+
+    /**
+     * @return the smoothed round trip time in nanoseconds, 0 if unknown
+     */
+    public long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * @return the min round trip time of the last 10 seconds in nanoseconds, 0 if unknown
+     */
+    public long getMinRtt() {
+        return minRtt;
+    }
+
+    /**
+     * @return the number of rtt samples so far
+     */
+    public synchronized long getRttSamples() {
+        return rttSamples;
+    }
+
+    /**
+     * @return the last delivery rate sample in payload bytes per second
+     */
+    public synchronized double getDeliveryRate() {
+        return deliveryRate;
+    }
+
+    /**
+     * @return the estimated bottleneck bandwidth in payload bytes per second, 0 if unknown
+     */
+    public synchronized double getBottleneckBandwidth() {
+        return bottleneckBandwidth;
+    }
+
+    /**
+     * @return the current pacing rate in payload bytes per second, 0 if unknown
+     */
+    public double getPacingRate() {
+        return pacingRate;
+    }
+
+    /**
+     * @return the state of the pacing
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuffer sb = new StringBuffer("LinkEstimator{");
+        sb.append("state=").append(state);
+        sb.append(", smoothedRtt=").append(smoothedRtt);
+        sb.append(", minRtt=").append(minRtt);
+        sb.append(", bottleneckBandwidth=").append(bottleneckBandwidth);
+        sb.append(", pacingRate=").append(pacingRate);
+        sb.append(", shapingEnabled=").append(shapingEnabled);
+        sb.append('}');
+        return sb.toString();
+    }
+}
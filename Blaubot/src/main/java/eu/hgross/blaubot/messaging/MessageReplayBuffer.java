@@ -0,0 +1,310 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The replay state of the BlaubotChannelManager for one remote device.
+ * Survives the connections to this device, so that messages lost on a connection failure can be
+ * replayed when the device reconnects.
+ *
+ * Outbound: the channel messages written to the device are numbered with sequence numbers and the last
+ * capacity messages are retained. The sequence numbers belong to an epoch, which is randomly chosen
+ * when the buffer is created.
+ *
+ * Inbound: the epoch and the highest sequence number received from the device.
+ *
+ * On reconnect both sides send their inbound state (ReplaySyncAdminMessage) and the sender replays the
+ * retained messages with higher sequence numbers.
+ * Only unchunked channel messages are numbered and retained.
+ *
+ * The sequence numbers wrap around from Integer.MAX_VALUE to 1 and are compared with serial number
+ * arithmetic (see distance()), so a long running connection keeps working after the wrap.
+ */
+class MessageReplayBuffer {
+    private static final Random random = new Random();
+    /**
+     * The number of sequence numbers below the highest received one, which are accepted if they arrive
+     * late (e.g. over another uplink of a multipath connection).
+     */
+    private static final int RECEIVE_WINDOW = 64;
+    /**
+     * The number of valid sequence numbers (1 .. Integer.MAX_VALUE, 0 marks unnumbered messages)
+     */
+    private static final long SEQUENCE_SPACE = Integer.MAX_VALUE;
+
+    private static class Entry {
+        private final int sequence;
+        private final BlaubotMessage message;
+
+        private Entry(int sequence, BlaubotMessage message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    private final int capacity;
+    private final long epoch;
+    private final ArrayDeque<Entry> entries;
+    private int lastSequence = 0;
+
+    /**
+     * Channel messages that were queued for the device but not sent when the connection failed.
+     */
+    private final List<BlaubotMessage> unsentMessages;
+
+    private long inboundEpoch = 0;
+    private int lastReceivedSequence = 0;
+    /**
+     * Bit i is set, if the sequence number lastReceivedSequence - i was received
+     */
+    private long receivedWindow = 0;
+
+    /**
+     * The time of the last disconnect or -1, if connected
+     */
+    private volatile long disconnectedSince = -1;
+    private long missedReplays = 0;
+
+    /**
+     * @param capacity the max number of retained messages
+     */
+    MessageReplayBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity has to be > 0");
+        }
+        this.capacity = capacity;
+        this.entries = new ArrayDeque<>(capacity);
+        this.unsentMessages = new ArrayList<>();
+        long e;
+        do {
+            e = random.nextLong();
+        } while (e == 0);
+        this.epoch = e;
+    }
+
+    /**
+     * Only unchunked channel messages are numbered and retained.
+     * Chunks are not replayed, since the receiver's partially received chunks are lost with the connection.
+     *
+     * @param message the message
+     * @return true, iff the message is replayable
+     */
+    static boolean isReplayable(BlaubotMessage message) {
+        final BlaubotMessageType messageType = message.getMessageType();
+        return !messageType.isAdminMessage() && !messageType.isKeepAliveMessage() && !messageType.isChunk();
+    }
+
+    /**
+     * The distance between two sequence numbers in serial number arithmetic (signed difference modulo the
+     * sequence space), i.e. distance(Integer.MAX_VALUE, 1) is 1.
+     * Only meaningful, if the sequence numbers are less than half the sequence space apart.
+     *
+     * @param from the first sequence number (> 0)
+     * @param to the second sequence number (> 0)
+     * @return the distance, > 0 if to is newer than from
+     */
+    static int distance(int from, int to) {
+        long d = ((long) to - from) % SEQUENCE_SPACE;
+        if (d > SEQUENCE_SPACE / 2) {
+            d -= SEQUENCE_SPACE;
+        } else if (d < -SEQUENCE_SPACE / 2) {
+            d += SEQUENCE_SPACE;
+        }
+        return (int) d;
+    }
+
+    /**
+     * @return the epoch of the outbound sequence numbers
+     */
+    long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Reserves the sequence number for the next message to be written.
+     * @return the sequence number
+     */
+    synchronized int nextSequence() {
+        lastSequence += 1;
+        if (lastSequence <= 0) {
+            // wrapped around, 0 is reserved for unnumbered messages
+            lastSequence = 1;
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Retains a message that was written with the given sequence number.
+     * Evicts the oldest message, if full.
+     *
+     * @param sequence the sequence number, the message was written with
+     * @param message the message
+     */
+    synchronized void add(int sequence, BlaubotMessage message) {
+        if (entries.size() >= capacity) {
+            entries.pollFirst();
+        }
+        entries.addLast(new Entry(sequence, message));
+    }
+
+    /**
+     * Collects the retained messages the remote device did not receive.
+     *
+     * @param epoch the epoch the remote device received messages in
+     * @param lastReceivedSequence the newest sequence number the remote device received in this epoch, 0 if none
+     * @param sequences receives the sequence numbers of the returned messages
+     * @return the messages to replay in sending order
+     */
+    synchronized List<BlaubotMessage> getMessagesToReplay(long epoch, int lastReceivedSequence, List<Integer> sequences) {
+        final List<BlaubotMessage> messages = new ArrayList<>();
+        if (epoch != this.epoch) {
+            // the remote device never received anything from this buffer
+            return messages;
+        }
+        boolean first = true;
+        for (Entry entry : entries) {
+            // the distance from 0 (nothing received) is the sequence number itself
+            final int distance = lastReceivedSequence == 0 ? entry.sequence : distance(lastReceivedSequence, entry.sequence);
+            if (distance <= 0) {
+                continue;
+            }
+            if (first && distance > 1) {
+                // the gap was partly evicted
+                missedReplays += distance - 1;
+            }
+            first = false;
+            messages.add(entry.message);
+            sequences.add(entry.sequence);
+        }
+        return messages;
+    }
+
+    /**
+     * Keeps messages that were not sent to the device due to a connection failure.
+     * The oldest messages are dropped, if more than capacity messages are kept.
+     *
+     * @param messages the unsent messages
+     */
+    synchronized void addUnsentMessages(List<BlaubotMessage> messages) {
+        unsentMessages.addAll(messages);
+        while (unsentMessages.size() > capacity) {
+            unsentMessages.remove(0);
+        }
+    }
+
+    /**
+     * Keeps a message that was dispatched while the device was disconnected.
+     * @param message the message
+     */
+    synchronized void addUnsentMessage(BlaubotMessage message) {
+        unsentMessages.add(message);
+        if (unsentMessages.size() > capacity) {
+            unsentMessages.remove(0);
+        }
+    }
+
+    /**
+     * Removes and returns the kept unsent messages.
+     * @return the unsent messages in sending order
+     */
+    synchronized List<BlaubotMessage> takeUnsentMessages() {
+        final List<BlaubotMessage> messages = new ArrayList<>(unsentMessages);
+        unsentMessages.clear();
+        return messages;
+    }
+
+    /**
+     * @return the epoch of the sequence numbers received from the device, 0 if unknown
+     */
+    synchronized long getInboundEpoch() {
+        return inboundEpoch;
+    }
+
+    /**
+     * @return the newest sequence number received from the device in the inbound epoch, 0 if none
+     */
+    synchronized int getLastReceivedSequence() {
+        return lastReceivedSequence;
+    }
+
+    /**
+     * Sets the epoch the device numbers its messages in.
+     * Resets the received sequence number, if the epoch changed (the device's buffer was recreated).
+     *
+     * @param inboundEpoch the device's epoch
+     */
+    synchronized void setInboundEpoch(long inboundEpoch) {
+        if (inboundEpoch != this.inboundEpoch) {
+            this.inboundEpoch = inboundEpoch;
+            this.lastReceivedSequence = 0;
+            this.receivedWindow = 0;
+        }
+    }
+
+    /**
+     * Records the sequence number of a message received from the device.
+     * Messages arriving out of order are accepted within the last RECEIVE_WINDOW sequence numbers.
+     *
+     * @param sequence the sequence number
+     * @return false, if the message was already received (duplicate) or is too old
+     */
+    synchronized boolean onReceived(int sequence) {
+        if (lastReceivedSequence == 0) {
+            receivedWindow = 1;
+            lastReceivedSequence = sequence;
+            return true;
+        }
+        final int distance = distance(lastReceivedSequence, sequence);
+        if (distance > 0) {
+            receivedWindow = distance >= RECEIVE_WINDOW ? 0 : receivedWindow << distance;
+            receivedWindow |= 1;
+            lastReceivedSequence = sequence;
+            return true;
+        }
+        final int offset = -distance;
+        if (offset >= RECEIVE_WINDOW) {
+            return false;
+        }
+        final long bit = 1L << offset;
+        if ((receivedWindow & bit) != 0) {
+            return false;
+        }
+        receivedWindow |= bit;
+        return true;
+    }
+
+    void onConnected() {
+        disconnectedSince = -1;
+    }
+
+    void onDisconnected() {
+        disconnectedSince = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true, iff the device is disconnected
+     */
+    boolean isDisconnected() {
+        return disconnectedSince >= 0;
+    }
+
+    /**
+     * @param now the current time
+     * @param retention the max time a disconnected device's buffer is kept
+     * @return true, iff the device is disconnected for longer than retention
+     */
+    boolean isStale(long now, long retention) {
+        final long since = disconnectedSince;
+        return since >= 0 && now - since > retention;
+    }
+
+    /**
+     * @return the number of messages that could not be replayed because they were evicted
+     */
+    synchronized long getMissedReplays() {
+        return missedReplays;
+    }
+}
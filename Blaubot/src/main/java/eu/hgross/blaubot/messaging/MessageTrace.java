@@ -0,0 +1,213 @@
+package eu.hgross.blaubot.messaging;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact trace extension of a BlaubotMessage.
+ * Holds one timestamp for each hop a channel message passes on it's way from the publisher
+ * through the king to the subscriber.
+ *
+ * The trace is only attached to messages that were sampled by their channel
+ * (@see {BlaubotChannelConfig#setTraceSamplingInterval}) and is signaled by the isTraced bit of
+ * the BlaubotMessageType.
+ *
+ * On the wire the trace consists of the absolute PUBLISHED timestamp (8 bytes, microseconds since
+ * epoch) followed by one int (4 bytes) for each further wire-relevant trace point containing the
+ * delta to the PUBLISHED timestamp in microseconds.
+ *
+ * Note that hops spanning two devices (SENT -> RECEIVED_BY_KING and SENT_BY_KING -> RECEIVED) are
+ * only meaningful, if the device clocks are synchronized.
+ */
+public class MessageTrace {
+    /**
+     * The points in a message's life at which a timestamp is taken.
+     * The ordinal is the slot in the trace.
+     */
+    public enum TracePoint {
+        /**
+         * The message was published to the publisher's BlaubotChannel queue
+         */
+        PUBLISHED,
+        /**
+         * The message was picked from the channel queue and handed to the BlaubotMessageSender(s)
+         */
+        PICKED,
+        /**
+         * The publisher's BlaubotMessageSender wrote the message to the connection (first hop)
+         */
+        SENT,
+        /**
+         * The king's BlaubotMessageReceiver read the message from the connection
+         */
+        RECEIVED_BY_KING,
+        /**
+         * The king's dispatcher committed the message to the subscriber's senders
+         */
+        DISPATCHED_BY_KING,
+        /**
+         * The king's BlaubotMessageSender wrote the message to the connection (second hop)
+         */
+        SENT_BY_KING,
+        /**
+         * The subscriber's BlaubotMessageReceiver read the message from the connection
+         */
+        RECEIVED,
+        /**
+         * The message was handed to the subscriber's BlaubotChannel listeners (not sent over the wire)
+         */
+        DELIVERED
+    }
+
+    /**
+     * The number of trace points transmitted over the wire (DELIVERED is local only)
+     */
+    private static final int WIRE_TRACE_POINTS = TracePoint.DELIVERED.ordinal();
+
+    /**
+     * The length of the trace extension in the message header.
+     */
+    public static final int TRACE_FIELD_LENGTH = 8 + (WIRE_TRACE_POINTS - 1) * 4;
+
+    /**
+     * Marks a trace point, that was not stamped (yet).
+     */
+    public static final long NOT_STAMPED = Long.MIN_VALUE;
+    private static final int NOT_STAMPED_DELTA = Integer.MIN_VALUE;
+
+    /**
+     * Base values to create wall clock based timestamps with microsecond resolution.
+     */
+    private static final long EPOCH_MICROS_AT_START = System.currentTimeMillis() * 1000;
+    private static final long NANOS_AT_START = System.nanoTime();
+
+    private final long[] timestamps;
+
+    /**
+     * Creates an empty trace
+     */
+    public MessageTrace() {
+        this.timestamps = new long[TracePoint.values().length];
+        Arrays.fill(this.timestamps, NOT_STAMPED);
+    }
+
+    private MessageTrace(long[] timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * The current time in microseconds since epoch.
+     * Based on System.nanoTime() to get a resolution suitable for in-memory hops.
+     *
+     * @return the timestamp
+     */
+    public static long now() {
+        return EPOCH_MICROS_AT_START + (System.nanoTime() - NANOS_AT_START) / 1000;
+    }
+
+    /**
+     * Stamps the given trace point with the current time.
+     * @param tracePoint the trace point
+     */
+    public void stamp(TracePoint tracePoint) {
+        timestamps[tracePoint.ordinal()] = now();
+    }
+
+    /**
+     * Creates a copy of this trace with the given trace point stamped with the current time.
+     * Used by the senders because a message may be shared between multiple senders.
+     *
+     * @param tracePoint the trace point to stamp
+     * @return the copy
+     */
+    public MessageTrace copyAndStamp(TracePoint tracePoint) {
+        final MessageTrace copy = copy();
+        copy.stamp(tracePoint);
+        return copy;
+    }
+
+    /**
+     * @return a copy of this trace
+     */
+    public MessageTrace copy() {
+        return new MessageTrace(Arrays.copyOf(timestamps, timestamps.length));
+    }
+
+    /**
+     * The timestamp of a trace point.
+     * @param tracePoint the trace point
+     * @return the timestamp in microseconds since epoch or NOT_STAMPED
+     */
+    public long getTimestamp(TracePoint tracePoint) {
+        return timestamps[tracePoint.ordinal()];
+    }
+
+    /**
+     * The time between two trace points.
+     *
+     * @param from the earlier trace point
+     * @param to the later trace point
+     * @return the duration in microseconds or NOT_STAMPED, if one of the trace points was not stamped
+     */
+    public long getDuration(TracePoint from, TracePoint to) {
+        final long fromTs = getTimestamp(from);
+        final long toTs = getTimestamp(to);
+        if (fromTs == NOT_STAMPED || toTs == NOT_STAMPED) {
+            return NOT_STAMPED;
+        }
+        return toTs - fromTs;
+    }
+
+    /**
+     * Writes the wire relevant part of this trace to the given buffer.
+     * @param byteBuffer the buffer to write to
+     */
+    protected void writeTo(ByteBuffer byteBuffer) {
+        final long published = timestamps[TracePoint.PUBLISHED.ordinal()];
+        byteBuffer.putLong(published);
+        for (int i = 1; i < WIRE_TRACE_POINTS; i++) {
+            final long ts = timestamps[i];
+            if (ts == NOT_STAMPED || published == NOT_STAMPED) {
+                byteBuffer.putInt(NOT_STAMPED_DELTA);
+            } else {
+                final long delta = ts - published;
+                byteBuffer.putInt((int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE, delta)));
+            }
+        }
+    }
+
+    /**
+     * Reads a trace from the given buffer
+     * @param byteBuffer the buffer positioned at the trace extension
+     * @return the trace
+     */
+    protected static MessageTrace readFrom(ByteBuffer byteBuffer) {
+        final MessageTrace trace = new MessageTrace();
+        final long published = byteBuffer.getLong();
+        trace.timestamps[TracePoint.PUBLISHED.ordinal()] = published;
+        for (int i = 1; i < WIRE_TRACE_POINTS; i++) {
+            final int delta = byteBuffer.getInt();
+            if (delta != NOT_STAMPED_DELTA && published != NOT_STAMPED) {
+                trace.timestamps[i] = published + delta;
+            }
+        }
+        return trace;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("MessageTrace{");
+        final long published = timestamps[TracePoint.PUBLISHED.ordinal()];
+        sb.append("published=").append(published);
+        for (TracePoint tracePoint : TracePoint.values()) {
+            if (tracePoint == TracePoint.PUBLISHED) {
+                continue;
+            }
+            sb.append(", ").append(tracePoint).append("=");
+            final long duration = getDuration(TracePoint.PUBLISHED, tracePoint);
+            sb.append(duration == NOT_STAMPED ? "-" : "+" + duration + "us");
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import eu.hgross.blaubot.messaging.MessageTrace.TracePoint;
+import eu.hgross.blaubot.util.LatencyHistogram;
+
+/**
+ * Aggregates the per-hop latencies of traced messages received on a channel.
+ * All values are in microseconds.
+ */
+public class MessageTraceStatistics {
+    /**
+     * The hops of a channel message between two trace points.
+     */
+    public enum Hop {
+        /**
+         * Time spent in the publisher's BlaubotChannel queue
+         */
+        CHANNEL_QUEUE(TracePoint.PUBLISHED, TracePoint.PICKED),
+        /**
+         * Time spent in the publisher's BlaubotMessageSender queue
+         */
+        SENDER_QUEUE(TracePoint.PICKED, TracePoint.SENT),
+        /**
+         * Publisher to king on the wire (needs synchronized clocks)
+         */
+        UPLINK(TracePoint.SENT, TracePoint.RECEIVED_BY_KING),
+        /**
+         * Time spent in the king's dispatcher
+         */
+        KING_DISPATCH(TracePoint.RECEIVED_BY_KING, TracePoint.DISPATCHED_BY_KING),
+        /**
+         * Time spent in the king's BlaubotMessageSender queue
+         */
+        KING_SENDER_QUEUE(TracePoint.DISPATCHED_BY_KING, TracePoint.SENT_BY_KING),
+        /**
+         * King to subscriber on the wire (needs synchronized clocks)
+         */
+        DOWNLINK(TracePoint.SENT_BY_KING, TracePoint.RECEIVED),
+        /**
+         * Time between receiving the message and handing it to the channel's listeners
+         */
+        DELIVERY(TracePoint.RECEIVED, TracePoint.DELIVERED),
+        /**
+         * Publish to delivery (needs synchronized clocks)
+         */
+        END_TO_END(TracePoint.PUBLISHED, TracePoint.DELIVERED);
+
+        private final TracePoint from;
+        private final TracePoint to;
+
+        Hop(TracePoint from, TracePoint to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public TracePoint getFrom() {
+            return from;
+        }
+
+        public TracePoint getTo() {
+            return to;
+        }
+    }
+
+    private final Map<Hop, LatencyHistogram> histograms;
+
+    public MessageTraceStatistics() {
+        this.histograms = new EnumMap<>(Hop.class);
+        for (Hop hop : Hop.values()) {
+            histograms.put(hop, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records the hop latencies of a trace.
+     * Hops that were not stamped are ignored.
+     *
+     * @param trace the trace of a delivered message
+     */
+    protected void record(MessageTrace trace) {
+        for (Hop hop : Hop.values()) {
+            final long duration = trace.getDuration(hop.from, hop.to);
+            if (duration != MessageTrace.NOT_STAMPED) {
+                histograms.get(hop).record(duration);
+            }
+        }
+    }
+
+    /**
+     * The latency distribution for a hop.
+     * @param hop the hop
+     * @return the histogram (values in microseconds)
+     */
+    public LatencyHistogram getHistogram(Hop hop) {
+        return histograms.get(hop);
+    }
+
+    /**
+     * @return the number of traced messages that were delivered
+     */
+    public long getTracedMessages() {
+        return histograms.get(Hop.DELIVERY).getCount();
+    }
+
+    /**
+     * Clears all recorded latencies.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("MessageTraceStatistics{");
+        boolean first = true;
+        for (Hop hop : Hop.values()) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(hop).append("=").append(histograms.get(hop));
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
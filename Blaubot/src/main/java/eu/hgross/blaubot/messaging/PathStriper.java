@@ -0,0 +1,219 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spreads the channels of a stream of messages over several paths (connections) to the same device.
+ *
+ * Each channel is assigned to one path, so the messages of a channel keep their order.
+ * New channels are assigned to the path with the lowest projected utilization, which is computed
+ * from the measured throughput of each path (bytes per second while writing) and the load that is
+ * already on it. Paths without measurements are filled by the number of assigned channels.
+ *
+ * If a path is removed, its channels are reassigned on their next message (no selection delay).
+ * Assignments are not moved between live paths, since this could reorder a channel's messages.
+ *
+ * Admin and keep alive messages use the channel id -1 and are therefore striped like a channel.
+ *
+ * @param <P> the path type
+ */
+public class PathStriper<P> {
+    /**
+     * Provides the (monotonic) counters of a path, from which the striper measures throughput and load.
+     * @param <P> the path type
+     */
+    public interface IPathStatistics<P> {
+        /**
+         * @param path the path
+         * @return the number of bytes written to the path so far
+         */
+        long getSentBytes(P path);
+
+        /**
+         * @param path the path
+         * @return the time spent in write calls of the path so far in nanoseconds
+         */
+        long getWriteNanos(P path);
+    }
+
+    /**
+     * Min time between two measurements of a path
+     */
+    private static final long SAMPLE_INTERVAL = 1000000000L;
+    /**
+     * Weight of a new measurement (exponentially weighted moving average)
+     */
+    private static final double SAMPLE_WEIGHT = 0.5;
+
+    private static class PathState {
+        private int assignedChannels = 0;
+        private long lastSentBytes;
+        private long lastWriteNanos;
+        private long lastSampleTime;
+        /**
+         * bytes per second written to the path
+         */
+        private double load = 0;
+        /**
+         * bytes per second of write time, 0 if unknown
+         */
+        private double capacity = 0;
+    }
+
+    private final IPathStatistics<P> statistics;
+    private final LinkedHashMap<P, PathState> paths;
+    private final Map<Short, P> assignments;
+
+    /**
+     * @param statistics the source of the paths' counters
+     */
+    public PathStriper(IPathStatistics<P> statistics) {
+        this.statistics = statistics;
+        this.paths = new LinkedHashMap<>();
+        this.assignments = new HashMap<>();
+    }
+
+    /**
+     * Adds a path, which is used for channels without assignment from now on.
+     * @param path the path
+     */
+    public synchronized void addPath(P path) {
+        if (paths.containsKey(path)) {
+            return;
+        }
+        final PathState state = new PathState();
+        state.lastSentBytes = statistics.getSentBytes(path);
+        state.lastWriteNanos = statistics.getWriteNanos(path);
+        state.lastSampleTime = System.nanoTime();
+        paths.put(path, state);
+    }
+
+    /**
+     * Removes a path. The channels assigned to it are reassigned on their next message.
+     * @param path the path
+     */
+    public synchronized void removePath(P path) {
+        if (paths.remove(path) == null) {
+            return;
+        }
+        final Iterator<P> it = assignments.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().equals(path)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the current paths
+     */
+    public synchronized List<P> getPaths() {
+        return new ArrayList<>(paths.keySet());
+    }
+
+    /**
+     * @return the number of paths
+     */
+    public synchronized int size() {
+        return paths.size();
+    }
+
+    /**
+     * Selects the path for a message of the given channel.
+     *
+     * @param channelId the message's channel id or -1 for admin and keep alive messages
+     * @return the path or null, if there is no path
+     */
+    public synchronized P select(short channelId) {
+        final P assigned = assignments.get(channelId);
+        if (assigned != null) {
+            return assigned;
+        }
+        if (paths.isEmpty()) {
+            return null;
+        }
+        sample();
+        final P best = findLeastUtilizedPath();
+        paths.get(best).assignedChannels += 1;
+        assignments.put(channelId, best);
+        return best;
+    }
+
+    /**
+     * @param channelId the channel id
+     * @return the path the channel is assigned to or null
+     */
+    public synchronized P getAssignedPath(short channelId) {
+        return assignments.get(channelId);
+    }
+
+    /**
+     * Updates the load and capacity of the paths, if the sample interval passed.
+     */
+    private void sample() {
+        final long now = System.nanoTime();
+        for (Map.Entry<P, PathState> entry : paths.entrySet()) {
+            final PathState state = entry.getValue();
+            final long elapsed = now - state.lastSampleTime;
+            if (elapsed < SAMPLE_INTERVAL) {
+                continue;
+            }
+            final long sentBytes = statistics.getSentBytes(entry.getKey());
+            final long writeNanos = statistics.getWriteNanos(entry.getKey());
+            final long bytes = sentBytes - state.lastSentBytes;
+            final long nanos = writeNanos - state.lastWriteNanos;
+            state.load = SAMPLE_WEIGHT * (bytes * 1e9 / elapsed) + (1 - SAMPLE_WEIGHT) * state.load;
+            if (bytes > 0 && nanos > 0) {
+                final double capacity = bytes * 1e9 / nanos;
+                state.capacity = state.capacity > 0 ? SAMPLE_WEIGHT * capacity + (1 - SAMPLE_WEIGHT) * state.capacity : capacity;
+            }
+            state.lastSentBytes = sentBytes;
+            state.lastWriteNanos = writeNanos;
+            state.lastSampleTime = now;
+        }
+    }
+
+    /**
+     * The projected utilization of a path is its load plus the average load of a channel divided by
+     * its capacity. Unmeasured paths get the best known capacity.
+     *
+     * @return the path with the lowest projected utilization
+     */
+    private P findLeastUtilizedPath() {
+        double totalLoad = 0;
+        double maxCapacity = 0;
+        int assignedChannels = 0;
+        for (PathState state : paths.values()) {
+            totalLoad += state.load;
+            maxCapacity = Math.max(maxCapacity, state.capacity);
+            assignedChannels += state.assignedChannels;
+        }
+        final double channelLoad = assignedChannels > 0 ? totalLoad / assignedChannels : 0;
+
+        P best = null;
+        double bestUtilization = Double.MAX_VALUE;
+        int bestAssignedChannels = Integer.MAX_VALUE;
+        for (Map.Entry<P, PathState> entry : paths.entrySet()) {
+            final PathState state = entry.getValue();
+            final double utilization;
+            if (maxCapacity > 0 && channelLoad > 0) {
+                final double capacity = state.capacity > 0 ? state.capacity : maxCapacity;
+                utilization = (state.load + channelLoad) / capacity;
+            } else {
+                utilization = 0;
+            }
+            // ties (e.g. nothing measured yet) are broken by the number of assigned channels
+            if (utilization < bestUtilization || (utilization == bestUtilization && state.assignedChannels < bestAssignedChannels)) {
+                best = entry.getKey();
+                bestUtilization = utilization;
+                bestAssignedChannels = state.assignedChannels;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,304 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded FIFO message queue whose capacity can be changed at runtime
+ * (@see {IResizableMessageQueue#setCapacity}).
+ * Used by the channels instead of an ArrayBlockingQueue, so that a queue capacity change neither replaces the
+ * queue nor drops queued messages.
+ */
+public class ResizableMessageQueue extends AbstractQueue<BlaubotMessage> implements IResizableMessageQueue {
+    private int capacity;
+    private final ArrayDeque<BlaubotMessage> messages;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private boolean sealed = false;
+
+    /**
+     * @param capacity the max number of messages in the queue
+     */
+    public ResizableMessageQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity has to be > 0");
+        }
+        this.capacity = capacity;
+        this.messages = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+    }
+
+    @Override
+    public int getCapacity() {
+        lock.lock();
+        try {
+            return capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity has to be > 0");
+        }
+        lock.lock();
+        try {
+            final boolean grown = capacity > this.capacity;
+            this.capacity = capacity;
+            if (grown) {
+                notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void seal() {
+        lock.lock();
+        try {
+            sealed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isSealed() {
+        lock.lock();
+        try {
+            return sealed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the message. Has to be called with the lock held.
+     * @return true, if the message was appended, false if the queue is full
+     */
+    private boolean insert(BlaubotMessage message) {
+        if (sealed) {
+            return false;
+        }
+        if (messages.size() >= capacity) {
+            return false;
+        }
+        messages.addLast(message);
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * Removes the head. Has to be called with the lock held and a non empty queue.
+     */
+    private BlaubotMessage extract() {
+        final BlaubotMessage head = messages.pollFirst();
+        if (messages.size() < capacity) {
+            notFull.signal();
+        }
+        return head;
+    }
+
+    @Override
+    public boolean offer(BlaubotMessage message) {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            return insert(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(BlaubotMessage message, long timeout, TimeUnit unit) throws InterruptedException {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!insert(message)) {
+                if (sealed || nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(BlaubotMessage message) throws InterruptedException {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while (!insert(message)) {
+                if (sealed) {
+                    throw new IllegalStateException("The queue is sealed");
+                }
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage poll() {
+        lock.lock();
+        try {
+            return messages.isEmpty() ? null : extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (messages.isEmpty()) {
+                if (sealed || nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (messages.isEmpty()) {
+                if (sealed) {
+                    throw new IllegalStateException("The queue is sealed");
+                }
+                notEmpty.await();
+            }
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage peek() {
+        lock.lock();
+        try {
+            return messages.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return Math.max(0, capacity - messages.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            messages.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super BlaubotMessage> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super BlaubotMessage> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && !messages.isEmpty()) {
+                c.add(messages.peekFirst());
+                messages.pollFirst();
+                drained++;
+            }
+            if (drained > 0) {
+                notFull.signalAll();
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queued messages.
+     */
+    @Override
+    public Iterator<BlaubotMessage> iterator() {
+        lock.lock();
+        try {
+            return new ArrayList<>(messages).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            final StringBuffer sb = new StringBuffer("ResizableMessageQueue{");
+            sb.append("size=").append(messages.size());
+            sb.append(", capacity=").append(capacity);
+            sb.append('}');
+            return sb.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The messages of a channel retained by the king for late subscribers (@see {RetentionPolicy}).
+ * Not thread safe, the BlaubotChannelManager synchronizes on the history while dispatching messages of the
+ * channel and while adding subscriptions.
+ */
+class RetainedHistory {
+    private final RetentionPolicy policy;
+    private int capacity;
+    private final ArrayDeque<BlaubotMessage> lastMessages;
+    private final LinkedHashMap<Object, BlaubotMessage> lastPerKey;
+
+    /**
+     * @param policy LAST_MESSAGES or LAST_PER_KEY
+     * @param capacity the max number of messages or keys
+     */
+    RetainedHistory(RetentionPolicy policy, int capacity) {
+        if (policy == RetentionPolicy.NONE) {
+            throw new IllegalArgumentException("Nothing to retain");
+        }
+        this.policy = policy;
+        this.capacity = capacity;
+        this.lastMessages = new ArrayDeque<>();
+        this.lastPerKey = new LinkedHashMap<>();
+    }
+
+    RetentionPolicy getPolicy() {
+        return policy;
+    }
+
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+        trim();
+    }
+
+    /**
+     * Retains a dispatched message.
+     *
+     * @param message the message
+     * @param key the message's key, only used by LAST_PER_KEY
+     */
+    void add(BlaubotMessage message, Object key) {
+        if (policy == RetentionPolicy.LAST_MESSAGES) {
+            lastMessages.addLast(message);
+        } else if (key != null) {
+            // re-insert to keep the keys ordered by their last update
+            lastPerKey.remove(key);
+            lastPerKey.put(key, message);
+        }
+        trim();
+    }
+
+    /**
+     * Drops the expired messages and returns the remaining ones.
+     *
+     * @return the retained messages in the order of their dispatch
+     */
+    List<BlaubotMessage> getMessages() {
+        final Iterator<BlaubotMessage> iterator = policy == RetentionPolicy.LAST_MESSAGES ? lastMessages.iterator() : lastPerKey.values().iterator();
+        final List<BlaubotMessage> messages = new ArrayList<>(size());
+        while (iterator.hasNext()) {
+            final BlaubotMessage message = iterator.next();
+            if (message.isExpired()) {
+                iterator.remove();
+            } else {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    int size() {
+        return policy == RetentionPolicy.LAST_MESSAGES ? lastMessages.size() : lastPerKey.size();
+    }
+
+    private void trim() {
+        while (lastMessages.size() > capacity) {
+            lastMessages.removeFirst();
+        }
+        final Iterator<Object> keys = lastPerKey.keySet().iterator();
+        while (lastPerKey.size() > capacity && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+}
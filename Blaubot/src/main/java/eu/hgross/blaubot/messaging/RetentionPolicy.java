@@ -0,0 +1,22 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Defines which messages of a channel the king retains for devices subscribing later
+ * (@see {BlaubotChannelConfig#setRetention}).
+ */
+public enum RetentionPolicy {
+    /**
+     * No messages are retained
+     */
+    NONE,
+    /**
+     * The last n messages are retained
+     */
+    LAST_MESSAGES,
+    /**
+     * The last message per key is retained for up to n keys.
+     * The keys are extracted by the channel config's key extractor (@see {BlaubotChannelConfig#setMessageKeyExtractor}),
+     * messages without a key are not retained.
+     */
+    LAST_PER_KEY
+}
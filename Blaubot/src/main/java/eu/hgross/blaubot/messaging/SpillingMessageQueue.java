@@ -0,0 +1,654 @@
+package eu.hgross.blaubot.messaging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * A FIFO message queue that spills messages to memory-mapped segment files, if its in-memory part is full.
+ *
+ * The first capacity messages are kept in memory. Further messages are appended to the spill, a list of
+ * segment files in the overflow directory, and drained back into memory in order as messages are taken
+ * from the queue. So the heap usage is bounded by the in-memory capacity regardless of the backlog size.
+ * A message is only rejected, if the spill would exceed the overflow capacity (in bytes).
+ *
+ * Spilled messages keep their channel, priority, payload, deadline and trace. The conflation key is not
+ * spilled (the queue is only used with the PROCESS_ALL strategy).
+ * A fully drained segment is recycled: its read and write positions are reset and it is reused for the next
+ * spilled messages, so no files are created or deleted while the backlog grows and shrinks. The file of a
+ * still-mapped segment would keep its disk space until the mapping is garbage collected anyway, so all
+ * mapped segments count towards the overflow capacity until close() deletes them.
+ */
+public class SpillingMessageQueue extends AbstractQueue<BlaubotMessage> implements IResizableMessageQueue {
+    private static final String LOG_TAG = "SpillingMessageQueue";
+    /**
+     * The default size of a segment file.
+     * A segment is enlarged, if a single message does not fit.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    /**
+     * record length, type, priority, channel id, deadline
+     */
+    private static final int RECORD_HEADER_LENGTH = 4 + 1 + 1 + 2 + 8;
+
+    /**
+     * A memory-mapped segment file.
+     * Records are appended at the writePosition and read at the readPosition.
+     */
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int writePosition = 0;
+        private int readPosition = 0;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private int getSize() {
+            return buffer.capacity();
+        }
+    }
+
+    private int capacity;
+    private final File overflowDirectory;
+    private final long overflowCapacity;
+    private final int segmentSize;
+    private final String filePrefix;
+
+    private final ArrayDeque<BlaubotMessage> memory;
+    private final ArrayDeque<Segment> segments;
+    private final ArrayDeque<Segment> recycledSegments;
+    private long allocatedBytes = 0;
+    private int spillSize = 0;
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private boolean sealed = false;
+
+    private final AtomicLong spilledMessages;
+    private final AtomicLong spilledBytes;
+    private final AtomicLong drainedMessages;
+    private final AtomicLong drainedBytes;
+
+    /**
+     * @param capacity the max number of messages kept in memory
+     * @param overflowDirectory the directory to create the segment files in
+     * @param overflowCapacity the max number of bytes of all segment files
+     * @param channelId the channel id, used to name the segment files
+     */
+    public SpillingMessageQueue(int capacity, File overflowDirectory, long overflowCapacity, short channelId) {
+        this(capacity, overflowDirectory, overflowCapacity, DEFAULT_SEGMENT_SIZE, channelId);
+    }
+
+    /**
+     * @param capacity the max number of messages kept in memory
+     * @param overflowDirectory the directory to create the segment files in
+     * @param overflowCapacity the max number of bytes of all segment files
+     * @param segmentSize the size of a segment file in bytes
+     * @param channelId the channel id, used to name the segment files
+     */
+    public SpillingMessageQueue(int capacity, File overflowDirectory, long overflowCapacity, int segmentSize, short channelId) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity has to be > 0");
+        }
+        if (overflowCapacity <= 0 || segmentSize <= 0) {
+            throw new IllegalArgumentException("The overflow capacity and segment size have to be > 0");
+        }
+        if (overflowDirectory == null) {
+            throw new NullPointerException("The overflow directory must not be null");
+        }
+        this.capacity = capacity;
+        this.overflowDirectory = overflowDirectory;
+        this.overflowCapacity = overflowCapacity;
+        this.segmentSize = segmentSize;
+        this.filePrefix = "blaubot-channel-" + channelId + "-";
+        this.memory = new ArrayDeque<>(capacity);
+        this.segments = new ArrayDeque<>();
+        this.recycledSegments = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+        this.spilledMessages = new AtomicLong(0);
+        this.spilledBytes = new AtomicLong(0);
+        this.drainedMessages = new AtomicLong(0);
+        this.drainedBytes = new AtomicLong(0);
+    }
+
+    /**
+     * @return the max number of messages kept in memory
+     */
+    @Override
+    public int getCapacity() {
+        lock.lock();
+        try {
+            return capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the max number of messages kept in memory.
+     * If shrunk, the messages in memory exceeding the capacity are kept and the memory is refilled from the
+     * spill once it fell below the capacity.
+     *
+     * @param capacity the new capacity (> 0)
+     */
+    @Override
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity has to be > 0");
+        }
+        lock.lock();
+        try {
+            final boolean grown = capacity > this.capacity;
+            this.capacity = capacity;
+            if (grown) {
+                notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the directory of the segment files
+     */
+    public File getOverflowDirectory() {
+        return overflowDirectory;
+    }
+
+    /**
+     * @return the max number of bytes of all segment files
+     */
+    public long getOverflowCapacity() {
+        return overflowCapacity;
+    }
+
+    /**
+     * @return the number of messages written to the spill so far
+     */
+    public long getSpilledMessages() {
+        return spilledMessages.get();
+    }
+
+    /**
+     * @return the number of bytes written to the spill so far
+     */
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    /**
+     * @return the number of messages read back from the spill so far
+     */
+    public long getDrainedMessages() {
+        return drainedMessages.get();
+    }
+
+    /**
+     * @return the number of bytes read back from the spill so far
+     */
+    public long getDrainedBytes() {
+        return drainedBytes.get();
+    }
+
+    /**
+     * @return the number of messages currently in the spill
+     */
+    public int getSpillSize() {
+        lock.lock();
+        try {
+            return spillSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the message into memory or the spill. Has to be called with the lock held.
+     * @return true, if the message was inserted, false if the queue is full
+     */
+    private boolean insert(BlaubotMessage message) {
+        if (sealed) {
+            return false;
+        }
+        // keep the order: once spilling, new messages go to the spill until it is drained
+        if (spillSize == 0 && memory.size() < capacity) {
+            memory.addLast(message);
+            notEmpty.signal();
+            return true;
+        }
+        return spill(message);
+    }
+
+    /**
+     * Removes the head and refills the memory from the spill. Has to be called with the lock held and
+     * a non empty queue.
+     */
+    private BlaubotMessage extract() {
+        final BlaubotMessage head = memory.pollFirst();
+        while (spillSize > 0 && memory.size() < capacity) {
+            final BlaubotMessage drained = readFromSpill();
+            if (drained == null) {
+                break;
+            }
+            memory.addLast(drained);
+        }
+        notFull.signal();
+        return head;
+    }
+
+    /**
+     * Appends the message to the last segment. Has to be called with the lock held.
+     * @return false, if the overflow capacity is exhausted or the segment could not be created
+     */
+    private boolean spill(BlaubotMessage message) {
+        final byte[] payload = message.getPayload();
+        final MessageTrace trace = message.getTrace();
+        final int recordLength = RECORD_HEADER_LENGTH + (trace != null ? MessageTrace.TRACE_FIELD_LENGTH : 0) + payload.length;
+
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.getSize() - segment.writePosition < recordLength) {
+            segment = pollRecycledSegment(recordLength);
+            if (segment == null) {
+                final int newSegmentSize = Math.max(segmentSize, recordLength);
+                if (allocatedBytes + newSegmentSize > overflowCapacity) {
+                    return false;
+                }
+                try {
+                    segment = createSegment(newSegmentSize);
+                } catch (IOException e) {
+                    if (Log.logErrorMessages()) {
+                        Log.e(LOG_TAG, "Could not create a segment file in " + overflowDirectory + ": " + e.getMessage());
+                    }
+                    return false;
+                }
+                allocatedBytes += newSegmentSize;
+            }
+            segments.addLast(segment);
+        }
+
+        final ByteBuffer buffer = segment.buffer;
+        buffer.position(segment.writePosition);
+        buffer.putInt(recordLength);
+        buffer.put(message.getMessageType().toByte());
+        buffer.put(message.getPriority().value);
+        buffer.putShort(message.getChannelId());
+        buffer.putLong(message.hasDeadline() ? message.getDeadline() : 0);
+        if (trace != null) {
+            trace.writeTo(buffer);
+        }
+        buffer.put(payload);
+        segment.writePosition += recordLength;
+
+        spillSize += 1;
+        spilledMessages.incrementAndGet();
+        spilledBytes.addAndGet(recordLength);
+        return true;
+    }
+
+    /**
+     * Reads the oldest message from the spill. Has to be called with the lock held and a non empty spill.
+     * @return the message
+     */
+    private BlaubotMessage readFromSpill() {
+        final Segment segment = segments.peekFirst();
+        final ByteBuffer buffer = segment.buffer;
+        buffer.position(segment.readPosition);
+        final int recordLength = buffer.getInt();
+        final BlaubotMessageType messageType = BlaubotMessageType.fromByte(buffer.get());
+        final BlaubotMessage.Priority priority = BlaubotMessage.Priority.fromByte(buffer.get());
+        final short channelId = buffer.getShort();
+        final long deadline = buffer.getLong();
+        final MessageTrace trace = messageType.isTraced() ? MessageTrace.readFrom(buffer) : null;
+        final byte[] payload = new byte[segment.readPosition + recordLength - buffer.position()];
+        buffer.get(payload);
+        segment.readPosition += recordLength;
+
+        final BlaubotMessage message = new BlaubotMessage();
+        message.setMessageType(messageType);
+        message.setPriority(priority);
+        message.setChannelId(channelId);
+        message.setPayload(payload);
+        message.setTrace(trace);
+        if (messageType.hasDeadline()) {
+            message.setDeadline(deadline);
+        }
+
+        spillSize -= 1;
+        drainedMessages.incrementAndGet();
+        drainedBytes.addAndGet(recordLength);
+
+        if (segment.readPosition >= segment.writePosition) {
+            // fully drained
+            recycleSegment(segments.pollFirst());
+        }
+        return message;
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        if (!overflowDirectory.isDirectory() && !overflowDirectory.mkdirs()) {
+            throw new IOException("Could not create the directory " + overflowDirectory);
+        }
+        final File file = File.createTempFile(filePrefix, ".segment", overflowDirectory);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            final FileChannel fileChannel = randomAccessFile.getChannel();
+            final MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(BlaubotConstants.BYTE_ORDER);
+            return new Segment(file, buffer);
+        } finally {
+            // the mapping stays valid after the file is closed
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Resets the positions of a drained segment and keeps it for reuse. Has to be called with the lock held.
+     */
+    private void recycleSegment(Segment segment) {
+        segment.readPosition = 0;
+        segment.writePosition = 0;
+        recycledSegments.addLast(segment);
+    }
+
+    /**
+     * Removes a recycled segment that can hold the record. Has to be called with the lock held.
+     * @param recordLength the length of the record to append
+     * @return the segment or null, if no recycled segment is large enough
+     */
+    private Segment pollRecycledSegment(int recordLength) {
+        final Iterator<Segment> iterator = recycledSegments.iterator();
+        while (iterator.hasNext()) {
+            final Segment segment = iterator.next();
+            if (segment.getSize() >= recordLength) {
+                iterator.remove();
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the segment's file. The mapping itself is released when the buffer is garbage collected.
+     */
+    private void deleteSegment(Segment segment) {
+        allocatedBytes -= segment.getSize();
+        if (!segment.file.delete()) {
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Could not delete the segment file " + segment.file);
+            }
+        }
+    }
+
+    @Override
+    public void seal() {
+        lock.lock();
+        try {
+            sealed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isSealed() {
+        lock.lock();
+        try {
+            return sealed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clears the queue and deletes all segment files.
+     * Has to be called when the queue is discarded, the segment files are not deleted otherwise.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            clear();
+            while (!recycledSegments.isEmpty()) {
+                deleteSegment(recycledSegments.pollFirst());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(BlaubotMessage message) {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            return insert(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(BlaubotMessage message, long timeout, TimeUnit unit) throws InterruptedException {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!insert(message)) {
+                if (sealed || nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(BlaubotMessage message) throws InterruptedException {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while (!insert(message)) {
+                if (sealed) {
+                    throw new IllegalStateException("The queue is sealed");
+                }
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage poll() {
+        lock.lock();
+        try {
+            return memory.isEmpty() ? null : extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (memory.isEmpty()) {
+                if (sealed || nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (memory.isEmpty()) {
+                if (sealed) {
+                    throw new IllegalStateException("The queue is sealed");
+                }
+                notEmpty.await();
+            }
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage peek() {
+        lock.lock();
+        try {
+            return memory.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of messages in memory and in the spill.
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return memory.size() + spillSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The remaining capacity of the in-memory part.
+     * Further messages are accepted as long as the spill has room.
+     */
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return spillSize > 0 ? 0 : Math.max(0, capacity - memory.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all messages. The segments are kept for reuse, close() deletes them.
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            memory.clear();
+            spillSize = 0;
+            while (!segments.isEmpty()) {
+                recycleSegment(segments.pollFirst());
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super BlaubotMessage> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Drains the messages one by one, so spilled messages are only loaded as the collection takes them.
+     */
+    @Override
+    public int drainTo(Collection<? super BlaubotMessage> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && !memory.isEmpty()) {
+                c.add(extract());
+                drained++;
+            }
+            if (drained > 0) {
+                notFull.signalAll();
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the in-memory messages.
+     * Spilled messages are not included.
+     */
+    @Override
+    public Iterator<BlaubotMessage> iterator() {
+        lock.lock();
+        try {
+            final List<BlaubotMessage> snapshot = new ArrayList<>(memory);
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            final StringBuffer sb = new StringBuffer("SpillingMessageQueue{");
+            sb.append("size=").append(memory.size() + spillSize);
+            sb.append(", capacity=").append(capacity);
+            sb.append(", spillSize=").append(spillSize);
+            sb.append(", allocatedBytes=").append(allocatedBytes);
+            sb.append(", overflowCapacity=").append(overflowCapacity);
+            sb.append(", spilledMessages=").append(spilledMessages.get());
+            sb.append(", drainedMessages=").append(drainedMessages.get());
+            sb.append('}');
+            return sb.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * A typed view on a BlaubotChannel.
+ * Published messages are attached to BlaubotMessages with their codec and are encoded straight into the
+ * serialized message by the sender (@see {IBlaubotChannel#publish(Object, IChannelCodec)}).
+ * Received messages are decoded once from a buffer wrapping the received payload and passed to all typed
+ * listeners.
+ *
+ * @param <T> the type of the messages
+ */
+public class TypedBlaubotChannel<T> implements ITypedBlaubotChannel<T> {
+    private static final String LOG_TAG = "TypedBlaubotChannel";
+    private final IBlaubotChannel channel;
+    private final IChannelCodec<T> codec;
+    private final CopyOnWriteArrayList<ITypedMessageListener<T>> messageListeners;
+
+    /**
+     * Decodes the received messages and notifies the typed listeners.
+     * Attached to the channel while there are typed listeners.
+     */
+    private final IBlaubotMessageListener decodingListener = new IBlaubotMessageListener() {
+        @Override
+        public void onMessage(BlaubotMessage blaubotMessage) {
+            final T message;
+            try {
+                message = blaubotMessage.getPayload(codec);
+            } catch (RuntimeException e) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "Could not decode a message on channel #" + blaubotMessage.getChannelId() + ": " + e.getMessage());
+                }
+                return;
+            }
+            for (ITypedMessageListener<T> listener : messageListeners) {
+                listener.onMessage(message, blaubotMessage);
+            }
+        }
+    };
+
+    /**
+     * @param channel the channel
+     * @param codec the codec for the messages
+     */
+    public TypedBlaubotChannel(IBlaubotChannel channel, IChannelCodec<T> codec) {
+        if (channel == null || codec == null) {
+            throw new NullPointerException("channel and codec may not be null");
+        }
+        this.channel = channel;
+        this.codec = codec;
+        this.messageListeners = new CopyOnWriteArrayList<>();
+    }
+
+    @Override
+    public boolean publish(T message) {
+        return channel.publish(message, codec);
+    }
+
+    @Override
+    public boolean publish(T message, long timeout) {
+        return channel.publish(message, codec, timeout);
+    }
+
+    @Override
+    public void subscribe(ITypedMessageListener<T> messageListener) {
+        addMessageListener(messageListener);
+        channel.subscribe();
+    }
+
+    @Override
+    public void subscribe() {
+        channel.subscribe();
+    }
+
+    @Override
+    public void unsubscribe() {
+        channel.unsubscribe();
+    }
+
+    @Override
+    public synchronized void addMessageListener(ITypedMessageListener<T> messageListener) {
+        final boolean first = messageListeners.isEmpty();
+        messageListeners.add(messageListener);
+        if (first) {
+            channel.addMessageListener(decodingListener);
+        }
+    }
+
+    @Override
+    public synchronized void removeMessageListener(ITypedMessageListener<T> messageListener) {
+        if (messageListeners.remove(messageListener) && messageListeners.isEmpty()) {
+            channel.removeMessageListener(decodingListener);
+        }
+    }
+
+    @Override
+    public IChannelCodec<T> getCodec() {
+        return codec;
+    }
+
+    @Override
+    public IBlaubotChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("TypedBlaubotChannel{");
+        sb.append("channelId=").append(channel.getChannelConfig().getChannelId());
+        sb.append(", codec=").append(codec);
+        sb.append('}');
+        return sb.toString();
+    }
+}
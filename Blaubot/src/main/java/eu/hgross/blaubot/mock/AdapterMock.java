@@ -1,5 +1,6 @@
 package eu.hgross.blaubot.mock;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import eu.hgross.blaubot.core.Blaubot;
@@ -24,6 +25,7 @@ public class AdapterMock implements IBlaubotAdapter
 	public AdapterMock() {
 		this.connector = new BlaubotConnectorMock(this);
 		this.acceptor = new BlaubotConnectionAcceptorMock(this);
+        this.beacons = new ArrayList<>();
         this.beacons.add(new BlaubotBeaconMock());
 		this.connectionStateMachineConfig = new ConnectionStateMachineConfig();
 		this.adapterConfig = new BlaubotAdapterConfig();
@@ -24,6 +24,9 @@ import eu.hgross.blaubot.core.IBlaubotDevice;
  * {@link #write(byte[])}, use the {@link #getInputStreamForWrittenConnectionData()}
  * {@link InputStream} to do so.
  * 
+ * Like a socket, bytes queued before a disconnect can still be read. Then the read*() methods
+ * throw an IOException.
+ * 
  * If you need a pair of connections where one connection writes to the other connections
  * input stream, use {@link BlaubotConnectionQueueMock#getOtherEndpointConnection(eu.hgross.blaubot.core.IBlaubotDevice)}.
  * 
@@ -31,6 +34,12 @@ import eu.hgross.blaubot.core.IBlaubotDevice;
  * 
  */
 public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
+	/**
+	 * Put to the queues on disconnect to mark the end of the stream. Compared by identity, so it is
+	 * distinct from any (boxed) data byte.
+	 */
+	@SuppressWarnings({"deprecation", "removal"})
+	private static final Byte END_OF_STREAM = new Byte((byte) 0);
 
 	protected LinkedBlockingQueue<Byte> inputQueue;
 	protected LinkedBlockingQueue<Byte> outputQueue;
@@ -39,6 +48,11 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 	protected volatile boolean connected = true;
 	private IBlaubotDevice device;
     private UUID uuid = UUID.randomUUID();
+	/**
+	 * The connection created by getOtherEndpointConnection() or the connection that created this
+	 * connection via getOtherEndpointConnection(), if any.
+	 */
+	private volatile BlaubotConnectionQueueMock otherEndpoint;
 
 	/**
 	 * @param remoteDevice
@@ -69,6 +83,8 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 		otherSide.outputQueue = inputQueue;
 		otherSide.inputQueue = outputQueue;
 		otherSide.setupDataStreams();
+		otherSide.otherEndpoint = this;
+		this.otherEndpoint = otherSide;
 		return otherSide;
 
 	}
@@ -99,7 +115,9 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 				Byte b;
 				try {
 					b = outputQueue.take();
-					if (!connected) {
+					if (b == END_OF_STREAM) {
+						// keep the marker for subsequent reads
+						outputQueue.add(END_OF_STREAM);
 						throw new IOException("Connection was closed");
 					}
 				} catch (InterruptedException e) {
@@ -127,7 +145,9 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 			Byte b;
 			try {
 				b = inputQueue.take();
-				if (!connected) {
+				if (b == END_OF_STREAM) {
+					// keep the marker for subsequent reads
+					inputQueue.add(END_OF_STREAM);
 					throw new IOException("Connection was closed");
 				}
 			} catch (InterruptedException e) {
@@ -163,15 +183,22 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 			}
 			connected = false;
 		}
-		// put a byte to the inputQueue to ensure the readFully operations will die with
-		// ioexceptions
+		// mark the end of both queues, so that the readFully operations die with ioexceptions
+		// after the queued bytes were read
 		try {
-			inputQueue.put((byte) 0);
+			inputQueue.put(END_OF_STREAM);
+			outputQueue.put(END_OF_STREAM);
 		} catch (InterruptedException e) {
 			e.printStackTrace();
             throw new RuntimeException(e);
 		}
 		this.notifyDisconnected();
+
+		// like a socket, the other endpoint dies with us
+		final BlaubotConnectionQueueMock otherEndpoint = this.otherEndpoint;
+		if (otherEndpoint != null) {
+			otherEndpoint.disconnect();
+		}
 	}
 
 	@Override
@@ -210,41 +237,26 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 
 	@Override
 	public int read() throws SocketTimeoutException, IOException {
-		if (!connected) {
-			throw new IOException("not connected");
-		}
 		return dataInputStream.read();
 	}
 
 	@Override
 	public int read(byte[] buffer) throws SocketTimeoutException, IOException {
-		if (!connected) {
-			throw new IOException("not connected");
-		}
 		return dataInputStream.read(buffer);
 	}
 
 	@Override
 	public int read(byte[] buffer, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
-		if (!connected) {
-			throw new IOException("not connected");
-		}
 		return dataInputStream.read(buffer, byteOffset, byteCount);
 	}
 
 	@Override
 	public void readFully(byte[] buffer) throws SocketTimeoutException, IOException {
-		if (!connected) {
-			throw new IOException("not connected");
-		}
 		dataInputStream.readFully(buffer);
 	}
 
 	@Override
 	public void readFully(byte[] buffer, int offset, int byteCount) throws SocketTimeoutException, IOException {
-		if (!connected) {
-			throw new IOException("not connected");
-		}
 		dataInputStream.readFully(buffer, offset, byteCount);
 	}
 
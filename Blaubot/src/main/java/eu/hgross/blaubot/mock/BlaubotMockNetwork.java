@@ -0,0 +1,89 @@
+package eu.hgross.blaubot.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.BlaubotFactory;
+import eu.hgross.blaubot.core.BlaubotUUIDSet;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+
+/**
+ * An in-memory network to run multiple {@link Blaubot} instances inside one JVM without any sockets.
+ *
+ * Every instance created via {@link #createBlaubot(UUID, String)} registers it's acceptor and beacon
+ * with this network. Connections between the instances are pairs of {@link BlaubotConnectionQueueMock}s.
+ * The beacons discover each other by iterating over all registered beacons (like the
+ * BlaubotEthernetFixedDeviceSetBeacon does with it's fixed device set).
+ */
+public class BlaubotMockNetwork {
+	private final ConcurrentHashMap<String, BlaubotMockNetworkAcceptor> acceptors;
+	private final ConcurrentHashMap<String, BlaubotMockNetworkBeacon> beacons;
+
+	public BlaubotMockNetwork() {
+		this.acceptors = new ConcurrentHashMap<>();
+		this.beacons = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Creates a blaubot instance that is attached to this network.
+	 *
+	 * @param appUUID the app's uuid
+	 * @param uniqueDeviceId the unique device id of the new instance (has to be unique inside this network)
+	 * @return the blaubot instance
+	 */
+	public Blaubot createBlaubot(UUID appUUID, String uniqueDeviceId) {
+		if (acceptors.containsKey(uniqueDeviceId)) {
+			throw new IllegalArgumentException("A device with the unique device id " + uniqueDeviceId + " is already part of this network.");
+		}
+		final IBlaubotDevice ownDevice = new BlaubotDevice(uniqueDeviceId);
+		final BlaubotMockNetworkAdapter adapter = new BlaubotMockNetworkAdapter(this, ownDevice, new BlaubotUUIDSet(appUUID));
+		final BlaubotMockNetworkBeacon beacon = new BlaubotMockNetworkBeacon(this);
+		acceptors.put(uniqueDeviceId, (BlaubotMockNetworkAcceptor) adapter.getConnectionAcceptor());
+		beacons.put(uniqueDeviceId, beacon);
+		return BlaubotFactory.createBlaubot(appUUID, ownDevice, adapter, beacon);
+	}
+
+	/**
+	 * @param uniqueDeviceId the device's unique id
+	 * @return the acceptor of the device or null, if the device is not part of this network
+	 */
+	protected BlaubotMockNetworkAcceptor getAcceptor(String uniqueDeviceId) {
+		return acceptors.get(uniqueDeviceId);
+	}
+
+	/**
+	 * @param uniqueDeviceId the device's unique id
+	 * @return the beacon of the device or null, if the device is not part of this network
+	 */
+	protected BlaubotMockNetworkBeacon getBeacon(String uniqueDeviceId) {
+		return beacons.get(uniqueDeviceId);
+	}
+
+	/**
+	 * @return the devices of all instances attached to this network
+	 */
+	public List<IBlaubotDevice> getDevices() {
+		final ArrayList<IBlaubotDevice> devices = new ArrayList<>();
+		for (String uniqueDeviceId : beacons.keySet()) {
+			devices.add(new BlaubotDevice(uniqueDeviceId));
+		}
+		return devices;
+	}
+
+	/**
+	 * Creates a pair of connected {@link BlaubotConnectionQueueMock}s.
+	 *
+	 * @param fromDevice the device initiating the connection
+	 * @param toDevice the device accepting the connection
+	 * @return the pair, index 0 is fromDevice's end (the remote device is toDevice), index 1 is toDevice's end
+	 */
+	protected static BlaubotConnectionQueueMock[] createConnectionPair(IBlaubotDevice fromDevice, IBlaubotDevice toDevice) {
+		final BlaubotConnectionQueueMock fromEnd = new BlaubotConnectionQueueMock(toDevice);
+		final BlaubotConnectionQueueMock toEnd = fromEnd.getOtherEndpointConnection(fromDevice);
+		return new BlaubotConnectionQueueMock[]{fromEnd, toEnd};
+	}
+}
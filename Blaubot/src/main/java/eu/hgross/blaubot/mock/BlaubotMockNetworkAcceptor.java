@@ -0,0 +1,129 @@
+package eu.hgross.blaubot.mock;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
+import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
+import eu.hgross.blaubot.core.acceptor.IBlaubotListeningStateListener;
+import eu.hgross.blaubot.core.acceptor.discovery.BeaconMessage;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeaconStore;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Acceptor for the in-memory {@link BlaubotMockNetwork}.
+ * Incoming connections are handed over by the {@link BlaubotMockNetworkConnector} of another instance.
+ */
+public class BlaubotMockNetworkAcceptor implements IBlaubotConnectionAcceptor {
+	private static final String LOG_TAG = "BlaubotMockNetworkAcceptor";
+	/**
+	 * Incoming connections are handed to the listeners asynchronously (like a real accept thread would do) to
+	 * not run the accepting instance's code on the connecting instance's thread.
+	 */
+	private static final ExecutorService executorService = Executors.newCachedThreadPool();
+	private final IBlaubotAdapter adapter;
+	private final Object startStopMonitor;
+	private volatile boolean started = false;
+	private volatile IBlaubotListeningStateListener listeningStateListener;
+	private volatile IBlaubotIncomingConnectionListener incomingConnectionListener;
+	private IBlaubotBeaconStore beaconStore;
+
+	public BlaubotMockNetworkAcceptor(IBlaubotAdapter adapter) {
+		this.adapter = adapter;
+		this.startStopMonitor = new Object();
+	}
+
+	@Override
+	public void setBeaconStore(IBlaubotBeaconStore beaconStore) {
+		this.beaconStore = beaconStore;
+	}
+
+	@Override
+	public IBlaubotAdapter getAdapter() {
+		return adapter;
+	}
+
+	@Override
+	public void startListening() {
+		synchronized (startStopMonitor) {
+			if (started) {
+				return;
+			}
+			started = true;
+		}
+		if (listeningStateListener != null) {
+			listeningStateListener.onListeningStarted(this);
+		}
+	}
+
+	@Override
+	public void stopListening() {
+		synchronized (startStopMonitor) {
+			if (!started) {
+				return;
+			}
+			started = false;
+		}
+		if (listeningStateListener != null) {
+			listeningStateListener.onListeningStopped(this);
+		}
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+
+	@Override
+	public void setListeningStateListener(IBlaubotListeningStateListener stateListener) {
+		this.listeningStateListener = stateListener;
+	}
+
+	@Override
+	public void setAcceptorListener(IBlaubotIncomingConnectionListener acceptorListener) {
+		this.incomingConnectionListener = acceptorListener;
+	}
+
+	@Override
+	public ConnectionMetaDataDTO getConnectionMetaData() {
+		final ConnectionMetaDataDTO connectionMetaDataDTO = new ConnectionMetaDataDTO();
+		connectionMetaDataDTO.setAcceptorType(BlaubotConstants.ACCEPTOR_TYPE_MOCK_NETWORK);
+		return connectionMetaDataDTO;
+	}
+
+	/**
+	 * Accepts a connection from a {@link BlaubotMockNetworkConnector}.
+	 * The connector has to write it's beacon message to the connection before.
+	 *
+	 * @param connection the accepting side's end of the connection
+	 * @return true, if the connection was accepted, false if this acceptor is not listening
+	 */
+	protected boolean acceptConnection(final BlaubotConnectionQueueMock connection) {
+		if (!started) {
+			return false;
+		}
+		executorService.execute(new Runnable() {
+			@Override
+			public void run() {
+				// retrieve their beacon message with their state and most importantly their acceptor meta data
+				final BeaconMessage theirBeaconMessage = BeaconMessage.fromBlaubotConnection(connection);
+				if (theirBeaconMessage == null) {
+					if (Log.logWarningMessages()) {
+						Log.w(LOG_TAG, "Could not read the beacon message from " + connection.getRemoteDevice() + ". Closing connection.");
+					}
+					connection.disconnect();
+					return;
+				}
+				beaconStore.putDiscoveryEvent(theirBeaconMessage, connection.getRemoteDevice());
+
+				if (incomingConnectionListener != null) {
+					incomingConnectionListener.onConnectionEstablished(connection);
+				}
+			}
+		});
+		return true;
+	}
+}
@@ -0,0 +1,74 @@
+package eu.hgross.blaubot.mock;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.BlaubotAdapterConfig;
+import eu.hgross.blaubot.core.BlaubotUUIDSet;
+import eu.hgross.blaubot.core.ConnectionStateMachineConfig;
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
+import eu.hgross.blaubot.core.connector.IBlaubotConnector;
+
+/**
+ * Adapter for the in-memory {@link BlaubotMockNetwork}.
+ */
+public class BlaubotMockNetworkAdapter implements IBlaubotAdapter {
+	private static final int KING_TIMEOUT_WITHOUT_PEASANTS = 2500;
+	private static final int CROWNING_PREPARATION_TIME_FACTOR = 3;
+	private final BlaubotMockNetworkConnector connector;
+	private final BlaubotMockNetworkAcceptor acceptor;
+	private final BlaubotUUIDSet uuidSet;
+	private Blaubot blaubot;
+	private ConnectionStateMachineConfig connectionStateMachineConfig;
+	private BlaubotAdapterConfig adapterConfig;
+
+	/**
+	 * @param network the network to attach to
+	 * @param ownDevice the own device
+	 * @param uuidSet the uuid set
+	 */
+	public BlaubotMockNetworkAdapter(BlaubotMockNetwork network, IBlaubotDevice ownDevice, BlaubotUUIDSet uuidSet) {
+		this.uuidSet = uuidSet;
+		this.connector = new BlaubotMockNetworkConnector(this, network, ownDevice);
+		this.acceptor = new BlaubotMockNetworkAcceptor(this);
+		this.adapterConfig = new BlaubotAdapterConfig();
+		this.connectionStateMachineConfig = new ConnectionStateMachineConfig();
+		this.connectionStateMachineConfig.setCrowningPreparationTimeout(CROWNING_PREPARATION_TIME_FACTOR * adapterConfig.getKeepAliveInterval());
+		this.connectionStateMachineConfig.setKingWithoutPeasantsTimeout(KING_TIMEOUT_WITHOUT_PEASANTS);
+		ConnectionStateMachineConfig.validateTimeouts(connectionStateMachineConfig, adapterConfig);
+	}
+
+	@Override
+	public IBlaubotConnector getConnector() {
+		return connector;
+	}
+
+	@Override
+	public IBlaubotConnectionAcceptor getConnectionAcceptor() {
+		return acceptor;
+	}
+
+	@Override
+	public void setBlaubot(Blaubot blaubotInstance) {
+		this.blaubot = blaubotInstance;
+	}
+
+	@Override
+	public Blaubot getBlaubot() {
+		return blaubot;
+	}
+
+	@Override
+	public ConnectionStateMachineConfig getConnectionStateMachineConfig() {
+		return connectionStateMachineConfig;
+	}
+
+	@Override
+	public BlaubotAdapterConfig getBlaubotAdapterConfig() {
+		return adapterConfig;
+	}
+
+	public BlaubotUUIDSet getUuidSet() {
+		return uuidSet;
+	}
+}
@@ -0,0 +1,207 @@
+package eu.hgross.blaubot.mock;
+
+import java.util.Collections;
+import java.util.List;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
+import eu.hgross.blaubot.core.acceptor.IBlaubotListeningStateListener;
+import eu.hgross.blaubot.core.acceptor.discovery.ExchangeStatesTask;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeacon;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeaconStore;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotDiscoveryEventListener;
+import eu.hgross.blaubot.core.statemachine.BlaubotAdapterHelper;
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Beacon for the in-memory {@link BlaubotMockNetwork}.
+ * Works like the BlaubotEthernetFixedDeviceSetBeacon: a scanner thread iterates through all devices of the network
+ * and exchanges states with their beacons using the {@link ExchangeStatesTask} over a pair of
+ * {@link BlaubotConnectionQueueMock}s.
+ */
+public class BlaubotMockNetworkBeacon implements IBlaubotBeacon {
+	private static final String LOG_TAG = "BlaubotMockNetworkBeacon";
+	private static final long BEACON_PROBE_INTERVAL = 50;
+
+	private final BlaubotMockNetwork network;
+	private final Object startStopMonitor;
+	private IBlaubotDevice ownDevice;
+	private Blaubot blaubot;
+	private IBlaubotBeaconStore beaconStore;
+	private volatile IBlaubotState currentState;
+	private volatile IBlaubotDiscoveryEventListener discoveryEventListener;
+	private volatile IBlaubotIncomingConnectionListener incomingConnectionListener;
+	private volatile IBlaubotListeningStateListener listeningStateListener;
+	private volatile boolean discoveryActive = true;
+	private volatile MockNetworkBeaconScanner beaconScanner;
+
+	public BlaubotMockNetworkBeacon(BlaubotMockNetwork network) {
+		this.network = network;
+		this.startStopMonitor = new Object();
+	}
+
+	@Override
+	public IBlaubotAdapter getAdapter() {
+		return null;
+	}
+
+	@Override
+	public void startListening() {
+		synchronized (startStopMonitor) {
+			if (isStarted()) {
+				return;
+			}
+			beaconScanner = new MockNetworkBeaconScanner();
+			beaconScanner.start();
+			if (listeningStateListener != null) {
+				listeningStateListener.onListeningStarted(this);
+			}
+		}
+	}
+
+	@Override
+	public void stopListening() {
+		synchronized (startStopMonitor) {
+			if (!isStarted()) {
+				return;
+			}
+			beaconScanner.interrupt();
+			beaconScanner = null;
+			if (listeningStateListener != null) {
+				listeningStateListener.onListeningStopped(this);
+			}
+		}
+	}
+
+	@Override
+	public boolean isStarted() {
+		return beaconScanner != null;
+	}
+
+	@Override
+	public void setListeningStateListener(IBlaubotListeningStateListener stateListener) {
+		this.listeningStateListener = stateListener;
+	}
+
+	@Override
+	public void setAcceptorListener(IBlaubotIncomingConnectionListener acceptorListener) {
+		this.incomingConnectionListener = acceptorListener;
+	}
+
+	@Override
+	public ConnectionMetaDataDTO getConnectionMetaData() {
+		return null;
+	}
+
+	@Override
+	public void setBlaubot(Blaubot blaubot) {
+		this.blaubot = blaubot;
+		this.ownDevice = blaubot.getOwnDevice();
+	}
+
+	@Override
+	public void setBeaconStore(IBlaubotBeaconStore beaconStore) {
+		this.beaconStore = beaconStore;
+	}
+
+	@Override
+	public void setDiscoveryEventListener(IBlaubotDiscoveryEventListener discoveryEventListener) {
+		this.discoveryEventListener = discoveryEventListener;
+	}
+
+	@Override
+	public void onConnectionStateMachineStateChanged(IBlaubotState state) {
+		this.currentState = state;
+	}
+
+	@Override
+	public void setDiscoveryActivated(boolean active) {
+		this.discoveryActive = active;
+	}
+
+	/**
+	 * Accepts a beacon connection from another beacon of the network.
+	 *
+	 * @param connection the accepting side's end of the connection
+	 * @return true, if the connection was accepted, false if this beacon is not started
+	 */
+	protected boolean acceptBeaconConnection(BlaubotConnectionQueueMock connection) {
+		final IBlaubotIncomingConnectionListener listener = incomingConnectionListener;
+		if (!isStarted() || listener == null) {
+			return false;
+		}
+		// the BlaubotBeaconService handles the conversation on it's own executor
+		listener.onConnectionEstablished(connection);
+		return true;
+	}
+
+	/**
+	 * Periodically exchanges states with all beacons of the network that we are not connected to.
+	 */
+	class MockNetworkBeaconScanner extends Thread {
+
+		public MockNetworkBeaconScanner() {
+			setName("mock-network-beacon-scanner");
+		}
+
+		private List<IBlaubotDevice> getDevicesToProbe() {
+			final List<IBlaubotDevice> devices = network.getDevices();
+			// do not check the devices connected to the blaubot network
+			devices.removeAll(blaubot.getConnectionManager().getConnectedDevices());
+			devices.remove(ownDevice);
+			Collections.sort(devices);
+			Collections.reverse(devices);
+			return devices;
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted() && Thread.currentThread() == beaconScanner) {
+				if (!discoveryActive) {
+					try {
+						Thread.sleep(300);
+					} catch (InterruptedException e) {
+						break;
+					}
+					// we don't want to connect if discovery is deactivated.
+					continue;
+				}
+
+				for (IBlaubotDevice device : getDevicesToProbe()) {
+					if (!discoveryActive || isInterrupted()) {
+						break;
+					}
+					final BlaubotMockNetworkBeacon remoteBeacon = network.getBeacon(device.getUniqueDeviceID());
+					if (remoteBeacon != null) {
+						final BlaubotConnectionQueueMock[] pair = BlaubotMockNetwork.createConnectionPair(ownDevice, device);
+						if (remoteBeacon.acceptBeaconConnection(pair[1])) {
+							final List<ConnectionMetaDataDTO> ownAcceptorsMetaDataList = BlaubotAdapterHelper.getConnectionMetaDataList(BlaubotAdapterHelper.getConnectionAcceptors(blaubot.getAdapters()));
+							final ExchangeStatesTask exchangeStatesTask = new ExchangeStatesTask(ownDevice, pair[0], currentState, ownAcceptorsMetaDataList, beaconStore, discoveryEventListener);
+							exchangeStatesTask.run();
+						}
+					}
+
+					try {
+						Thread.sleep(BEACON_PROBE_INTERVAL);
+					} catch (InterruptedException e) {
+						interrupt();
+						break;
+					}
+				}
+				try {
+					Thread.sleep(BEACON_PROBE_INTERVAL);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+
+			if (Log.logDebugMessages()) {
+				Log.d(LOG_TAG, "MockNetworkBeaconScanner finished.");
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package eu.hgross.blaubot.mock;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
+import eu.hgross.blaubot.core.acceptor.discovery.BeaconMessage;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeaconStore;
+import eu.hgross.blaubot.core.connector.IBlaubotConnector;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Connector for the in-memory {@link BlaubotMockNetwork}.
+ * Creates a pair of {@link BlaubotConnectionQueueMock}s and hands one end to the remote device's
+ * {@link BlaubotMockNetworkAcceptor}.
+ */
+public class BlaubotMockNetworkConnector implements IBlaubotConnector {
+	private static final String LOG_TAG = "BlaubotMockNetworkConnector";
+	private static final List<String> SUPPORTED_ACCEPTOR_TYPES = Arrays.asList(BlaubotConstants.ACCEPTOR_TYPE_MOCK_NETWORK);
+	private final IBlaubotAdapter adapter;
+	private final BlaubotMockNetwork network;
+	private final IBlaubotDevice ownDevice;
+	private IBlaubotIncomingConnectionListener incomingConnectionListener;
+	private IBlaubotBeaconStore beaconStore;
+
+	public BlaubotMockNetworkConnector(IBlaubotAdapter adapter, BlaubotMockNetwork network, IBlaubotDevice ownDevice) {
+		this.adapter = adapter;
+		this.network = network;
+		this.ownDevice = ownDevice;
+	}
+
+	@Override
+	public IBlaubotAdapter getAdapter() {
+		return adapter;
+	}
+
+	@Override
+	public void setBeaconStore(IBlaubotBeaconStore beaconStore) {
+		this.beaconStore = beaconStore;
+	}
+
+	@Override
+	public void setIncomingConnectionListener(IBlaubotIncomingConnectionListener acceptorConnectorListener) {
+		this.incomingConnectionListener = acceptorConnectorListener;
+	}
+
+	@Override
+	public IBlaubotConnection connectToBlaubotDevice(IBlaubotDevice blaubotDevice) {
+		final String uniqueDeviceID = blaubotDevice.getUniqueDeviceID();
+		final BlaubotMockNetworkAcceptor acceptor = network.getAcceptor(uniqueDeviceID);
+		if (acceptor == null) {
+			if (Log.logErrorMessages()) {
+				Log.e(LOG_TAG, uniqueDeviceID + " is not part of the mock network.");
+			}
+			return null;
+		}
+
+		final BlaubotConnectionQueueMock[] pair = BlaubotMockNetwork.createConnectionPair(ownDevice, blaubotDevice);
+		final BlaubotConnectionQueueMock connection = pair[0];
+		try {
+			// send our beacon message, the acceptor will read it
+			final BeaconMessage currentBeaconMessage = adapter.getBlaubot().getConnectionStateMachine().getBeaconService().getCurrentBeaconMessage();
+			connection.write(currentBeaconMessage.toBytes());
+		} catch (IOException e) {
+			// can not happen on a fresh pair
+			throw new RuntimeException(e);
+		}
+
+		if (!acceptor.acceptConnection(pair[1])) {
+			if (Log.logWarningMessages()) {
+				Log.w(LOG_TAG, "Failed to connect to " + uniqueDeviceID + ": acceptor is not listening.");
+			}
+			connection.disconnect();
+			return null;
+		}
+
+		if (incomingConnectionListener != null) {
+			incomingConnectionListener.onConnectionEstablished(connection);
+		}
+		return connection;
+	}
+
+	@Override
+	public List<String> getSupportedAcceptorTypes() {
+		return SUPPORTED_ACCEPTOR_TYPES;
+	}
+}
@@ -0,0 +1,24 @@
+package eu.hgross.blaubot.replication;
+
+/**
+ * Listens to the changes of a ReplicatedMap, made locally or received from other devices.
+ * Called by the thread that applied the change, without holding the map's lock. Must not block.
+ *
+ * @param <V> the type of the values
+ */
+public interface IReplicatedMapListener<V> {
+    /**
+     * Called, if a key was put or its value replaced.
+     *
+     * @param key the key
+     * @param value the new value
+     */
+    void onEntryChanged(String key, V value);
+
+    /**
+     * Called, if a key was removed.
+     *
+     * @param key the key
+     */
+    void onEntryRemoved(String key);
+}
@@ -0,0 +1,148 @@
+package eu.hgross.blaubot.replication;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.IChannelCodec;
+
+/**
+ * A batch of entries of a ReplicatedMap, sent as delta or as full state.
+ *
+ * The entries are encoded compactly with variable length integers. The writers' unique device ids are sent once
+ * per batch and referenced by their index:
+ *
+ * writer count, writers (length, UTF-8), entry count, entries
+ * entry: key length, key (UTF-8), clock, writer index, value length + 1 (0 for removed keys), value
+ *
+ * @param <V> the type of the values
+ */
+class MapDelta<V> {
+    final List<ReplicatedEntry<V>> entries;
+    private Map<String, Integer> writerIndices;
+    private List<byte[]> writers;
+    private List<byte[]> keys;
+
+    MapDelta(Collection<ReplicatedEntry<V>> entries) {
+        this.entries = new ArrayList<>(entries);
+    }
+
+    /**
+     * Builds the writer table and the encoded keys once for getEncodedLength() and encode().
+     */
+    private void prepareEncoding() {
+        if (keys != null) {
+            return;
+        }
+        writerIndices = new LinkedHashMap<>();
+        writers = new ArrayList<>();
+        keys = new ArrayList<>(entries.size());
+        for (ReplicatedEntry<V> entry : entries) {
+            keys.add(entry.key.getBytes(BlaubotConstants.STRING_CHARSET));
+            if (!writerIndices.containsKey(entry.writer)) {
+                writerIndices.put(entry.writer, writers.size());
+                writers.add(entry.writer.getBytes(BlaubotConstants.STRING_CHARSET));
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Encodes and decodes the batches of a map
+     *
+     * @param <V> the type of the values
+     */
+    static class Codec<V> implements IChannelCodec<MapDelta<V>> {
+        private final IChannelCodec<V> valueCodec;
+
+        Codec(IChannelCodec<V> valueCodec) {
+            this.valueCodec = valueCodec;
+        }
+
+        @Override
+        public int getEncodedLength(MapDelta<V> delta) {
+            delta.prepareEncoding();
+            int length = VarInts.getLength(delta.writers.size());
+            for (byte[] writer : delta.writers) {
+                length += VarInts.getLength(writer.length) + writer.length;
+            }
+            length += VarInts.getLength(delta.entries.size());
+            for (int i = 0; i < delta.entries.size(); i++) {
+                final ReplicatedEntry<V> entry = delta.entries.get(i);
+                final int keyLength = delta.keys.get(i).length;
+                length += VarInts.getLength(keyLength) + keyLength;
+                length += VarInts.getLength(entry.clock);
+                length += VarInts.getLength(delta.writerIndices.get(entry.writer));
+                final int valueLength = entry.isTombstone() ? -1 : valueCodec.getEncodedLength(entry.value);
+                length += VarInts.getLength(valueLength + 1) + Math.max(0, valueLength);
+            }
+            return length;
+        }
+
+        @Override
+        public void encode(MapDelta<V> delta, ByteBuffer buffer) {
+            delta.prepareEncoding();
+            VarInts.put(buffer, delta.writers.size());
+            for (byte[] writer : delta.writers) {
+                VarInts.put(buffer, writer.length);
+                buffer.put(writer);
+            }
+            VarInts.put(buffer, delta.entries.size());
+            for (int i = 0; i < delta.entries.size(); i++) {
+                final ReplicatedEntry<V> entry = delta.entries.get(i);
+                final byte[] key = delta.keys.get(i);
+                VarInts.put(buffer, key.length);
+                buffer.put(key);
+                VarInts.put(buffer, entry.clock);
+                VarInts.put(buffer, delta.writerIndices.get(entry.writer));
+                if (entry.isTombstone()) {
+                    VarInts.put(buffer, 0);
+                } else {
+                    VarInts.put(buffer, valueCodec.getEncodedLength(entry.value) + 1);
+                    valueCodec.encode(entry.value, buffer);
+                }
+            }
+        }
+
+        @Override
+        public MapDelta<V> decode(ByteBuffer buffer) {
+            final int writerCount = VarInts.getInt(buffer);
+            final String[] writers = new String[writerCount];
+            for (int i = 0; i < writerCount; i++) {
+                writers[i] = readString(buffer);
+            }
+            final int entryCount = VarInts.getInt(buffer);
+            final List<ReplicatedEntry<V>> entries = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                final String key = readString(buffer);
+                final long clock = VarInts.getLong(buffer);
+                final String writer = writers[VarInts.getInt(buffer)];
+                final int valueLength = VarInts.getInt(buffer) - 1;
+                V value = null;
+                if (valueLength >= 0) {
+                    // let the value codec only see the value's bytes
+                    final ByteBuffer valueBuffer = buffer.slice().order(BlaubotConstants.BYTE_ORDER);
+                    valueBuffer.limit(valueLength);
+                    value = valueCodec.decode(valueBuffer);
+                    buffer.position(buffer.position() + valueLength);
+                }
+                entries.add(new ReplicatedEntry<>(key, value, clock, writer));
+            }
+            return new MapDelta<>(entries);
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            final int length = VarInts.getInt(buffer);
+            final String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, BlaubotConstants.STRING_CHARSET);
+            buffer.position(buffer.position() + length);
+            return string;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package eu.hgross.blaubot.replication;
+
+/**
+ * A versioned entry of a ReplicatedMap.
+ * Entries are ordered by their logical clock, ties are broken by the unique device id of the writer, so all
+ * devices pick the same winner regardless of the order in which they receive the entries.
+ * Removed keys are kept as tombstones (value == null) to win against older puts.
+ *
+ * @param <V> the type of the value
+ */
+class ReplicatedEntry<V> {
+    final String key;
+    final V value;
+    final long clock;
+    final String writer;
+
+    ReplicatedEntry(String key, V value, long clock, String writer) {
+        this.key = key;
+        this.value = value;
+        this.clock = clock;
+        this.writer = writer;
+    }
+
+    /**
+     * @return true, iff the key was removed
+     */
+    boolean isTombstone() {
+        return value == null;
+    }
+
+    /**
+     * @param other the other entry for the same key or null
+     * @return true, iff this entry wins against the other entry
+     */
+    boolean isNewerThan(ReplicatedEntry<V> other) {
+        if (other == null) {
+            return true;
+        }
+        if (clock != other.clock) {
+            return clock > other.clock;
+        }
+        return writer.compareTo(other.writer) > 0;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("ReplicatedEntry{");
+        sb.append("key='").append(key).append('\'');
+        sb.append(", value=").append(value);
+        sb.append(", clock=").append(clock);
+        sb.append(", writer='").append(writer).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,529 @@
+package eu.hgross.blaubot.replication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.ILifecycleListener;
+import eu.hgross.blaubot.messaging.BlaubotChannelManager;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.IChannelCodec;
+import eu.hgross.blaubot.messaging.ITypedBlaubotChannel;
+import eu.hgross.blaubot.messaging.ITypedMessageListener;
+import eu.hgross.blaubot.rpc.BlaubotRpc;
+import eu.hgross.blaubot.rpc.IRpcHandler;
+import eu.hgross.blaubot.rpc.IRpcResponseListener;
+import eu.hgross.blaubot.rpc.RpcException;
+import eu.hgross.blaubot.rpc.RpcRequest;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * A map with String keys, that is replicated to all devices of a kingdom.
+ *
+ * The map is a last-writer-wins CRDT: each entry carries a logical (Lamport) clock and the unique device id of its
+ * writer. Concurrent writes to a key are resolved the same way on every device, so the replicas converge regardless
+ * of the order in which they receive the changes. Removed keys are kept as tombstones.
+ *
+ * Only changes are sent. Local changes are collected for one tick (@see {ReplicatedMap#setTickInterval}), multiple
+ * changes of a key within a tick are sent once, and are published as one compact batch (@see {MapDelta}) on the
+ * map's channel. Idle maps send nothing.
+ *
+ * Devices joining a kingdom get the state by a state transfer with the king: the map is registered as
+ * ILifecycleListener and, when the king changed, sends its own state to the new king via BlaubotRpc and merges the
+ * king's state from the response. The king forwards the entries it got from the joining device as delta, so changes
+ * made while disconnected or in another kingdom reach all devices.
+ *
+ * Usage:
+ *      final BlaubotRpc rpc = new BlaubotRpc(blaubot.getChannelManager(), (short) 100, 16);
+ *      final ReplicatedMap<String> map = new ReplicatedMap<>(blaubot.getChannelManager(), (short) 1, rpc, (short) 1, ChannelCodecs.STRING);
+ *      blaubot.addLifecycleListener(map);
+ *      map.activate();
+ */
+public class ReplicatedMap<V> implements ILifecycleListener {
+    private static final String LOG_TAG = "ReplicatedMap";
+    /**
+     * Default time in ms to collect local changes before they are published
+     */
+    public static final long DEFAULT_TICK_INTERVAL = 50;
+    private static final long STATE_TRANSFER_TIMEOUT = 5000;
+    private static final long STATE_TRANSFER_RETRY_DELAY = 1000;
+    private static final int MAX_STATE_TRANSFER_ATTEMPTS = 5;
+
+    /**
+     * Publishes the batched changes and retries state transfers. Shared by all maps.
+     */
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "blaubot-replicated-map");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private final BlaubotChannelManager channelManager;
+    private final short channelId;
+    private final BlaubotRpc rpc;
+    private final short stateTransferMethod;
+    private final MapDelta.Codec<V> deltaCodec;
+    private final String ownUniqueDeviceId;
+    private final CopyOnWriteArrayList<IReplicatedMapListener<V>> listeners;
+
+    /**
+     * Guards entries, pendingChanges, clock and flushTask
+     */
+    private final Object lock = new Object();
+    private final Map<String, ReplicatedEntry<V>> entries;
+    private final Map<String, ReplicatedEntry<V>> pendingChanges;
+    private long clock;
+    private ScheduledFuture<?> flushTask;
+
+    private volatile long tickInterval;
+    private volatile ITypedBlaubotChannel<MapDelta<V>> channel;
+    private volatile String currentKingUniqueDeviceId;
+
+    private final AtomicLong publishedBatches = new AtomicLong(0);
+    private final AtomicLong publishedEntries = new AtomicLong(0);
+    private final AtomicLong receivedEntries = new AtomicLong(0);
+    private final AtomicLong stateTransfers = new AtomicLong(0);
+
+    private final ITypedMessageListener<MapDelta<V>> deltaListener = new ITypedMessageListener<MapDelta<V>>() {
+        @Override
+        public void onMessage(MapDelta<V> delta, BlaubotMessage blaubotMessage) {
+            receivedEntries.addAndGet(delta.entries.size());
+            merge(delta.entries, false);
+        }
+    };
+
+    /**
+     * Serves the state transfer requests of joining devices (on the king)
+     */
+    private final IRpcHandler stateTransferHandler = new IRpcHandler() {
+        @Override
+        public void onRequest(RpcRequest request) {
+            final MapDelta<V> joinerState = request.getPayload(deltaCodec);
+            // the joiner's changes are new to the rest of the kingdom
+            merge(joinerState.entries, true);
+            request.reply(createSnapshot(), deltaCodec);
+        }
+    };
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param channelManager the channel manager
+     * @param channelId the channel to publish the changes on, has to be the same on all devices
+     * @param rpc the rpc endpoint used for state transfers
+     * @param stateTransferMethod the rpc method for state transfers, has to be the same on all devices
+     * @param valueCodec the codec for the values
+     */
+    public ReplicatedMap(BlaubotChannelManager channelManager, short channelId, BlaubotRpc rpc, short stateTransferMethod, IChannelCodec<V> valueCodec) {
+        this.channelManager = channelManager;
+        this.channelId = channelId;
+        this.rpc = rpc;
+        this.stateTransferMethod = stateTransferMethod;
+        this.deltaCodec = new MapDelta.Codec<>(valueCodec);
+        this.ownUniqueDeviceId = channelManager.getOwnUniqueDeviceId();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.entries = new HashMap<>();
+        this.pendingChanges = new LinkedHashMap<>();
+        this.clock = 0;
+        this.tickInterval = DEFAULT_TICK_INTERVAL;
+    }
+
+    /**
+     * Subscribes to the map's channel and serves state transfers.
+     */
+    public synchronized void activate() {
+        if (channel != null) {
+            return;
+        }
+        rpc.registerHandler(stateTransferMethod, stateTransferHandler);
+        rpc.open();
+        channel = channelManager.createOrGetChannel(channelId, deltaCodec);
+        channel.subscribe(deltaListener);
+        synchronized (lock) {
+            if (!pendingChanges.isEmpty() && flushTask == null) {
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * Unsubscribes from the map's channel. The local state is kept, changes are published after the next
+     * activation or state transfer.
+     */
+    public synchronized void deactivate() {
+        if (channel == null) {
+            return;
+        }
+        rpc.unregisterHandler(stateTransferMethod);
+        channel.removeMessageListener(deltaListener);
+        channel = null;
+        synchronized (lock) {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+        }
+    }
+
+    /**
+     * Sets the time to collect local changes before they are published as one batch.
+     *
+     * @param tickInterval the interval in ms (>= 0)
+     */
+    public void setTickInterval(long tickInterval) {
+        if (tickInterval < 0) {
+            throw new IllegalArgumentException("The tick interval has to be >= 0");
+        }
+        this.tickInterval = tickInterval;
+    }
+
+    public long getTickInterval() {
+        return tickInterval;
+    }
+
+    /**
+     * @param key the key
+     * @return the value or null, if the key is not in the map
+     */
+    public V get(String key) {
+        synchronized (lock) {
+            final ReplicatedEntry<V> entry = entries.get(key);
+            return entry != null ? entry.value : null;
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return true, iff the key is in the map
+     */
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Puts a value and publishes the change with the next tick.
+     *
+     * @param key the key
+     * @param value the value, must not be modified afterwards
+     * @return the previous value or null
+     */
+    public V put(String key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key and value may not be null");
+        }
+        return write(key, value);
+    }
+
+    /**
+     * Removes a key and publishes the change with the next tick.
+     *
+     * @param key the key
+     * @return the previous value or null, if the key was not in the map
+     */
+    public V remove(String key) {
+        synchronized (lock) {
+            final ReplicatedEntry<V> entry = entries.get(key);
+            if (entry == null || entry.isTombstone()) {
+                return null;
+            }
+        }
+        return write(key, null);
+    }
+
+    /**
+     * @return the number of keys in the map
+     */
+    public int size() {
+        int size = 0;
+        synchronized (lock) {
+            for (ReplicatedEntry<V> entry : entries.values()) {
+                if (!entry.isTombstone()) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return a copy of the map's keys
+     */
+    public Set<String> keySet() {
+        return toMap().keySet();
+    }
+
+    /**
+     * @return a copy of the map's content
+     */
+    public Map<String, V> toMap() {
+        final Map<String, V> copy = new HashMap<>();
+        synchronized (lock) {
+            for (ReplicatedEntry<V> entry : entries.values()) {
+                if (!entry.isTombstone()) {
+                    copy.put(entry.key, entry.value);
+                }
+            }
+        }
+        return copy;
+    }
+
+    public void addListener(IReplicatedMapListener<V> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(IReplicatedMapListener<V> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the number of published batches of changes
+     */
+    public long getPublishedBatchCount() {
+        return publishedBatches.get();
+    }
+
+    /**
+     * @return the number of published entries
+     */
+    public long getPublishedEntryCount() {
+        return publishedEntries.get();
+    }
+
+    /**
+     * @return the number of entries received by deltas from other devices (including our own)
+     */
+    public long getReceivedEntryCount() {
+        return receivedEntries.get();
+    }
+
+    /**
+     * @return the number of completed state transfers with a king
+     */
+    public long getStateTransferCount() {
+        return stateTransfers.get();
+    }
+
+    private V write(String key, V value) {
+        final V previous;
+        final ReplicatedEntry<V> entry;
+        synchronized (lock) {
+            clock++;
+            entry = new ReplicatedEntry<>(key, value, clock, ownUniqueDeviceId);
+            final ReplicatedEntry<V> old = entries.put(key, entry);
+            previous = old != null ? old.value : null;
+            addPendingChange(entry);
+        }
+        notifyListeners(Collections.singletonList(entry));
+        return previous;
+    }
+
+    /**
+     * Merges entries received from other devices.
+     *
+     * @param received the entries
+     * @param forward true, if the winning entries have to be published to the other devices
+     */
+    private void merge(Collection<ReplicatedEntry<V>> received, boolean forward) {
+        final List<ReplicatedEntry<V>> changed = new ArrayList<>();
+        synchronized (lock) {
+            for (ReplicatedEntry<V> entry : received) {
+                clock = Math.max(clock, entry.clock);
+                final ReplicatedEntry<V> existing = entries.get(entry.key);
+                if (!entry.isNewerThan(existing)) {
+                    continue;
+                }
+                entries.put(entry.key, entry);
+                if (forward) {
+                    addPendingChange(entry);
+                }
+                if (!(entry.isTombstone() && (existing == null || existing.isTombstone()))) {
+                    changed.add(entry);
+                }
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    private void notifyListeners(List<ReplicatedEntry<V>> changed) {
+        if (changed.isEmpty() || listeners.isEmpty()) {
+            return;
+        }
+        for (IReplicatedMapListener<V> listener : listeners) {
+            for (ReplicatedEntry<V> entry : changed) {
+                if (entry.isTombstone()) {
+                    listener.onEntryRemoved(entry.key);
+                } else {
+                    listener.onEntryChanged(entry.key, entry.value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Has to be called with the lock held.
+     */
+    private void addPendingChange(ReplicatedEntry<V> entry) {
+        pendingChanges.put(entry.key, entry);
+        if (flushTask == null && channel != null) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Has to be called with the lock held.
+     */
+    private void scheduleFlush() {
+        flushTask = TIMER.schedule(flushRunnable, tickInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Publishes the changes collected during the last tick as one batch.
+     */
+    private void flush() {
+        final ITypedBlaubotChannel<MapDelta<V>> channel = this.channel;
+        final MapDelta<V> delta;
+        synchronized (lock) {
+            flushTask = null;
+            if (pendingChanges.isEmpty() || channel == null) {
+                return;
+            }
+            delta = new MapDelta<>(pendingChanges.values());
+            pendingChanges.clear();
+        }
+
+        if (channel.publish(delta, 0)) {
+            publishedBatches.incrementAndGet();
+            publishedEntries.addAndGet(delta.entries.size());
+            return;
+        }
+
+        // the channel's queue is full, retry with the next tick unless the keys were changed again meanwhile
+        if (Log.logWarningMessages()) {
+            Log.w(LOG_TAG, "Could not publish " + delta.entries.size() + " changes on channel #" + channelId + ", retrying.");
+        }
+        synchronized (lock) {
+            for (ReplicatedEntry<V> entry : delta.entries) {
+                if (!pendingChanges.containsKey(entry.key)) {
+                    pendingChanges.put(entry.key, entry);
+                }
+            }
+            if (flushTask == null && this.channel != null) {
+                scheduleFlush();
+            }
+        }
+    }
+
+    private MapDelta<V> createSnapshot() {
+        synchronized (lock) {
+            return new MapDelta<>(entries.values());
+        }
+    }
+
+    /**
+     * Sends our state to the king and merges the king's state.
+     *
+     * @param kingUniqueDeviceId the king
+     * @param attempt the number of the attempt
+     */
+    private void transferState(final String kingUniqueDeviceId, final int attempt) {
+        if (channel == null || !kingUniqueDeviceId.equals(currentKingUniqueDeviceId)) {
+            return;
+        }
+        rpc.call(kingUniqueDeviceId, stateTransferMethod, createSnapshot(), deltaCodec, deltaCodec, STATE_TRANSFER_TIMEOUT).addListener(new IRpcResponseListener<MapDelta<V>>() {
+            @Override
+            public void onResponse(MapDelta<V> kingState) {
+                merge(kingState.entries, false);
+                stateTransfers.incrementAndGet();
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "State transfer with " + kingUniqueDeviceId + " completed (" + kingState.entries.size() + " entries)");
+                }
+            }
+
+            @Override
+            public void onFailure(RpcException exception) {
+                if (attempt + 1 >= MAX_STATE_TRANSFER_ATTEMPTS) {
+                    if (Log.logErrorMessages()) {
+                        Log.e(LOG_TAG, "State transfer with " + kingUniqueDeviceId + " failed: " + exception);
+                    }
+                    return;
+                }
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "State transfer with " + kingUniqueDeviceId + " failed, retrying: " + exception);
+                }
+                // i.e. the subscription to our inbox did not reach the king yet
+                TIMER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        transferState(kingUniqueDeviceId, attempt + 1);
+                    }
+                }, STATE_TRANSFER_RETRY_DELAY, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    @Override
+    public void onKingDeviceChanged(IBlaubotDevice oldKing, IBlaubotDevice newKing) {
+        final String kingUniqueDeviceId = newKing != null ? newKing.getUniqueDeviceID() : null;
+        currentKingUniqueDeviceId = kingUniqueDeviceId;
+        if (kingUniqueDeviceId != null && !kingUniqueDeviceId.equals(ownUniqueDeviceId)) {
+            transferState(kingUniqueDeviceId, 0);
+        }
+    }
+
+    @Override
+    public void onDisconnected() {
+        currentKingUniqueDeviceId = null;
+    }
+
+    @Override
+    public void onConnected() {
+    }
+
+    @Override
+    public void onDeviceJoined(IBlaubotDevice blaubotDevice) {
+    }
+
+    @Override
+    public void onDeviceLeft(IBlaubotDevice blaubotDevice) {
+    }
+
+    @Override
+    public void onPrinceDeviceChanged(IBlaubotDevice oldPrince, IBlaubotDevice newPrince) {
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("ReplicatedMap{");
+        sb.append("channelId=").append(channelId);
+        sb.append(", size=").append(size());
+        sb.append(", publishedBatches=").append(publishedBatches.get());
+        sb.append(", publishedEntries=").append(publishedEntries.get());
+        sb.append(", stateTransfers=").append(stateTransfers.get());
+        sb.append('}');
+        return sb.toString();
+    }
+}
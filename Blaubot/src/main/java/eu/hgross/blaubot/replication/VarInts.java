@@ -0,0 +1,53 @@
+package eu.hgross.blaubot.replication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of non negative integers (7 bits per byte, the highest bit marks a following byte).
+ * Small values like lengths, indices and logical clocks mostly need one or two bytes.
+ */
+final class VarInts {
+    private VarInts() {
+    }
+
+    /**
+     * @param value the value (>= 0)
+     * @return the number of bytes needed to encode the value
+     */
+    static int getLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    static void put(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer");
+    }
+
+    static int getInt(ByteBuffer buffer) {
+        final long value = getLong(buffer);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Variable length integer out of range: " + value);
+        }
+        return (int) value;
+    }
+}
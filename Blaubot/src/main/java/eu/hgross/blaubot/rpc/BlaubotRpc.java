@@ -0,0 +1,344 @@
+package eu.hgross.blaubot.rpc;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotChannelManager;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.ChannelCodecs;
+import eu.hgross.blaubot.messaging.IBlaubotChannel;
+import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.messaging.IChannelCodec;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Request/response calls between the devices of a kingdom on top of the BlaubotChannelManager's channels.
+ *
+ * Channels are published to the king, which dispatches them to the channel's subscribers only. To reach a
+ * single device, each device subscribes to one inbox channel out of a range of channel ids, chosen by the
+ * hash of its unique device id (@see {BlaubotRpc#getInboxChannelId}). Requests and responses are published
+ * to the receiver's inbox channel and filtered by the target id of the rpc header, so a device only gets
+ * the messages of the few devices sharing its inbox. More inbox channels mean less foreign traffic per device.
+ *
+ * Each message starts with a compact header (kind, correlation id, target id, method and caller for requests),
+ * which is encoded together with the payload straight into the sent message (@see {RpcFrame}).
+ * Outstanding calls are kept in a table by their correlation id and are failed with a TIMEOUT by a timer shared
+ * by all endpoints, if no response arrived in time. Requests carry the call's timeout as time to live and are
+ * dropped on their way, if the caller gave up on them anyway.
+ *
+ * All devices of the kingdom have to use the same channel range. Endpoints have to be opened to receive
+ * requests and responses (@see {BlaubotRpc#open}).
+ */
+public class BlaubotRpc {
+    private static final String LOG_TAG = "BlaubotRpc";
+
+    /**
+     * Fails the outstanding calls after their timeout. Shared by all endpoints.
+     */
+    private static final ScheduledThreadPoolExecutor TIMEOUT_TIMER;
+
+    static {
+        TIMEOUT_TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "blaubot-rpc-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // most calls get a response, don't keep the cancelled timeouts in the queue
+        TIMEOUT_TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final BlaubotChannelManager channelManager;
+    private final short firstChannelId;
+    private final int inboxChannelCount;
+    private final ConcurrentHashMap<Short, IRpcHandler> handlers;
+    private final ConcurrentHashMap<Integer, PendingCall<?>> pendingCalls;
+    private final AtomicInteger correlationIdCounter;
+    private final AtomicLong timedOutCalls;
+    private final byte[] ownId;
+    private volatile IBlaubotChannel inboxChannel;
+
+    /**
+     * An outstanding call
+     *
+     * @param <T> the type of the response
+     */
+    private static class PendingCall<T> {
+        private final RpcFuture<T> future;
+        private final IChannelCodec<T> responseCodec;
+        private volatile ScheduledFuture<?> timeout;
+
+        private PendingCall(IChannelCodec<T> responseCodec) {
+            this.future = new RpcFuture<>();
+            this.responseCodec = responseCodec;
+        }
+
+        private void complete(ByteBuffer payload) {
+            final T response;
+            try {
+                response = responseCodec.decode(payload);
+            } catch (RuntimeException e) {
+                future.fail(new RpcException(RpcException.Reason.REMOTE_ERROR, "Could not decode the response: " + e.getMessage()));
+                return;
+            }
+            future.complete(response);
+        }
+    }
+
+    /**
+     * Receives the requests and responses on our inbox channel
+     */
+    private final IBlaubotMessageListener inboxListener = new IBlaubotMessageListener() {
+        @Override
+        public void onMessage(BlaubotMessage message) {
+            final RpcFrame<ByteBuffer> frame;
+            try {
+                final byte[] payload = message.getPayload();
+                frame = RpcFrame.decode(ByteBuffer.wrap(payload != null ? payload : new byte[0]).order(BlaubotConstants.BYTE_ORDER));
+            } catch (BufferUnderflowException e) {
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "Ignoring a truncated rpc message on channel #" + message.getChannelId());
+                }
+                return;
+            }
+            if (!frame.isTarget(ownId)) {
+                // for another device sharing our inbox
+                return;
+            }
+            if (frame.kind == RpcFrame.KIND_REQUEST) {
+                onRequest(frame);
+            } else {
+                onResponse(frame);
+            }
+        }
+    };
+
+    /**
+     * @param channelManager the channel manager
+     * @param firstChannelId the first channel id of the inbox channel range
+     * @param inboxChannelCount the number of inbox channels (>= 1)
+     */
+    public BlaubotRpc(BlaubotChannelManager channelManager, short firstChannelId, int inboxChannelCount) {
+        if (inboxChannelCount < 1) {
+            throw new IllegalArgumentException("At least one inbox channel is needed");
+        }
+        if (firstChannelId + inboxChannelCount - 1 > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The inbox channel range exceeds the channel ids");
+        }
+        this.channelManager = channelManager;
+        this.firstChannelId = firstChannelId;
+        this.inboxChannelCount = inboxChannelCount;
+        this.handlers = new ConcurrentHashMap<>();
+        this.pendingCalls = new ConcurrentHashMap<>();
+        this.correlationIdCounter = new AtomicInteger(new Random().nextInt());
+        this.timedOutCalls = new AtomicLong(0);
+        this.ownId = RpcFrame.toIdBytes(channelManager.getOwnUniqueDeviceId());
+    }
+
+    /**
+     * Subscribes to our inbox channel to receive requests and responses.
+     */
+    public synchronized void open() {
+        if (inboxChannel != null) {
+            return;
+        }
+        inboxChannel = channelManager.createOrGetChannel(getInboxChannelId(channelManager.getOwnUniqueDeviceId()));
+        inboxChannel.subscribe(inboxListener);
+    }
+
+    /**
+     * Unsubscribes from our inbox channel and fails all outstanding calls with NOT_SENT.
+     */
+    public synchronized void close() {
+        if (inboxChannel != null) {
+            inboxChannel.removeMessageListener(inboxListener);
+            inboxChannel = null;
+        }
+        for (Integer correlationId : pendingCalls.keySet()) {
+            final PendingCall<?> call = pendingCalls.remove(correlationId);
+            if (call != null) {
+                cancelTimeout(call);
+                call.future.fail(new RpcException(RpcException.Reason.NOT_SENT, "The rpc endpoint was closed"));
+            }
+        }
+    }
+
+    /**
+     * Registers the handler for a method, replacing the previous handler.
+     *
+     * @param method the method
+     * @param handler the handler
+     */
+    public void registerHandler(short method, IRpcHandler handler) {
+        handlers.put(method, handler);
+    }
+
+    /**
+     * Removes the handler of a method.
+     * Further requests for the method are failed with NO_HANDLER.
+     *
+     * @param method the method
+     */
+    public void unregisterHandler(short method) {
+        handlers.remove(method);
+    }
+
+    /**
+     * Calls a method on a device.
+     *
+     * @param targetUniqueDeviceId the unique device id of the called device
+     * @param method the method
+     * @param request the request bytes
+     * @param timeout the timeout in ms (> 0)
+     * @return the future response
+     */
+    public RpcFuture<byte[]> call(String targetUniqueDeviceId, short method, byte[] request, long timeout) {
+        return call(targetUniqueDeviceId, method, request, ChannelCodecs.BYTES, ChannelCodecs.BYTES, timeout);
+    }
+
+    /**
+     * Calls a method on a device.
+     * The request is encoded straight into the sent message, the response is decoded straight from the received one.
+     *
+     * @param targetUniqueDeviceId the unique device id of the called device
+     * @param method the method
+     * @param request the request
+     * @param requestCodec the codec for the request
+     * @param responseCodec the codec for the response
+     * @param timeout the timeout in ms (> 0)
+     * @param <Q> the type of the request
+     * @param <R> the type of the response
+     * @return the future response
+     */
+    public <Q, R> RpcFuture<R> call(String targetUniqueDeviceId, short method, Q request, IChannelCodec<Q> requestCodec, IChannelCodec<R> responseCodec, final long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("The timeout has to be > 0");
+        }
+        final PendingCall<R> call = new PendingCall<>(responseCodec);
+        if (inboxChannel == null) {
+            call.future.fail(new RpcException(RpcException.Reason.NOT_SENT, "The rpc endpoint is not open"));
+            return call.future;
+        }
+
+        final int correlationId = correlationIdCounter.incrementAndGet();
+        pendingCalls.put(correlationId, call);
+        call.timeout = TIMEOUT_TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (pendingCalls.remove(correlationId, call)) {
+                    timedOutCalls.incrementAndGet();
+                    call.future.fail(new RpcException(RpcException.Reason.TIMEOUT, "No response within " + timeout + " ms"));
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        final RpcFrame<Q> frame = RpcFrame.createRequest(correlationId, targetUniqueDeviceId, method, channelManager.getOwnUniqueDeviceId(), request, requestCodec);
+        final int timeToLive = (int) Math.min(timeout, Integer.MAX_VALUE);
+        if (!sendFrame(targetUniqueDeviceId, frame, timeToLive)) {
+            if (pendingCalls.remove(correlationId, call)) {
+                cancelTimeout(call);
+                call.future.fail(new RpcException(RpcException.Reason.NOT_SENT, "The request could not be queued"));
+            }
+        }
+        return call.future;
+    }
+
+    /**
+     * @return the number of calls waiting for their response
+     */
+    public int getPendingCallCount() {
+        return pendingCalls.size();
+    }
+
+    /**
+     * @return the number of calls that ran into their timeout since the creation of this endpoint
+     */
+    public long getTimedOutCallCount() {
+        return timedOutCalls.get();
+    }
+
+    /**
+     * The inbox channel of a device.
+     *
+     * @param uniqueDeviceId the device's unique device id
+     * @return the channel id of the device's inbox
+     */
+    public short getInboxChannelId(String uniqueDeviceId) {
+        return (short) (firstChannelId + (uniqueDeviceId.hashCode() & 0x7fffffff) % inboxChannelCount);
+    }
+
+    /**
+     * Publishes a frame to the inbox channel of a device.
+     *
+     * @param targetUniqueDeviceId the receiving device
+     * @param frame the frame
+     * @param timeToLive the time to live of the message in ms or 0
+     * @return true, iff the message was queued
+     */
+    boolean sendFrame(String targetUniqueDeviceId, RpcFrame<?> frame, int timeToLive) {
+        final IBlaubotChannel channel = channelManager.createOrGetChannel(getInboxChannelId(targetUniqueDeviceId));
+        return channel.publish(frame, RpcFrame.CODEC, timeToLive, 0);
+    }
+
+    private void onRequest(RpcFrame<ByteBuffer> frame) {
+        final RpcRequest request = new RpcRequest(this, frame.correlationId, frame.method, frame.getCallerUniqueDeviceId(), frame.payload);
+        final IRpcHandler handler = handlers.get(frame.method);
+        if (handler == null) {
+            request.fail(RpcException.Reason.NO_HANDLER, "No handler for method " + frame.method);
+            return;
+        }
+        try {
+            handler.onRequest(request);
+        } catch (RuntimeException e) {
+            if (Log.logErrorMessages()) {
+                Log.e(LOG_TAG, "The handler for method " + frame.method + " failed: " + e.getMessage(), e);
+            }
+            request.fail(RpcException.Reason.REMOTE_ERROR, e.toString());
+        }
+    }
+
+    private void onResponse(RpcFrame<ByteBuffer> frame) {
+        final PendingCall<?> call = pendingCalls.remove(frame.correlationId);
+        if (call == null) {
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Dropping a late or unknown response for correlation id " + frame.correlationId);
+            }
+            return;
+        }
+        cancelTimeout(call);
+        if (frame.kind == RpcFrame.KIND_ERROR) {
+            call.future.fail(RpcFrame.toException(frame));
+        } else {
+            call.complete(frame.payload);
+        }
+    }
+
+    private static void cancelTimeout(PendingCall<?> call) {
+        final ScheduledFuture<?> timeout = call.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("BlaubotRpc{");
+        sb.append("firstChannelId=").append(firstChannelId);
+        sb.append(", inboxChannelCount=").append(inboxChannelCount);
+        sb.append(", pendingCalls=").append(pendingCalls.size());
+        sb.append(", timedOutCalls=").append(timedOutCalls.get());
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,18 @@
+package eu.hgross.blaubot.rpc;
+
+/**
+ * Handles the requests for a method of a BlaubotRpc endpoint.
+ *
+ * Handlers are called by the thread that dispatches the received messages and must therefore not block.
+ * Long running handlers should keep the request and reply from another thread.
+ */
+public interface IRpcHandler {
+    /**
+     * Called for each request to the method.
+     * The handler has to reply or fail the request exactly once (@see {RpcRequest#reply}, {RpcRequest#fail}),
+     * otherwise the caller runs into its timeout. A RuntimeException thrown by the handler fails the request.
+     *
+     * @param request the request
+     */
+    void onRequest(RpcRequest request);
+}
@@ -0,0 +1,20 @@
+package eu.hgross.blaubot.rpc;
+
+/**
+ * Listens to the outcome of a remote procedure call (@see {RpcFuture#addListener}).
+ *
+ * @param <T> the type of the response
+ */
+public interface IRpcResponseListener<T> {
+    /**
+     * Called, if the response was received.
+     * @param response the decoded response
+     */
+    void onResponse(T response);
+
+    /**
+     * Called, if the call failed.
+     * @param exception the reason
+     */
+    void onFailure(RpcException exception);
+}
@@ -0,0 +1,53 @@
+package eu.hgross.blaubot.rpc;
+
+/**
+ * The failure of a remote procedure call (@see {BlaubotRpc}).
+ */
+public class RpcException extends Exception {
+    private static final long serialVersionUID = -2327144956734279824L;
+
+    /**
+     * Why the call failed
+     */
+    public enum Reason {
+        /**
+         * No response was received within the call's timeout
+         */
+        TIMEOUT,
+        /**
+         * The remote device has no handler for the method
+         */
+        NO_HANDLER,
+        /**
+         * The remote handler failed
+         */
+        REMOTE_ERROR,
+        /**
+         * The local endpoint was closed or the request could not be published
+         */
+        NOT_SENT
+    }
+
+    private final Reason reason;
+
+    /**
+     * @param reason why the call failed
+     * @param message the description
+     */
+    public RpcException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    /**
+     * @return why the call failed
+     */
+    public Reason getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcException{reason=" + reason + ", message=" + getMessage() + "}";
+    }
+}
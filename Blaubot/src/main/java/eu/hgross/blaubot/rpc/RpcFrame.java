@@ -0,0 +1,196 @@
+package eu.hgross.blaubot.rpc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.ChannelCodecs;
+import eu.hgross.blaubot.messaging.IChannelCodec;
+
+/**
+ * The compact header of the rpc messages, followed by the request or response payload.
+ *
+ * Request:  kind (1), correlation id (4), target id length (1), target id (UTF-8), method (2), caller id length (1), caller id (UTF-8), payload
+ * Response: kind (1), correlation id (4), target id length (1), target id (UTF-8), payload
+ * Error:    kind (1), correlation id (4), target id length (1), target id (UTF-8), reason (1), error message (UTF-8)
+ *
+ * The target id is the unique device id of the receiving device, which filters the messages of the few
+ * devices sharing an inbox channel.
+ *
+ * Frames are encoded straight into the sent message and decoded from the received one by CODEC. The payload
+ * of a decoded frame is a buffer on the received message's bytes.
+ *
+ * @param <T> the type of the payload
+ */
+class RpcFrame<T> {
+    static final byte KIND_REQUEST = 0;
+    static final byte KIND_RESPONSE = 1;
+    static final byte KIND_ERROR = 2;
+    private static final int HEADER_LENGTH = 1 + 4 + 1;
+    private static final int MAX_UNIQUE_DEVICE_ID_LENGTH = 255;
+
+    final byte kind;
+    final int correlationId;
+    private final byte[] targetId;
+    final short method;
+    private final byte[] callerId;
+    final T payload;
+    private final IChannelCodec<T> payloadCodec;
+
+    private RpcFrame(byte kind, int correlationId, byte[] targetId, short method, byte[] callerId, T payload, IChannelCodec<T> payloadCodec) {
+        this.kind = kind;
+        this.correlationId = correlationId;
+        this.targetId = targetId;
+        this.method = method;
+        this.callerId = callerId;
+        this.payload = payload;
+        this.payloadCodec = payloadCodec;
+    }
+
+    static <T> RpcFrame<T> createRequest(int correlationId, String targetUniqueDeviceId, short method, String callerUniqueDeviceId, T payload, IChannelCodec<T> payloadCodec) {
+        return new RpcFrame<>(KIND_REQUEST, correlationId, toIdBytes(targetUniqueDeviceId), method, toIdBytes(callerUniqueDeviceId), payload, payloadCodec);
+    }
+
+    static <T> RpcFrame<T> createResponse(int correlationId, String targetUniqueDeviceId, T payload, IChannelCodec<T> payloadCodec) {
+        return new RpcFrame<>(KIND_RESPONSE, correlationId, toIdBytes(targetUniqueDeviceId), (short) 0, null, payload, payloadCodec);
+    }
+
+    static RpcFrame<byte[]> createError(int correlationId, String targetUniqueDeviceId, RpcException.Reason reason, String message) {
+        final byte[] messageBytes = (message != null ? message : "").getBytes(BlaubotConstants.STRING_CHARSET);
+        final byte[] payload = new byte[1 + messageBytes.length];
+        payload[0] = (byte) reason.ordinal();
+        System.arraycopy(messageBytes, 0, payload, 1, messageBytes.length);
+        return new RpcFrame<>(KIND_ERROR, correlationId, toIdBytes(targetUniqueDeviceId), (short) 0, null, payload, ChannelCodecs.BYTES);
+    }
+
+    /**
+     * @param uniqueDeviceId the unique device id
+     * @return the id as written to the frame
+     * @throws IllegalArgumentException if the id is too long
+     */
+    static byte[] toIdBytes(String uniqueDeviceId) {
+        final byte[] id = uniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
+        if (id.length > MAX_UNIQUE_DEVICE_ID_LENGTH) {
+            throw new IllegalArgumentException("The unique device id is too long for rpc messages: " + uniqueDeviceId);
+        }
+        return id;
+    }
+
+    /**
+     * @param uniqueDeviceId the unique device id as returned by toIdBytes()
+     * @return true, iff the frame is addressed to the device
+     */
+    boolean isTarget(byte[] uniqueDeviceId) {
+        return Arrays.equals(targetId, uniqueDeviceId);
+    }
+
+    /**
+     * @return the unique device id of the calling device, null if the frame is not a request
+     */
+    String getCallerUniqueDeviceId() {
+        return callerId != null ? new String(callerId, BlaubotConstants.STRING_CHARSET) : null;
+    }
+
+    /**
+     * @param frame a decoded error frame
+     * @return the exception of the error frame
+     */
+    static RpcException toException(RpcFrame<ByteBuffer> frame) {
+        final ByteBuffer buffer = frame.payload.duplicate();
+        final RpcException.Reason[] reasons = RpcException.Reason.values();
+        final int ordinal = buffer.hasRemaining() ? buffer.get() : -1;
+        final RpcException.Reason reason = ordinal >= 0 && ordinal < reasons.length ? reasons[ordinal] : RpcException.Reason.REMOTE_ERROR;
+        final byte[] message = new byte[buffer.remaining()];
+        buffer.get(message);
+        return new RpcException(reason, new String(message, BlaubotConstants.STRING_CHARSET));
+    }
+
+    /**
+     * Encodes the frames straight into the sent message and decodes the received ones.
+     * The decoded frames carry their payload as a buffer on the received bytes (@see {RpcFrame#BUFFER}).
+     */
+    static final IChannelCodec<RpcFrame<?>> CODEC = new IChannelCodec<RpcFrame<?>>() {
+        @Override
+        public int getEncodedLength(RpcFrame<?> frame) {
+            return frame.getEncodedLength();
+        }
+
+        @Override
+        public void encode(RpcFrame<?> frame, ByteBuffer buffer) {
+            frame.encode(buffer);
+        }
+
+        @Override
+        public RpcFrame<ByteBuffer> decode(ByteBuffer buffer) {
+            return RpcFrame.decode(buffer);
+        }
+    };
+
+    /**
+     * Decodes a received frame.
+     *
+     * @param buffer the payload of the received message
+     * @return the frame with a buffer on the received bytes as payload
+     * @throws java.nio.BufferUnderflowException if the frame is truncated
+     */
+    static RpcFrame<ByteBuffer> decode(ByteBuffer buffer) {
+        final byte kind = buffer.get();
+        final int correlationId = buffer.getInt();
+        final byte[] targetId = readId(buffer);
+        short method = 0;
+        byte[] callerId = null;
+        if (kind == KIND_REQUEST) {
+            method = buffer.getShort();
+            callerId = readId(buffer);
+        }
+        final ByteBuffer payload = buffer.slice().order(BlaubotConstants.BYTE_ORDER);
+        return new RpcFrame<>(kind, correlationId, targetId, method, callerId, payload, BUFFER);
+    }
+
+    /**
+     * The payload codec of decoded frames, a buffer on the received bytes.
+     */
+    static final IChannelCodec<ByteBuffer> BUFFER = new IChannelCodec<ByteBuffer>() {
+        @Override
+        public int getEncodedLength(ByteBuffer value) {
+            return value.remaining();
+        }
+
+        @Override
+        public void encode(ByteBuffer value, ByteBuffer buffer) {
+            buffer.put(value.duplicate());
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer buffer) {
+            return buffer.slice().order(BlaubotConstants.BYTE_ORDER);
+        }
+    };
+
+    private static byte[] readId(ByteBuffer buffer) {
+        final byte[] id = new byte[buffer.get() & 0xff];
+        buffer.get(id);
+        return id;
+    }
+
+    private int getEncodedLength() {
+        int length = HEADER_LENGTH + targetId.length + payloadCodec.getEncodedLength(payload);
+        if (kind == KIND_REQUEST) {
+            length += 2 + 1 + callerId.length;
+        }
+        return length;
+    }
+
+    private void encode(ByteBuffer buffer) {
+        buffer.put(kind);
+        buffer.putInt(correlationId);
+        buffer.put((byte) targetId.length);
+        buffer.put(targetId);
+        if (kind == KIND_REQUEST) {
+            buffer.putShort(method);
+            buffer.put((byte) callerId.length);
+            buffer.put(callerId);
+        }
+        payloadCodec.encode(payload, buffer);
+    }
+}
@@ -0,0 +1,130 @@
+package eu.hgross.blaubot.rpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The future response of a remote procedure call.
+ * It is completed by the response, the call's timeout or a failure. get() throws an ExecutionException
+ * with the RpcException as cause, if the call failed.
+ * Listeners are called once the call is completed, listeners added afterwards are called immediately.
+ * It can't be cancelled, the call's timeout cleans it up.
+ *
+ * @param <T> the type of the response
+ */
+public class RpcFuture<T> implements Future<T> {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final List<IRpcResponseListener<T>> listeners = new ArrayList<>();
+    private T response;
+    private RpcException exception;
+
+    /**
+     * Completes the call with a response. Ignored, if already completed.
+     *
+     * @param response the response
+     * @return true, if this call completed the future
+     */
+    protected boolean complete(T response) {
+        final List<IRpcResponseListener<T>> toCall;
+        synchronized (listeners) {
+            if (latch.getCount() == 0) {
+                return false;
+            }
+            this.response = response;
+            latch.countDown();
+            toCall = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (IRpcResponseListener<T> listener : toCall) {
+            listener.onResponse(response);
+        }
+        return true;
+    }
+
+    /**
+     * Fails the call. Ignored, if already completed.
+     *
+     * @param exception the reason
+     * @return true, if this call completed the future
+     */
+    protected boolean fail(RpcException exception) {
+        final List<IRpcResponseListener<T>> toCall;
+        synchronized (listeners) {
+            if (latch.getCount() == 0) {
+                return false;
+            }
+            this.exception = exception;
+            latch.countDown();
+            toCall = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (IRpcResponseListener<T> listener : toCall) {
+            listener.onFailure(exception);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a listener to be called when the call completed.
+     * Listeners are called by the thread that completed the call (the message dispatching thread or the
+     * shared timeout timer) and must not block.
+     *
+     * @param listener the listener, called immediately by the calling thread if the call already completed
+     * @return this future
+     */
+    public RpcFuture<T> addListener(IRpcResponseListener<T> listener) {
+        synchronized (listeners) {
+            if (latch.getCount() != 0) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        if (exception != null) {
+            listener.onFailure(exception);
+        } else {
+            listener.onResponse(response);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        if (exception != null) {
+            throw new ExecutionException(exception);
+        }
+        return response;
+    }
+}
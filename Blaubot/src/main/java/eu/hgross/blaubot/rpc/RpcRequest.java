@@ -0,0 +1,126 @@
+package eu.hgross.blaubot.rpc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import eu.hgross.blaubot.messaging.ChannelCodecs;
+import eu.hgross.blaubot.messaging.IChannelCodec;
+
+/**
+ * A request received by a BlaubotRpc endpoint, passed to the method's IRpcHandler.
+ * The request is answered exactly once by one of the reply() or fail() methods, which may be called from
+ * any thread. Further answers are ignored.
+ */
+public class RpcRequest {
+    private final BlaubotRpc rpc;
+    private final int correlationId;
+    private final short method;
+    private final String callerUniqueDeviceId;
+    private final ByteBuffer payload;
+    private final AtomicBoolean answered;
+
+    RpcRequest(BlaubotRpc rpc, int correlationId, short method, String callerUniqueDeviceId, ByteBuffer payload) {
+        this.rpc = rpc;
+        this.correlationId = correlationId;
+        this.method = method;
+        this.callerUniqueDeviceId = callerUniqueDeviceId;
+        this.payload = payload;
+        this.answered = new AtomicBoolean(false);
+    }
+
+    /**
+     * @return the unique device id of the calling device
+     */
+    public String getCallerUniqueDeviceId() {
+        return callerUniqueDeviceId;
+    }
+
+    /**
+     * @return the called method
+     */
+    public short getMethod() {
+        return method;
+    }
+
+    /**
+     * @return a copy of the request payload
+     */
+    public byte[] getPayload() {
+        final ByteBuffer buffer = payload.duplicate();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Decodes the request payload straight from the received message.
+     *
+     * @param codec the codec
+     * @param <T> the type of the request
+     * @return the decoded request
+     */
+    public <T> T getPayload(IChannelCodec<T> codec) {
+        return codec.decode(payload.duplicate());
+    }
+
+    /**
+     * @return true, iff the request was already answered
+     */
+    public boolean isAnswered() {
+        return answered.get();
+    }
+
+    /**
+     * Sends the response to the caller.
+     *
+     * @param response the response bytes
+     * @return true, iff the response was published; false if already answered or the response could not be queued
+     */
+    public boolean reply(byte[] response) {
+        return reply(response, ChannelCodecs.BYTES);
+    }
+
+    /**
+     * Sends the response to the caller.
+     * The response is encoded straight into the sent message.
+     *
+     * @param response the response
+     * @param codec the codec for the response
+     * @param <T> the type of the response
+     * @return true, iff the response was published; false if already answered or the response could not be queued
+     */
+    public <T> boolean reply(T response, IChannelCodec<T> codec) {
+        if (!answered.compareAndSet(false, true)) {
+            return false;
+        }
+        return rpc.sendFrame(callerUniqueDeviceId, RpcFrame.createResponse(correlationId, callerUniqueDeviceId, response, codec), 0);
+    }
+
+    /**
+     * Fails the request. The caller gets an RpcException with the reason REMOTE_ERROR.
+     *
+     * @param message the error description
+     * @return true, iff the error was published; false if already answered or the error could not be queued
+     */
+    public boolean fail(String message) {
+        return fail(RpcException.Reason.REMOTE_ERROR, message);
+    }
+
+    boolean fail(RpcException.Reason reason, String message) {
+        if (!answered.compareAndSet(false, true)) {
+            return false;
+        }
+        return rpc.sendFrame(callerUniqueDeviceId, RpcFrame.createError(correlationId, callerUniqueDeviceId, reason, message), 0);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("RpcRequest{");
+        sb.append("method=").append(method);
+        sb.append(", caller='").append(callerUniqueDeviceId).append('\'');
+        sb.append(", correlationId=").append(correlationId);
+        sb.append(", payloadLength=").append(payload.remaining());
+        sb.append('}');
+        return sb.toString();
+    }
+}
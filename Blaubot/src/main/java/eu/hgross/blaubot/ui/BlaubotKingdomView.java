@@ -29,6 +29,7 @@ public class BlaubotKingdomView extends JPanel implements IBlaubotKingdomDebugVi
     private final JLabel mHeadlineLabel;
     private final JButton mDisconnectButton;
     private final PingPanel mPingPanel;
+    private final MetricsPanel mMetricsPanel;
 
     private BlaubotKingdom blaubotKingdom;
 
@@ -45,7 +46,8 @@ public class BlaubotKingdomView extends JPanel implements IBlaubotKingdomDebugVi
         this.mLifecycleViewPanel = new LifeCycleViewPanel();
         this.mChannelPanel = new ChannelPanel();
         this.mPingPanel = new PingPanel();
-        this.allViews = Arrays.asList(new IBlaubotKingdomDebugView[]{mPingPanel, mKingdomCensusPanel, mChannelPanel, mLifecycleViewPanel});
+        this.mMetricsPanel = new MetricsPanel();
+        this.allViews = Arrays.asList(new IBlaubotKingdomDebugView[]{mPingPanel, mKingdomCensusPanel, mChannelPanel, mLifecycleViewPanel, mMetricsPanel});
 
 
         this.mHeadlineLabel = new JLabel("Kingdom of ...");
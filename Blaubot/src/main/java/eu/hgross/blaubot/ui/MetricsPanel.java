@@ -0,0 +1,328 @@
+package eu.hgross.blaubot.ui;
+
+import java.awt.GridLayout;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.BlaubotKingdom;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.ILifecycleListener;
+import eu.hgross.blaubot.core.State;
+import eu.hgross.blaubot.core.statemachine.IBlaubotConnectionStateMachineListener;
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
+import eu.hgross.blaubot.messaging.BlaubotChannelManager;
+import eu.hgross.blaubot.messaging.BlaubotChannelManagerInfo;
+import eu.hgross.blaubot.messaging.ChannelInfo;
+import eu.hgross.blaubot.messaging.ConnectionInfo;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Live charts of the per-channel and per-connection throughput, queue fill levels, dropped messages and round
+ * trip times with markers for state and king changes.
+ *
+ * The stats are sampled once per SAMPLE_INTERVAL on an own thread from the BlaubotChannelManagerInfo, whose
+ * counters are read without locking the messaging threads. Only the computed rates are passed to the event
+ * dispatch thread.
+ */
+public class MetricsPanel extends JPanel implements IBlaubotDebugView, IBlaubotKingdomDebugView {
+    private static final long serialVersionUID = 2286473180820994325L;
+    private static final String LOG_TAG = "MetricsPanel";
+    private static final long SAMPLE_INTERVAL = 1000;
+    private static final long WINDOW = 120 * 1000;
+
+    /**
+     * Samples the stats of all panels
+     */
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "blaubot-metrics-panel");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final TimeSeriesChart mChannelMessagesChart;
+    private final TimeSeriesChart mChannelBytesChart;
+    private final TimeSeriesChart mConnectionMessagesChart;
+    private final TimeSeriesChart mConnectionBytesChart;
+    private final TimeSeriesChart mQueueFillChart;
+    private final TimeSeriesChart mDroppedMessagesChart;
+    private final TimeSeriesChart mRttChart;
+    private final TimeSeriesChart[] mAllCharts;
+
+    // read by the sampler
+    private volatile Blaubot mBlaubot;
+    private volatile BlaubotKingdom mBlaubotKingdom;
+    private ScheduledFuture<?> mSamplingFuture;
+
+    /**
+     * The counters of the last sample by series, only accessed by the sampler
+     */
+    private final Map<String, long[]> mLastCounters;
+    private long mLastTimestamp;
+
+    public MetricsPanel() {
+        super();
+        setLayout(new GridLayout(0, 2, 4, 4));
+        setAlignmentX(LEFT_ALIGNMENT);
+        this.mChannelMessagesChart = new TimeSeriesChart("Channel msgs/s (sent + received)", WINDOW);
+        this.mChannelBytesChart = new TimeSeriesChart("Channel bytes/s (sent + received)", WINDOW);
+        this.mConnectionMessagesChart = new TimeSeriesChart("Connection msgs/s (sent + received)", WINDOW);
+        this.mConnectionBytesChart = new TimeSeriesChart("Connection payload bytes/s (sent + received)", WINDOW);
+        this.mQueueFillChart = new TimeSeriesChart("Channel queue fill %", WINDOW);
+        this.mDroppedMessagesChart = new TimeSeriesChart("Channel dropped msgs/s (expired + rejected)", WINDOW);
+        this.mRttChart = new TimeSeriesChart("Connection smoothed RTT ms", WINDOW);
+        this.mAllCharts = new TimeSeriesChart[]{mChannelMessagesChart, mChannelBytesChart, mConnectionMessagesChart, mConnectionBytesChart, mQueueFillChart, mDroppedMessagesChart, mRttChart};
+        for (TimeSeriesChart chart : mAllCharts) {
+            add(chart);
+        }
+        this.mLastCounters = new HashMap<>();
+    }
+
+    private final Runnable mSampleTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                sample();
+            } catch (RuntimeException e) {
+                // keep sampling, i.e. if a connection closed while reading its stats
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "Failed to sample the metrics: " + e);
+                }
+            }
+        }
+    };
+
+    private void sample() {
+        final BlaubotChannelManager channelManager = getChannelManager();
+        if (channelManager == null) {
+            return;
+        }
+        final BlaubotChannelManagerInfo info = channelManager.createChannelManagerInfo();
+        final long timestamp = info.getTimestamp();
+        final double seconds = mLastTimestamp > 0 ? (timestamp - mLastTimestamp) / 1000d : 0;
+        mLastTimestamp = timestamp;
+
+        final Map<TimeSeriesChart, Map<String, Double>> values = new HashMap<>();
+        for (TimeSeriesChart chart : mAllCharts) {
+            values.put(chart, new LinkedHashMap<String, Double>());
+        }
+        final Map<String, long[]> counters = new HashMap<>();
+        for (ChannelInfo channelInfo : info.getChannels()) {
+            final String name = "#" + channelInfo.getChannelConfig().getChannelId();
+            values.get(mQueueFillChart).put(name, channelInfo.getQueueFillLevel() * 100d);
+            final long[] current = new long[]{
+                    channelInfo.getSentMessages() + channelInfo.getReceivedMessages(),
+                    channelInfo.getSentBytes() + channelInfo.getReceivedBytes(),
+                    channelInfo.getDroppedMessages()
+            };
+            final double[] rates = computeRates("channel" + name, current, seconds, counters);
+            if (rates != null) {
+                values.get(mChannelMessagesChart).put(name, rates[0]);
+                values.get(mChannelBytesChart).put(name, rates[1]);
+                values.get(mDroppedMessagesChart).put(name, rates[2]);
+            }
+        }
+        for (ConnectionInfo connectionInfo : info.getConnections()) {
+            final String name = connectionInfo.getBlaubotDevice().getUniqueDeviceID();
+            final long rtt = connectionInfo.getSmoothedRtt();
+            if (rtt > 0) {
+                values.get(mRttChart).put(name, rtt / 1000000d);
+            }
+            final long[] current = new long[]{
+                    connectionInfo.getSentMessages() + connectionInfo.getReceivedMessages(),
+                    connectionInfo.getSentPayloadBytes() + connectionInfo.getReceivedPayloadBytes()
+            };
+            final double[] rates = computeRates("connection:" + name, current, seconds, counters);
+            if (rates != null) {
+                values.get(mConnectionMessagesChart).put(name, rates[0]);
+                values.get(mConnectionBytesChart).put(name, rates[1]);
+            }
+        }
+        // forget the channels and connections that are gone
+        mLastCounters.clear();
+        mLastCounters.putAll(counters);
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<TimeSeriesChart, Map<String, Double>> chartValues : values.entrySet()) {
+                    final TimeSeriesChart chart = chartValues.getKey();
+                    for (Map.Entry<String, Double> value : chartValues.getValue().entrySet()) {
+                        chart.addSample(value.getKey(), timestamp, value.getValue());
+                    }
+                    chart.update();
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes the per second rates of counters since the last sample.
+     *
+     * @param key the key of the counters
+     * @param current the current counter values
+     * @param seconds the seconds since the last sample
+     * @param counters the counters of this sample by key
+     * @return the rates or null, if there was no previous sample
+     */
+    private double[] computeRates(String key, long[] current, double seconds, Map<String, long[]> counters) {
+        counters.put(key, current);
+        final long[] last = mLastCounters.get(key);
+        if (last == null || seconds <= 0) {
+            return null;
+        }
+        final double[] rates = new double[current.length];
+        for (int i = 0; i < current.length; i++) {
+            // counters restart with new connections
+            rates[i] = Math.max(0, current[i] - last[i]) / seconds;
+        }
+        return rates;
+    }
+
+    private BlaubotChannelManager getChannelManager() {
+        final Blaubot blaubot = mBlaubot;
+        if (blaubot != null) {
+            return blaubot.getChannelManager();
+        }
+        final BlaubotKingdom blaubotKingdom = mBlaubotKingdom;
+        return blaubotKingdom != null ? blaubotKingdom.getChannelManager() : null;
+    }
+
+    private void addMarker(final String label) {
+        final long timestamp = System.currentTimeMillis();
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for (TimeSeriesChart chart : mAllCharts) {
+                    chart.addMarker(timestamp, label);
+                    chart.update();
+                }
+            }
+        });
+    }
+
+    private void startSampling() {
+        stopSampling();
+        SAMPLER.execute(new Runnable() {
+            @Override
+            public void run() {
+                // don't compute rates against the counters of the former instance
+                mLastCounters.clear();
+                mLastTimestamp = 0;
+            }
+        });
+        mSamplingFuture = SAMPLER.scheduleWithFixedDelay(mSampleTask, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopSampling() {
+        if (mSamplingFuture != null) {
+            mSamplingFuture.cancel(false);
+            mSamplingFuture = null;
+        }
+    }
+
+    private ILifecycleListener mLifecycleListener = new ILifecycleListener() {
+        @Override
+        public void onConnected() {
+            addMarker("connected");
+        }
+
+        @Override
+        public void onDisconnected() {
+            addMarker("disconnected");
+        }
+
+        @Override
+        public void onDeviceJoined(IBlaubotDevice blaubotDevice) {
+
+        }
+
+        @Override
+        public void onDeviceLeft(IBlaubotDevice blaubotDevice) {
+
+        }
+
+        @Override
+        public void onPrinceDeviceChanged(IBlaubotDevice oldPrince, IBlaubotDevice newPrince) {
+
+        }
+
+        @Override
+        public void onKingDeviceChanged(IBlaubotDevice oldKing, IBlaubotDevice newKing) {
+            addMarker("king " + newKing.getUniqueDeviceID());
+        }
+    };
+
+    private IBlaubotConnectionStateMachineListener mConnectionStateMachineListener = new IBlaubotConnectionStateMachineListener() {
+        @Override
+        public void onStateChanged(IBlaubotState oldState, IBlaubotState newState) {
+            final State state = State.getStateByStatemachineClass(newState.getClass());
+            if (state == State.King || state == State.Prince || state == State.Peasant) {
+                // the outcome of an election or merge
+                addMarker(state.toString());
+            }
+        }
+
+        @Override
+        public void onStateMachineStopped() {
+
+        }
+
+        @Override
+        public void onStateMachineStarted() {
+
+        }
+    };
+
+    @Override
+    public void registerBlaubotInstance(Blaubot blaubot) {
+        if (this.mBlaubot != null) {
+            unregisterBlaubotInstance();
+        }
+        this.mBlaubot = blaubot;
+        blaubot.addLifecycleListener(mLifecycleListener);
+        blaubot.getConnectionStateMachine().addConnectionStateMachineListener(mConnectionStateMachineListener);
+        startSampling();
+    }
+
+    @Override
+    public void unregisterBlaubotInstance() {
+        if (this.mBlaubot != null) {
+            stopSampling();
+            this.mBlaubot.removeLifecycleListener(mLifecycleListener);
+            this.mBlaubot.getConnectionStateMachine().removeConnectionStateMachineListener(mConnectionStateMachineListener);
+        }
+        this.mBlaubot = null;
+    }
+
+    @Override
+    public void registerBlaubotKingdomInstance(BlaubotKingdom blaubotKingdom) {
+        if (this.mBlaubotKingdom != null) {
+            unregisterBlaubotKingdomInstance();
+        }
+        this.mBlaubotKingdom = blaubotKingdom;
+        blaubotKingdom.addLifecycleListener(mLifecycleListener);
+        startSampling();
+    }
+
+    @Override
+    public void unregisterBlaubotKingdomInstance() {
+        if (this.mBlaubotKingdom != null) {
+            stopSampling();
+            mBlaubotKingdom.removeLifecycleListener(mLifecycleListener);
+        }
+        this.mBlaubotKingdom = null;
+    }
+}
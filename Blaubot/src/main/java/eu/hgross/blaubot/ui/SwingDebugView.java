@@ -26,6 +26,7 @@ public class SwingDebugView extends JPanel implements IBlaubotDebugView {
     private final ChannelPanel mChannelPanel;
     private final LifeCycleViewPanel mLifeCycleViewPanel;
     private final PingPanel mPingPanel;
+    private final MetricsPanel mMetricsPanel;
 
     private final List<Component> allViews;
     private Blaubot blaubot;
@@ -38,8 +39,9 @@ public class SwingDebugView extends JPanel implements IBlaubotDebugView {
         this.mLifeCycleViewPanel = new LifeCycleViewPanel();
         this.mChannelPanel = new ChannelPanel();
         this.mPingPanel = new PingPanel();
+        this.mMetricsPanel = new MetricsPanel();
 
-        allViews = Arrays.asList(new Component[]{mKingdomCensusPanel, mStateViewPanel, mBeaconViewPanel, mLifeCycleViewPanel, mChannelPanel, mPingPanel});
+        allViews = Arrays.asList(new Component[]{mKingdomCensusPanel, mStateViewPanel, mBeaconViewPanel, mLifeCycleViewPanel, mChannelPanel, mPingPanel, mMetricsPanel});
         for(Component debugView : allViews) {
             this.add(debugView);
         }
@@ -0,0 +1,205 @@
+package eu.hgross.blaubot.ui;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.JComponent;
+
+/**
+ * A minimal line chart of named series over a sliding time window with labeled vertical markers.
+ * Not thread safe, has to be used from the event dispatch thread.
+ */
+public class TimeSeriesChart extends JComponent {
+    private static final long serialVersionUID = 2059104331807659842L;
+    private static final Color[] PALETTE = new Color[]{
+            new Color(0x50ACFF), new Color(0xE8743B), new Color(0x19A979), new Color(0xED4A7B),
+            new Color(0x945ECF), new Color(0x13A4B4), new Color(0x525DF4), new Color(0xBF399E)
+    };
+    private static final Color MARKER_COLOR = new Color(0x999999);
+    private static final Stroke MARKER_STROKE = new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10, new float[]{3, 3}, 0);
+    private static final Stroke LINE_STROKE = new BasicStroke(1.5f);
+    private static final int PADDING = 4;
+
+    private static class Sample {
+        private final long time;
+        private final double value;
+
+        private Sample(long time, double value) {
+            this.time = time;
+            this.value = value;
+        }
+    }
+
+    private static class Marker {
+        private final long time;
+        private final String label;
+
+        private Marker(long time, String label) {
+            this.time = time;
+            this.label = label;
+        }
+    }
+
+    private final String title;
+    private final long window;
+    private final LinkedHashMap<String, ArrayDeque<Sample>> series;
+    private final ArrayDeque<Marker> markers;
+
+    /**
+     * @param title the title including the unit
+     * @param window the shown time span in ms
+     */
+    public TimeSeriesChart(String title, long window) {
+        this.title = title;
+        this.window = window;
+        this.series = new LinkedHashMap<>();
+        this.markers = new ArrayDeque<>();
+        setPreferredSize(new Dimension(360, 130));
+        setOpaque(true);
+    }
+
+    /**
+     * Adds a value to a series. Series without values in the window are removed.
+     *
+     * @param name the series name
+     * @param time the time of the value in ms since the epoch
+     * @param value the value
+     */
+    public void addSample(String name, long time, double value) {
+        ArrayDeque<Sample> samples = series.get(name);
+        if (samples == null) {
+            samples = new ArrayDeque<>();
+            series.put(name, samples);
+        }
+        samples.addLast(new Sample(time, value));
+    }
+
+    /**
+     * Adds a vertical marker, i.e. for a state change.
+     *
+     * @param time the time of the marker in ms since the epoch
+     * @param label the label
+     */
+    public void addMarker(long time, String label) {
+        markers.addLast(new Marker(time, label));
+    }
+
+    /**
+     * Drops the values and markers that left the window and repaints.
+     */
+    public void update() {
+        final long oldest = System.currentTimeMillis() - window;
+        final Iterator<Map.Entry<String, ArrayDeque<Sample>>> iterator = series.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final ArrayDeque<Sample> samples = iterator.next().getValue();
+            while (!samples.isEmpty() && samples.peekFirst().time < oldest) {
+                samples.removeFirst();
+            }
+            if (samples.isEmpty()) {
+                iterator.remove();
+            }
+        }
+        while (!markers.isEmpty() && markers.peekFirst().time < oldest) {
+            markers.removeFirst();
+        }
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        final Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, getWidth(), getHeight());
+
+            final FontMetrics fontMetrics = g.getFontMetrics();
+            final int lineHeight = fontMetrics.getHeight();
+            final double max = Math.max(getMaxValue(), 1);
+            final String maxLabel = formatValue(max);
+            final int left = PADDING + fontMetrics.stringWidth(maxLabel) + PADDING;
+            final int top = PADDING + 2 * lineHeight;
+            final int right = getWidth() - PADDING;
+            final int bottom = getHeight() - PADDING;
+            final int width = Math.max(1, right - left);
+            final int height = Math.max(1, bottom - top);
+            final long now = System.currentTimeMillis();
+
+            // title, legend and axis
+            g.setColor(Color.BLACK);
+            g.drawString(title, PADDING, PADDING + fontMetrics.getAscent());
+            int legendX = PADDING;
+            int colorIndex = 0;
+            for (String name : series.keySet()) {
+                g.setColor(PALETTE[colorIndex++ % PALETTE.length]);
+                g.drawString(name, legendX, PADDING + lineHeight + fontMetrics.getAscent());
+                legendX += fontMetrics.stringWidth(name) + 2 * PADDING;
+            }
+            g.setColor(Color.GRAY);
+            g.drawString(maxLabel, PADDING, top + fontMetrics.getAscent());
+            g.drawString("0", PADDING, bottom);
+            g.drawLine(left, top, left, bottom);
+            g.drawLine(left, bottom, right, bottom);
+
+            // markers
+            g.setStroke(MARKER_STROKE);
+            int markerIndex = 0;
+            for (Marker marker : markers) {
+                final int x = left + (int) ((marker.time - (now - window)) * width / window);
+                g.setColor(MARKER_COLOR);
+                g.drawLine(x, top, x, bottom);
+                // stagger the labels of markers close to each other
+                g.drawString(marker.label, x + 2, bottom - PADDING - (markerIndex++ % 3) * lineHeight);
+            }
+
+            // series
+            g.setStroke(LINE_STROKE);
+            colorIndex = 0;
+            for (ArrayDeque<Sample> samples : series.values()) {
+                g.setColor(PALETTE[colorIndex++ % PALETTE.length]);
+                int lastX = -1;
+                int lastY = -1;
+                for (Sample sample : samples) {
+                    final int x = left + (int) ((sample.time - (now - window)) * width / window);
+                    final int y = bottom - (int) (sample.value * height / max);
+                    if (lastX >= 0) {
+                        g.drawLine(lastX, lastY, x, y);
+                    }
+                    lastX = x;
+                    lastY = y;
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private double getMaxValue() {
+        double max = 0;
+        for (ArrayDeque<Sample> samples : series.values()) {
+            for (Sample sample : samples) {
+                max = Math.max(max, sample.value);
+            }
+        }
+        return max;
+    }
+
+    private static String formatValue(double value) {
+        if (value >= 1000000) {
+            return String.format("%.1fM", value / 1000000);
+        } else if (value >= 1000) {
+            return String.format("%.1fk", value / 1000);
+        }
+        return String.format("%.1f", value);
+    }
+}
@@ -0,0 +1,300 @@
+package eu.hgross.blaubot.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes log entries to android.util.Log (if available) or java.util.logging.
+ *
+ * In async mode the entries are put into a bounded ring buffer and formatted and written by a daemon
+ * thread, so that logging never blocks the calling (I/O) threads. The arguments and suppliers are turned
+ * into strings on the calling thread, since the referenced objects may change until the entry is written. If the buffer is full, entries are
+ * dropped and the number of dropped entries is reported with the next written entry.
+ */
+class AsyncLogAppender {
+    /**
+     * The capacity of the ring buffer
+     */
+    private static final int BUFFER_CAPACITY = 4096;
+    private static final String DROPPED_TAG = "AsyncLogAppender";
+
+    /**
+     * The android.util.Log methods and the java.util.logging level to use for each severity
+     */
+    enum Severity {
+        DEBUG("d", Level.INFO),
+        WARNING("w", Level.WARNING),
+        ERROR("e", Level.SEVERE),
+        WTF("wtf", Level.SEVERE);
+
+        private final String androidMethodName;
+        private final Level level;
+
+        Severity(String androidMethodName, Level level) {
+            this.androidMethodName = androidMethodName;
+            this.level = level;
+        }
+    }
+
+    /**
+     * A log call captured on the calling thread.
+     * The supplier and the arguments are converted to strings on the calling thread, the pattern is
+     * formatted on the appender's thread.
+     */
+    private static class LogEntry {
+        private final Severity severity;
+        private final String tag;
+        private final String message;
+        private final String[] args;
+        private final Throwable throwable;
+        private final long threadId;
+
+        private LogEntry(Severity severity, String tag, String message, Object[] args, ILogMessageSupplier supplier, Throwable throwable, long threadId) {
+            this.severity = severity;
+            this.tag = tag;
+            this.message = supplier != null ? getLogMessage(supplier) : message;
+            this.args = supplier == null && args != null ? toStrings(args) : null;
+            this.throwable = throwable;
+            this.threadId = threadId;
+        }
+
+        private String getMessage() {
+            return args == null ? message : formatParameterized(message, args);
+        }
+
+        private static String getLogMessage(ILogMessageSupplier supplier) {
+            try {
+                return supplier.getLogMessage();
+            } catch (RuntimeException e) {
+                // logging must not fail the calling thread
+                return "[FAILED getLogMessage(): " + e + "]";
+            }
+        }
+
+        private static String[] toStrings(Object[] args) {
+            final String[] strings = new String[args.length];
+            for (int i = 0; i < args.length; i++) {
+                try {
+                    strings[i] = String.valueOf(args[i]);
+                } catch (RuntimeException e) {
+                    // logging must not fail the calling thread
+                    strings[i] = "[FAILED toString(): " + e + "]";
+                }
+            }
+            return strings;
+        }
+    }
+
+    private final Class<?> androidLog;
+    private final Logger logger;
+    private final Method[] androidMethods;
+    private final Method[] androidThrowableMethods;
+    private final ArrayBlockingQueue<LogEntry> buffer;
+    private final AtomicLong dropped;
+    private final Object writerThreadLock = new Object();
+    private volatile Thread writerThread;
+    private volatile boolean async = true;
+
+    /**
+     * @param androidLog the android.util.Log class or null, if not on android
+     * @param logger the logger to use, if not on android
+     */
+    AsyncLogAppender(Class<?> androidLog, Logger logger) {
+        this.androidLog = androidLog;
+        this.logger = logger;
+        this.buffer = new ArrayBlockingQueue<>(BUFFER_CAPACITY);
+        this.dropped = new AtomicLong(0);
+        final Severity[] severities = Severity.values();
+        this.androidMethods = new Method[severities.length];
+        this.androidThrowableMethods = new Method[severities.length];
+        if (androidLog != null) {
+            for (Severity severity : severities) {
+                try {
+                    androidMethods[severity.ordinal()] = androidLog.getMethod(severity.androidMethodName, String.class, String.class);
+                    androidThrowableMethods[severity.ordinal()] = androidLog.getMethod(severity.androidMethodName, String.class, String.class, Throwable.class);
+                } catch (NoSuchMethodException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param async true, if log entries should be written by the appender's thread, false to write them on the calling thread
+     */
+    void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * @return the number of entries dropped because the buffer was full
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Appends a log entry. Never blocks in async mode.
+     *
+     * @param severity the severity
+     * @param tag the log tag
+     * @param message the message or the pattern, if args are given
+     * @param args the arguments for the {} placeholders of the message or null
+     * @param supplier a supplier for the message or null
+     * @param throwable a throwable to log or null
+     */
+    void append(Severity severity, String tag, String message, Object[] args, ILogMessageSupplier supplier, Throwable throwable) {
+        final LogEntry entry = new LogEntry(severity, tag, message, args, supplier, throwable, Thread.currentThread().getId());
+        if (!async) {
+            write(entry);
+            return;
+        }
+        ensureWriterThreadStarted();
+        if (!buffer.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until all buffered entries are written.
+     *
+     * @param timeout max time to wait in ms
+     */
+    void flush(long timeout) {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (!buffer.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void ensureWriterThreadStarted() {
+        if (writerThread != null) {
+            return;
+        }
+        synchronized (writerThreadLock) {
+            if (writerThread != null) {
+                return;
+            }
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long reportedDrops = 0;
+                    while (true) {
+                        final LogEntry entry;
+                        try {
+                            entry = buffer.poll(1, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            // we are a daemon and never stop
+                            continue;
+                        }
+                        final long drops = dropped.get();
+                        if (drops != reportedDrops) {
+                            write(new LogEntry(Severity.WARNING, DROPPED_TAG, (drops - reportedDrops) + " log messages were dropped because the log buffer was full.", null, null, null, Thread.currentThread().getId()));
+                            reportedDrops = drops;
+                        }
+                        if (entry != null) {
+                            write(entry);
+                        }
+                    }
+                }
+            }, "blaubot-log-appender");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+            writerThread = thread;
+        }
+    }
+
+    private void write(LogEntry entry) {
+        final String message = entry.getMessage();
+        try {
+            if (androidLog != null) {
+                final int idx = entry.severity.ordinal();
+                if (entry.throwable != null) {
+                    androidThrowableMethods[idx].invoke(androidLog, entry.tag, formatMessage(message, entry.threadId), entry.throwable);
+                } else {
+                    androidMethods[idx].invoke(androidLog, entry.tag, formatMessage(message, entry.threadId));
+                }
+            } else {
+                final String formatted = formatMessage(formatTag(entry.tag) + message, entry.threadId);
+                if (entry.throwable != null) {
+                    logger.log(entry.severity.level, formatted, entry.throwable);
+                } else {
+                    logger.log(entry.severity.level, formatted);
+                }
+            }
+        } catch (Exception e) {
+            writeFallback(entry, message, e);
+        }
+    }
+
+    /**
+     * Writes an entry synchronously to java.util.logging, if writing it failed (i.e. the android log could not
+     * be invoked or a handler failed). Never throws, so that the writer thread keeps running.
+     *
+     * @param entry the entry
+     * @param message the entry's formatted message
+     * @param e the exception that occurred while writing the entry
+     */
+    private void writeFallback(LogEntry entry, String message, Exception e) {
+        try {
+            final String formatted = formatMessage(formatTag(entry.tag) + message, entry.threadId);
+            logger.log(entry.severity.level, formatted, entry.throwable != null ? entry.throwable : e);
+            if (entry.throwable != null) {
+                logger.log(Level.WARNING, "The log entry above could not be written to the log.", e);
+            }
+        } catch (RuntimeException ignored) {
+            // nothing left to log to
+        }
+    }
+
+    /**
+     * Prepends a small number (hopefully unique) representing the thread id
+     */
+    private static String formatMessage(String message, long threadId) {
+        return String.format(" {%03d} ", (int) threadId % 1000) + message;
+    }
+
+    private static String formatTag(String tag) {
+        String parts[] = tag.split("\\.");
+        return String.format("[%30s] ", parts[parts.length - 1]);
+    }
+
+    /**
+     * Replaces the {} placeholders of the pattern with the given arguments.
+     * Surplus arguments are ignored, surplus placeholders are kept.
+     *
+     * @param pattern the pattern
+     * @param args the arguments
+     * @return the formatted message
+     */
+    static String formatParameterized(String pattern, Object[] args) {
+        if (pattern == null) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder(pattern.length() + args.length * 16);
+        int argIdx = 0;
+        int start = 0;
+        int placeholder;
+        while (argIdx < args.length && (placeholder = pattern.indexOf("{}", start)) >= 0) {
+            sb.append(pattern, start, placeholder);
+            sb.append(args[argIdx++]);
+            start = placeholder + 2;
+        }
+        sb.append(pattern, start, pattern.length());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package eu.hgross.blaubot.util;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Holds the IBlaubotEventRecorder, to which the messaging and state machine threads report their events.
+ *
+ * Recording is disabled by default. If no recorder is set, the instrumented code paths only read the
+ * (volatile) recorder field, so they are nearly free:
+ *
+ *     final IBlaubotEventRecorder recorder = BlaubotEvents.getRecorder();
+ *     if (recorder != null) {
+ *         recorder.onMessagePublished(...);
+ *     }
+ *
+ * The recorder can be set by setRecorder() or by the system property blaubot.events.recorder containing the
+ * class name of a recorder with a default constructor, i.e. eu.hgross.blaubot.jfr.JfrEventRecorder.
+ */
+public class BlaubotEvents {
+    private static final String LOG_TAG = "BlaubotEvents";
+    /**
+     * The system property containing the class name of the recorder to be set on startup
+     */
+    public static final String RECORDER_PROPERTY = "blaubot.events.recorder";
+
+    private static volatile IBlaubotEventRecorder recorder;
+
+    static {
+        recorder = getRecorderFromSystemProperty();
+    }
+
+    private static IBlaubotEventRecorder getRecorderFromSystemProperty() {
+        final String className;
+        try {
+            className = System.getProperty(RECORDER_PROPERTY);
+        } catch (SecurityException e) {
+            // not allowed to read the property
+            return null;
+        }
+        if (className == null || className.trim().length() == 0) {
+            return null;
+        }
+        try {
+            final Class<? extends IBlaubotEventRecorder> recorderClass = Class.forName(className.trim()).asSubclass(IBlaubotEventRecorder.class);
+            return recorderClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            logRecorderCreationFailed(className, "the class was not found", e);
+        } catch (ClassCastException e) {
+            logRecorderCreationFailed(className, "the class is no IBlaubotEventRecorder", e);
+        } catch (NoSuchMethodException e) {
+            logRecorderCreationFailed(className, "the class has no default constructor", e);
+        } catch (InvocationTargetException e) {
+            logRecorderCreationFailed(className, "the constructor failed", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            // not instantiable or not accessible
+            logRecorderCreationFailed(className, "the class could not be instantiated", e);
+        } catch (SecurityException e) {
+            logRecorderCreationFailed(className, "the access was denied", e);
+        }
+        return null;
+    }
+
+    private static void logRecorderCreationFailed(String className, String reason, Throwable cause) {
+        if (Log.logErrorMessages()) {
+            Log.e(LOG_TAG, "Could not create the event recorder " + className + " from " + RECORDER_PROPERTY + " (" + reason + ") - recording is disabled", cause);
+        }
+    }
+
+    /**
+     * @return the recorder or null, if recording is disabled
+     */
+    public static IBlaubotEventRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Sets the recorder, to which the events are reported from now on.
+     *
+     * @param recorder the recorder or null to disable recording
+     */
+    public static void setRecorder(IBlaubotEventRecorder recorder) {
+        BlaubotEvents.recorder = recorder;
+    }
+
+    /**
+     * @return true, iff a recorder is set
+     */
+    public static boolean isEnabled() {
+        return recorder != null;
+    }
+}
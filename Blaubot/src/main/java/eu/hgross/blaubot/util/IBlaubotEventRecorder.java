@@ -0,0 +1,144 @@
+package eu.hgross.blaubot.util;
+
+/**
+ * Records the messaging and cluster lifecycle events of Blaubot, i.e. to a profiler like the Java Flight Recorder
+ * (@see blaubot-jfr).
+ *
+ * The methods are called synchronously from the messaging and state machine threads and therefore have to
+ * return quickly. Durations are given in ns.
+ * A recorder is installed by {BlaubotEvents#setRecorder}.
+ */
+public interface IBlaubotEventRecorder {
+    /**
+     * The phases of the king election and prince selection
+     */
+    enum ElectionPhase {
+        /**
+         * A free device found a greater free device and connects to it
+         */
+        YIELDED,
+        /**
+         * A free device found a smaller free device and crowns itself
+         */
+        CROWNED,
+        /**
+         * A free device connected to a discovered king
+         */
+        JOINED_KING,
+        /**
+         * The king pronounced a new prince
+         */
+        PRINCE_PRONOUNCED,
+        /**
+         * The pronounced prince acknowledged
+         */
+        PRINCE_ACKNOWLEDGED,
+        /**
+         * The pronounced prince did not acknowledge in time
+         */
+        PRINCE_ACK_TIMEOUT
+    }
+
+    /**
+     * A message was published to a channel's queue.
+     *
+     * @param channelId the channel id
+     * @param payloadSize the payload length in bytes
+     * @param accepted false, if the queue rejected the message
+     * @param queueSize the number of queued messages after publishing
+     */
+    void onMessagePublished(short channelId, int payloadSize, boolean accepted, int queueSize);
+
+    /**
+     * A message was written to a connection.
+     *
+     * @param remoteDeviceId the unique device id of the connection's remote device
+     * @param channelId the channel id
+     * @param size the written bytes
+     * @param chunk true, if the message is a chunk of a bigger message
+     * @param queueWaitNanos the time from publishing or receiving the message to the write (0 if unknown)
+     * @param writeNanos the time the write took
+     */
+    void onMessageSent(String remoteDeviceId, short channelId, int size, boolean chunk, long queueWaitNanos, long writeNanos);
+
+    /**
+     * A message was read from a connection.
+     *
+     * @param remoteDeviceId the unique device id of the connection's remote device
+     * @param channelId the channel id
+     * @param payloadSize the payload length in bytes
+     * @param chunk true, if the message is a chunk of a bigger message
+     */
+    void onMessageReceived(String remoteDeviceId, short channelId, int payloadSize, boolean chunk);
+
+    /**
+     * The chunks of a message were received completely and reassembled.
+     *
+     * @param remoteDeviceId the unique device id of the connection's remote device
+     * @param channelId the channel id
+     * @param chunks the number of chunks
+     * @param payloadSize the payload length of the reassembled message
+     * @param reassemblyNanos the time from receiving the first chunk to the reassembled message (0 if unknown)
+     */
+    void onChunksReassembled(String remoteDeviceId, short channelId, int chunks, int payloadSize, long reassemblyNanos);
+
+    /**
+     * A message was dispatched, either by the king to the channel's subscribers or locally to the channel's listeners.
+     *
+     * @param channelId the channel id
+     * @param payloadSize the payload length in bytes
+     * @param recipients the number of subscribers the king sent the message to or the number of local listeners
+     * @param byKing true, if the king dispatched the message to the subscribers
+     * @param dispatchNanos the time the dispatching (including the listeners) took
+     */
+    void onMessageDispatched(short channelId, int payloadSize, int recipients, boolean byKing, long dispatchNanos);
+
+    /**
+     * The connection state machine changed its state.
+     *
+     * @param ownDeviceId the unique device id of the state machine's device
+     * @param oldState the old state
+     * @param newState the new state
+     * @param timeInOldStateNanos the time spent in the old state
+     * @param transitionNanos the time handling the new state and notifying the listeners took
+     */
+    void onStateChanged(String ownDeviceId, String oldState, String newState, long timeInOldStateNanos, long transitionNanos);
+
+    /**
+     * A phase of the king election or prince selection was passed.
+     *
+     * @param ownDeviceId the unique device id of the deciding device
+     * @param phase the phase
+     * @param otherDeviceId the other device (the greater or smaller free device, the king or the prince), may be null
+     */
+    void onElectionPhase(String ownDeviceId, ElectionPhase phase, String otherDeviceId);
+
+    /**
+     * A king tried to join a greater king and command its peasants to follow.
+     *
+     * @param ownDeviceId the unique device id of the yielding king
+     * @param otherKingDeviceId the unique device id of the greater king
+     * @param joined true, if the king joined the other kingdom, false if the connection failed
+     * @param peasants the number of peasants commanded to bow down
+     * @param mergeNanos the time the merge took
+     */
+    void onKingdomMerge(String ownDeviceId, String otherKingDeviceId, boolean joined, int peasants, long mergeNanos);
+
+    /**
+     * A device tried to connect to a remote device (with retries).
+     *
+     * @param remoteDeviceId the unique device id of the remote device
+     * @param attempts the number of connection attempts
+     * @param connected true, if the connection was established
+     * @param connectNanos the time of all attempts including the backoff
+     */
+    void onConnectionAttempt(String remoteDeviceId, int attempts, boolean connected, long connectNanos);
+
+    /**
+     * A connection (incoming or outgoing) was established and added to the connection manager.
+     *
+     * @param remoteDeviceId the unique device id of the remote device
+     * @param connectionType the simple class name of the connection
+     */
+    void onConnectionEstablished(String remoteDeviceId, String connectionType);
+}
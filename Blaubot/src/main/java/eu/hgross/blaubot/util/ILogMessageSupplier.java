@@ -0,0 +1,14 @@
+package eu.hgross.blaubot.util;
+
+/**
+ * Creates a log message lazily.
+ * The supplier is only called if the message's log level is enabled. It is called on the logging thread
+ * before the entry is buffered, so it may capture values that change afterwards.
+ * A RuntimeException thrown by the supplier is logged in place of the message.
+ */
+public interface ILogMessageSupplier {
+    /**
+     * @return the log message
+     */
+    public String getLogMessage();
+}
@@ -0,0 +1,154 @@
+package eu.hgross.blaubot.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram for latency values with exponential (power of two) buckets.
+ * Recording a value is a few atomic increments, so it can be used from hot paths.
+ * Percentiles are approximated by the upper bound of the bucket they fall into.
+ */
+public class LatencyHistogram {
+    /**
+     * Number of buckets. Bucket i contains values in [2^(i-1), 2^i), bucket 0 contains values <= 0.
+     */
+    private static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong min;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.buckets = new AtomicLongArray(BUCKET_COUNT);
+        this.count = new AtomicLong(0);
+        this.sum = new AtomicLong(0);
+        this.min = new AtomicLong(Long.MAX_VALUE);
+        this.max = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * Records a value.
+     * @param value the value (negative values are recorded to the first bucket)
+     */
+    public void record(long value) {
+        final int bucket = value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+        buckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long curMin = min.get();
+        while (value < curMin && !min.compareAndSet(curMin, value)) {
+            curMin = min.get();
+        }
+        long curMax = max.get();
+        while (value > curMax && !max.compareAndSet(curMax, value)) {
+            curMax = max.get();
+        }
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of all recorded values
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return the smallest recorded value or 0, if nothing was recorded
+     */
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * @return the biggest recorded value or 0, if nothing was recorded
+     */
+    public long getMax() {
+        return count.get() == 0 ? 0 : max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values or 0, if nothing was recorded
+     */
+    public double getMean() {
+        final long cnt = count.get();
+        return cnt == 0 ? 0 : (double) sum.get() / cnt;
+    }
+
+    /**
+     * Approximates the given percentile.
+     *
+     * @param percentile the percentile (0 - 100)
+     * @return the upper bound of the bucket containing the percentile or 0, if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        final long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long threshold = (long) Math.ceil(total * (percentile / 100d));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= threshold && snapshot[i] > 0) {
+                final long upperBound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upperBound, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Counts the recorded values below a power of two, i.e. for the cumulative buckets of an exported histogram.
+     *
+     * @param exponent the exponent of the bound (0 - 63)
+     * @return the number of recorded values smaller than 2^exponent
+     */
+    public long getCountBelowPowerOfTwo(int exponent) {
+        long countBelow = 0;
+        for (int i = 0; i <= exponent && i < BUCKET_COUNT; i++) {
+            countBelow += buckets.get(i);
+        }
+        return countBelow;
+    }
+
+    /**
+     * Clears all recorded values.
+     * Not atomic regarding concurrent record calls.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("LatencyHistogram{");
+        sb.append("count=").append(getCount());
+        sb.append(", min=").append(getMin());
+        sb.append(", mean=").append(String.format("%.1f", getMean()));
+        sb.append(", p50=").append(getPercentile(50));
+        sb.append(", p99=").append(getPercentile(99));
+        sb.append(", max=").append(getMax());
+        sb.append('}');
+        return sb.toString();
+    }
+}
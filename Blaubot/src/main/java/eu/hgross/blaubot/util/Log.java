@@ -4,12 +4,19 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Method;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A log wrapper for blaubot
  * TODO mpras: use slf4j for build AND check out how to configure it on android 
+ *
+ * Messages are written asynchronously by the {@link AsyncLogAppender} (a bounded buffer and a daemon thread),
+ * so logging never blocks the calling threads. The level checks (logDebugMessages() ...) are a field read;
+ * expensive messages should still be guarded by them or use the parameterized ({} placeholders) or
+ * {@link ILogMessageSupplier} variants, which are only formatted if the level is enabled.
+ *
+ * The default level is WARNINGS and can be overridden by the system property blaubot.log.level
+ * (NONE, ERRORS, WARNINGS, DEBUG, INFOS) or by setting LOG_LEVEL.
  * 
  * @author Henning Gross <mail.to@henning-gross.de>
  * 
@@ -22,14 +29,19 @@ public class Log {
 		DEBUG,
 		INFOS
 	}
+	/**
+	 * The system property to override the default log level
+	 */
+	public static final String LOG_LEVEL_PROPERTY = "blaubot.log.level";
+	private static final LogLevel DEFAULT_LOG_LEVEL = LogLevel.WARNINGS;
 	private static final Class<?> androidLog;
 	private static Logger logger = Logger.getLogger("Blaubot Library");
+	private static final AsyncLogAppender appender;
 	
-	public static LogLevel LOG_LEVEL;
+	public static volatile LogLevel LOG_LEVEL;
 	
 	static {
-		LOG_LEVEL = LogLevel.DEBUG;
-//		LOG_LEVEL = LogLevel.WARNINGS;
+		LOG_LEVEL = getLogLevelFromSystemProperty();
 		Package androidUtil = Package.getPackage("android.util");
 		Class<?> aLog = null;
 		if(androidUtil != null) {
@@ -60,6 +72,21 @@ public class Log {
 			}
 		}
 		androidLog = aLog;
+		appender = new AsyncLogAppender(androidLog, logger);
+	}
+
+	private static LogLevel getLogLevelFromSystemProperty() {
+		try {
+			final String level = System.getProperty(LOG_LEVEL_PROPERTY);
+			if (level != null) {
+				return LogLevel.valueOf(level.trim().toUpperCase());
+			}
+		} catch (SecurityException e) {
+			// ignore
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown log level in " + LOG_LEVEL_PROPERTY + ", using " + DEFAULT_LOG_LEVEL);
+		}
+		return DEFAULT_LOG_LEVEL;
 	}
 
 	/**
@@ -89,166 +116,138 @@ public class Log {
 	public static boolean logDebugMessages() {
         return LOG_LEVEL.ordinal() >= LogLevel.DEBUG.ordinal();
 	}
-	
+
 	/**
-	 * small number (hopefully unique) representing threadId
-	 * @return long, approximation of threadId 
+	 * Writes the messages on the calling thread instead of the appender's thread, if set to false.
+	 * Useful for debugging and unit tests. Defaults to true.
+	 *
+	 * @param async true, if messages should be written asynchronously
 	 */
-	private static int getThreadId() {
-		long threadId = Thread.currentThread().getId();
-		return ((int) threadId % 1000);
+	public static void setAsync(boolean async) {
+		appender.setAsync(async);
 	}
-	private static String getSThreadId() {
-			return String.format(" {%03d} ", getThreadId());
+
+	/**
+	 * @return the number of messages dropped because the appender's buffer was full
+	 */
+	public static long getDroppedMessageCount() {
+		return appender.getDroppedCount();
 	}
-	private final static boolean SHOW_THREADID = true;
-	private static String formatTag(String tag) {
-		String parts[] = tag.split("\\.");
-		return String.format("[%30s] ", parts[parts.length-1]);
+
+	/**
+	 * Waits until all messages are written (i.e. before the application exits).
+	 *
+	 * @param timeout max time to wait in ms
+	 */
+	public static void flush(long timeout) {
+		appender.flush(timeout);
 	}
-	private static String formatLog(String message, String tag) {
-		if (SHOW_THREADID) {
-			return getSThreadId() + formatTag(tag) + message;
-		} else {
-			return formatTag(tag) + message;			
+
+	public static void d(String tag, String message) {
+		if (logDebugMessages()) {
+			appender.append(AsyncLogAppender.Severity.DEBUG, tag, message, null, null, null);
 		}
 	}
-	private static String formatMessage(String message) {
-		if (SHOW_THREADID) {
-			return getSThreadId() + message;
-		} else {
-			return message;
+
+	public static void d(String tag, String message, Throwable t) {
+		if (logDebugMessages()) {
+			appender.append(AsyncLogAppender.Severity.DEBUG, tag, message, null, null, t);
 		}
 	}
-	
-	public static void d(String tag, String message) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("d", String.class, String.class);
-				m.invoke(androidLog, tag, formatMessage(message));
-			} else {
-				logger.log(Level.INFO, formatLog(message, tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+
+	/**
+	 * Logs a debug message with {} placeholders, which are replaced by the args.
+	 * The message is only formatted, if debug messages are enabled.
+	 */
+	public static void d(String tag, String pattern, Object... args) {
+		if (logDebugMessages()) {
+			appender.append(AsyncLogAppender.Severity.DEBUG, tag, pattern, args, null, null);
 		}
 	}
 
-	public static void d(String tag, String message, Throwable t) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("d", String.class, String.class, Throwable.class);
-				m.invoke(androidLog, tag, formatMessage(message), t);
-			} else {
-				logger.log(Level.INFO, formatLog(message, tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+	public static void d(String tag, ILogMessageSupplier messageSupplier) {
+		if (logDebugMessages()) {
+			appender.append(AsyncLogAppender.Severity.DEBUG, tag, null, null, messageSupplier, null);
 		}
 	}
 
 	public static void w(String tag, String message) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("w", String.class, String.class);
-				m.invoke(androidLog, tag, formatMessage(message));
-			} else {
-				logger.log(Level.WARNING, formatLog(message, tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (logWarningMessages()) {
+			appender.append(AsyncLogAppender.Severity.WARNING, tag, message, null, null, null);
 		}
 	}
 
 	public static void w(String tag, String message, Throwable t) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("w", String.class, String.class, Throwable.class);
-				m.invoke(androidLog, tag, formatMessage(message), t);
-			} else {
-				logger.log(Level.WARNING, formatLog(message, tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (logWarningMessages()) {
+			appender.append(AsyncLogAppender.Severity.WARNING, tag, message, null, null, t);
+		}
+	}
+
+	/**
+	 * Logs a warning with {} placeholders, which are replaced by the args.
+	 * The message is only formatted, if warnings are enabled.
+	 */
+	public static void w(String tag, String pattern, Object... args) {
+		if (logWarningMessages()) {
+			appender.append(AsyncLogAppender.Severity.WARNING, tag, pattern, args, null, null);
+		}
+	}
+
+	public static void w(String tag, ILogMessageSupplier messageSupplier) {
+		if (logWarningMessages()) {
+			appender.append(AsyncLogAppender.Severity.WARNING, tag, null, null, messageSupplier, null);
 		}
 	}
 
 	public static void w(String tag, Throwable t) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("w", String.class, Throwable.class);
-				m.invoke(androidLog, tag + formatMessage(""), t);
-			} else {
-				logger.log(Level.WARNING, formatLog(" ", tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (logWarningMessages()) {
+			appender.append(AsyncLogAppender.Severity.WARNING, tag, "", null, null, t);
 		}
 	}
 
 	public static void e(String tag, String message) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("e", String.class, String.class);
-				m.invoke(androidLog, tag + formatMessage(message), message);
-			} else {
-				logger.log(Level.SEVERE, formatLog(message, tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (logErrorMessages()) {
+			appender.append(AsyncLogAppender.Severity.ERROR, tag, message, null, null, null);
 		}
 	}
 
 	public static void e(String tag, String message, Throwable t) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("e", String.class, String.class, Throwable.class);
-				m.invoke(androidLog, tag, formatMessage(message), t);
-			} else {
-				logger.log(Level.SEVERE, formatLog(message, tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (logErrorMessages()) {
+			appender.append(AsyncLogAppender.Severity.ERROR, tag, message, null, null, t);
 		}
 	}
 
+	/**
+	 * Logs an error with {} placeholders, which are replaced by the args.
+	 * The message is only formatted, if errors are enabled.
+	 */
+	public static void e(String tag, String pattern, Object... args) {
+		if (logErrorMessages()) {
+			appender.append(AsyncLogAppender.Severity.ERROR, tag, pattern, args, null, null);
+		}
+	}
+
+	public static void e(String tag, ILogMessageSupplier messageSupplier) {
+		if (logErrorMessages()) {
+			appender.append(AsyncLogAppender.Severity.ERROR, tag, null, null, messageSupplier, null);
+		}
+	}
 
 	public static void wtf(String tag, String message) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("wtf", String.class, String.class);
-				m.invoke(androidLog, tag, formatMessage(message));
-			} else {
-				logger.log(Level.SEVERE, formatLog(message, tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (logErrorMessages()) {
+			appender.append(AsyncLogAppender.Severity.WTF, tag, message, null, null, null);
 		}
 	}
 
 	public static void wtf(String tag, String message, Throwable t) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("wtf", String.class, String.class, Throwable.class);
-				m.invoke(androidLog, tag, formatMessage(message), t);
-			} else {
-				logger.log(Level.SEVERE, formatLog(message, tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (logErrorMessages()) {
+			appender.append(AsyncLogAppender.Severity.WTF, tag, message, null, null, t);
 		}
 	}
 
 	public static void wtf(String tag, Throwable t) {
-		try {
-			if(androidLog != null) {
-				Method m = androidLog.getMethod("wtf", String.class, Throwable.class);
-				m.invoke(androidLog, tag + formatMessage(""), t);
-			} else {
-				logger.log(Level.SEVERE, formatLog(" ", tag));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (logErrorMessages()) {
+			appender.append(AsyncLogAppender.Severity.WTF, tag, "", null, null, t);
 		}
 	}
 	
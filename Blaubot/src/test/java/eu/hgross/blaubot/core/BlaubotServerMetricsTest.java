@@ -0,0 +1,123 @@
+package eu.hgross.blaubot.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.mock.AdapterMock;
+import eu.hgross.blaubot.mock.BlaubotConnectionAcceptorMock;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The scrape of the BlaubotServerMetrics contains the server's connection counters and the messaging counters
+ * of each connected kingdom, which restart when a king reconnects.
+ */
+public class BlaubotServerMetricsTest {
+    private static final int PAYLOAD_LENGTH = 64;
+    private static final String KING_1 = "King-1";
+    /**
+     * Needs escaping in the label value
+     */
+    private static final String KING_2 = "King-\"2\"";
+    private static final String KING_2_LABEL = "King-\\\"2\\\"";
+
+    private final IBlaubotDevice serverDevice = new BlaubotDevice("MetricsServer");
+
+    /**
+     * Connects a king to the server and sends the messages as dispatched by the king.
+     *
+     * @return the king's side of the connection
+     */
+    private BlaubotKingdomConnection connectKing(BlaubotConnectionAcceptorMock acceptor, String kingUniqueDeviceId, int messages) throws IOException {
+        final BlaubotConnectionQueueMock serverSide = new BlaubotConnectionQueueMock(new BlaubotDevice(kingUniqueDeviceId));
+        final BlaubotConnectionQueueMock kingSide = serverSide.getOtherEndpointConnection(serverDevice);
+        // the first write sends the handshake
+        final BlaubotKingdomConnection kingConnection = BlaubotKingdomConnection.createFromOutboundConnection(kingSide, kingUniqueDeviceId);
+        final BlaubotMessage message = new BlaubotMessage();
+        message.getMessageType().setIsFirstHop(false);
+        message.setPayload(new byte[PAYLOAD_LENGTH]);
+        final byte[] messageBytes = message.toBytes();
+        for (int i = 0; i < messages; i++) {
+            kingConnection.write(messageBytes);
+        }
+        acceptor.mockNewConnection(serverSide);
+        return kingConnection;
+    }
+
+    /**
+     * @return the value of the sample with the given name (including labels) or -1, if there is no such sample
+     */
+    private static long valueOf(String scrape, String sampleName) {
+        for (String line : scrape.split("\n")) {
+            if (line.startsWith(sampleName + " ")) {
+                return Long.parseLong(line.substring(sampleName.length() + 1));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scrapes until the sample has the expected value.
+     *
+     * @return the last scrape
+     */
+    private static String awaitValue(BlaubotServerMetrics metrics, String sampleName, long expected) throws InterruptedException {
+        String scrape = metrics.scrape();
+        while (valueOf(scrape, sampleName) != expected) {
+            Thread.sleep(20);
+            scrape = metrics.scrape();
+        }
+        return scrape;
+    }
+
+    private static String kingdomSample(String name, String kingLabel) {
+        return name + "{king=\"" + kingLabel + "\"}";
+    }
+
+    @Test(timeout = 30000)
+    public void testScrapeContainsTheKingdomCounters() throws Exception {
+        final BlaubotConnectionAcceptorMock acceptor = (BlaubotConnectionAcceptorMock) new AdapterMock().getConnectionAcceptor();
+        final BlaubotServer server = new BlaubotServer(serverDevice, acceptor);
+        final BlaubotServerMetrics metrics = server.getMetrics();
+        server.startBlaubotServer();
+        try {
+            connectKing(acceptor, KING_1, 3);
+            connectKing(acceptor, KING_2, 5);
+            awaitValue(metrics, "blaubot_server_kingdoms", 2);
+            awaitValue(metrics, kingdomSample("blaubot_kingdom_received_messages_total", KING_1), 3);
+            String scrape = awaitValue(metrics, kingdomSample("blaubot_kingdom_received_messages_total", KING_2_LABEL), 5);
+
+            assertEquals(2, valueOf(scrape, "blaubot_server_accepted_connections_total"));
+            assertEquals(0, valueOf(scrape, "blaubot_server_failed_handshakes_total"));
+            assertEquals(2, valueOf(scrape, "blaubot_server_kingdom_connects_total"));
+            assertEquals(0, valueOf(scrape, "blaubot_server_kingdom_disconnects_total"));
+            assertEquals(2, valueOf(scrape, "blaubot_server_handshake_seconds_count"));
+            assertEquals(2, valueOf(scrape, "blaubot_server_handshake_seconds_bucket{le=\"+Inf\"}"));
+            assertEquals(3 * PAYLOAD_LENGTH, valueOf(scrape, kingdomSample("blaubot_kingdom_received_payload_bytes_total", KING_1)));
+            assertEquals(5 * PAYLOAD_LENGTH, valueOf(scrape, kingdomSample("blaubot_kingdom_received_payload_bytes_total", KING_2_LABEL)));
+            assertEquals(1, valueOf(scrape, kingdomSample("blaubot_kingdom_uplinks", KING_1)));
+            assertEquals(0, valueOf(scrape, kingdomSample("blaubot_kingdom_relay_frames_total", KING_1)));
+            assertTrue(scrape.contains("# TYPE blaubot_kingdom_received_messages_total counter\n"));
+
+            // a reconnect replaces the kingdom and restarts its counters
+            connectKing(acceptor, KING_1, 1);
+            awaitValue(metrics, "blaubot_server_kingdom_connects_total", 3);
+            scrape = awaitValue(metrics, kingdomSample("blaubot_kingdom_received_messages_total", KING_1), 1);
+            assertEquals(2, valueOf(scrape, "blaubot_server_kingdoms"));
+            assertEquals(3, valueOf(scrape, "blaubot_server_accepted_connections_total"));
+            assertEquals(1, valueOf(scrape, "blaubot_server_kingdom_disconnects_total"));
+            assertEquals(PAYLOAD_LENGTH, valueOf(scrape, kingdomSample("blaubot_kingdom_received_payload_bytes_total", KING_1)));
+            assertEquals(5, valueOf(scrape, kingdomSample("blaubot_kingdom_received_messages_total", KING_2_LABEL)));
+        } finally {
+            server.stopBlaubotServer();
+        }
+
+        final String scrape = awaitValue(metrics, "blaubot_server_kingdoms", 0);
+        assertEquals(3, valueOf(scrape, "blaubot_server_kingdom_disconnects_total"));
+        assertEquals(-1, valueOf(scrape, kingdomSample("blaubot_kingdom_received_messages_total", KING_1)));
+    }
+}
@@ -0,0 +1,76 @@
+package eu.hgross.blaubot.core;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.util.Arrays;
+import java.util.List;
+
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The MultipathKingdomConnection forwards the messages received on its uplinks unchanged, except for the
+ * chunk ids, which are mapped to ids unique across the uplinks.
+ */
+public class MultipathKingdomConnectionTest {
+
+    @Test(timeout = 10000)
+    public void testMessagesAndChunksAreForwarded() throws Exception {
+        final BlaubotConnectionQueueMock uplinkConnection = new BlaubotConnectionQueueMock(new BlaubotDevice("server"));
+        final BlaubotConnectionQueueMock serverConnection = uplinkConnection.getOtherEndpointConnection(new BlaubotDevice("king"));
+        final MultipathKingdomConnection multipath = new MultipathKingdomConnection(BlaubotKingdomConnection.createFromOutboundConnection(uplinkConnection, "king"), "king");
+        try {
+            // the handshake
+            BlaubotMessage.readFromBlaubotConnection(serverConnection);
+
+            final BlaubotMessage message = new BlaubotMessage();
+            message.setPayload("hello".getBytes(BlaubotConstants.STRING_CHARSET));
+            serverConnection.write(message.toBytes());
+
+            final byte[] bigPayload = new byte[BlaubotConstants.MAX_PAYLOAD_SIZE + 10];
+            Arrays.fill(bigPayload, (byte) 3);
+            final BlaubotMessage bigMessage = new BlaubotMessage();
+            bigMessage.setPayload(bigPayload);
+            final List<BlaubotMessage> chunks = bigMessage.createChunks((short) 1000);
+            for (BlaubotMessage chunk : chunks) {
+                serverConnection.write(chunk.toBytes());
+            }
+
+            final BlaubotMessage received = BlaubotMessage.readFromBlaubotConnection(multipath);
+            assertArrayEquals(message.getPayload(), received.getPayload());
+
+            final BlaubotMessage firstChunk = BlaubotMessage.readFromBlaubotConnection(multipath);
+            final BlaubotMessage lastChunk = BlaubotMessage.readFromBlaubotConnection(multipath);
+            assertTrue(firstChunk.getMessageType().isChunk());
+            assertEquals((short) 0, firstChunk.getChunkId());
+            assertEquals((short) 0, lastChunk.getChunkId());
+            assertArrayEquals(bigPayload, BlaubotMessage.fromChunks(Arrays.asList(firstChunk, lastChunk)).getPayload());
+        } finally {
+            multipath.disconnect();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testEndOfStreamAfterDisconnect() throws Exception {
+        final BlaubotConnectionQueueMock uplinkConnection = new BlaubotConnectionQueueMock(new BlaubotDevice("server"));
+        uplinkConnection.getOtherEndpointConnection(new BlaubotDevice("king"));
+        final MultipathKingdomConnection multipath = new MultipathKingdomConnection(BlaubotKingdomConnection.createFromOutboundConnection(uplinkConnection, "king"), "king");
+        multipath.disconnect();
+        assertFalse(multipath.isConnected());
+        assertFalse(uplinkConnection.isConnected());
+        assertEquals(-1, multipath.read());
+        try {
+            multipath.readFully(new byte[1]);
+            fail("Expected the end of stream");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+}
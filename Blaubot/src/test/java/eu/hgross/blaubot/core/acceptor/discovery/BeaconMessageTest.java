@@ -0,0 +1,82 @@
+package eu.hgross.blaubot.core.acceptor.discovery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.DeviceCapabilities;
+import eu.hgross.blaubot.core.State;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Beacon messages carry the capability scores and are still read from older devices, whose beacon messages
+ * have no scores.
+ */
+public class BeaconMessageTest {
+
+    private static BeaconMessage createMessage() {
+        final BeaconMessage message = new BeaconMessage("peasant", State.Peasant, new ArrayList<ConnectionMetaDataDTO>(), "king", new ArrayList<ConnectionMetaDataDTO>());
+        message.setCapabilityScores(5, 7);
+        return message;
+    }
+
+    /**
+     * @return the bytes of the message without the layout marker and the scores
+     */
+    private static byte[] toOldLayout(BeaconMessage message) {
+        final byte[] bytes = message.toBytes();
+        return Arrays.copyOfRange(bytes, 4, bytes.length - 8);
+    }
+
+    @Test
+    public void testScoresFromBytes() {
+        final BeaconMessage message = BeaconMessage.fromBytes(createMessage().toBytes());
+        assertEquals(5, message.getCapabilityScore());
+        assertEquals(7, message.getKingCapabilityScore());
+        assertEquals("king", message.getKingDeviceUniqueId());
+    }
+
+    @Test
+    public void testOldLayoutFromBytes() {
+        final BeaconMessage message = BeaconMessage.fromBytes(toOldLayout(createMessage()));
+        assertEquals("peasant", message.getUniqueDeviceId());
+        assertEquals("king", message.getKingDeviceUniqueId());
+        assertEquals(DeviceCapabilities.UNKNOWN_SCORE, message.getCapabilityScore());
+        assertEquals(DeviceCapabilities.UNKNOWN_SCORE, message.getKingCapabilityScore());
+    }
+
+    @Test(timeout = 10000)
+    public void testOldLayoutFromConnection() throws Exception {
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDevice("peasant"));
+        final BlaubotConnectionQueueMock otherConnection = connection.getOtherEndpointConnection(new BlaubotDevice("other"));
+        // the connection stays open, the bytes following the beacon message are not consumed
+        connection.write(toOldLayout(createMessage()));
+        connection.write(new byte[]{1, 2, 3});
+
+        final BeaconMessage message = BeaconMessage.fromBlaubotConnection(otherConnection);
+        assertNotNull(message);
+        assertEquals(State.Peasant, message.getCurrentState());
+        assertEquals(DeviceCapabilities.UNKNOWN_SCORE, message.getCapabilityScore());
+        assertEquals(1, otherConnection.read());
+    }
+
+    @Test(timeout = 10000)
+    public void testScoresFromConnection() throws Exception {
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDevice("peasant"));
+        final BlaubotConnectionQueueMock otherConnection = connection.getOtherEndpointConnection(new BlaubotDevice("other"));
+        connection.write(createMessage().toBytes());
+        connection.write(new byte[]{1, 2, 3});
+
+        final BeaconMessage message = BeaconMessage.fromBlaubotConnection(otherConnection);
+        assertNotNull(message);
+        assertEquals(5, message.getCapabilityScore());
+        assertEquals(7, message.getKingCapabilityScore());
+        assertEquals(1, otherConnection.read());
+    }
+}
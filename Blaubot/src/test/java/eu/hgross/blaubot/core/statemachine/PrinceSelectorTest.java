@@ -0,0 +1,47 @@
+package eu.hgross.blaubot.core.statemachine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Without link measurements, a fresh kingdom picks the prince with the greatest unique device id regardless of the
+ * order in which the peasants connected.
+ */
+public class PrinceSelectorTest {
+    private static final PrinceSelector.ILinkStatistics UNKNOWN_STATISTICS = new PrinceSelector.ILinkStatistics() {
+        @Override
+        public long getRtt(String uniqueDeviceId) {
+            return 0;
+        }
+
+        @Override
+        public double getBandwidth(String uniqueDeviceId) {
+            return 0;
+        }
+    };
+
+    @Test
+    public void testFreshKingdomPicksTheGreatestId() {
+        final PrinceSelector selector = new PrinceSelector(UNKNOWN_STATISTICS);
+        final List<String> candidates = Arrays.asList("a", "b", "c");
+        // the smallest id connected first
+        selector.onConnected("a", 0);
+        selector.onConnected("b", 2000);
+        selector.onConnected("c", 4000);
+        assertEquals("c", selector.select(candidates, null, 5000));
+    }
+
+    @Test
+    public void testUptimeCountsAfterTheMinimumConnectionAge() {
+        final PrinceSelector selector = new PrinceSelector(UNKNOWN_STATISTICS);
+        final List<String> candidates = Arrays.asList("a", "c");
+        selector.onConnected("a", 0);
+        final long later = PrinceSelector.MIN_CONNECTION_AGE + 60000;
+        selector.onConnected("c", later - 1000);
+        assertEquals("a", selector.select(candidates, null, later));
+    }
+}
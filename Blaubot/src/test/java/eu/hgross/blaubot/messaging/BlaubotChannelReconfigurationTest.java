@@ -0,0 +1,118 @@
+package eu.hgross.blaubot.messaging;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Changes of the rate, queue capacity, priority, picker strategy and overflow of a channel are applied to the
+ * running channel: the messages keep flowing while the config changes and none of them is lost.
+ */
+public class BlaubotChannelReconfigurationTest {
+    private static final int MESSAGES = 20000;
+    /**
+     * The max time without a received message, the executor restart of a config change took up to 5 s
+     */
+    private static final long MAX_GAP = 1000;
+
+    @Test(timeout = 60000)
+    public void testThroughputIsContinuousAcrossConfigChanges() throws Exception {
+        final File overflowDirectory = Files.createTempDirectory("spill").toFile();
+        final BlaubotChannelManager channelManager = new BlaubotChannelManager("king");
+        channelManager.setMaster(true);
+        channelManager.activate();
+
+        final BlaubotChannel channel = (BlaubotChannel) channelManager.createOrGetChannel((short) 1);
+        final BlaubotChannelConfig config = channel.getChannelConfig();
+        config.setMessageRateLimit(0);
+        config.setMessageKeyExtractor(new IBlaubotMessageKeyExtractor() {
+            @Override
+            public Object extractKey(BlaubotMessage message) {
+                // unique keys, nothing is conflated
+                return ByteBuffer.wrap(message.getPayload()).getInt();
+            }
+        });
+
+        final BitSet received = new BitSet(MESSAGES);
+        final CountDownLatch allReceived = new CountDownLatch(MESSAGES);
+        final AtomicLong lastReceived = new AtomicLong(0);
+        final AtomicLong maxGap = new AtomicLong(0);
+        channel.subscribe(new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage blaubotMessage) {
+                final long now = System.currentTimeMillis();
+                final long last = lastReceived.getAndSet(now);
+                final long gap = last == 0 ? 0 : now - last;
+                if (gap > maxGap.get()) {
+                    maxGap.set(gap);
+                }
+                final int i = ByteBuffer.wrap(blaubotMessage.getPayload()).getInt();
+                synchronized (received) {
+                    if (!received.get(i)) {
+                        received.set(i);
+                        allReceived.countDown();
+                    }
+                }
+            }
+        });
+
+        final Thread reconfigurer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int change = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    switch (change++ % 5) {
+                        case 0:
+                            config.setMessageRateLimit(change % 2);
+                            break;
+                        case 1:
+                            config.setQueueCapacity(change % 2 == 0 ? 50 : 500);
+                            break;
+                        case 2:
+                            config.setPriority(change % 2 == 0 ? BlaubotMessage.Priority.HIGH : BlaubotMessage.Priority.NORMAL);
+                            break;
+                        case 3:
+                            config.setMessagePickerStrategy(change % 2 == 0 ? BlaubotChannelConfig.MessagePickerStrategy.CONFLATE_BY_KEY : BlaubotChannelConfig.MessagePickerStrategy.PROCESS_ALL);
+                            break;
+                        default:
+                            config.setOverflowDirectory(change % 2 == 0 ? overflowDirectory : null);
+                            break;
+                    }
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        reconfigurer.start();
+        try {
+            for (int i = 0; i < MESSAGES; i++) {
+                final byte[] payload = ByteBuffer.allocate(4).putInt(i).array();
+                assertTrue("Message " + i + " was rejected", channel.publish(payload, 5000));
+            }
+            allReceived.await(30, TimeUnit.SECONDS);
+        } finally {
+            reconfigurer.interrupt();
+            reconfigurer.join();
+            channelManager.deactivate();
+            config.setOverflowDirectory(null);
+            overflowDirectory.delete();
+        }
+
+        synchronized (received) {
+            assertEquals(MESSAGES, received.cardinality());
+        }
+        assertTrue("Max gap between two messages was " + maxGap.get() + " ms", maxGap.get() < MAX_GAP);
+    }
+}
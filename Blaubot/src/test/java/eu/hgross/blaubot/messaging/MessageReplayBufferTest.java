@@ -0,0 +1,63 @@
+package eu.hgross.blaubot.messaging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The sequence numbers of the MessageReplayBuffer wrap around from Integer.MAX_VALUE to 1.
+ */
+public class MessageReplayBufferTest {
+
+    @Test
+    public void testDistanceAcrossWrapAround() {
+        assertEquals(1, MessageReplayBuffer.distance(1, 2));
+        assertEquals(-1, MessageReplayBuffer.distance(2, 1));
+        assertEquals(1, MessageReplayBuffer.distance(Integer.MAX_VALUE, 1));
+        assertEquals(-1, MessageReplayBuffer.distance(1, Integer.MAX_VALUE));
+        assertEquals(3, MessageReplayBuffer.distance(Integer.MAX_VALUE - 1, 2));
+    }
+
+    @Test
+    public void testOnReceivedAcrossWrapAround() {
+        final MessageReplayBuffer buffer = new MessageReplayBuffer(16);
+        buffer.setInboundEpoch(42);
+        assertTrue(buffer.onReceived(Integer.MAX_VALUE - 1));
+        assertTrue(buffer.onReceived(1));
+        assertEquals(1, buffer.getLastReceivedSequence());
+
+        // the skipped sequence before the wrap arrives late, duplicates are dropped
+        assertTrue(buffer.onReceived(Integer.MAX_VALUE));
+        assertFalse(buffer.onReceived(Integer.MAX_VALUE));
+        assertFalse(buffer.onReceived(Integer.MAX_VALUE - 1));
+        assertFalse(buffer.onReceived(1));
+
+        assertTrue(buffer.onReceived(2));
+        assertEquals(2, buffer.getLastReceivedSequence());
+    }
+
+    @Test
+    public void testReplayAcrossWrapAround() {
+        final MessageReplayBuffer buffer = new MessageReplayBuffer(16);
+        final int[] sequences = {Integer.MAX_VALUE - 1, Integer.MAX_VALUE, 1, 2};
+        for (int sequence : sequences) {
+            buffer.add(sequence, new BlaubotMessage());
+        }
+
+        final List<Integer> replayed = new ArrayList<>();
+        final List<BlaubotMessage> messages = buffer.getMessagesToReplay(buffer.getEpoch(), Integer.MAX_VALUE - 1, replayed);
+        assertEquals(Arrays.asList(Integer.MAX_VALUE, 1, 2), replayed);
+        assertEquals(3, messages.size());
+        assertEquals(0, buffer.getMissedReplays());
+
+        replayed.clear();
+        buffer.getMessagesToReplay(buffer.getEpoch(), 1, replayed);
+        assertEquals(Arrays.asList(2), replayed);
+    }
+}
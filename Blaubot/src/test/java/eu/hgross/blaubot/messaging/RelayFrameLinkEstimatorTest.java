@@ -0,0 +1,58 @@
+package eu.hgross.blaubot.messaging;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Relay frames set the admin and keep alive bits, but must not be treated as keep alives by the LinkEstimator.
+ */
+public class RelayFrameLinkEstimatorTest {
+
+    @Test(timeout = 10000)
+    public void testRelayFrameIsNotReplacedByKeepAlive() throws Exception {
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDevice("remote"));
+        final BlaubotConnectionQueueMock otherEndpoint = connection.getOtherEndpointConnection(new BlaubotDevice("local"));
+        final BlaubotMessageSender sender = new BlaubotMessageSender(connection);
+        sender.setLinkEstimator(new LinkEstimator());
+        sender.activate();
+        try {
+            final BlaubotMessage relayed = new BlaubotMessage();
+            relayed.setPayload("relayed".getBytes(BlaubotConstants.STRING_CHARSET));
+            final byte[] relayedBytes = relayed.toBytes();
+            sender.sendMessage(BlaubotMessage.createRelayFrame(BlaubotMessage.RELAY_TAG_TO_SERVER, relayedBytes));
+
+            final BlaubotMessage received = BlaubotMessage.readFromBlaubotConnection(otherEndpoint);
+            assertTrue(received.getMessageType().isRelayFrame());
+            assertEquals(BlaubotMessage.RELAY_TAG_TO_SERVER, received.getRelayTag());
+            assertArrayEquals(relayedBytes, received.getPayload());
+        } finally {
+            sender.deactivate(null);
+        }
+    }
+
+    @Test
+    public void testRelayFrameBytesAreCountedByTheEstimator() {
+        final LinkEstimator estimator = new LinkEstimator();
+        final byte[] relayedBytes = new byte[100];
+        final BlaubotMessage frame = BlaubotMessage.createRelayFrame(BlaubotMessage.RELAY_TAG_TO_SERVER, relayedBytes);
+        assertFalse(frame.getMessageType().isPlainKeepAlive());
+        estimator.onMessageReceived(frame);
+
+        // the received bytes are the last field of the estimator's keep alive
+        final BlaubotMessage keepAlive = estimator.createKeepAlive(new BlaubotMessage());
+        final byte[] payload = keepAlive.getPayload();
+        final long receivedBytes = ByteBuffer.wrap(Arrays.copyOfRange(payload, 24, 32)).order(BlaubotConstants.BYTE_ORDER).getLong();
+        assertEquals(relayedBytes.length, receivedBytes);
+    }
+}
@@ -0,0 +1,100 @@
+package eu.hgross.blaubot.messaging;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The segment files of the SpillingMessageQueue are recycled once they are drained and deleted on close().
+ */
+public class SpillingMessageQueueTest {
+
+    private static BlaubotMessage createMessage(int i) {
+        final BlaubotMessage message = new BlaubotMessage();
+        message.setPayload(new byte[]{(byte) i, 1, 2, 3});
+        return message;
+    }
+
+    private static int countSegmentFiles(File directory) {
+        final File[] files = directory.listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void testDrainedSegmentsAreRecycled() throws Exception {
+        final File directory = Files.createTempDirectory("spill").toFile();
+        final SpillingMessageQueue queue = new SpillingMessageQueue(1, directory, 1024 * 1024, 128, (short) 1);
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(queue.offer(createMessage(i)));
+            }
+            final int segmentFiles = countSegmentFiles(directory);
+            assertTrue(segmentFiles > 1);
+
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 20; i++) {
+                    final BlaubotMessage message = queue.poll();
+                    assertNotNull(message);
+                    assertArrayEquals(new byte[]{(byte) i, 1, 2, 3}, message.getPayload());
+                }
+                assertEquals(0, queue.getSpillSize());
+                for (int i = 0; i < 20; i++) {
+                    assertTrue(queue.offer(createMessage(i)));
+                }
+                // the drained segments are reused, no files are created
+                assertEquals(segmentFiles, countSegmentFiles(directory));
+            }
+        } finally {
+            queue.close();
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testRecycledSegmentsCountTowardsTheOverflowCapacity() throws Exception {
+        final File directory = Files.createTempDirectory("spill").toFile();
+        // room for two segments
+        final SpillingMessageQueue queue = new SpillingMessageQueue(1, directory, 256, 128, (short) 1);
+        try {
+            int offered = 0;
+            while (queue.offer(createMessage(offered))) {
+                offered++;
+            }
+            assertEquals(2, countSegmentFiles(directory));
+
+            for (int round = 0; round < 5; round++) {
+                queue.clear();
+                int reoffered = 0;
+                while (queue.offer(createMessage(reoffered))) {
+                    reoffered++;
+                }
+                assertEquals(offered, reoffered);
+                assertEquals(2, countSegmentFiles(directory));
+            }
+        } finally {
+            queue.close();
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testCloseDeletesAllSegments() throws Exception {
+        final File directory = Files.createTempDirectory("spill").toFile();
+        final SpillingMessageQueue queue = new SpillingMessageQueue(1, directory, 1024 * 1024, 128, (short) 1);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(queue.offer(createMessage(i)));
+        }
+        queue.poll();
+        assertTrue(countSegmentFiles(directory) > 0);
+        queue.close();
+        assertEquals(0, countSegmentFiles(directory));
+        assertEquals(0, queue.size());
+        directory.delete();
+    }
+}
@@ -0,0 +1,43 @@
+package eu.hgross.blaubot.mock;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import eu.hgross.blaubot.core.BlaubotDevice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Like a socket, the bytes written before a disconnect can still be read by the other endpoint.
+ */
+public class BlaubotConnectionQueueMockTest {
+
+    @Test(timeout = 10000)
+    public void testQueuedBytesAreReadBeforeTheClose() throws Exception {
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDevice("remote"));
+        final BlaubotConnectionQueueMock otherEndpoint = connection.getOtherEndpointConnection(new BlaubotDevice("local"));
+        final byte[] data = {0, 1, 2, 3};
+        connection.write(data);
+        connection.disconnect();
+        assertFalse(otherEndpoint.isConnected());
+
+        final byte[] read = new byte[data.length];
+        otherEndpoint.readFully(read);
+        assertArrayEquals(data, read);
+        try {
+            otherEndpoint.read();
+            fail("Expected the close to be signalled");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            otherEndpoint.readFully(new byte[1]);
+            fail("Expected the close to be signalled again");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package eu.hgross.blaubot.rpc;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.ChannelCodecs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The rpc frames are addressed by the full unique device id, so devices with colliding hash codes sharing an
+ * inbox channel don't get each other's messages.
+ */
+public class RpcFrameTest {
+
+    private static ByteBuffer encode(RpcFrame<?> frame) {
+        final ByteBuffer buffer = ByteBuffer.allocate(RpcFrame.CODEC.getEncodedLength(frame)).order(BlaubotConstants.BYTE_ORDER);
+        RpcFrame.CODEC.encode(frame, buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testRequestIsOnlyForTheTarget() {
+        // "Aa" and "BB" have the same hash code
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        final byte[] payload = {1, 2, 3};
+        final RpcFrame<byte[]> request = RpcFrame.createRequest(42, "Aa", (short) 7, "caller", payload, ChannelCodecs.BYTES);
+
+        final RpcFrame<ByteBuffer> decoded = RpcFrame.decode(encode(request));
+        assertTrue(decoded.isTarget(RpcFrame.toIdBytes("Aa")));
+        assertFalse(decoded.isTarget(RpcFrame.toIdBytes("BB")));
+        assertEquals(RpcFrame.KIND_REQUEST, decoded.kind);
+        assertEquals(42, decoded.correlationId);
+        assertEquals((short) 7, decoded.method);
+        assertEquals("caller", decoded.getCallerUniqueDeviceId());
+        assertArrayEquals(payload, ChannelCodecs.BYTES.decode(decoded.payload.duplicate()));
+    }
+
+    @Test
+    public void testDecodedFramesCanBeEncodedAgain() {
+        final RpcFrame<byte[]> error = RpcFrame.createError(43, "BB", RpcException.Reason.NO_HANDLER, "no handler");
+        final ByteBuffer encoded = encode(error);
+        final RpcFrame<?> decoded = RpcFrame.CODEC.decode(encoded.duplicate());
+        assertEquals(encoded, encode(decoded));
+
+        final RpcFrame<ByteBuffer> decodedError = RpcFrame.decode(encoded.duplicate());
+        assertEquals(RpcFrame.KIND_ERROR, decodedError.kind);
+        assertNull(decodedError.getCallerUniqueDeviceId());
+        final RpcException exception = RpcFrame.toException(decodedError);
+        assertEquals(RpcException.Reason.NO_HANDLER, exception.getReason());
+    }
+}
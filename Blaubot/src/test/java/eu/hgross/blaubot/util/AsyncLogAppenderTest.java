@@ -0,0 +1,89 @@
+package eu.hgross.blaubot.util;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The arguments of a log call are captured when the call is made, not when the entry is written.
+ * A failing supplier or argument does not fail the logging thread.
+ */
+public class AsyncLogAppenderTest {
+
+    private static Logger createLogger(final List<String> messages) {
+        final Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return logger;
+    }
+
+    @Test(timeout = 10000)
+    public void testArgumentsAreCapturedOnAppend() throws Exception {
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final AsyncLogAppender appender = new AsyncLogAppender(null, createLogger(messages));
+        final StringBuilder argument = new StringBuilder("before");
+        final StringBuilder supplied = new StringBuilder("supplied before");
+        appender.append(AsyncLogAppender.Severity.WARNING, "Test", "value: {}", new Object[]{argument}, null, null);
+        appender.append(AsyncLogAppender.Severity.WARNING, "Test", null, null, new ILogMessageSupplier() {
+            @Override
+            public String getLogMessage() {
+                return supplied.toString();
+            }
+        }, null);
+        argument.setLength(0);
+        argument.append("after");
+        supplied.setLength(0);
+        supplied.append("supplied after");
+
+        while (messages.size() < 2) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, messages.size());
+        assertTrue(messages.get(0), messages.get(0).endsWith("value: before"));
+        assertTrue(messages.get(1), messages.get(1).endsWith("supplied before"));
+    }
+
+    @Test(timeout = 10000)
+    public void testFailingSupplierIsLogged() throws Exception {
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final AsyncLogAppender appender = new AsyncLogAppender(null, createLogger(messages));
+        appender.append(AsyncLogAppender.Severity.WARNING, "Test", null, null, new ILogMessageSupplier() {
+            @Override
+            public String getLogMessage() {
+                throw new IllegalStateException("supplier failed");
+            }
+        }, null);
+        appender.append(AsyncLogAppender.Severity.WARNING, "Test", "value: {}", new Object[]{new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("toString failed");
+            }
+        }}, null, null);
+
+        while (messages.size() < 2) {
+            Thread.sleep(10);
+        }
+        assertTrue(messages.get(0), messages.get(0).contains("supplier failed"));
+        assertTrue(messages.get(1), messages.get(1).contains("toString failed"));
+    }
+}
@@ -188,6 +188,7 @@ public class BlaubotNFCBeacon implements IBlaubotBeacon, IBlaubotAndroidComponen
 
                 // create and populate discovery event for partner
                 final AbstractBlaubotDeviceDiscoveryEvent discoveryEventForPartner = currentState.createDiscoveryEventForDevice(device, beaconMessage.getOwnConnectionMetaDataList());
+                discoveryEventForPartner.setCapabilityScore(beaconMessage.getCapabilityScore());
                 discoveryEventListener.onDeviceDiscoveryEvent(discoveryEventForPartner);
 
                 // if partner has a king, create an event for the king as well
@@ -196,6 +197,7 @@ public class BlaubotNFCBeacon implements IBlaubotBeacon, IBlaubotAndroidComponen
                     final List<ConnectionMetaDataDTO> kingsConnectionMetaDataList = beaconMessage.getKingsConnectionMetaDataList();
                     final BlaubotDevice kingDevice = new BlaubotDevice(kingDeviceUniqueId);
                     final AbstractBlaubotDeviceDiscoveryEvent discoveryEventForPartnersKing= State.King.createDiscoveryEventForDevice(kingDevice, kingsConnectionMetaDataList);
+                    discoveryEventForPartnersKing.setCapabilityScore(beaconMessage.getKingCapabilityScore());
                     discoveryEventListener.onDeviceDiscoveryEvent(discoveryEventForPartnersKing);
                 }
 
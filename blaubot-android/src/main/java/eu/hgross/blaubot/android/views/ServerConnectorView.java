@@ -20,9 +20,9 @@ import java.util.concurrent.TimeUnit;
 
 import eu.hgross.blaubot.android.R;
 import eu.hgross.blaubot.core.Blaubot;
-import eu.hgross.blaubot.core.BlaubotKingdomConnection;
 import eu.hgross.blaubot.core.BlaubotServerConnector;
 import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.core.MultipathKingdomConnection;
 import eu.hgross.blaubot.core.statemachine.IBlaubotConnectionStateMachineListener;
 import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
 import eu.hgross.blaubot.core.statemachine.states.KingState;
@@ -67,7 +67,7 @@ public class ServerConnectorView extends FrameLayout implements IBlaubotDebugVie
                     if(mBlaubot != null) {
                         final BlaubotServerConnector serverConnector = mBlaubot.getServerConnector();
                         final IBlaubotConnection serverConnection = serverConnector != null ? serverConnector.getServerConnection() : null;
-                        final BlaubotKingdomConnection currentlyUsedServerConnection = mBlaubot.getServerConnectionManager().getCurrentlyUsedServerConnection();
+                        final MultipathKingdomConnection currentlyUsedServerConnection = mBlaubot.getServerConnectionManager().getCurrentlyUsedServerConnection();
 
                         // gather data
                         boolean inKingState = currentSstate != null && currentSstate instanceof KingState;
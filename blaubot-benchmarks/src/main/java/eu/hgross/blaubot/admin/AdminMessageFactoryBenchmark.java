@@ -0,0 +1,94 @@
+package eu.hgross.blaubot.admin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+
+/**
+ * Measures the parsing of received admin messages by the AdminMessageFactory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdminMessageFactoryBenchmark {
+    public enum AdminMessageType {
+        ADD_SUBSCRIPTION,
+        CENSUS,
+        PRONOUNCE_PRINCE,
+        STRING,
+        RELAY
+    }
+
+    @Param({"ADD_SUBSCRIPTION", "CENSUS", "PRONOUNCE_PRINCE", "STRING", "RELAY"})
+    public AdminMessageType messageType;
+
+    /**
+     * The number of devices in the kingdom (census entries, connection meta data)
+     */
+    @Param({"2", "50"})
+    public int deviceCount;
+
+    private BlaubotMessage rawMessage;
+
+    @Setup
+    public void setUp() {
+        final AbstractAdminMessage adminMessage;
+        switch (messageType) {
+            case ADD_SUBSCRIPTION:
+                adminMessage = new AddSubscriptionAdminMessage("device-0", (short) 1);
+                break;
+            case CENSUS:
+                final Map<String, eu.hgross.blaubot.core.State> states = new HashMap<>();
+                for (int i = 0; i < deviceCount; i++) {
+                    states.put("device-" + i, i == 0 ? eu.hgross.blaubot.core.State.King : eu.hgross.blaubot.core.State.Peasant);
+                }
+                adminMessage = new CensusMessage(states);
+                break;
+            case PRONOUNCE_PRINCE:
+                final List<ConnectionMetaDataDTO> connectionMetaData = new ArrayList<>();
+                for (int i = 0; i < deviceCount; i++) {
+                    connectionMetaData.add(new ConnectionMetaDataDTO());
+                }
+                adminMessage = new PronouncePrinceAdminMessage("device-1", connectionMetaData);
+                break;
+            case STRING:
+                adminMessage = new StringAdminMessage("Hello kingdom");
+                break;
+            case RELAY:
+                final BlaubotMessage relayedMessage = new BlaubotMessage();
+                relayedMessage.setPayload(new byte[1024]);
+                adminMessage = new RelayAdminMessage(relayedMessage.toBytes());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown type " + messageType);
+        }
+
+        // emulate a received message
+        rawMessage = BlaubotMessage.fromByteArray(adminMessage.toBlaubotMessage().toBytes());
+    }
+
+    @Benchmark
+    public AbstractAdminMessage parse() {
+        return AdminMessageFactory.createAdminMessageFromRawMessage(rawMessage);
+    }
+}
@@ -0,0 +1,41 @@
+package eu.hgross.blaubot.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all Blaubot benchmarks and writes the results in a machine readable format (JSON).
+ *
+ * All JMH command line options are supported, i.e. to run only the chunking benchmark with
+ * a specific payload size:
+ *      ChunkingBenchmark -p payloadSize=1000000
+ *
+ * The result file can be set by the system property blaubot.benchmark.result and defaults
+ * to blaubot-benchmarks.json.
+ */
+public class BlaubotBenchmarks {
+    /**
+     * The system property to define the result file
+     */
+    public static final String RESULT_FILE_PROPERTY = "blaubot.benchmark.result";
+    private static final String DEFAULT_RESULT_FILE = "blaubot-benchmarks.json";
+    private static final String DEFAULT_INCLUDE = "eu\\.hgross\\.blaubot\\..*Benchmark";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        final ChainedOptionsBuilder optionsBuilder = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty(RESULT_FILE_PROPERTY, DEFAULT_RESULT_FILE));
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            // run all blaubot benchmarks, if nothing was specified
+            optionsBuilder.include(DEFAULT_INCLUDE);
+        }
+        new Runner(optionsBuilder.build()).run();
+    }
+}
@@ -0,0 +1,523 @@
+package eu.hgross.blaubot.benchmark.cluster;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotSubordinatedState;
+import eu.hgross.blaubot.core.statemachine.states.KingState;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.IBlaubotChannel;
+import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Starts a kingdom of N Blaubot instances inside one JVM and drives a scripted {@link ClusterWorkload} on it.
+ * Reports throughput, publish to delivery latencies, election times and memory usage as {@link ClusterLoadReport}.
+ *
+ * Usage (all arguments are optional):
+ *      ClusterLoadHarness --transport MOCK|ETHERNET --workload BROADCAST_FAN_OUT|MANY_TO_ONE|CHURN --nodes 51
+ *                         --payload 256 --rate 100 --duration 10000 --churnRounds 3 --basePort 17000 --replayBuffer 0
+ *
+ * The rate is the number of messages per second and publisher (0 publishes as fast as the channel accepts messages).
+ * The replay buffer is the capacity of the channel managers' per-device replay buffers (0 disables replaying).
+ * The report is printed and written as JSON to the file defined by the system property blaubot.cluster.result
+ * (defaults to blaubot-cluster-report.json).
+ *
+ * Since all nodes run in the same JVM, the latencies are measured with System.nanoTime() and are not affected by
+ * clock differences.
+ */
+public class ClusterLoadHarness {
+    private static final String LOG_TAG = "ClusterLoadHarness";
+    /**
+     * The system property to define the result file
+     */
+    public static final String RESULT_FILE_PROPERTY = "blaubot.cluster.result";
+    private static final String DEFAULT_RESULT_FILE = "blaubot-cluster-report.json";
+    private static final short CHANNEL_ID = 1;
+    private static final long POLL_INTERVAL = 100;
+    /**
+     * Deliveries are considered complete, if nothing was delivered for this amount of ms after publishing stopped
+     */
+    private static final long DRAIN_IDLE_TIMEOUT = 2000;
+    /**
+     * The timestamp at the beginning of each payload
+     */
+    private static final int TIMESTAMP_LENGTH = 8;
+
+    private ClusterTransport transport = ClusterTransport.MOCK;
+    private ClusterWorkload workload = ClusterWorkload.BROADCAST_FAN_OUT;
+    private int nodeCount = 51;
+    private int payloadSize = 256;
+    private int messageRate = 100;
+    private long duration = 10000;
+    private int churnRounds = 3;
+    private int basePort = 17000;
+    private int replayBufferCapacity = 0;
+    private long formationTimeout = 120000;
+    private long settleTime = 2000;
+
+    private volatile long lastDelivery;
+
+    public ClusterLoadHarness setTransport(ClusterTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    public ClusterLoadHarness setWorkload(ClusterWorkload workload) {
+        this.workload = workload;
+        return this;
+    }
+
+    /**
+     * @param nodeCount the number of nodes of the kingdom (king included)
+     * @return this harness
+     */
+    public ClusterLoadHarness setNodeCount(int nodeCount) {
+        if (nodeCount < 2) {
+            throw new IllegalArgumentException("A kingdom needs at least 2 nodes.");
+        }
+        this.nodeCount = nodeCount;
+        return this;
+    }
+
+    /**
+     * @param payloadSize the payload size in bytes (at least 8 bytes are used for the timestamp)
+     * @return this harness
+     */
+    public ClusterLoadHarness setPayloadSize(int payloadSize) {
+        this.payloadSize = Math.max(TIMESTAMP_LENGTH, payloadSize);
+        return this;
+    }
+
+    /**
+     * @param messageRate the messages per second and publisher, 0 for no limit
+     * @return this harness
+     */
+    public ClusterLoadHarness setMessageRate(int messageRate) {
+        if (messageRate < 0) {
+            throw new IllegalArgumentException("The message rate has to be positive or 0.");
+        }
+        this.messageRate = messageRate;
+        return this;
+    }
+
+    /**
+     * @param duration the time to publish in ms (not used by CHURN, which publishes until all rounds are done)
+     * @return this harness
+     */
+    public ClusterLoadHarness setDuration(long duration) {
+        this.duration = duration;
+        return this;
+    }
+
+    public ClusterLoadHarness setChurnRounds(int churnRounds) {
+        this.churnRounds = churnRounds;
+        return this;
+    }
+
+    /**
+     * @param basePort the first port used by the ETHERNET transport, each node uses two ports
+     * @return this harness
+     */
+    public ClusterLoadHarness setBasePort(int basePort) {
+        this.basePort = basePort;
+        return this;
+    }
+
+    /**
+     * @param replayBufferCapacity the capacity of the per-device replay buffers of each node, 0 to disable replaying
+     * @return this harness
+     */
+    public ClusterLoadHarness setReplayBufferCapacity(int replayBufferCapacity) {
+        this.replayBufferCapacity = replayBufferCapacity;
+        return this;
+    }
+
+    /**
+     * @param formationTimeout the max time in ms to wait for a kingdom to form
+     * @return this harness
+     */
+    public ClusterLoadHarness setFormationTimeout(long formationTimeout) {
+        this.formationTimeout = formationTimeout;
+        return this;
+    }
+
+    /**
+     * @param settleTime the time in ms to wait for subscriptions to propagate
+     * @return this harness
+     */
+    public ClusterLoadHarness setSettleTime(long settleTime) {
+        this.settleTime = settleTime;
+        return this;
+    }
+
+    /**
+     * Starts the kingdom, runs the workload and stops the kingdom.
+     *
+     * @return the report
+     * @throws IOException if the nodes could not be created
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public ClusterLoadReport run() throws IOException, InterruptedException {
+        final ClusterLoadReport report = new ClusterLoadReport(transport, workload, nodeCount, payloadSize);
+        report.setHeapUsedBeforeStart(getUsedHeap());
+
+        final List<Blaubot> nodes = transport.createNodes(UUID.randomUUID(), nodeCount, basePort);
+        try {
+            final long startTime = System.currentTimeMillis();
+            for (Blaubot node : nodes) {
+                node.getChannelManager().setReplayBufferCapacity(replayBufferCapacity);
+                node.startBlaubot();
+            }
+            if (!awaitKingdom(nodes)) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "The kingdom did not form within " + formationTimeout + " ms.");
+                }
+                return report;
+            }
+            report.setFormationTime(System.currentTimeMillis() - startTime);
+            report.setHeapUsedAfterFormation(getUsedHeap());
+            report.setThreadsAfterFormation(Thread.activeCount());
+
+            switch (workload) {
+                case BROADCAST_FAN_OUT:
+                    runBroadcastFanOut(nodes, report);
+                    break;
+                case MANY_TO_ONE:
+                    runManyToOne(nodes, report);
+                    break;
+                case CHURN:
+                    runChurn(nodes, report);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown workload " + workload);
+            }
+            report.setHeapUsedAfterWorkload(getUsedHeap());
+        } finally {
+            for (Blaubot node : nodes) {
+                try {
+                    node.close();
+                } catch (IOException e) {
+                    if (Log.logWarningMessages()) {
+                        Log.w(LOG_TAG, "Failed to close " + node + " (" + e.getMessage() + ")");
+                    }
+                }
+            }
+        }
+        return report;
+    }
+
+    private void runBroadcastFanOut(List<Blaubot> nodes, ClusterLoadReport report) throws InterruptedException {
+        final Blaubot king = findKing(nodes);
+        Blaubot publisher = null;
+        for (Blaubot node : nodes) {
+            final IBlaubotChannel channel = node.createChannel(CHANNEL_ID);
+            if (publisher == null && node != king) {
+                publisher = node;
+                continue;
+            }
+            channel.subscribe(createDeliveryListener(report));
+        }
+        Thread.sleep(settleTime);
+
+        final List<AtomicReference<IBlaubotChannel>> publishers = new ArrayList<>();
+        publishers.add(new AtomicReference<>(publisher.createChannel(CHANNEL_ID)));
+        publishAndDrain(publishers, report);
+        report.setExpectedDeliveries(report.getPublished() * (nodes.size() - 1));
+    }
+
+    private void runManyToOne(List<Blaubot> nodes, ClusterLoadReport report) throws InterruptedException {
+        final Blaubot king = findKing(nodes);
+        final List<AtomicReference<IBlaubotChannel>> publishers = new ArrayList<>();
+        for (Blaubot node : nodes) {
+            final IBlaubotChannel channel = node.createChannel(CHANNEL_ID);
+            if (node == king) {
+                channel.subscribe(createDeliveryListener(report));
+            } else {
+                publishers.add(new AtomicReference<>(channel));
+            }
+        }
+        Thread.sleep(settleTime);
+
+        publishAndDrain(publishers, report);
+        report.setExpectedDeliveries(report.getPublished());
+    }
+
+    private void runChurn(List<Blaubot> nodes, ClusterLoadReport report) throws InterruptedException {
+        for (Blaubot node : nodes) {
+            node.createChannel(CHANNEL_ID).subscribe(createDeliveryListener(report));
+        }
+        Thread.sleep(settleTime);
+
+        final AtomicReference<IBlaubotChannel> publisherChannel = new AtomicReference<>();
+        final List<AtomicReference<IBlaubotChannel>> publishers = new ArrayList<>();
+        publishers.add(publisherChannel);
+        Blaubot publisher = pickPublisher(nodes, findKing(nodes));
+        publisherChannel.set(publisher.createChannel(CHANNEL_ID));
+
+        final List<PublisherThread> publisherThreads = startPublishers(publishers, report, Long.MAX_VALUE);
+        final long startTime = System.currentTimeMillis();
+        for (int round = 0; round < churnRounds; round++) {
+            final Blaubot king = findKing(nodes);
+            if (king == null) {
+                report.onChurnRoundFailed();
+                awaitKingdom(nodes);
+                continue;
+            }
+            if (king == publisher) {
+                publisher = pickPublisher(nodes, king);
+                publisherChannel.set(publisher.createChannel(CHANNEL_ID));
+            }
+
+            // kill the king and wait for the remaining nodes to elect a new one
+            final List<Blaubot> remaining = new ArrayList<>(nodes);
+            remaining.remove(king);
+            final long killTime = System.currentTimeMillis();
+            king.stopBlaubot();
+            final boolean reElected = awaitKingdom(remaining);
+            final long reElectionTime = System.currentTimeMillis();
+
+            // let the old king rejoin
+            king.startBlaubot();
+            final boolean rejoined = awaitKingdom(nodes);
+            if (reElected && rejoined) {
+                report.onChurnRound(reElectionTime - killTime, System.currentTimeMillis() - reElectionTime);
+            } else {
+                report.onChurnRoundFailed();
+            }
+            Thread.sleep(settleTime);
+        }
+        stopPublishers(publisherThreads);
+        awaitDrain(report, -1);
+        report.setWorkloadDuration(System.currentTimeMillis() - startTime);
+    }
+
+    private void publishAndDrain(List<AtomicReference<IBlaubotChannel>> publishers, ClusterLoadReport report) throws InterruptedException {
+        final long startTime = System.currentTimeMillis();
+        final List<PublisherThread> publisherThreads = startPublishers(publishers, report, startTime + duration);
+        for (PublisherThread publisherThread : publisherThreads) {
+            publisherThread.join();
+        }
+        awaitDrain(report, -1);
+        report.setWorkloadDuration(Math.max(lastDelivery, startTime + duration) - startTime);
+    }
+
+    private List<PublisherThread> startPublishers(List<AtomicReference<IBlaubotChannel>> publishers, ClusterLoadReport report, long endTime) {
+        final List<PublisherThread> publisherThreads = new ArrayList<>();
+        for (AtomicReference<IBlaubotChannel> publisher : publishers) {
+            final PublisherThread publisherThread = new PublisherThread(publisher, report, endTime);
+            publisherThreads.add(publisherThread);
+            publisherThread.start();
+        }
+        return publisherThreads;
+    }
+
+    private void stopPublishers(List<PublisherThread> publisherThreads) throws InterruptedException {
+        for (PublisherThread publisherThread : publisherThreads) {
+            publisherThread.interrupt();
+            publisherThread.join();
+        }
+    }
+
+    /**
+     * Waits until the expected number of messages was delivered or nothing was delivered for DRAIN_IDLE_TIMEOUT ms.
+     *
+     * @param report the report
+     * @param expected the expected deliveries or -1, if unknown
+     * @throws InterruptedException if interrupted
+     */
+    private void awaitDrain(ClusterLoadReport report, long expected) throws InterruptedException {
+        long lastDelivered = -1;
+        long lastProgress = System.currentTimeMillis();
+        while (System.currentTimeMillis() - lastProgress < DRAIN_IDLE_TIMEOUT) {
+            final long delivered = report.getDelivered();
+            if (expected >= 0 && delivered >= expected) {
+                return;
+            }
+            if (delivered != lastDelivered) {
+                lastDelivered = delivered;
+                lastProgress = System.currentTimeMillis();
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    private IBlaubotMessageListener createDeliveryListener(final ClusterLoadReport report) {
+        return new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage blaubotMessage) {
+                final long now = System.nanoTime();
+                final long publishedAt = ByteBuffer.wrap(blaubotMessage.getPayload()).getLong();
+                report.onDelivered(TimeUnit.NANOSECONDS.toMicros(now - publishedAt));
+                lastDelivery = System.currentTimeMillis();
+            }
+        };
+    }
+
+    /**
+     * Publishes timestamped messages with the configured rate until the end time is reached or it is interrupted.
+     */
+    private class PublisherThread extends Thread {
+        private final AtomicReference<IBlaubotChannel> channel;
+        private final ClusterLoadReport report;
+        private final long endTime;
+
+        public PublisherThread(AtomicReference<IBlaubotChannel> channel, ClusterLoadReport report, long endTime) {
+            this.channel = channel;
+            this.report = report;
+            this.endTime = endTime;
+            setName("cluster-load-publisher");
+        }
+
+        @Override
+        public void run() {
+            final long interval = messageRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / messageRate;
+            long next = System.nanoTime();
+            while (!isInterrupted() && System.currentTimeMillis() < endTime) {
+                final byte[] payload = new byte[payloadSize];
+                ByteBuffer.wrap(payload).putLong(System.nanoTime());
+                final boolean accepted = channel.get().publish(payload);
+                report.onPublished(accepted);
+                if (interval > 0) {
+                    next += interval;
+                    final long sleep = next - System.nanoTime();
+                    if (sleep > 0) {
+                        LockSupport.parkNanos(sleep);
+                    }
+                } else if (!accepted) {
+                    // queue is full
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the given nodes form exactly one kingdom.
+     *
+     * @param nodes the nodes
+     * @return true, if the kingdom formed within the formation timeout
+     * @throws InterruptedException if interrupted
+     */
+    private boolean awaitKingdom(List<Blaubot> nodes) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + formationTimeout;
+        while (System.currentTimeMillis() < deadline) {
+            if (isKingdom(nodes)) {
+                return true;
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+        return false;
+    }
+
+    /**
+     * @param nodes the nodes
+     * @return true, if exactly one of the nodes is king and all other nodes are connected to it
+     */
+    private static boolean isKingdom(List<Blaubot> nodes) {
+        final Blaubot king = findKing(nodes);
+        if (king == null) {
+            return false;
+        }
+        final String kingUniqueId = king.getOwnDevice().getUniqueDeviceID();
+        for (Blaubot node : nodes) {
+            if (node == king) {
+                continue;
+            }
+            final IBlaubotState state = node.getConnectionStateMachine().getCurrentState();
+            if (!(state instanceof IBlaubotSubordinatedState) || !kingUniqueId.equals(((IBlaubotSubordinatedState) state).getKingUniqueId())) {
+                return false;
+            }
+        }
+        return king.getConnectionManager().getConnectedDevices().size() >= nodes.size() - 1;
+    }
+
+    /**
+     * @param nodes the nodes
+     * @return the only node in KingState or null, if there is no or more than one king
+     */
+    private static Blaubot findKing(List<Blaubot> nodes) {
+        Blaubot king = null;
+        for (Blaubot node : nodes) {
+            if (node.getConnectionStateMachine().getCurrentState() instanceof KingState) {
+                if (king != null) {
+                    return null;
+                }
+                king = node;
+            }
+        }
+        return king;
+    }
+
+    private static Blaubot pickPublisher(List<Blaubot> nodes, Blaubot king) {
+        for (Blaubot node : nodes) {
+            if (node != king) {
+                return node;
+            }
+        }
+        throw new IllegalStateException("No node left to publish.");
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        Thread.sleep(POLL_INTERVAL);
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final ClusterLoadHarness harness = new ClusterLoadHarness();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--transport":
+                    harness.setTransport(ClusterTransport.valueOf(value.toUpperCase()));
+                    break;
+                case "--workload":
+                    harness.setWorkload(ClusterWorkload.valueOf(value.toUpperCase()));
+                    break;
+                case "--nodes":
+                    harness.setNodeCount(Integer.parseInt(value));
+                    break;
+                case "--payload":
+                    harness.setPayloadSize(Integer.parseInt(value));
+                    break;
+                case "--rate":
+                    harness.setMessageRate(Integer.parseInt(value));
+                    break;
+                case "--duration":
+                    harness.setDuration(Long.parseLong(value));
+                    break;
+                case "--churnRounds":
+                    harness.setChurnRounds(Integer.parseInt(value));
+                    break;
+                case "--basePort":
+                    harness.setBasePort(Integer.parseInt(value));
+                    break;
+                case "--replayBuffer":
+                    harness.setReplayBufferCapacity(Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        final ClusterLoadReport report = harness.run();
+        System.out.println(report);
+        try (FileWriter writer = new FileWriter(System.getProperty(RESULT_FILE_PROPERTY, DEFAULT_RESULT_FILE))) {
+            writer.write(report.toJson());
+        }
+        // some blaubot components use non daemon threads
+        System.exit(0);
+    }
+}
@@ -0,0 +1,230 @@
+package eu.hgross.blaubot.benchmark.cluster;
+
+import com.google.gson.GsonBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.hgross.blaubot.util.LatencyHistogram;
+
+/**
+ * The results of a {@link ClusterLoadHarness} run.
+ * Latencies are in microseconds, election times in milliseconds and memory in bytes.
+ */
+public class ClusterLoadReport {
+    private final ClusterTransport transport;
+    private final ClusterWorkload workload;
+    private final int nodeCount;
+    private final int payloadSize;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram reElectionTimes = new LatencyHistogram();
+    private final LatencyHistogram rejoinTimes = new LatencyHistogram();
+    private volatile long expectedDeliveries = -1;
+    private volatile long formationTime = -1;
+    private volatile long workloadDuration;
+    private volatile int failedChurnRounds;
+    private volatile long heapUsedBeforeStart;
+    private volatile long heapUsedAfterFormation;
+    private volatile long heapUsedAfterWorkload;
+    private volatile int threadsAfterFormation;
+
+    public ClusterLoadReport(ClusterTransport transport, ClusterWorkload workload, int nodeCount, int payloadSize) {
+        this.transport = transport;
+        this.workload = workload;
+        this.nodeCount = nodeCount;
+        this.payloadSize = payloadSize;
+    }
+
+    /**
+     * Records a message delivered to a subscriber.
+     *
+     * @param latencyMicros the time between publishing and delivery
+     */
+    protected void onDelivered(long latencyMicros) {
+        delivered.incrementAndGet();
+        latency.record(latencyMicros);
+    }
+
+    /**
+     * Records a publish attempt.
+     *
+     * @param accepted true, if the channel accepted the message, false if it's queue was full
+     */
+    protected void onPublished(boolean accepted) {
+        if (accepted) {
+            published.incrementAndGet();
+        } else {
+            rejected.incrementAndGet();
+        }
+    }
+
+    protected void setExpectedDeliveries(long expectedDeliveries) {
+        this.expectedDeliveries = expectedDeliveries;
+    }
+
+    protected void setFormationTime(long formationTime) {
+        this.formationTime = formationTime;
+    }
+
+    protected void setWorkloadDuration(long workloadDuration) {
+        this.workloadDuration = workloadDuration;
+    }
+
+    protected void onChurnRound(long reElectionTime, long rejoinTime) {
+        reElectionTimes.record(reElectionTime);
+        rejoinTimes.record(rejoinTime);
+    }
+
+    protected void onChurnRoundFailed() {
+        failedChurnRounds++;
+    }
+
+    protected void setHeapUsedBeforeStart(long heapUsedBeforeStart) {
+        this.heapUsedBeforeStart = heapUsedBeforeStart;
+    }
+
+    protected void setHeapUsedAfterFormation(long heapUsedAfterFormation) {
+        this.heapUsedAfterFormation = heapUsedAfterFormation;
+    }
+
+    protected void setHeapUsedAfterWorkload(long heapUsedAfterWorkload) {
+        this.heapUsedAfterWorkload = heapUsedAfterWorkload;
+    }
+
+    protected void setThreadsAfterFormation(int threadsAfterFormation) {
+        this.threadsAfterFormation = threadsAfterFormation;
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the expected number of deliveries or -1, if unknown (i.e. while churning)
+     */
+    public long getExpectedDeliveries() {
+        return expectedDeliveries;
+    }
+
+    /**
+     * @return deliveries per second over the workload duration
+     */
+    public double getThroughput() {
+        return workloadDuration <= 0 ? 0 : delivered.get() * 1000d / workloadDuration;
+    }
+
+    /**
+     * @return the publish to delivery latency distribution in microseconds
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the time in milliseconds it took the initial kingdom to form or -1, if it did not form
+     */
+    public long getFormationTime() {
+        return formationTime;
+    }
+
+    /**
+     * @return the times in milliseconds the remaining nodes needed to form a kingdom after the king died
+     */
+    public LatencyHistogram getReElectionTimes() {
+        return reElectionTimes;
+    }
+
+    /**
+     * @return the times in milliseconds the killed king needed to rejoin the kingdom
+     */
+    public LatencyHistogram getRejoinTimes() {
+        return rejoinTimes;
+    }
+
+    public int getFailedChurnRounds() {
+        return failedChurnRounds;
+    }
+
+    /**
+     * @return the heap used by the started kingdom per node in bytes
+     */
+    public long getHeapPerNode() {
+        return (heapUsedAfterFormation - heapUsedBeforeStart) / Math.max(1, nodeCount);
+    }
+
+    /**
+     * @return this report as json
+     */
+    public String toJson() {
+        final Map<String, Object> json = new LinkedHashMap<>();
+        json.put("transport", transport.name());
+        json.put("workload", workload.name());
+        json.put("nodeCount", nodeCount);
+        json.put("payloadSize", payloadSize);
+        json.put("formationTimeMs", formationTime);
+        json.put("workloadDurationMs", workloadDuration);
+        json.put("published", getPublished());
+        json.put("rejected", getRejected());
+        json.put("delivered", getDelivered());
+        json.put("expectedDeliveries", expectedDeliveries);
+        json.put("throughputPerSecond", getThroughput());
+        json.put("latencyMicros", histogramToMap(latency));
+        json.put("reElectionTimeMs", histogramToMap(reElectionTimes));
+        json.put("rejoinTimeMs", histogramToMap(rejoinTimes));
+        json.put("failedChurnRounds", failedChurnRounds);
+        json.put("heapUsedBeforeStart", heapUsedBeforeStart);
+        json.put("heapUsedAfterFormation", heapUsedAfterFormation);
+        json.put("heapUsedAfterWorkload", heapUsedAfterWorkload);
+        json.put("heapPerNode", getHeapPerNode());
+        json.put("threadsAfterFormation", threadsAfterFormation);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(json);
+    }
+
+    private static Map<String, Object> histogramToMap(LatencyHistogram histogram) {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", histogram.getCount());
+        map.put("min", histogram.getMin());
+        map.put("mean", histogram.getMean());
+        map.put("p50", histogram.getPercentile(50));
+        map.put("p90", histogram.getPercentile(90));
+        map.put("p99", histogram.getPercentile(99));
+        map.put("p999", histogram.getPercentile(99.9));
+        map.put("max", histogram.getMax());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("ClusterLoadReport{");
+        sb.append("transport=").append(transport);
+        sb.append(", workload=").append(workload);
+        sb.append(", nodeCount=").append(nodeCount);
+        sb.append(", payloadSize=").append(payloadSize);
+        sb.append(", formationTimeMs=").append(formationTime);
+        sb.append(", published=").append(getPublished());
+        sb.append(", rejected=").append(getRejected());
+        sb.append(", delivered=").append(getDelivered());
+        sb.append(", expectedDeliveries=").append(expectedDeliveries);
+        sb.append(", throughput=").append(String.format("%.1f/s", getThroughput()));
+        sb.append(", latencyMicros=").append(latency);
+        sb.append(", reElectionTimeMs=").append(reElectionTimes);
+        sb.append(", rejoinTimeMs=").append(rejoinTimes);
+        sb.append(", failedChurnRounds=").append(failedChurnRounds);
+        sb.append(", heapPerNode=").append(getHeapPerNode());
+        sb.append(", threadsAfterFormation=").append(threadsAfterFormation);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package eu.hgross.blaubot.benchmark.cluster;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.BlaubotFactory;
+import eu.hgross.blaubot.ethernet.FixedDeviceSetHelper;
+import eu.hgross.blaubot.mock.BlaubotMockNetwork;
+
+/**
+ * The transports the {@link ClusterLoadHarness} can run a kingdom on.
+ */
+public enum ClusterTransport {
+    /**
+     * In-memory connections using a {@link BlaubotMockNetwork}
+     */
+    MOCK {
+        @Override
+        public List<Blaubot> createNodes(UUID appUuid, int nodeCount, int basePort) {
+            final BlaubotMockNetwork network = new BlaubotMockNetwork();
+            final List<Blaubot> nodes = new ArrayList<>();
+            for (int i = 0; i < nodeCount; i++) {
+                nodes.add(network.createBlaubot(appUuid, createUniqueDeviceId(i)));
+            }
+            return nodes;
+        }
+    },
+    /**
+     * Sockets on the loopback interface using the ethernet adapter and the fixed device set beacon.
+     * Each node uses two ports (acceptor and beacon) starting at the base port.
+     */
+    ETHERNET {
+        @Override
+        public List<Blaubot> createNodes(UUID appUuid, int nodeCount, int basePort) throws UnknownHostException {
+            final InetAddress loopback = InetAddress.getByName("127.0.0.1");
+            final Set<String> fixedDevicesSet = new HashSet<>();
+            for (int i = 0; i < nodeCount; i++) {
+                fixedDevicesSet.add(FixedDeviceSetHelper.createFixedDeviceSetConfigString(loopback, acceptorPort(basePort, i), beaconPort(basePort, i)));
+            }
+            final List<Blaubot> nodes = new ArrayList<>();
+            for (int i = 0; i < nodeCount; i++) {
+                final int acceptorPort = acceptorPort(basePort, i);
+                final int beaconPort = beaconPort(basePort, i);
+                final String uniqueDeviceId = FixedDeviceSetHelper.createFixedDeviceSetConfigString(loopback, acceptorPort, beaconPort);
+                nodes.add(BlaubotFactory.createEthernetBlaubotWithFixedDevicesBeacon(appUuid, new BlaubotDevice(uniqueDeviceId), acceptorPort, beaconPort, loopback, fixedDevicesSet));
+            }
+            return nodes;
+        }
+    };
+
+    /**
+     * Creates (but does not start) the blaubot instances of a kingdom.
+     *
+     * @param appUuid the app uuid shared by all nodes
+     * @param nodeCount the number of nodes
+     * @param basePort the first port to use (ignored by transports not using ports)
+     * @return the created nodes
+     * @throws UnknownHostException if the loopback address can not be resolved
+     */
+    public abstract List<Blaubot> createNodes(UUID appUuid, int nodeCount, int basePort) throws UnknownHostException;
+
+    private static String createUniqueDeviceId(int nodeIndex) {
+        return String.format("node-%04d", nodeIndex);
+    }
+
+    private static int acceptorPort(int basePort, int nodeIndex) {
+        return basePort + nodeIndex * 2;
+    }
+
+    private static int beaconPort(int basePort, int nodeIndex) {
+        return basePort + nodeIndex * 2 + 1;
+    }
+}
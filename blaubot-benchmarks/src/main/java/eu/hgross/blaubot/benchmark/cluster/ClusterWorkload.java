@@ -0,0 +1,20 @@
+package eu.hgross.blaubot.benchmark.cluster;
+
+/**
+ * The scripted workloads of the {@link ClusterLoadHarness}.
+ */
+public enum ClusterWorkload {
+    /**
+     * One peasant publishes, all other nodes are subscribed to the channel.
+     */
+    BROADCAST_FAN_OUT,
+    /**
+     * All peasants publish, only the king is subscribed to the channel.
+     */
+    MANY_TO_ONE,
+    /**
+     * One node publishes to all other nodes while the king is repeatedly stopped and restarted.
+     * Measures the time the remaining nodes need to elect a new king and the time the old king needs to rejoin.
+     */
+    CHURN
+}
@@ -0,0 +1,237 @@
+package eu.hgross.blaubot.benchmark.election;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import eu.hgross.blaubot.core.statemachine.PrinceSelector;
+
+/**
+ * Simulates the failovers of a kingdom to compare the link quality aware prince selection
+ * ({@link PrinceSelector}) with the former selection by the greatest unique device id.
+ *
+ * Each trial creates a kingdom of peasants with random links (rtt, bandwidth) and a random flakiness (the
+ * probability to be disconnected in an epoch). The king observes the peasants for some epochs (disconnects,
+ * measured rtts and bandwidths with noise) and keeps its prince. Then the king fails: the failover succeeds,
+ * if the prince is connected in that moment, and the kingdom continues with the prince's bandwidth.
+ *
+ * Usage (all arguments are optional):
+ *      PrinceSelectionSimulation --peasants 20 --trials 1000 --epochs 60 --seed 1
+ *
+ * The report is printed and written as JSON to the file defined by the system property blaubot.election.result
+ * (defaults to blaubot-election-report.json).
+ */
+public class PrinceSelectionSimulation {
+    /**
+     * The system property to define the result file
+     */
+    public static final String RESULT_FILE_PROPERTY = "blaubot.election.result";
+    private static final String DEFAULT_RESULT_FILE = "blaubot-election-report.json";
+    /**
+     * The simulated time of an epoch in ms
+     */
+    private static final long EPOCH_DURATION = 5000;
+    /**
+     * Relative noise of the measured rtts and bandwidths
+     */
+    private static final double MEASUREMENT_NOISE = 0.2;
+
+    private int peasantCount = 20;
+    private int trialCount = 1000;
+    private int epochCount = 60;
+    private long seed = 1;
+
+    private static class Peasant {
+        private String uniqueDeviceId;
+        private long rtt;
+        private double bandwidth;
+        private double flakiness;
+        private boolean connected = true;
+    }
+
+    private static class Result {
+        private int successfulFailovers = 0;
+        private double postFailoverBandwidth = 0;
+        private int princeChanges = 0;
+
+        private Map<String, Object> toMap(int trials) {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("failoverSuccessRate", (double) successfulFailovers / trials);
+            map.put("meanPostFailoverBandwidth", successfulFailovers > 0 ? postFailoverBandwidth / successfulFailovers : 0);
+            map.put("meanPrinceChanges", (double) princeChanges / trials);
+            return map;
+        }
+    }
+
+    public PrinceSelectionSimulation setPeasantCount(int peasantCount) {
+        if (peasantCount < 1) {
+            throw new IllegalArgumentException("At least one peasant is needed.");
+        }
+        this.peasantCount = peasantCount;
+        return this;
+    }
+
+    public PrinceSelectionSimulation setTrialCount(int trialCount) {
+        this.trialCount = trialCount;
+        return this;
+    }
+
+    public PrinceSelectionSimulation setEpochCount(int epochCount) {
+        this.epochCount = epochCount;
+        return this;
+    }
+
+    public PrinceSelectionSimulation setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Runs the trials.
+     *
+     * @return the report as json compatible map
+     */
+    public Map<String, Object> run() {
+        final Random random = new Random(seed);
+        final Result scored = new Result();
+        final Result byId = new Result();
+        for (int trial = 0; trial < trialCount; trial++) {
+            final List<Peasant> peasants = createPeasants(random);
+            final Map<String, Peasant> peasantsById = new HashMap<>();
+            for (Peasant peasant : peasants) {
+                peasantsById.put(peasant.uniqueDeviceId, peasant);
+            }
+            final Map<String, Double> measuredRtts = new HashMap<>();
+            final Map<String, Double> measuredBandwidths = new HashMap<>();
+            final PrinceSelector selector = new PrinceSelector(new PrinceSelector.ILinkStatistics() {
+                @Override
+                public long getRtt(String uniqueDeviceId) {
+                    final Double rtt = measuredRtts.get(uniqueDeviceId);
+                    return rtt != null ? rtt.longValue() : 0;
+                }
+
+                @Override
+                public double getBandwidth(String uniqueDeviceId) {
+                    final Double bandwidth = measuredBandwidths.get(uniqueDeviceId);
+                    return bandwidth != null ? bandwidth : 0;
+                }
+            });
+
+            String scoredPrince = null;
+            String idPrince = null;
+            long now = 0;
+            for (Peasant peasant : peasants) {
+                selector.onConnected(peasant.uniqueDeviceId, now);
+            }
+            for (int epoch = 0; epoch < epochCount; epoch++) {
+                now += EPOCH_DURATION;
+                final List<String> connected = new ArrayList<>();
+                for (Peasant peasant : peasants) {
+                    final boolean wasConnected = peasant.connected;
+                    peasant.connected = random.nextDouble() >= peasant.flakiness;
+                    if (wasConnected && !peasant.connected) {
+                        selector.onDisconnected(peasant.uniqueDeviceId, now);
+                    } else if (!wasConnected && peasant.connected) {
+                        selector.onConnected(peasant.uniqueDeviceId, now);
+                    }
+                    if (peasant.connected) {
+                        connected.add(peasant.uniqueDeviceId);
+                        measuredRtts.put(peasant.uniqueDeviceId, peasant.rtt * noise(random));
+                        measuredBandwidths.put(peasant.uniqueDeviceId, peasant.bandwidth * noise(random));
+                    } else {
+                        measuredRtts.remove(peasant.uniqueDeviceId);
+                        measuredBandwidths.remove(peasant.uniqueDeviceId);
+                    }
+                }
+
+                final String newScoredPrince = selector.select(connected, connected.contains(scoredPrince) ? scoredPrince : null, now);
+                if (scoredPrince != null && newScoredPrince != null && !newScoredPrince.equals(scoredPrince)) {
+                    scored.princeChanges += 1;
+                }
+                scoredPrince = newScoredPrince;
+
+                final String newIdPrince = connected.isEmpty() ? null : Collections.max(connected);
+                if (idPrince != null && newIdPrince != null && !newIdPrince.equals(idPrince)) {
+                    byId.princeChanges += 1;
+                }
+                idPrince = newIdPrince;
+            }
+
+            // the king fails, the prince has to be there to take over
+            evaluateFailover(peasantsById.get(scoredPrince), random, scored);
+            evaluateFailover(peasantsById.get(idPrince), random, byId);
+        }
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("peasants", peasantCount);
+        report.put("trials", trialCount);
+        report.put("epochs", epochCount);
+        report.put("seed", seed);
+        report.put("linkQualitySelection", scored.toMap(trialCount));
+        report.put("deviceIdSelection", byId.toMap(trialCount));
+        return report;
+    }
+
+    private void evaluateFailover(Peasant prince, Random random, Result result) {
+        if (prince == null || random.nextDouble() < prince.flakiness) {
+            return;
+        }
+        result.successfulFailovers += 1;
+        result.postFailoverBandwidth += prince.bandwidth;
+    }
+
+    private List<Peasant> createPeasants(Random random) {
+        final List<Peasant> peasants = new ArrayList<>();
+        for (int i = 0; i < peasantCount; i++) {
+            final Peasant peasant = new Peasant();
+            peasant.uniqueDeviceId = String.format("Device-%08x", random.nextInt());
+            // 5 to 300 ms, 16 KB/s to 2 MB/s, 0 to 30% flakiness
+            peasant.rtt = (long) (5000000L * Math.pow(60, random.nextDouble()));
+            peasant.bandwidth = 16 * 1024 * Math.pow(128, random.nextDouble());
+            peasant.flakiness = 0.3 * random.nextDouble() * random.nextDouble();
+            peasants.add(peasant);
+        }
+        return peasants;
+    }
+
+    private static double noise(Random random) {
+        return 1 + MEASUREMENT_NOISE * (2 * random.nextDouble() - 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final PrinceSelectionSimulation simulation = new PrinceSelectionSimulation();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--peasants":
+                    simulation.setPeasantCount(Integer.parseInt(value));
+                    break;
+                case "--trials":
+                    simulation.setTrialCount(Integer.parseInt(value));
+                    break;
+                case "--epochs":
+                    simulation.setEpochCount(Integer.parseInt(value));
+                    break;
+                case "--seed":
+                    simulation.setSeed(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        final String json = new GsonBuilder().setPrettyPrinting().create().toJson(simulation.run());
+        System.out.println(json);
+        try (FileWriter writer = new FileWriter(System.getProperty(RESULT_FILE_PROPERTY, DEFAULT_RESULT_FILE))) {
+            writer.write(json);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package eu.hgross.blaubot.benchmark.rpc;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.GsonBuilder;
+
+import eu.hgross.blaubot.benchmark.cluster.ClusterTransport;
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotSubordinatedState;
+import eu.hgross.blaubot.core.statemachine.states.KingState;
+import eu.hgross.blaubot.rpc.BlaubotRpc;
+import eu.hgross.blaubot.rpc.IRpcHandler;
+import eu.hgross.blaubot.rpc.IRpcResponseListener;
+import eu.hgross.blaubot.rpc.RpcException;
+import eu.hgross.blaubot.rpc.RpcRequest;
+import eu.hgross.blaubot.util.LatencyHistogram;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Starts a kingdom of N Blaubot instances inside one JVM and lets all peasants call an echo method on the king
+ * via {@link BlaubotRpc}. Each caller keeps a fixed number of calls outstanding and issues the next call as soon
+ * as a response arrives (closed loop), so the throughput is limited by the round trip time.
+ *
+ * Usage (all arguments are optional):
+ *      RpcBenchmark --transport MOCK|ETHERNET --nodes 5 --payload 128 --concurrency 16 --duration 10000
+ *                   --timeout 5000 --inboxChannels 16 --basePort 17000
+ *
+ * The report contains the call throughput, the round trip latency percentiles (in microseconds) and the number of
+ * failed and timed out calls. It is printed and written as JSON to the file defined by the system property
+ * blaubot.rpc.result (defaults to blaubot-rpc-report.json).
+ */
+public class RpcBenchmark {
+    private static final String LOG_TAG = "RpcBenchmark";
+    /**
+     * The system property to define the result file
+     */
+    public static final String RESULT_FILE_PROPERTY = "blaubot.rpc.result";
+    private static final String DEFAULT_RESULT_FILE = "blaubot-rpc-report.json";
+    private static final short FIRST_INBOX_CHANNEL_ID = 100;
+    private static final short ECHO_METHOD = 1;
+    private static final long POLL_INTERVAL = 100;
+
+    private ClusterTransport transport = ClusterTransport.MOCK;
+    private int nodeCount = 5;
+    private int payloadSize = 128;
+    private int concurrency = 16;
+    private long duration = 10000;
+    private long callTimeout = 5000;
+    private int inboxChannelCount = 16;
+    private int basePort = 17000;
+    private long formationTimeout = 120000;
+    private long settleTime = 2000;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong completedCalls = new AtomicLong(0);
+    private final AtomicLong failedCalls = new AtomicLong(0);
+    private final AtomicLong timedOutCalls = new AtomicLong(0);
+    private volatile boolean calling;
+
+    public RpcBenchmark setTransport(ClusterTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * @param nodeCount the number of nodes of the kingdom (king included)
+     * @return this benchmark
+     */
+    public RpcBenchmark setNodeCount(int nodeCount) {
+        if (nodeCount < 2) {
+            throw new IllegalArgumentException("A kingdom needs at least 2 nodes.");
+        }
+        this.nodeCount = nodeCount;
+        return this;
+    }
+
+    /**
+     * @param payloadSize the size of the request and response payloads in bytes
+     * @return this benchmark
+     */
+    public RpcBenchmark setPayloadSize(int payloadSize) {
+        this.payloadSize = Math.max(0, payloadSize);
+        return this;
+    }
+
+    /**
+     * @param concurrency the number of outstanding calls per caller
+     * @return this benchmark
+     */
+    public RpcBenchmark setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one call has to be outstanding.");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param duration the time to issue calls in ms
+     * @return this benchmark
+     */
+    public RpcBenchmark setDuration(long duration) {
+        this.duration = duration;
+        return this;
+    }
+
+    /**
+     * @param callTimeout the timeout of each call in ms
+     * @return this benchmark
+     */
+    public RpcBenchmark setCallTimeout(long callTimeout) {
+        this.callTimeout = callTimeout;
+        return this;
+    }
+
+    /**
+     * @param inboxChannelCount the number of inbox channels of the rpc endpoints
+     * @return this benchmark
+     */
+    public RpcBenchmark setInboxChannelCount(int inboxChannelCount) {
+        this.inboxChannelCount = inboxChannelCount;
+        return this;
+    }
+
+    /**
+     * @param basePort the first port used by the ETHERNET transport, each node uses two ports
+     * @return this benchmark
+     */
+    public RpcBenchmark setBasePort(int basePort) {
+        this.basePort = basePort;
+        return this;
+    }
+
+    /**
+     * Starts the kingdom, runs the calls and stops the kingdom.
+     *
+     * @return the report
+     * @throws IOException if the nodes could not be created
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Map<String, Object> run() throws IOException, InterruptedException {
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("transport", transport.name());
+        report.put("nodeCount", nodeCount);
+        report.put("payloadSize", payloadSize);
+        report.put("concurrency", concurrency);
+        report.put("inboxChannels", inboxChannelCount);
+
+        final List<Blaubot> nodes = transport.createNodes(UUID.randomUUID(), nodeCount, basePort);
+        final List<BlaubotRpc> endpoints = new ArrayList<>();
+        try {
+            for (Blaubot node : nodes) {
+                node.startBlaubot();
+            }
+            if (!awaitKingdom(nodes)) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "The kingdom did not form within " + formationTimeout + " ms.");
+                }
+                return report;
+            }
+
+            final Blaubot king = findKing(nodes);
+            final String kingUniqueDeviceId = king.getOwnDevice().getUniqueDeviceID();
+            final List<BlaubotRpc> callers = new ArrayList<>();
+            for (Blaubot node : nodes) {
+                final BlaubotRpc rpc = new BlaubotRpc(node.getChannelManager(), FIRST_INBOX_CHANNEL_ID, inboxChannelCount);
+                rpc.open();
+                endpoints.add(rpc);
+                if (node == king) {
+                    rpc.registerHandler(ECHO_METHOD, new IRpcHandler() {
+                        @Override
+                        public void onRequest(RpcRequest request) {
+                            request.reply(request.getPayload());
+                        }
+                    });
+                } else {
+                    callers.add(rpc);
+                }
+            }
+            // let the subscriptions to the inboxes propagate
+            Thread.sleep(settleTime);
+
+            final byte[] payload = new byte[payloadSize];
+            calling = true;
+            final long startTime = System.nanoTime();
+            for (BlaubotRpc caller : callers) {
+                for (int i = 0; i < concurrency; i++) {
+                    call(caller, kingUniqueDeviceId, payload);
+                }
+            }
+            Thread.sleep(duration);
+            calling = false;
+            final long elapsed = System.nanoTime() - startTime;
+            final long completed = completedCalls.get();
+
+            // let the outstanding calls complete or time out
+            final long deadline = System.currentTimeMillis() + callTimeout + POLL_INTERVAL;
+            while (System.currentTimeMillis() < deadline && getPendingCallCount(callers) > 0) {
+                Thread.sleep(POLL_INTERVAL);
+            }
+
+            report.put("durationMs", TimeUnit.NANOSECONDS.toMillis(elapsed));
+            report.put("completedCalls", completed);
+            report.put("callsPerSecond", completed * 1e9 / elapsed);
+            report.put("failedCalls", failedCalls.get());
+            report.put("timedOutCalls", timedOutCalls.get());
+            report.put("pendingCallsAfterDrain", getPendingCallCount(callers));
+            report.put("latencyMicros", histogramToMap(latency));
+        } finally {
+            for (BlaubotRpc rpc : endpoints) {
+                rpc.close();
+            }
+            for (Blaubot node : nodes) {
+                try {
+                    node.close();
+                } catch (IOException e) {
+                    if (Log.logWarningMessages()) {
+                        Log.w(LOG_TAG, "Failed to close " + node + " (" + e.getMessage() + ")");
+                    }
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Issues a call and the next one, when it completed.
+     */
+    private void call(final BlaubotRpc caller, final String kingUniqueDeviceId, final byte[] payload) {
+        if (!calling) {
+            return;
+        }
+        final long callTime = System.nanoTime();
+        caller.call(kingUniqueDeviceId, ECHO_METHOD, payload, callTimeout).addListener(new IRpcResponseListener<byte[]>() {
+            @Override
+            public void onResponse(byte[] response) {
+                latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - callTime));
+                if (calling) {
+                    completedCalls.incrementAndGet();
+                }
+                call(caller, kingUniqueDeviceId, payload);
+            }
+
+            @Override
+            public void onFailure(RpcException exception) {
+                if (exception.getReason() == RpcException.Reason.TIMEOUT) {
+                    timedOutCalls.incrementAndGet();
+                } else {
+                    failedCalls.incrementAndGet();
+                }
+                call(caller, kingUniqueDeviceId, payload);
+            }
+        });
+    }
+
+    private static int getPendingCallCount(List<BlaubotRpc> callers) {
+        int pending = 0;
+        for (BlaubotRpc caller : callers) {
+            pending += caller.getPendingCallCount();
+        }
+        return pending;
+    }
+
+    private static Map<String, Object> histogramToMap(LatencyHistogram histogram) {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", histogram.getCount());
+        map.put("min", histogram.getMin());
+        map.put("mean", histogram.getMean());
+        map.put("p50", histogram.getPercentile(50));
+        map.put("p90", histogram.getPercentile(90));
+        map.put("p99", histogram.getPercentile(99));
+        map.put("p999", histogram.getPercentile(99.9));
+        map.put("max", histogram.getMax());
+        return map;
+    }
+
+    /**
+     * Waits until the given nodes form exactly one kingdom.
+     *
+     * @param nodes the nodes
+     * @return true, if the kingdom formed within the formation timeout
+     * @throws InterruptedException if interrupted
+     */
+    private boolean awaitKingdom(List<Blaubot> nodes) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + formationTimeout;
+        while (System.currentTimeMillis() < deadline) {
+            if (isKingdom(nodes)) {
+                return true;
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+        return false;
+    }
+
+    /**
+     * @param nodes the nodes
+     * @return true, if exactly one of the nodes is king and all other nodes are connected to it
+     */
+    private static boolean isKingdom(List<Blaubot> nodes) {
+        final Blaubot king = findKing(nodes);
+        if (king == null) {
+            return false;
+        }
+        final String kingUniqueId = king.getOwnDevice().getUniqueDeviceID();
+        for (Blaubot node : nodes) {
+            if (node == king) {
+                continue;
+            }
+            final IBlaubotState state = node.getConnectionStateMachine().getCurrentState();
+            if (!(state instanceof IBlaubotSubordinatedState) || !kingUniqueId.equals(((IBlaubotSubordinatedState) state).getKingUniqueId())) {
+                return false;
+            }
+        }
+        return king.getConnectionManager().getConnectedDevices().size() >= nodes.size() - 1;
+    }
+
+    /**
+     * @param nodes the nodes
+     * @return the only node in KingState or null, if there is no or more than one king
+     */
+    private static Blaubot findKing(List<Blaubot> nodes) {
+        Blaubot king = null;
+        for (Blaubot node : nodes) {
+            if (node.getConnectionStateMachine().getCurrentState() instanceof KingState) {
+                if (king != null) {
+                    return null;
+                }
+                king = node;
+            }
+        }
+        return king;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final RpcBenchmark benchmark = new RpcBenchmark();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--transport":
+                    benchmark.setTransport(ClusterTransport.valueOf(value.toUpperCase()));
+                    break;
+                case "--nodes":
+                    benchmark.setNodeCount(Integer.parseInt(value));
+                    break;
+                case "--payload":
+                    benchmark.setPayloadSize(Integer.parseInt(value));
+                    break;
+                case "--concurrency":
+                    benchmark.setConcurrency(Integer.parseInt(value));
+                    break;
+                case "--duration":
+                    benchmark.setDuration(Long.parseLong(value));
+                    break;
+                case "--timeout":
+                    benchmark.setCallTimeout(Long.parseLong(value));
+                    break;
+                case "--inboxChannels":
+                    benchmark.setInboxChannelCount(Integer.parseInt(value));
+                    break;
+                case "--basePort":
+                    benchmark.setBasePort(Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        final String json = new GsonBuilder().setPrettyPrinting().create().toJson(benchmark.run());
+        System.out.println(json);
+        try (FileWriter writer = new FileWriter(System.getProperty(RESULT_FILE_PROPERTY, DEFAULT_RESULT_FILE))) {
+            writer.write(json);
+        }
+        // some blaubot components use non daemon threads
+        System.exit(0);
+    }
+}
@@ -0,0 +1,291 @@
+package eu.hgross.blaubot.benchmark.server;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.BlaubotKingdom;
+import eu.hgross.blaubot.core.BlaubotKingdomConnection;
+import eu.hgross.blaubot.core.BlaubotServer;
+import eu.hgross.blaubot.core.BlaubotServerMetrics;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.IBlaubotServerLifeCycleListener;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.mock.AdapterMock;
+import eu.hgross.blaubot.mock.BlaubotConnectionAcceptorMock;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Connects N mock kingdoms to one BlaubotServer inside one JVM and reports the time to connect and
+ * disconnect them as well as the heap and threads used per kingdom.
+ *
+ * The kings are only represented by their kingdom connections (in-memory connection pairs), which send the
+ * handshake and one keep alive, so the measured resources are those of the server side.
+ *
+ * Usage (all arguments are optional):
+ *      ServerSoakHarness --kingdoms 10000 --channels 1 --messages 0 --timeout 600000
+ *
+ * The channels are created on each kingdom's channel manager when the kingdom connects.
+ * With --messages each king sends that many messages on channel 1 after all kingdoms connected, while the
+ * server's metrics (@see {BlaubotServerMetrics}) are scraped. The report contains the scrape times and checks the
+ * scraped kingdom count and received messages against the load.
+ * The report is printed and written as JSON to the file defined by the system property blaubot.server.result
+ * (defaults to blaubot-server-report.json).
+ *
+ * 10000 kingdoms need about 20000 threads, so the process' thread limit has to be high enough and the
+ * thread stack size should be reduced (e.g. -Xss256k).
+ */
+public class ServerSoakHarness {
+    private static final String LOG_TAG = "ServerSoakHarness";
+    /**
+     * The system property to define the result file
+     */
+    public static final String RESULT_FILE_PROPERTY = "blaubot.server.result";
+    private static final String DEFAULT_RESULT_FILE = "blaubot-server-report.json";
+    private static final long POLL_INTERVAL = 100;
+
+    private int kingdomCount = 10000;
+    private int channelCount = 1;
+    private int messageCount = 0;
+    private long timeout = 600000;
+
+    /**
+     * @param kingdomCount the number of kingdoms to connect
+     * @return this harness
+     */
+    public ServerSoakHarness setKingdomCount(int kingdomCount) {
+        if (kingdomCount < 1) {
+            throw new IllegalArgumentException("At least one kingdom is needed.");
+        }
+        this.kingdomCount = kingdomCount;
+        return this;
+    }
+
+    /**
+     * @param channelCount the number of channels to create for each kingdom
+     * @return this harness
+     */
+    public ServerSoakHarness setChannelCount(int channelCount) {
+        this.channelCount = channelCount;
+        return this;
+    }
+
+    /**
+     * @param messageCount the number of messages each king sends while the metrics are scraped
+     * @return this harness
+     */
+    public ServerSoakHarness setMessageCount(int messageCount) {
+        this.messageCount = messageCount;
+        return this;
+    }
+
+    /**
+     * @param timeout the max time in ms to wait for all kingdoms to connect (and disconnect)
+     * @return this harness
+     */
+    public ServerSoakHarness setTimeout(long timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Starts the server, connects the kingdoms, measures and stops the server.
+     *
+     * @return the report as json compatible map
+     * @throws IOException if a handshake could not be written
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Map<String, Object> run() throws IOException, InterruptedException {
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("kingdoms", kingdomCount);
+        report.put("channelsPerKingdom", channelCount);
+
+        final IBlaubotDevice serverDevice = new BlaubotDevice("SoakServer");
+        final BlaubotConnectionAcceptorMock acceptor = (BlaubotConnectionAcceptorMock) new AdapterMock().getConnectionAcceptor();
+        final BlaubotServer server = new BlaubotServer(serverDevice, acceptor);
+        server.addServerLifeCycleListener(new IBlaubotServerLifeCycleListener() {
+            @Override
+            public void onKingdomConnected(BlaubotKingdom kingdom) {
+                for (short channelId = 1; channelId <= channelCount; channelId++) {
+                    kingdom.getChannelManager().createOrGetChannel(channelId);
+                }
+            }
+
+            @Override
+            public void onKingdomDisconnected(BlaubotKingdom kingdom) {
+            }
+        });
+        server.startBlaubotServer();
+
+        final long heapBefore = getUsedHeap();
+        final int threadsBefore = Thread.activeCount();
+
+        final BlaubotMessage keepAlive = new BlaubotMessage();
+        keepAlive.getMessageType().setIsAdminMessage(false).setIsKeepAliveMessage(true).setContainsPayload(false).setIsFirstHop(false);
+        final byte[] keepAliveBytes = keepAlive.toBytes();
+
+        final List<BlaubotKingdomConnection> kingConnections = new ArrayList<>(kingdomCount);
+        final long connectStart = System.currentTimeMillis();
+        for (int i = 0; i < kingdomCount; i++) {
+            final String kingUniqueDeviceId = "King-" + i;
+            final BlaubotConnectionQueueMock serverSide = new BlaubotConnectionQueueMock(new BlaubotDevice(kingUniqueDeviceId));
+            final BlaubotConnectionQueueMock kingSide = serverSide.getOtherEndpointConnection(serverDevice);
+            // the first write sends the handshake
+            final BlaubotKingdomConnection kingConnection = BlaubotKingdomConnection.createFromOutboundConnection(kingSide, kingUniqueDeviceId);
+            kingConnection.write(keepAliveBytes);
+            kingConnections.add(kingConnection);
+            acceptor.mockNewConnection(serverSide);
+        }
+        final boolean allConnected = awaitKingdomCount(server, kingdomCount);
+        final long connectTime = System.currentTimeMillis() - connectStart;
+        report.put("connected", server.getKingdomCount());
+        report.put("connectTime", allConnected ? connectTime : -1);
+
+        final long heapAfter = getUsedHeap();
+        final int threadsAfter = Thread.activeCount();
+        report.put("heapUsedBefore", heapBefore);
+        report.put("heapUsedConnected", heapAfter);
+        report.put("heapPerKingdom", (heapAfter - heapBefore) / kingdomCount);
+        report.put("threadsBefore", threadsBefore);
+        report.put("threadsConnected", threadsAfter);
+        report.put("threadsPerKingdom", (double) (threadsAfter - threadsBefore) / kingdomCount);
+
+        if (messageCount > 0) {
+            scrapeUnderLoad(server.getMetrics(), kingConnections, report);
+        }
+
+        final long disconnectStart = System.currentTimeMillis();
+        server.stopBlaubotServer();
+        final boolean allDisconnected = awaitKingdomCount(server, 0);
+        report.put("disconnectTime", allDisconnected ? System.currentTimeMillis() - disconnectStart : -1);
+        return report;
+    }
+
+    /**
+     * Sends the messages of all kings and scrapes the metrics until the server received all of them.
+     */
+    private void scrapeUnderLoad(BlaubotServerMetrics metrics, List<BlaubotKingdomConnection> kingConnections, Map<String, Object> report) throws IOException, InterruptedException {
+        // as dispatched by a king
+        final BlaubotMessage message = new BlaubotMessage();
+        message.getMessageType().setIsFirstHop(false);
+        message.setPayload(new byte[64]);
+        final byte[] messageBytes = message.toBytes();
+        final long expectedMessages = (long) messageCount * kingConnections.size();
+
+        final long loadStart = System.currentTimeMillis();
+        final long deadline = loadStart + timeout;
+        int scrapes = 0;
+        long scrapeNanos = 0;
+        long maxScrapeNanos = 0;
+        String scrape = "";
+        for (int sent = 0; ; ) {
+            // interleave sending and scraping
+            for (int i = 0; i < 10 && sent < messageCount; i++, sent++) {
+                for (BlaubotKingdomConnection kingConnection : kingConnections) {
+                    kingConnection.write(messageBytes);
+                }
+            }
+            final long start = System.nanoTime();
+            scrape = metrics.scrape();
+            final long nanos = System.nanoTime() - start;
+            scrapes += 1;
+            scrapeNanos += nanos;
+            maxScrapeNanos = Math.max(maxScrapeNanos, nanos);
+            if (sent >= messageCount && sumOf(scrape, "blaubot_kingdom_received_messages_total") >= expectedMessages) {
+                break;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "The server did not receive " + expectedMessages + " messages within " + timeout + " ms");
+                }
+                break;
+            }
+            if (sent >= messageCount) {
+                Thread.sleep(POLL_INTERVAL);
+            }
+        }
+        report.put("messagesPerKingdom", messageCount);
+        report.put("loadTime", System.currentTimeMillis() - loadStart);
+        report.put("scrapes", scrapes);
+        report.put("scrapeTimeMeanMs", scrapeNanos / scrapes / 1000000d);
+        report.put("scrapeTimeMaxMs", maxScrapeNanos / 1000000d);
+        report.put("scrapeSize", scrape.length());
+        report.put("scrapedKingdoms", sumOf(scrape, "blaubot_server_kingdoms"));
+        // the keep alives are counted as well
+        report.put("scrapedReceivedMessages", sumOf(scrape, "blaubot_kingdom_received_messages_total"));
+        report.put("expectedReceivedMessages", expectedMessages);
+    }
+
+    /**
+     * Sums the values of all samples of a metric in a scrape.
+     */
+    private static long sumOf(String scrape, String metricName) {
+        long sum = 0;
+        for (String line : scrape.split("\n")) {
+            if (line.startsWith(metricName + " ") || line.startsWith(metricName + "{")) {
+                sum += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+            }
+        }
+        return sum;
+    }
+
+    private boolean awaitKingdomCount(BlaubotServer server, int expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (server.getKingdomCount() != expected) {
+            if (System.currentTimeMillis() > deadline) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "Expected " + expected + " kingdoms within " + timeout + " ms but got " + server.getKingdomCount());
+                }
+                return false;
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+        return true;
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        Thread.sleep(POLL_INTERVAL);
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final ServerSoakHarness harness = new ServerSoakHarness();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--kingdoms":
+                    harness.setKingdomCount(Integer.parseInt(value));
+                    break;
+                case "--channels":
+                    harness.setChannelCount(Integer.parseInt(value));
+                    break;
+                case "--messages":
+                    harness.setMessageCount(Integer.parseInt(value));
+                    break;
+                case "--timeout":
+                    harness.setTimeout(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        final String json = new GsonBuilder().setPrettyPrinting().create().toJson(harness.run());
+        System.out.println(json);
+        try (FileWriter writer = new FileWriter(System.getProperty(RESULT_FILE_PROPERTY, DEFAULT_RESULT_FILE))) {
+            writer.write(json);
+        }
+        // some blaubot components use non daemon threads
+        System.exit(0);
+    }
+}
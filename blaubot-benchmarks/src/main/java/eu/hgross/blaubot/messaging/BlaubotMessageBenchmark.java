@@ -0,0 +1,67 @@
+package eu.hgross.blaubot.messaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization and deserialization of BlaubotMessages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlaubotMessageBenchmark {
+    /**
+     * The payload size in bytes (has to be smaller than BlaubotConstants.MAX_PAYLOAD_SIZE)
+     */
+    @Param({"0", "64", "1024", "16384", "65000"})
+    public int payloadSize;
+
+    /**
+     * If true, the message carries a trace extension
+     */
+    @Param({"false", "true"})
+    public boolean traced;
+
+    private BlaubotMessage message;
+    private byte[] serializedMessage;
+
+    @Setup
+    public void setUp() {
+        final byte[] payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        message = new BlaubotMessage();
+        message.setChannelId((short) 1);
+        message.setPayload(payload);
+        if (traced) {
+            final MessageTrace trace = new MessageTrace();
+            trace.stamp(MessageTrace.TracePoint.PUBLISHED);
+            message.setTrace(trace);
+        }
+        serializedMessage = message.toBytes();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return message.toBytes();
+    }
+
+    @Benchmark
+    public BlaubotMessage decode() {
+        return BlaubotMessage.fromByteArray(serializedMessage);
+    }
+}
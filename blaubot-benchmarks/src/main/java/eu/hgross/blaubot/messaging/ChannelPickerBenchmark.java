@@ -0,0 +1,95 @@
+package eu.hgross.blaubot.messaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures publishing bursts of messages to a number of channel queues and picking them with
+ * the channel's message picker strategy (like the BlaubotChannel's queue processor does).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelPickerBenchmark {
+    /**
+     * The number of distinct keys (entities) published for CONFLATE_BY_KEY
+     */
+    private static final int CONFLATION_KEYS = 8;
+
+    @Param({"PROCESS_ALL", "DISCARD_OLD", "DISCARD_NEW", "CONFLATE_BY_KEY"})
+    public BlaubotChannelConfig.MessagePickerStrategy strategy;
+
+    /**
+     * The number of channels to publish to and pick from
+     */
+    @Param({"1", "16", "128"})
+    public int channelCount;
+
+    /**
+     * The number of messages published to each channel before picking
+     */
+    @Param({"1", "50"})
+    public int burstSize;
+
+    @Param({"64", "4096"})
+    public int payloadSize;
+
+    private BlaubotChannelConfig[] channelConfigs;
+    private BlockingQueue<BlaubotMessage>[] queues;
+    private byte[] payload;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        payload = new byte[payloadSize];
+        channelConfigs = new BlaubotChannelConfig[channelCount];
+        queues = new BlockingQueue[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            channelConfigs[i] = new BlaubotChannelConfig((short) i).setMessagePickerStrategy(strategy);
+            if (strategy == BlaubotChannelConfig.MessagePickerStrategy.CONFLATE_BY_KEY) {
+                queues[i] = new ConflatingMessageQueue(channelConfigs[i].getQueueCapacity(), channelConfigs[i]);
+            } else {
+                queues[i] = new ArrayBlockingQueue<>(channelConfigs[i].getQueueCapacity());
+            }
+        }
+    }
+
+    @Benchmark
+    public void publishAndPick(Blackhole blackhole) {
+        for (int i = 0; i < channelCount; i++) {
+            final BlaubotChannelConfig config = channelConfigs[i];
+            final BlockingQueue<BlaubotMessage> queue = queues[i];
+            for (int j = 0; j < burstSize; j++) {
+                final BlaubotMessage message = new BlaubotMessage();
+                message.setPayload(payload);
+                message.setChannelId(config.getChannelId());
+                message.setPriority(config.getPriority());
+                message.setConflationKey(j % CONFLATION_KEYS);
+                queue.offer(message);
+            }
+
+            // pick until the queue is empty (the pickers would block for POLL_TIMEOUT on an empty queue)
+            final IBlaubotMessagePickerStrategy picker = config.getMessagePicker();
+            while (!queue.isEmpty()) {
+                blackhole.consume(picker.pickNextMessage(queue));
+            }
+        }
+    }
+}
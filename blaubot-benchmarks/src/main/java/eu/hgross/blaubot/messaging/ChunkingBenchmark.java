@@ -0,0 +1,62 @@
+package eu.hgross.blaubot.messaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the chunking of big messages and the reassembly of chunks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkingBenchmark {
+    /**
+     * The payload size in bytes of the message to be chunked
+     */
+    @Param({"100000", "1000000", "10000000"})
+    public int payloadSize;
+
+    private BlaubotMessage message;
+    private List<BlaubotMessage> chunks;
+
+    @Setup
+    public void setUp() {
+        final byte[] payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        message = new BlaubotMessage();
+        message.setChannelId((short) 1);
+        message.setPayload(payload);
+        chunks = message.createChunks((short) 1);
+        // the receiver side does not get the chunks in order necessarily
+        Collections.shuffle(chunks, new Random(42));
+    }
+
+    @Benchmark
+    public List<BlaubotMessage> createChunks() {
+        return message.createChunks((short) 1);
+    }
+
+    @Benchmark
+    public BlaubotMessage fromChunks() {
+        // fromChunks sorts the given list
+        return BlaubotMessage.fromChunks(new ArrayList<>(chunks));
+    }
+}
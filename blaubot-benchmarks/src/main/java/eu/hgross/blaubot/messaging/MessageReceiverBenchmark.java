@@ -0,0 +1,91 @@
+package eu.hgross.blaubot.messaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.mock.BlaubotConnectionFrameQueueMock;
+
+/**
+ * Measures the time a BlaubotMessageReceiver needs to read a (chunked) message from a connection
+ * until the reassembled message is handed to the listeners.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageReceiverBenchmark {
+    /**
+     * The payload size of the received message. Messages bigger than BlaubotConstants.MAX_PAYLOAD_SIZE
+     * are received as chunks.
+     */
+    @Param({"1024", "100000", "1000000"})
+    public int payloadSize;
+
+    private BlaubotConnectionFrameQueueMock connection;
+    private BlaubotMessageReceiver receiver;
+    private List<byte[]> frames;
+    private final Semaphore receivedMessages = new Semaphore(0);
+
+    @Setup
+    public void setUp() {
+        final byte[] payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        final BlaubotMessage message = new BlaubotMessage();
+        message.setChannelId((short) 1);
+        message.setPayload(payload);
+
+        // serialize the message like a BlaubotMessageSender would do
+        frames = new ArrayList<>();
+        if (payloadSize > BlaubotConstants.MAX_PAYLOAD_SIZE) {
+            for (BlaubotMessage chunk : message.createChunks((short) 1)) {
+                frames.add(chunk.toBytes());
+            }
+        } else {
+            frames.add(message.toBytes());
+        }
+
+        connection = new BlaubotConnectionFrameQueueMock(new BlaubotDevice("benchmark"));
+        receiver = new BlaubotMessageReceiver(connection);
+        receiver.addMessageListener(new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage message) {
+                receivedMessages.release();
+            }
+        });
+        receiver.activate();
+    }
+
+    @TearDown
+    public void tearDown() {
+        receiver.deactivate(null);
+        connection.disconnect();
+    }
+
+    @Benchmark
+    public void receiveMessage() throws InterruptedException {
+        for (byte[] frame : frames) {
+            connection.feed(frame);
+        }
+        receivedMessages.acquire();
+    }
+}
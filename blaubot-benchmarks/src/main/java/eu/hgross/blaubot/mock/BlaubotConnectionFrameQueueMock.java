@@ -0,0 +1,128 @@
+package eu.hgross.blaubot.mock;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import eu.hgross.blaubot.core.AbstractBlaubotConnection;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+
+/**
+ * Mock connection for benchmarks which queues whole byte arrays (frames) instead of single bytes
+ * like the {@link BlaubotConnectionQueueMock}, so that the connection itself does not dominate
+ * the measured times.
+ *
+ * Data fed by {@link #feed(byte[])} can be retrieved via the read*() methods.
+ * Written data is discarded.
+ */
+public class BlaubotConnectionFrameQueueMock extends AbstractBlaubotConnection {
+    private static final byte[] DISCONNECT_FRAME = new byte[0];
+    private final LinkedBlockingQueue<byte[]> frames;
+    private final IBlaubotDevice remoteDevice;
+    private volatile boolean connected = true;
+    private byte[] currentFrame;
+    private int currentFramePosition;
+
+    public BlaubotConnectionFrameQueueMock(IBlaubotDevice remoteDevice) {
+        this.remoteDevice = remoteDevice;
+        this.frames = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     * Adds data to be read from this connection.
+     * @param frame the data
+     */
+    public void feed(byte[] frame) {
+        frames.add(frame);
+    }
+
+    @Override
+    public void disconnect() {
+        if (!connected) {
+            return;
+        }
+        connected = false;
+        frames.add(DISCONNECT_FRAME);
+        notifyDisconnected();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public IBlaubotDevice getRemoteDevice() {
+        return remoteDevice;
+    }
+
+    @Override
+    public void write(int b) throws SocketTimeoutException, IOException {
+        assertConnected();
+    }
+
+    @Override
+    public void write(byte[] bytes) throws SocketTimeoutException, IOException {
+        assertConnected();
+    }
+
+    @Override
+    public void write(byte[] bytes, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
+        assertConnected();
+    }
+
+    @Override
+    public int read() throws SocketTimeoutException, IOException {
+        final byte[] b = new byte[1];
+        readFully(b, 0, 1);
+        return b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer) throws SocketTimeoutException, IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
+        if (byteCount == 0) {
+            return 0;
+        }
+        nextFrameIfNeeded();
+        final int toCopy = Math.min(byteCount, currentFrame.length - currentFramePosition);
+        System.arraycopy(currentFrame, currentFramePosition, buffer, byteOffset, toCopy);
+        currentFramePosition += toCopy;
+        return toCopy;
+    }
+
+    @Override
+    public void readFully(byte[] buffer) throws SocketTimeoutException, IOException {
+        readFully(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void readFully(byte[] buffer, int offset, int byteCount) throws SocketTimeoutException, IOException {
+        int read = 0;
+        while (read < byteCount) {
+            read += read(buffer, offset + read, byteCount - read);
+        }
+    }
+
+    private void nextFrameIfNeeded() throws IOException {
+        while (currentFrame == null || currentFramePosition >= currentFrame.length) {
+            assertConnected();
+            try {
+                currentFrame = frames.take();
+                currentFramePosition = 0;
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for data", e);
+            }
+        }
+    }
+
+    private void assertConnected() throws IOException {
+        if (!connected) {
+            throw new IOException("not connected");
+        }
+    }
+}
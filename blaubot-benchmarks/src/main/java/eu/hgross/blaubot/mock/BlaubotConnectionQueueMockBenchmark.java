@@ -0,0 +1,77 @@
+package eu.hgross.blaubot.mock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+
+/**
+ * Measures the throughput of a pair of BlaubotConnectionQueueMocks as used for the king's own
+ * connection and the mock adapters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlaubotConnectionQueueMockBenchmark {
+    @Param({"64", "1024", "65000"})
+    public int payloadSize;
+
+    private BlaubotConnectionQueueMock sendingConnection;
+    private BlaubotConnectionQueueMock receivingConnection;
+    private byte[] data;
+    private byte[] readBuffer;
+    private BlaubotMessage message;
+
+    @Setup
+    public void setUp() {
+        final BlaubotDevice device = new BlaubotDevice("benchmark");
+        sendingConnection = new BlaubotConnectionQueueMock(device);
+        receivingConnection = sendingConnection.getOtherEndpointConnection(device);
+        data = new byte[payloadSize];
+        readBuffer = new byte[payloadSize];
+        message = new BlaubotMessage();
+        message.setPayload(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sendingConnection.disconnect();
+        receivingConnection.disconnect();
+    }
+
+    /**
+     * Writes raw bytes to one end and reads them from the other end.
+     */
+    @Benchmark
+    public byte[] writeAndReadBytes() throws IOException {
+        sendingConnection.write(data);
+        receivingConnection.readFully(readBuffer);
+        return readBuffer;
+    }
+
+    /**
+     * Writes a serialized message to one end and reads it as BlaubotMessage from the other end.
+     */
+    @Benchmark
+    public BlaubotMessage writeAndReadMessage() throws IOException {
+        sendingConnection.write(message.toBytes());
+        return BlaubotMessage.readFromBlaubotConnection(receivingConnection);
+    }
+}
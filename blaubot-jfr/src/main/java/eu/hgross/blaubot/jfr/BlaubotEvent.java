@@ -0,0 +1,14 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.StackTrace;
+
+/**
+ * The base of the Blaubot flight recorder events.
+ * The events are recorded without stack traces to keep the high frequency messaging events cheap.
+ */
+@Category("Blaubot")
+@StackTrace(false)
+abstract class BlaubotEvent extends Event {
+}
@@ -0,0 +1,32 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("eu.hgross.blaubot.ChunkReassembly")
+@Label("Chunk Reassembly")
+@Description("The chunks of a message were received completely and reassembled")
+@Category({"Blaubot", "Messaging"})
+class ChunkReassemblyEvent extends BlaubotEvent {
+    @Label("Remote Device")
+    String remoteDevice;
+
+    @Label("Channel Id")
+    short channelId;
+
+    @Label("Chunks")
+    int chunks;
+
+    @Label("Payload Size")
+    @DataAmount
+    int payloadSize;
+
+    @Label("Reassembly Time")
+    @Description("The time from receiving the first chunk to the reassembled message")
+    @Timespan
+    long reassemblyTime;
+}
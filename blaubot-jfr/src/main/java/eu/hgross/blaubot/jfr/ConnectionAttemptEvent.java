@@ -0,0 +1,27 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("eu.hgross.blaubot.ConnectionAttempt")
+@Label("Connection Attempt")
+@Description("A device tried to connect to a remote device with retries")
+@Category({"Blaubot", "Cluster"})
+class ConnectionAttemptEvent extends BlaubotEvent {
+    @Label("Remote Device")
+    String remoteDevice;
+
+    @Label("Attempts")
+    int attempts;
+
+    @Label("Connected")
+    boolean connected;
+
+    @Label("Connect Time")
+    @Description("The time of all attempts including the backoff")
+    @Timespan
+    long connectTime;
+}
@@ -0,0 +1,18 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("eu.hgross.blaubot.ConnectionEstablished")
+@Label("Connection Established")
+@Description("An incoming or outgoing connection was established")
+@Category({"Blaubot", "Cluster"})
+class ConnectionEstablishedEvent extends BlaubotEvent {
+    @Label("Remote Device")
+    String remoteDevice;
+
+    @Label("Connection Type")
+    String connectionType;
+}
@@ -0,0 +1,22 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("eu.hgross.blaubot.ElectionPhase")
+@Label("Election Phase")
+@Description("A phase of the king election or prince selection was passed")
+@Category({"Blaubot", "Cluster"})
+class ElectionPhaseEvent extends BlaubotEvent {
+    @Label("Device")
+    String device;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Other Device")
+    @Description("The greater or smaller free device, the king or the prince")
+    String otherDevice;
+}
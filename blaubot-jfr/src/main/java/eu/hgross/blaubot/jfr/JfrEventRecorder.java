@@ -0,0 +1,167 @@
+package eu.hgross.blaubot.jfr;
+
+import eu.hgross.blaubot.util.BlaubotEvents;
+import eu.hgross.blaubot.util.IBlaubotEventRecorder;
+
+/**
+ * Records the Blaubot events as Java Flight Recorder events (category Blaubot), so that latency spikes can be
+ * correlated with channels, devices and cluster events in one recording.
+ *
+ * The recorder is enabled by register() or by the system property blaubot.events.recorder:
+ *
+ *     -Dblaubot.events.recorder=eu.hgross.blaubot.jfr.JfrEventRecorder -XX:StartFlightRecording=filename=blaubot.jfr
+ *
+ * Events are only committed while a recording with the event enabled is running. Otherwise the (not escaping)
+ * event objects are eliminated by the JIT and only the enabled check remains.
+ */
+public class JfrEventRecorder implements IBlaubotEventRecorder {
+
+    /**
+     * Sets a JfrEventRecorder as the recorder of the Blaubot events.
+     */
+    public static void register() {
+        BlaubotEvents.setRecorder(new JfrEventRecorder());
+    }
+
+    /**
+     * Disables the recording of the Blaubot events.
+     */
+    public static void unregister() {
+        if (BlaubotEvents.getRecorder() instanceof JfrEventRecorder) {
+            BlaubotEvents.setRecorder(null);
+        }
+    }
+
+    @Override
+    public void onMessagePublished(short channelId, int payloadSize, boolean accepted, int queueSize) {
+        final MessagePublishEvent event = new MessagePublishEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.channelId = channelId;
+        event.payloadSize = payloadSize;
+        event.accepted = accepted;
+        event.queueSize = queueSize;
+        event.commit();
+    }
+
+    @Override
+    public void onMessageSent(String remoteDeviceId, short channelId, int size, boolean chunk, long queueWaitNanos, long writeNanos) {
+        final MessageSendEvent event = new MessageSendEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.remoteDevice = remoteDeviceId;
+        event.channelId = channelId;
+        event.size = size;
+        event.chunk = chunk;
+        event.queueWait = queueWaitNanos;
+        event.writeTime = writeNanos;
+        event.commit();
+    }
+
+    @Override
+    public void onMessageReceived(String remoteDeviceId, short channelId, int payloadSize, boolean chunk) {
+        final MessageReceiveEvent event = new MessageReceiveEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.remoteDevice = remoteDeviceId;
+        event.channelId = channelId;
+        event.payloadSize = payloadSize;
+        event.chunk = chunk;
+        event.commit();
+    }
+
+    @Override
+    public void onChunksReassembled(String remoteDeviceId, short channelId, int chunks, int payloadSize, long reassemblyNanos) {
+        final ChunkReassemblyEvent event = new ChunkReassemblyEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.remoteDevice = remoteDeviceId;
+        event.channelId = channelId;
+        event.chunks = chunks;
+        event.payloadSize = payloadSize;
+        event.reassemblyTime = reassemblyNanos;
+        event.commit();
+    }
+
+    @Override
+    public void onMessageDispatched(short channelId, int payloadSize, int recipients, boolean byKing, long dispatchNanos) {
+        final MessageDispatchEvent event = new MessageDispatchEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.channelId = channelId;
+        event.payloadSize = payloadSize;
+        event.recipients = recipients;
+        event.byKing = byKing;
+        event.dispatchTime = dispatchNanos;
+        event.commit();
+    }
+
+    @Override
+    public void onStateChanged(String ownDeviceId, String oldState, String newState, long timeInOldStateNanos, long transitionNanos) {
+        final StateTransitionEvent event = new StateTransitionEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.device = ownDeviceId;
+        event.oldState = oldState;
+        event.newState = newState;
+        event.timeInOldState = timeInOldStateNanos;
+        event.transitionTime = transitionNanos;
+        event.commit();
+    }
+
+    @Override
+    public void onElectionPhase(String ownDeviceId, ElectionPhase phase, String otherDeviceId) {
+        final ElectionPhaseEvent event = new ElectionPhaseEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.device = ownDeviceId;
+        event.phase = phase.name();
+        event.otherDevice = otherDeviceId;
+        event.commit();
+    }
+
+    @Override
+    public void onKingdomMerge(String ownDeviceId, String otherKingDeviceId, boolean joined, int peasants, long mergeNanos) {
+        final KingdomMergeEvent event = new KingdomMergeEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.device = ownDeviceId;
+        event.otherKing = otherKingDeviceId;
+        event.joined = joined;
+        event.peasants = peasants;
+        event.mergeTime = mergeNanos;
+        event.commit();
+    }
+
+    @Override
+    public void onConnectionAttempt(String remoteDeviceId, int attempts, boolean connected, long connectNanos) {
+        final ConnectionAttemptEvent event = new ConnectionAttemptEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.remoteDevice = remoteDeviceId;
+        event.attempts = attempts;
+        event.connected = connected;
+        event.connectTime = connectNanos;
+        event.commit();
+    }
+
+    @Override
+    public void onConnectionEstablished(String remoteDeviceId, String connectionType) {
+        final ConnectionEstablishedEvent event = new ConnectionEstablishedEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.remoteDevice = remoteDeviceId;
+        event.connectionType = connectionType;
+        event.commit();
+    }
+}
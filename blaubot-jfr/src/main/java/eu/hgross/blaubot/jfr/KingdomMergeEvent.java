@@ -0,0 +1,31 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("eu.hgross.blaubot.KingdomMerge")
+@Label("Kingdom Merge")
+@Description("A king tried to join a greater king and commanded its peasants to follow")
+@Category({"Blaubot", "Cluster"})
+class KingdomMergeEvent extends BlaubotEvent {
+    @Label("Device")
+    String device;
+
+    @Label("Other King")
+    String otherKing;
+
+    @Label("Joined")
+    @Description("False, if the connection to the other king failed")
+    boolean joined;
+
+    @Label("Peasants")
+    @Description("The number of peasants commanded to bow down")
+    int peasants;
+
+    @Label("Merge Time")
+    @Timespan
+    long mergeTime;
+}
@@ -0,0 +1,33 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("eu.hgross.blaubot.MessageDispatch")
+@Label("Message Dispatch")
+@Description("A message was dispatched by the king to the channel's subscribers or locally to the channel's listeners")
+@Category({"Blaubot", "Messaging"})
+class MessageDispatchEvent extends BlaubotEvent {
+    @Label("Channel Id")
+    short channelId;
+
+    @Label("Payload Size")
+    @DataAmount
+    int payloadSize;
+
+    @Label("Recipients")
+    @Description("The number of subscribers the king sent the message to or the number of local listeners")
+    int recipients;
+
+    @Label("By King")
+    boolean byKing;
+
+    @Label("Dispatch Time")
+    @Description("The time the dispatching including the listeners took")
+    @Timespan
+    long dispatchTime;
+}
@@ -0,0 +1,28 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("eu.hgross.blaubot.MessagePublish")
+@Label("Message Publish")
+@Description("A message was published to a channel's queue")
+@Category({"Blaubot", "Messaging"})
+class MessagePublishEvent extends BlaubotEvent {
+    @Label("Channel Id")
+    short channelId;
+
+    @Label("Payload Size")
+    @DataAmount
+    int payloadSize;
+
+    @Label("Accepted")
+    @Description("False, if the channel's queue rejected the message")
+    boolean accepted;
+
+    @Label("Queue Size")
+    @Description("The number of queued messages of the channel after publishing")
+    int queueSize;
+}
@@ -0,0 +1,26 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("eu.hgross.blaubot.MessageReceive")
+@Label("Message Receive")
+@Description("A message was read from a connection")
+@Category({"Blaubot", "Messaging"})
+class MessageReceiveEvent extends BlaubotEvent {
+    @Label("Remote Device")
+    String remoteDevice;
+
+    @Label("Channel Id")
+    short channelId;
+
+    @Label("Payload Size")
+    @DataAmount
+    int payloadSize;
+
+    @Label("Chunk")
+    boolean chunk;
+}
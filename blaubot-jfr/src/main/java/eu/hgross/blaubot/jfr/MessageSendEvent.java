@@ -0,0 +1,37 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("eu.hgross.blaubot.MessageSend")
+@Label("Message Send")
+@Description("A message was written to a connection")
+@Category({"Blaubot", "Messaging"})
+class MessageSendEvent extends BlaubotEvent {
+    @Label("Remote Device")
+    String remoteDevice;
+
+    @Label("Channel Id")
+    short channelId;
+
+    @Label("Size")
+    @Description("The written bytes including the header")
+    @DataAmount
+    int size;
+
+    @Label("Chunk")
+    boolean chunk;
+
+    @Label("Queue Wait")
+    @Description("The time from publishing or receiving the message on this device to the write")
+    @Timespan
+    long queueWait;
+
+    @Label("Write Time")
+    @Timespan
+    long writeTime;
+}
@@ -0,0 +1,31 @@
+package eu.hgross.blaubot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("eu.hgross.blaubot.StateTransition")
+@Label("State Transition")
+@Description("The connection state machine changed its state")
+@Category({"Blaubot", "Cluster"})
+class StateTransitionEvent extends BlaubotEvent {
+    @Label("Device")
+    String device;
+
+    @Label("Old State")
+    String oldState;
+
+    @Label("New State")
+    String newState;
+
+    @Label("Time In Old State")
+    @Timespan
+    long timeInOldState;
+
+    @Label("Transition Time")
+    @Description("The time handling the new state and notifying the listeners took")
+    @Timespan
+    long transitionTime;
+}
@@ -4,6 +4,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import eu.hgross.blaubot.core.BlaubotServerMetrics;
 import eu.hgross.blaubot.core.IBlaubotAdapter;
 import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
@@ -55,6 +56,12 @@ public class BlaubotWebsocketAcceptor implements IBlaubotConnectionAcceptor {
     private Channel currentChannel;
     private final Object startStopMonitor = new Object();
 
+    /**
+     * The metrics served over http or null, if the metrics endpoint is disabled
+     */
+    private volatile BlaubotServerMetrics metrics;
+    private volatile String metricsPath;
+
     public BlaubotWebsocketAcceptor(IBlaubotAdapter adapter, String hostAddress, int acceptorPort) {
         this.adapter = adapter;
         this.acceptorPort = acceptorPort;
@@ -191,6 +198,21 @@ public class BlaubotWebsocketAcceptor implements IBlaubotConnectionAcceptor {
         this.incomingConnectionListener.set(acceptorListener);
     }
 
+    /**
+     * Serves the metrics of a BlaubotServer in the Prometheus text format for GET requests to the given path
+     * on the acceptor's port. Applies to connections accepted afterwards.
+     *
+     * @param path the path, i.e. /metrics, must differ from the websocket path
+     * @param metrics the server's metrics (@see {BlaubotServer#getMetrics}) or null to disable the endpoint
+     */
+    public void setMetricsEndpoint(String path, BlaubotServerMetrics metrics) {
+        if (metrics != null && BlaubotWebsocketAdapter.WEBSOCKET_PATH.equals(path)) {
+            throw new IllegalArgumentException("The metrics path must differ from the websocket path " + BlaubotWebsocketAdapter.WEBSOCKET_PATH);
+        }
+        this.metricsPath = path;
+        this.metrics = metrics;
+    }
+
     @Override
     public ConnectionMetaDataDTO getConnectionMetaData() {
         return new WebsocketConnectionMetaDataDTO(hostAddress, BlaubotWebsocketAdapter.WEBSOCKET_PATH, acceptorPort);
@@ -214,6 +236,10 @@ public class BlaubotWebsocketAcceptor implements IBlaubotConnectionAcceptor {
             }
             pipeline.addLast(new HttpServerCodec());
             pipeline.addLast(new HttpObjectAggregator(65536));
+            final BlaubotServerMetrics serverMetrics = metrics;
+            if (serverMetrics != null) {
+                pipeline.addLast(new MetricsHttpHandler(metricsPath, serverMetrics));
+            }
             pipeline.addLast(new WebsocketServerHandler(incomingConnectionListener));
         }
     }
@@ -0,0 +1,73 @@
+package eu.hgross.blaubot.websocket;
+
+import eu.hgross.blaubot.core.BlaubotServerMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpResponseStatus.METHOD_NOT_ALLOWED;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Serves the BlaubotServerMetrics for GET requests to the metrics path and passes all other messages,
+ * i.e. the websocket handshakes and frames, to the next handler.
+ * Used in the acceptor, if a metrics endpoint was set.
+ */
+public class MetricsHttpHandler extends ChannelInboundHandlerAdapter {
+    private final String path;
+    private final BlaubotServerMetrics metrics;
+
+    /**
+     * @param path the path to serve the metrics on, i.e. /metrics
+     * @param metrics the metrics
+     */
+    public MetricsHttpHandler(String path, BlaubotServerMetrics metrics) {
+        this.path = path;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof FullHttpRequest) || !path.equals(new QueryStringDecoder(((FullHttpRequest) msg).getUri()).path())) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        final FullHttpRequest req = (FullHttpRequest) msg;
+        try {
+            if (req.getMethod() != GET) {
+                sendResponse(ctx, req, new DefaultFullHttpResponse(HTTP_1_1, METHOD_NOT_ALLOWED));
+                return;
+            }
+            final ByteBuf content = Unpooled.copiedBuffer(metrics.scrape(), CharsetUtil.UTF_8);
+            final FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, content);
+            res.headers().set(HttpHeaders.Names.CONTENT_TYPE, BlaubotServerMetrics.CONTENT_TYPE);
+            sendResponse(ctx, req, res);
+        } finally {
+            ReferenceCountUtil.release(req);
+        }
+    }
+
+    private static void sendResponse(ChannelHandlerContext ctx, FullHttpRequest req, FullHttpResponse res) {
+        HttpHeaders.setContentLength(res, res.content().readableBytes());
+        final boolean keepAlive = HttpHeaders.isKeepAlive(req) && res.getStatus().code() == 200;
+        if (keepAlive) {
+            HttpHeaders.setKeepAlive(res, true);
+        }
+        final ChannelFuture f = ctx.channel().writeAndFlush(res);
+        if (!keepAlive) {
+            f.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}